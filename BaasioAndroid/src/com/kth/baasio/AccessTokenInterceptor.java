@@ -0,0 +1,35 @@
+
+package com.kth.baasio;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.IOException;
+
+/**
+ * Sends a request shared by identical calls with the access token of the
+ * calls. The client sets Authorization header from the token it has now,
+ * which changes when another user logs in while the request waits.
+ */
+class AccessTokenInterceptor implements ClientHttpRequestInterceptor {
+
+    private static final String HEADER_AUTHORIZATION = "Authorization";
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body,
+            ClientHttpRequestExecution execution) throws IOException {
+        if (Baasio.isAccessTokenPinned()) {
+            HttpHeaders headers = request.getHeaders();
+            String token = Baasio.getInstance().getAccessToken();
+            if (token != null) {
+                headers.set(HEADER_AUTHORIZATION, "Bearer " + token);
+            } else {
+                headers.remove(HEADER_AUTHORIZATION);
+            }
+        }
+        return execution.execute(request, body);
+    }
+}
@@ -1,32 +1,64 @@
 
 package com.kth.baasio;
 
+import static com.kth.common.utils.LogUtils.LOGD;
 import static com.kth.common.utils.LogUtils.LOGE;
 import static com.kth.common.utils.LogUtils.makeLogTag;
 import static java.net.URLEncoder.encode;
-import static org.usergrid.java.client.utils.JsonUtils.parse;
 import static org.usergrid.java.client.utils.ObjectUtils.isEmpty;
 import static org.usergrid.java.client.utils.UrlUtils.path;
 
+import com.kth.baasio.batch.BatchExecutor;
+import com.kth.baasio.batch.BatchResponse;
+import com.kth.baasio.batch.BatchResponseCallback;
+import com.kth.baasio.cache.ResponseCache;
 import com.kth.baasio.callback.ApiResponseProgressCallback;
 import com.kth.baasio.callback.ClientProgressAsyncTask;
 import com.kth.baasio.callback.FileEntityWidthProgress;
 import com.kth.baasio.callback.ProgressInfo;
 import com.kth.baasio.callback.ProgressListener;
+import com.kth.baasio.circuit.CircuitOpenException;
+import com.kth.baasio.circuit.Endpoint;
+import com.kth.baasio.json.JsonCodec;
+import com.kth.baasio.metrics.BaasioMetrics;
+import com.kth.baasio.metrics.Metrics;
+import com.kth.baasio.metrics.MetricsInterceptor;
+import com.kth.baasio.metrics.RequestTrace;
+import com.kth.baasio.offline.Outbox;
 import com.kth.baasio.preferences.BaasPreferences;
+import com.kth.baasio.preferences.SessionSnapshot;
+import com.kth.baasio.query.EntityCursor;
+import com.kth.baasio.retry.ExponentialBackoffPolicy;
+import com.kth.baasio.retry.Retrier;
+import com.kth.baasio.retry.RetryAfterInterceptor;
+import com.kth.baasio.retry.RetryAsyncTask;
+import com.kth.baasio.retry.RetryPolicy;
+import com.kth.baasio.ssl.CompressionInterceptor;
 import com.kth.baasio.ssl.HttpUtils;
-
-import org.apache.http.Header;
+import com.kth.baasio.transfer.AdaptiveBufferPolicy;
+import com.kth.baasio.transfer.BufferPool;
+import com.kth.baasio.transfer.FileDigest;
+import com.kth.baasio.transfer.HttpStatusException;
+import com.kth.baasio.transfer.MimeResolver;
+import com.kth.baasio.transfer.RangeDownloader;
+import com.kth.baasio.transfer.ResumableUploader;
+import com.kth.baasio.transfer.TransferScheduler;
+import com.kth.baasio.transfer.UploadIndex;
+import com.kth.baasio.transfer.UploadJournal;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpResponse;
-import org.apache.http.ParseException;
+import org.apache.http.HttpStatus;
 import org.apache.http.StatusLine;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
-import org.apache.http.util.EntityUtils;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.codehaus.jackson.JsonNode;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.http.converter.ByteArrayHttpMessageConverter;
 import org.springframework.http.converter.HttpMessageConverter;
@@ -35,30 +67,30 @@ import org.springframework.http.converter.StringHttpMessageConverter;
 import org.springframework.http.converter.json.MappingJacksonHttpMessageConverter;
 import org.springframework.http.converter.xml.SourceHttpMessageConverter;
 import org.springframework.http.converter.xml.XmlAwareFormHttpMessageConverter;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.ResourceAccessException;
 import org.usergrid.android.client.Client;
 import org.usergrid.android.client.callbacks.ApiResponseCallback;
 import org.usergrid.android.client.callbacks.ClientAsyncTask;
 import org.usergrid.java.client.entities.Entity;
 import org.usergrid.java.client.entities.User;
 import org.usergrid.java.client.response.ApiResponse;
-import org.usergrid.java.client.utils.JsonUtils;
 
 import android.content.Context;
 import android.os.Build;
-import android.webkit.MimeTypeMap;
+import android.os.SystemClock;
 
-import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URLDecoder;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -67,49 +99,234 @@ import javax.net.ssl.HttpsURLConnection;
 public class Baasio extends Client {
     private static final String TAG = makeLogTag(Baasio.class);
 
-    private static Baasio mSingleton;
+    public static final int MIN_BUFFER_SIZE = BufferPool.MIN_SIZE;
 
-    public static final int MIN_BUFFER_SIZE = 1024 * 4;
+    public static final int MAX_BUFFER_SIZE = BufferPool.MAX_SIZE;
 
     private static int mUploadBuffSize = MIN_BUFFER_SIZE;
 
     private static int mDownloadBuffSize = MIN_BUFFER_SIZE;
 
+    private static volatile boolean mUploadCompressionEnabled = false;
+
+    private static volatile boolean mUploadDedupEnabled = false;
+
+    private static volatile RetryPolicy mRetryPolicy = new ExponentialBackoffPolicy();
+
     private String[] mSenderIds;
 
+    private volatile ResponseCache mResponseCache;
+
+    private Context mContext;
+
+    private volatile boolean mUserRestored = true;
+
+    private static volatile boolean mJsonOnly = false;
+
+    private volatile boolean mRestTemplateReady = false;
+
+    private final long mCreatedAt;
+
+    /** callbacks waiting for a GET request in flight, by method and path */
+    private final Map<String, List<ApiResponseCallback>> mInFlightReads =
+            new HashMap<String, List<ApiResponseCallback>>();
+
+    /**
+     * Access token the requests of a thread are sent with, instead of the
+     * current one. An empty string stands for no token.
+     */
+    private static final ThreadLocal<String> mRequestToken = new ThreadLocal<String>();
+
     private Baasio() {
         super();
 
+        mCreatedAt = SystemClock.uptimeMillis();
+
         HttpURLConnection.setFollowRedirects(true);
         HttpsURLConnection.setFollowRedirects(true);
+    }
+
+    private static class SingletonHolder {
+        static final Baasio INSTANCE = new Baasio();
+    }
+
+    /**
+     * Get singleton instance
+     * 
+     * @return instance
+     */
+    public static Baasio getInstance() {
+        return SingletonHolder.INSTANCE;
+    }
+
+    /**
+     * Register only JSON, String and byte array message converters, instead
+     * of the full set including XML and form converters. It loads fewer
+     * classes on startup. Must be called before the first request.
+     * 
+     * @param jsonOnly true to register JSON converters only
+     * @return false if the converters are already registered
+     */
+    public static boolean setJsonOnly(boolean jsonOnly) {
+        if (SingletonHolder.INSTANCE.mRestTemplateReady) {
+            return false;
+        }
 
+        mJsonOnly = jsonOnly;
+        return true;
+    }
+
+    public static boolean isJsonOnly() {
+        return mJsonOnly;
+    }
+
+    /**
+     * Message converters and request factory are set up on the first request,
+     * not in getInstance().
+     */
+    private void ensureRestTemplate() {
+        if (mRestTemplateReady) {
+            return;
+        }
+
+        synchronized (this) {
+            if (mRestTemplateReady) {
+                return;
+            }
+
+            if (mJsonOnly) {
+                restTemplate.setMessageConverters(createJsonMessageConverters());
+            } else {
+                restTemplate.setMessageConverters(createMessageConverters());
+            }
+
+            if (Build.VERSION.SDK_INT < 9) {
+                restTemplate.setRequestFactory(new HttpComponentsClientHttpRequestFactory(
+                        HttpUtils.getHttpClient()));
+            }
+
+            List<ClientHttpRequestInterceptor> interceptors;
+            interceptors = new ArrayList<ClientHttpRequestInterceptor>();
+            interceptors.add(new AccessTokenInterceptor());
+            interceptors.add(new CompressionInterceptor());
+            interceptors.add(new RetryAfterInterceptor());
+            interceptors.add(new MetricsInterceptor());
+            restTemplate.setInterceptors(interceptors);
+
+            mRestTemplateReady = true;
+
+            LOGD(TAG, "First request " + (SystemClock.uptimeMillis() - mCreatedAt)
+                    + "ms after getInstance()");
+        }
+    }
+
+    private static List<HttpMessageConverter<?>> createJsonMessageConverters() {
+        List<HttpMessageConverter<?>> messageConverters = new ArrayList<HttpMessageConverter<?>>();
+        messageConverters.add(new ByteArrayHttpMessageConverter());
+        messageConverters.add(new StringHttpMessageConverter());
+        messageConverters.add(createJacksonMessageConverter());
+        return messageConverters;
+    }
+
+    // share the mapper, and the serializers it caches, with JsonCodec
+    private static MappingJacksonHttpMessageConverter createJacksonMessageConverter() {
+        MappingJacksonHttpMessageConverter converter = new MappingJacksonHttpMessageConverter();
+        converter.setObjectMapper(JsonCodec.getMapper());
+        return converter;
+    }
+
+    private static List<HttpMessageConverter<?>> createMessageConverters() {
         List<HttpMessageConverter<?>> messageConverters = new ArrayList<HttpMessageConverter<?>>();
         messageConverters.add(new ByteArrayHttpMessageConverter());
         messageConverters.add(new StringHttpMessageConverter());
         messageConverters.add(new ResourceHttpMessageConverter());
         messageConverters.add(new SourceHttpMessageConverter());
         messageConverters.add(new XmlAwareFormHttpMessageConverter());
-        messageConverters.add(new MappingJacksonHttpMessageConverter());
+        messageConverters.add(createJacksonMessageConverter());
+        return messageConverters;
+    }
+
+    /**
+     * Set the policy to retry failed API requests and file transfers. The
+     * default is {@link ExponentialBackoffPolicy}.
+     * 
+     * @param policy retry policy, or null not to retry
+     */
+    public static void setRetryPolicy(RetryPolicy policy) {
+        mRetryPolicy = policy;
+    }
 
-        restTemplate.setMessageConverters(messageConverters);
+    public static RetryPolicy getRetryPolicy() {
+        return mRetryPolicy;
+    }
+
+    @Override
+    public <T> T httpRequest(final HttpMethod method, final Class<T> cls,
+            final Map<String, Object> params, final Object data, final String... segments) {
+        ensureRestTemplate();
+
+        final Endpoint endpoint = Endpoint.of(segments);
+        Retrier.Attempt<T> attempt = new Retrier.Attempt<T>() {
+            @Override
+            public T run() {
+                Endpoint.Permit permit;
+                try {
+                    permit = endpoint.acquire();
+                } catch (CircuitOpenException e) {
+                    throw new ResourceAccessException(e.getMessage(), e);
+                }
+
+                boolean failed = true;
+                try {
+                    T result = Baasio.super.httpRequest(method, cls, params, data, segments);
+                    failed = false;
+                    return result;
+                } catch (HttpClientErrorException e) {
+                    failed = e.getStatusCode().value() == 429;
+                    throw e;
+                } finally {
+                    endpoint.release(permit, failed);
+                }
+            }
+        };
+
+        T result;
+        RequestTrace trace = Metrics.isEnabled() ? RequestTrace.begin() : null;
+        if (trace == null) {
+            result = Retrier.call(mRetryPolicy, method.name(), attempt);
+        } else {
+            long start = System.nanoTime();
+            try {
+                result = Retrier.call(mRetryPolicy, method.name(), attempt);
+            } finally {
+                trace.end();
+                Metrics.operation(BaasioMetrics.API_REQUEST, method.name(), trace.getStatus(),
+                        trace.getHeadersNanos(), System.nanoTime() - start,
+                        trace.getBytesOut(), trace.getBytesIn(), trace.getRetries());
+            }
+        }
 
-        if (Build.VERSION.SDK_INT < 9) {
-            restTemplate.setRequestFactory(new HttpComponentsClientHttpRequestFactory(HttpUtils
-                    .getNewHttpClient()));
+        if (method != HttpMethod.GET) {
+            invalidateCachedResponses(segments);
         }
+        return result;
     }
 
     /**
-     * Get singleton instance
-     * 
-     * @return instance
+     * Remove the cached responses a successful write may have changed: those
+     * of the collection, its queries and entities.
      */
-    public static Baasio getInstance() {
-        if (mSingleton == null) {
-            mSingleton = new Baasio();
+    private void invalidateCachedResponses(String... segments) {
+        ResponseCache cache = mResponseCache;
+        if (cache == null || segments.length == 0) {
+            return;
         }
 
-        return mSingleton;
+        // organization, application, collection
+        ArrayList<Object> list = new ArrayList<Object>();
+        list.add(getApiUrl());
+        list.addAll(Arrays.asList(segments).subList(0, Math.min(segments.length, 3)));
+        cache.invalidate(path(list.toArray()));
     }
 
     @Override
@@ -127,13 +344,16 @@ public class Baasio extends Client {
     }
 
     /**
-     * Set upload buffer size(byte)
+     * Set upload buffer size(byte). This is the initial size when adaptive
+     * buffer sizing is enabled. See {@link AdaptiveBufferPolicy}.
      * 
-     * @param uploadBuffSize upload buffer size
+     * @param uploadBuffSize upload buffer size. must be between MIN_BUFFER_SIZE
+     *            and MAX_BUFFER_SIZE.
      */
     public static boolean setUploadBuffSize(int uploadBuffSize) {
-        if (uploadBuffSize > MIN_BUFFER_SIZE) {
+        if (uploadBuffSize >= MIN_BUFFER_SIZE && uploadBuffSize <= MAX_BUFFER_SIZE) {
             Baasio.mUploadBuffSize = uploadBuffSize;
+            AdaptiveBufferPolicy.setBaseSize(AdaptiveBufferPolicy.UPLOAD, uploadBuffSize);
             return true;
         }
 
@@ -150,19 +370,55 @@ public class Baasio extends Client {
     }
 
     /**
-     * Set download buffer size(byte)
+     * Set download buffer size(byte). This is the initial size when adaptive
+     * buffer sizing is enabled. See {@link AdaptiveBufferPolicy}.
      * 
-     * @param downloadBuffSize download buffer size
+     * @param downloadBuffSize download buffer size. must be between
+     *            MIN_BUFFER_SIZE and MAX_BUFFER_SIZE.
      */
     public static boolean setDownloadBuffSize(int downloadBuffSize) {
-        if (downloadBuffSize > MIN_BUFFER_SIZE) {
+        if (downloadBuffSize >= MIN_BUFFER_SIZE && downloadBuffSize <= MAX_BUFFER_SIZE) {
             Baasio.mDownloadBuffSize = downloadBuffSize;
+            AdaptiveBufferPolicy.setBaseSize(AdaptiveBufferPolicy.DOWNLOAD, downloadBuffSize);
             return true;
         }
 
         return false;
     }
 
+    /**
+     * Enable gzip compression of uploaded files whose type is text-like, such
+     * as logs, JSON or CSV. Already compressed types are sent as they are.
+     * The server must accept Content-Encoding: gzip. Resumable uploads are not
+     * compressed.
+     * 
+     * @param enabled true to enable
+     */
+    public static void setUploadCompressionEnabled(boolean enabled) {
+        mUploadCompressionEnabled = enabled;
+    }
+
+    public static boolean isUploadCompressionEnabled() {
+        return mUploadCompressionEnabled;
+    }
+
+    /**
+     * Enable skipping uploads of content already stored. createFileAsync
+     * computes MD5 of the file, and if the same content was uploaded to the
+     * same destination and the file still exists on the server, returns it
+     * without uploading. The digest is also sent as Content-MD5 to check
+     * integrity of the upload. Requires {@link #init(Context, String, String, String)}.
+     * 
+     * @param enabled true to enable
+     */
+    public static void setUploadDedupEnabled(boolean enabled) {
+        mUploadDedupEnabled = enabled;
+    }
+
+    public static boolean isUploadDedupEnabled() {
+        return mUploadDedupEnabled;
+    }
+
     /**
      * Get GCM status return true is enabled, false is disabled.
      */
@@ -181,6 +437,26 @@ public class Baasio extends Client {
         return mSenderIds;
     }
 
+    /**
+     * Set cache of GET responses. Queries, device and quota information are
+     * read through the cache. Set null to disable.
+     * 
+     * @param cache response cache, for example
+     *            ResponseCache.create(context, 1024 * 1024)
+     */
+    public void setResponseCache(ResponseCache cache) {
+        mResponseCache = cache;
+    }
+
+    /**
+     * Get cache of GET responses.
+     * 
+     * @return response cache, or null if disabled
+     */
+    public ResponseCache getResponseCache() {
+        return mResponseCache;
+    }
+
     /**
      * Initialize baas client with GCM sender id. This will make GCM enabled.
      * 
@@ -228,17 +504,103 @@ public class Baasio extends Client {
 
         setLoggable(BuildConfig.DEBUG);
 
-        String accessToken = BaasPreferences.getAccessToken(context);
+        Context appContext = context.getApplicationContext();
+        mContext = appContext != null ? appContext : context;
+
+        String accessToken;
+        if (SessionSnapshot.exists(context)) {
+            accessToken = SessionSnapshot.readAccessToken(context);
+        } else {
+            accessToken = BaasPreferences.getAccessToken(context);
+        }
         if (!isEmpty(accessToken)) {
             setAccessToken(accessToken);
         }
 
-        String userInfo = BaasPreferences.getUserString(context);
-        if (!isEmpty(userInfo)) {
-            User user = JsonUtils.parse(userInfo, User.class);
+        // the logged-in user is restored on the first getLoggedInUser()
+        mUserRestored = false;
+    }
+
+    /**
+     * Get the logged-in user. The user saved by the last session is restored
+     * on the first call.
+     * 
+     * @return logged-in user, or null
+     */
+    @Override
+    public User getLoggedInUser() {
+        User user = super.getLoggedInUser();
+        if (user == null && !mUserRestored) {
+            synchronized (this) {
+                user = super.getLoggedInUser();
+                if (user == null && !mUserRestored) {
+                    user = restoreLoggedInUser();
+                    super.setLoggedInUser(user);
+                    mUserRestored = true;
+                }
+            }
+        }
+
+        return user;
+    }
+
+    /**
+     * @return uuid of the logged-in user, or null
+     */
+    private String getLoggedInUserUuid() {
+        User user = getLoggedInUser();
+        if (user == null || user.getUuid() == null) {
+            return null;
+        }
+        return user.getUuid().toString();
+    }
+
+    /**
+     * Get the access token. In a request shared by identical calls, this is
+     * the token of the calls, even if another user logged in since.
+     */
+    @Override
+    public String getAccessToken() {
+        String token = mRequestToken.get();
+        if (token == null) {
+            return super.getAccessToken();
+        }
+        return token.length() > 0 ? token : null;
+    }
+
+    /**
+     * @return true if the requests of this thread are sent with the access
+     *         token of a shared request
+     */
+    static boolean isAccessTokenPinned() {
+        return mRequestToken.get() != null;
+    }
+
+    @Override
+    public void setLoggedInUser(User loggedInUser) {
+        mUserRestored = true;
+        super.setLoggedInUser(loggedInUser);
+    }
+
+    private User restoreLoggedInUser() {
+        if (mContext == null) {
+            return null;
+        }
+
+        if (SessionSnapshot.exists(mContext)) {
+            return SessionSnapshot.readUser(mContext);
+        }
 
-            setLoggedInUser(user);
+        // saved by an older version. move it to the snapshot once.
+        String userInfo = BaasPreferences.getUserString(mContext);
+        if (!isEmpty(userInfo)) {
+            User user = JsonCodec.parse(userInfo, User.class);
+            SessionSnapshot.saveAsync(mContext, getAccessToken(), user);
+            BaasPreferences.setUserString(mContext, "");
+            return user;
         }
+
+        return null;
     }
 
     /**
@@ -267,7 +629,7 @@ public class Baasio extends Client {
      * @param callback
      */
     public void deleteUserAsync(final String username, final ApiResponseCallback callback) {
-        (new ClientAsyncTask<ApiResponse>(callback) {
+        (new RetryAsyncTask<ApiResponse>(callback) {
             @Override
             public ApiResponse doTask() {
                 return deleteUser(username);
@@ -283,7 +645,7 @@ public class Baasio extends Client {
      * @param callback
      */
     public void updateEntityAsync(final Entity entity, final ApiResponseCallback callback) {
-        (new ClientAsyncTask<ApiResponse>(callback) {
+        (new RetryAsyncTask<ApiResponse>(callback) {
             @Override
             public ApiResponse doTask() {
                 return updateEntity(entity);
@@ -305,25 +667,71 @@ public class Baasio extends Client {
 
         String[] newSegments = list.toArray(new String[list.size()]);
 
-        ApiResponse response = apiRequest(HttpMethod.GET, null, null, newSegments);
+        ApiResponse response = cachedApiRequest(newSegments);
         return response;
     }
 
     /**
      * Perform a query request. Executes asynchronously in background and the
-     * callbacks are called in the UI thread.
+     * callbacks are called in the UI thread. Identical queries in flight share
+     * one request and its ApiResponse.
      * 
      * @param callback
      * @param segments
      */
     public void queryEntitiesRequestAsync(final ApiResponseCallback callback,
             final String... segments) {
-        (new ClientAsyncTask<ApiResponse>(callback) {
+        ArrayList<String> list = new ArrayList<String>();
+        list.add(getOrganizationId());
+        list.add(getApplicationId());
+        list.addAll(Arrays.asList(segments));
+
+        coalescedRequestAsync(list.toArray(), callback, new Retrier.Attempt<ApiResponse>() {
             @Override
-            public ApiResponse doTask() {
+            public ApiResponse run() {
                 return queryEntitiesRequest(segments);
             }
-        }).execute();
+        });
+    }
+
+    /**
+     * Perform a query and iterate the entities of all pages. The next page is
+     * fetched in background while iterating. Do not iterate in the UI thread,
+     * and close the cursor if it is not iterated to the end.
+     * 
+     * @param segments
+     * @return an EntityCursor to iterate the entities.
+     */
+    public EntityCursor queryEntitiesCursor(String... segments) {
+        return queryEntitiesCursor(EntityCursor.DEFAULT_PAGE_SIZE, segments);
+    }
+
+    /**
+     * Perform a query and iterate the entities of all pages. The next page is
+     * fetched in background while iterating. Do not iterate in the UI thread,
+     * and close the cursor if it is not iterated to the end.
+     * 
+     * @param pageSize number of entities fetched at once
+     * @param segments
+     * @return an EntityCursor to iterate the entities.
+     */
+    public EntityCursor queryEntitiesCursor(int pageSize, String... segments) {
+        assertValidApplicationId();
+
+        ArrayList<Object> list = new ArrayList<Object>();
+        list.add(getApiUrl());
+        list.add(getOrganizationId());
+        list.add(getApplicationId());
+        list.addAll(Arrays.asList(segments));
+
+        Map<String, String> headers = new HashMap<String, String>();
+        if (!isEmpty(getAccessToken())) {
+            headers.put("Authorization", "Bearer " + getAccessToken());
+        }
+        headers.put("Accept", "application/json");
+
+        return new EntityCursor(HttpUtils.getHttpClient(), path(list.toArray()), headers,
+                pageSize);
     }
 
     /**
@@ -336,7 +744,7 @@ public class Baasio extends Client {
      */
     public void updateEntityAsync(final Map<String, Object> properties,
             final ApiResponseCallback callback) {
-        (new ClientAsyncTask<ApiResponse>(callback) {
+        (new RetryAsyncTask<ApiResponse>(callback) {
             @Override
             public ApiResponse doTask() {
                 return updateEntity(properties);
@@ -344,6 +752,17 @@ public class Baasio extends Client {
         }).execute();
     }
 
+    /**
+     * Get the outbox which keeps updates, deletes and PUSH messages while the
+     * network is not available, and sends them when it is back. Must be
+     * called after {@link #init(Context, String, String, String)}.
+     * 
+     * @return outbox of the application
+     */
+    public Outbox getOutbox() {
+        return Outbox.getInstance(mContext);
+    }
+
     /**
      * Update a entity on the server.
      * 
@@ -437,7 +856,7 @@ public class Baasio extends Client {
      * @param callback
      */
     public void deleteEntityAsync(final Entity entity, final ApiResponseCallback callback) {
-        (new ClientAsyncTask<ApiResponse>(callback) {
+        (new RetryAsyncTask<ApiResponse>(callback) {
             @Override
             public ApiResponse doTask() {
                 return deleteEntity(entity);
@@ -455,7 +874,7 @@ public class Baasio extends Client {
      */
     public void deleteEntityAsync(final Map<String, Object> properties,
             final ApiResponseCallback callback) {
-        (new ClientAsyncTask<ApiResponse>(callback) {
+        (new RetryAsyncTask<ApiResponse>(callback) {
             @Override
             public ApiResponse doTask() {
                 return deleteEntity(properties);
@@ -463,6 +882,78 @@ public class Baasio extends Client {
         }).execute();
     }
 
+    /**
+     * Update entities on the server. Requests are sent concurrently up to
+     * {@link BatchExecutor#getMaxConcurrency()}, and a failure of an entity
+     * does not stop the others.
+     * 
+     * @param entities
+     * @return a BatchResponse with the result of each entity in the same
+     *         order.
+     */
+    public BatchResponse updateEntities(List<Entity> entities) {
+        assertValidApplicationId();
+
+        return BatchExecutor.execute(entities, new BatchExecutor.Operation<Entity>() {
+            @Override
+            public ApiResponse execute(Entity entity) {
+                return updateEntity(entity);
+            }
+        });
+    }
+
+    /**
+     * Update entities on the server. Executes asynchronously in background and
+     * the callbacks are called in the UI thread.
+     * 
+     * @param entities
+     * @param callback
+     */
+    public void updateEntitiesAsync(final List<Entity> entities,
+            final BatchResponseCallback callback) {
+        (new ClientAsyncTask<BatchResponse>(callback) {
+            @Override
+            public BatchResponse doTask() {
+                return updateEntities(entities);
+            }
+        }).execute();
+    }
+
+    /**
+     * Delete entities on the server. Requests are sent concurrently up to
+     * {@link BatchExecutor#getMaxConcurrency()}, and a failure of an entity
+     * does not stop the others.
+     * 
+     * @param entities
+     * @return a BatchResponse with the result of each entity in the same
+     *         order.
+     */
+    public BatchResponse deleteEntities(List<Entity> entities) {
+        return BatchExecutor.execute(entities, new BatchExecutor.Operation<Entity>() {
+            @Override
+            public ApiResponse execute(Entity entity) {
+                return deleteEntity(entity);
+            }
+        });
+    }
+
+    /**
+     * Delete entities on the server. Executes asynchronously in background and
+     * the callbacks are called in the UI thread.
+     * 
+     * @param entities
+     * @param callback
+     */
+    public void deleteEntitiesAsync(final List<Entity> entities,
+            final BatchResponseCallback callback) {
+        (new ClientAsyncTask<BatchResponse>(callback) {
+            @Override
+            public BatchResponse doTask() {
+                return deleteEntities(entities);
+            }
+        }).execute();
+    }
+
     /**
      * Send PUSH message to devices which appropriate "target" or devices having
      * same "tag" from properties. "target" property:
@@ -497,7 +988,7 @@ public class Baasio extends Client {
      */
     public void sendPushAsync(final Map<String, Object> properties,
             final ApiResponseCallback callback) {
-        (new ClientAsyncTask<ApiResponse>(callback) {
+        (new RetryAsyncTask<ApiResponse>(callback) {
             @Override
             public ApiResponse doTask() {
                 return sendPush(properties);
@@ -539,7 +1030,7 @@ public class Baasio extends Client {
      */
     public void registerDeviceForPushAsync(final Map<String, Object> properties,
             final ApiResponseCallback callback) {
-        (new ClientAsyncTask<ApiResponse>(callback) {
+        (new RetryAsyncTask<ApiResponse>(callback) {
             @Override
             public ApiResponse doTask() {
                 return registerDeviceForPush(properties);
@@ -587,7 +1078,7 @@ public class Baasio extends Client {
      */
     public void updateDeviceForPushAsync(final String deviceUuid,
             final Map<String, Object> properties, final ApiResponseCallback callback) {
-        (new ClientAsyncTask<ApiResponse>(callback) {
+        (new RetryAsyncTask<ApiResponse>(callback) {
             @Override
             public ApiResponse doTask() {
                 return updateDeviceForPush(deviceUuid, properties);
@@ -608,8 +1099,8 @@ public class Baasio extends Client {
             throw new IllegalArgumentException("Missing device uuid");
         }
 
-        ApiResponse response = apiRequest(HttpMethod.GET, null, null, getOrganizationId(),
-                getApplicationId(), "pushes", "devices", deviceUuid);
+        ApiResponse response = cachedApiRequest(getOrganizationId(), getApplicationId(), "pushes",
+                "devices", deviceUuid);
 
         return response;
     }
@@ -623,7 +1114,7 @@ public class Baasio extends Client {
      * @param callback
      */
     public void getDeviceForPushAsync(final String deviceUuid, final ApiResponseCallback callback) {
-        (new ClientAsyncTask<ApiResponse>(callback) {
+        (new RetryAsyncTask<ApiResponse>(callback) {
             @Override
             public ApiResponse doTask() {
                 return getDeviceForPush(deviceUuid);
@@ -659,7 +1150,7 @@ public class Baasio extends Client {
      * @param callback
      */
     public void deleteDeviceForPushAsync(final String deviceUuid, final ApiResponseCallback callback) {
-        (new ClientAsyncTask<ApiResponse>(callback) {
+        (new RetryAsyncTask<ApiResponse>(callback) {
             @Override
             public ApiResponse doTask() {
                 return deleteDeviceForPush(deviceUuid);
@@ -703,7 +1194,7 @@ public class Baasio extends Client {
     public void createFolderAsync(final String dstPath, final String dstFolderName,
             final ApiResponseCallback callback) {
 
-        new ClientAsyncTask<ApiResponse>(callback) {
+        new RetryAsyncTask<ApiResponse>(callback) {
             @Override
             public ApiResponse doTask() {
                 return createFolder(dstPath, dstFolderName);
@@ -711,49 +1202,360 @@ public class Baasio extends Client {
         }.execute();
     }
 
-    private static String getMimeType(String url) {
-        String type = null;
+    /**
+     * GET request through the response cache, under the circuit breaker of the
+     * endpoint. Same as apiRequest when the cache is disabled.
+     */
+    private ApiResponse cachedApiRequest(String... segments) {
+        final ResponseCache cache = mResponseCache;
+        if (cache == null) {
+            return apiRequest(HttpMethod.GET, null, null, segments);
+        }
 
-        int dotPos = url.lastIndexOf(".") + 1;
-        String extension = url.substring(dotPos);
+        ArrayList<Object> list = new ArrayList<Object>();
+        list.add(getApiUrl());
+        list.addAll(Arrays.asList(segments));
 
-        if (extension != null) {
-            MimeTypeMap mime = MimeTypeMap.getSingleton();
-            type = mime.getMimeTypeFromExtension(extension);
+        final Map<String, String> headers = new HashMap<String, String>();
+        if (!isEmpty(getAccessToken())) {
+            headers.put("Authorization", "Bearer " + getAccessToken());
         }
-        return type;
+        headers.put("Accept", "application/json");
+
+        final String url = path(list.toArray());
+        final Endpoint endpoint = Endpoint.of(segments);
+        String body = Retrier.call(mRetryPolicy, "GET", new Retrier.Attempt<String>() {
+            @Override
+            public String run() {
+                try {
+                    return cache.get(url, headers, endpoint);
+                } catch (IOException e) {
+                    throw new ResourceAccessException("I/O error: " + e.getMessage(), e);
+                }
+            }
+        });
+        return JsonCodec.parse(body, ApiResponse.class);
     }
 
     /**
-     * Create a file on the server. Executes asynchronously in background and
-     * the callbacks are called in the UI thread.
-     * 
-     * @param srcFilePath
-     * @param dstPath
-     * @param dstFileName if null, it will upload with local file's name.
-     * @param inline if true, the uploaded file will be displayed automatically
-     *            upon browser. if false, will be download as a file.
-     * @param callback
-     * @return an AsyncTask to cancel upload file.
+     * Run a GET request in background, or join the identical one in flight.
+     * Every joined callback is called with the same ApiResponse, or the same
+     * exception.
      */
-    public ClientProgressAsyncTask<ApiResponse> createFileAsync(final String srcFilePath,
-            final String dstPath, final String dstFileName, final boolean inline,
-            final ApiResponseProgressCallback callback) {
-
-        if (isEmpty(srcFilePath)) {
-            throw new IllegalArgumentException("Missing source file path");
-        }
+    private void coalescedRequestAsync(Object[] segments, ApiResponseCallback callback,
+            final Retrier.Attempt<ApiResponse> request) {
+        final String accessToken = getAccessToken();
+        final String key = "GET " + path(segments) + " " + accessToken;
+
+        synchronized (mInFlightReads) {
+            List<ApiResponseCallback> callbacks = mInFlightReads.get(key);
+            if (callbacks != null) {
+                callbacks.add(callback);
+                return;
+            }
 
-        File file = new File(srcFilePath);
-        if (!file.exists()) {
-            throw new IllegalArgumentException("Source file is not exist");
+            callbacks = new ArrayList<ApiResponseCallback>();
+            callbacks.add(callback);
+            mInFlightReads.put(key, callbacks);
         }
 
-        if (isEmpty(dstPath)) {
-            throw new IllegalArgumentException("Missing destination path");
-        }
+        (new RetryAsyncTask<ApiResponse>(new ApiResponseCallback() {
+            private List<ApiResponseCallback> mCallbacks;
 
-        ClientProgressAsyncTask<ApiResponse> task = new ClientProgressAsyncTask<ApiResponse>(
+            private List<ApiResponseCallback> takeCallbacks() {
+                if (mCallbacks == null) {
+                    synchronized (mInFlightReads) {
+                        mCallbacks = mInFlightReads.remove(key);
+                    }
+                }
+                return mCallbacks;
+            }
+
+            @Override
+            public void onException(Exception e) {
+                for (ApiResponseCallback callback : takeCallbacks()) {
+                    if (callback != null) {
+                        callback.onException(e);
+                    }
+                }
+            }
+
+            @Override
+            public void onResponse(ApiResponse response) {
+                for (ApiResponseCallback callback : takeCallbacks()) {
+                    if (callback != null) {
+                        callback.onResponse(response);
+                    }
+                }
+            }
+        }) {
+            @Override
+            public ApiResponse doTask() {
+                // the callbacks joined with the token of the key
+                mRequestToken.set(accessToken != null ? accessToken : "");
+                try {
+                    return request.run();
+                } finally {
+                    mRequestToken.remove();
+                }
+            }
+        }).execute();
+    }
+
+    private String getApiHost() {
+        try {
+            return new URI(getApiUrl()).getHost();
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Download with retries. A retry resumes from the part file.
+     */
+    private void download(RangeDownloader downloader) throws IOException {
+        RetryPolicy policy = mRetryPolicy;
+        RequestTrace trace = Metrics.isEnabled() ? RequestTrace.begin() : null;
+        long start = System.nanoTime();
+        int status = 0;
+
+        Endpoint.Permit permit = null;
+        boolean failed = true;
+        try {
+            permit = Endpoint.FILES.acquire();
+
+            int failures = 0;
+            while (true) {
+                try {
+                    downloader.download();
+                    status = HttpStatus.SC_OK;
+                    failed = false;
+                    if (policy != null) {
+                        policy.onSuccess();
+                    }
+                    return;
+                } catch (HttpStatusException e) {
+                    status = e.getStatusCode();
+                    failed = status == 429 || status >= 500;
+                    if (!failed) {
+                        throw e;
+                    }
+                    if (!retry(policy, downloader, ++failures, e)) {
+                        throw e;
+                    }
+                } catch (IOException e) {
+                    status = 0;
+                    failed = !downloader.isCancelled();
+                    if (!retry(policy, downloader, ++failures, e)) {
+                        throw e;
+                    }
+                }
+            }
+        } finally {
+            Endpoint.FILES.release(permit, failed);
+            if (trace != null) {
+                // the size of the file, which includes resumed bytes
+                long bytesIn = status == HttpStatus.SC_OK ? downloader.getTotalSize() : -1;
+                reportTransfer(trace, BaasioMetrics.FILE_GET, "GET", status, start, -1, -1,
+                        bytesIn);
+            }
+        }
+    }
+
+    /**
+     * Resumable upload with retries. A retry continues the session from the
+     * last acknowledged chunk, so it is as safe as a PUT. Until the server
+     * has acknowledged a chunk, a retry would create the file again, and it
+     * is retried as a POST.
+     */
+    private HttpResponse upload(ResumableUploader uploader) throws IOException {
+        RetryPolicy policy = mRetryPolicy;
+
+        Endpoint.Permit permit = null;
+        boolean failed = true;
+        try {
+            permit = Endpoint.FILES.acquire();
+
+            int failures = 0;
+            while (true) {
+                String method = uploader.isResumable() ? "PUT" : "POST";
+                long delay;
+                try {
+                    HttpResponse response = uploader.upload();
+                    int status = response.getStatusLine().getStatusCode();
+                    failed = status == 429 || status >= 500;
+                    if (!failed) {
+                        if (policy != null) {
+                            policy.onSuccess();
+                        }
+                        return response;
+                    }
+
+                    delay = uploader.isCancelled() ? -1 : Retrier.getRetryDelay(policy, method,
+                            ++failures, new HttpStatusException(status));
+                    if (delay < 0) {
+                        return response;
+                    }
+                    HttpUtils.consumeQuietly(response);
+                } catch (ProtocolException e) {
+                    // the server stored a truncated file. do not upload again.
+                    failed = false;
+                    throw e;
+                } catch (IOException e) {
+                    failed = !uploader.isCancelled();
+                    delay = uploader.isCancelled() ? -1 : Retrier.getRetryDelay(policy, method,
+                            ++failures, e);
+                    if (delay < 0) {
+                        throw e;
+                    }
+                }
+
+                if (!Retrier.sleep(delay)) {
+                    throw new IOException("Retry interrupted");
+                }
+            }
+        } finally {
+            Endpoint.FILES.release(permit, failed);
+        }
+    }
+
+    private static boolean retry(RetryPolicy policy, RangeDownloader downloader, int failures,
+            IOException e) {
+        if (downloader.isCancelled()) {
+            return false;
+        }
+
+        long delay = Retrier.getRetryDelay(policy, "GET", failures, e);
+        return delay >= 0 && Retrier.sleep(delay);
+    }
+
+    /**
+     * Execute a file upload request, with retries under the circuit breaker
+     * of files.
+     */
+    private HttpResponse executeFileRequest(int operation, HttpClient client,
+            HttpUriRequest request) throws IOException {
+        RequestTrace trace = Metrics.isEnabled() ? RequestTrace.begin() : null;
+        long start = System.nanoTime();
+        int status = 0;
+        long bytesIn = -1;
+
+        Endpoint.Permit permit = null;
+        boolean failed = true;
+        try {
+            permit = Endpoint.FILES.acquire();
+
+            HttpResponse response = Retrier.execute(mRetryPolicy, client, request);
+            status = response.getStatusLine().getStatusCode();
+            failed = status == 429 || status >= 500;
+            if (response.getEntity() != null) {
+                bytesIn = response.getEntity().getContentLength();
+            }
+            return response;
+        } finally {
+            Endpoint.FILES.release(permit, failed);
+            if (trace != null) {
+                long bytesOut = -1;
+                if (request instanceof HttpEntityEnclosingRequest) {
+                    HttpEntity entity = ((HttpEntityEnclosingRequest)request).getEntity();
+                    if (entity != null) {
+                        bytesOut = entity.getContentLength();
+                    }
+                }
+                reportTransfer(trace, operation, request.getMethod(), status, start,
+                        System.nanoTime() - start, bytesOut, bytesIn);
+            }
+        }
+    }
+
+    /**
+     * End the trace of a file operation, and report it.
+     */
+    private static void reportTransfer(RequestTrace trace, int operation, String method,
+            int status, long start, long headersNanos, long bytesOut, long bytesIn) {
+        trace.end();
+        Metrics.operation(operation, method, status, headersNanos, System.nanoTime() - start,
+                bytesOut, bytesIn, trace.getRetries());
+    }
+
+    /**
+     * Find the file uploaded before with same content and destination, which
+     * still exists on the server.
+     */
+    private ApiResponse findUploadedFile(FileDigest digest, String url, String user,
+            long size) {
+        UploadIndex index = UploadIndex.getInstance(mContext);
+        String uuid = index.get(digest, url, user);
+        if (uuid == null) {
+            return null;
+        }
+
+        ApiResponse response;
+        try {
+            response = apiRequest(HttpMethod.GET, null, null, getOrganizationId(),
+                    getApplicationId(), "files", uuid);
+        } catch (RuntimeException e) {
+            LOGE(TAG, "Failed to check uploaded file: " + e.getMessage());
+            return null;
+        }
+
+        Entity entity = response != null ? response.getFirstEntity() : null;
+        if (entity == null || !isEmpty(response.getError())) {
+            index.remove(digest, url, user);
+            return null;
+        }
+
+        JsonNode sizeNode = entity.getProperties().get("size");
+        if (sizeNode != null && sizeNode.isNumber() && sizeNode.getLongValue() != size) {
+            index.remove(digest, url, user);
+            return null;
+        }
+
+        LOGD(TAG, "Skip uploading stored content: " + uuid);
+        return response;
+    }
+
+    private void recordUploadedFile(FileDigest digest, String url, String user,
+            ApiResponse response) {
+        if (!isEmpty(response.getError()) || response.getFirstEntity() == null
+                || response.getFirstEntity().getUuid() == null) {
+            return;
+        }
+
+        UploadIndex.getInstance(mContext).put(digest, url, user,
+                response.getFirstEntity().getUuid().toString());
+    }
+
+    /**
+     * Create a file on the server. Executes asynchronously in background and
+     * the callbacks are called in the UI thread.
+     * 
+     * @param srcFilePath
+     * @param dstPath
+     * @param dstFileName if null, it will upload with local file's name.
+     * @param inline if true, the uploaded file will be displayed automatically
+     *            upon browser. if false, will be download as a file.
+     * @param callback
+     * @return an AsyncTask to cancel upload file.
+     */
+    public ClientProgressAsyncTask<ApiResponse> createFileAsync(final String srcFilePath,
+            final String dstPath, final String dstFileName, final boolean inline,
+            final ApiResponseProgressCallback callback) {
+
+        if (isEmpty(srcFilePath)) {
+            throw new IllegalArgumentException("Missing source file path");
+        }
+
+        File file = new File(srcFilePath);
+        if (!file.exists()) {
+            throw new IllegalArgumentException("Source file is not exist");
+        }
+
+        if (isEmpty(dstPath)) {
+            throw new IllegalArgumentException("Missing destination path");
+        }
+
+        ClientProgressAsyncTask<ApiResponse> task = new ClientProgressAsyncTask<ApiResponse>(
                 callback) {
             private FileEntityWidthProgress entity;
 
@@ -790,40 +1592,65 @@ public class Baasio extends Client {
 
                 final long size = file.length();
 
+                // the index entry and the request belong to the same user
+                final String accessToken = getAccessToken();
+                final String user = getLoggedInUserUuid();
+
+                FileDigest digest = null;
+                if (mUploadDedupEnabled && mContext != null) {
+                    try {
+                        digest = FileDigest.md5(file);
+                    } catch (IOException e) {
+                        LOGE(TAG, "Failed to compute digest: " + e.getMessage());
+                    }
+
+                    if (digest != null) {
+                        ApiResponse uploaded = findUploadedFile(digest, url, user, size);
+                        if (uploaded != null) {
+                            publishTransferProgress(size, size);
+                            return uploaded;
+                        }
+                    }
+                }
+
                 entity = new FileEntityWidthProgress(file, null, new ProgressListener() {
 
                     @Override
                     public void updateTransferred(long transferedBytes) {
-                        info.setTotalSize(size);
-                        info.setCurrentSize(transferedBytes);
-                        publishProgress(info);
+                        publishTransferProgress(size, transferedBytes);
                     }
                 });
 
-                HttpClient client = HttpUtils.getNewHttpClient();
-
-                LOGE(TAG, "File Create: " + url);
+                HttpClient client = HttpUtils.getHttpClient();
 
                 HttpPost post = new HttpPost(url);
                 if (entity != null) {
                     post.setEntity(entity);
                 }
 
-                post.setHeader("Authorization", "Bearer " + getAccessToken());
+                post.setHeader("Authorization", "Bearer " + accessToken);
 
-                String mimeType = getMimeType(srcFilePath);
+                String mimeType = MimeResolver.resolve(new File(srcFilePath));
 
                 if (!isEmpty(mimeType)) {
                     post.setHeader("Content-Type", mimeType);
                 }
 
+                if (mUploadCompressionEnabled && MimeResolver.isCompressible(mimeType)) {
+                    entity.setCompressed(true);
+                }
+
+                if (digest != null && !entity.isCompressed()) {
+                    post.setHeader("Content-MD5", digest.toBase64());
+                }
+
                 if (inline) {
                     post.setHeader("Content-Disposition", "inline");
                 }
 
                 HttpResponse response = null;
                 try {
-                    response = client.execute(post);
+                    response = executeFileRequest(BaasioMetrics.FILE_CREATE, client, post);
                 } catch (ClientProtocolException e) {
                     e.printStackTrace();
 
@@ -849,18 +1676,9 @@ public class Baasio extends Client {
                 if (statusLine != null) {
                     if (statusLine.getStatusCode() >= 200 && statusLine.getStatusCode() < 300) {
                         if (response.getEntity() != null) {
-                            String body = null;
+                            ApiResponse body = null;
                             try {
-                                body = EntityUtils.toString(response.getEntity(), "UTF-8");
-                            } catch (ParseException e) {
-                                e.printStackTrace();
-
-                                info.setException(e);
-                                publishProgress(info);
-
-                                result.setError(e.getMessage());
-                                result.setException(e.toString());
-                                return result;
+                                body = JsonCodec.readApiResponse(response.getEntity());
                             } catch (IOException e) {
                                 e.printStackTrace();
 
@@ -872,15 +1690,23 @@ public class Baasio extends Client {
                                 return result;
                             }
 
-                            if (!isEmpty(body))
-                                return parse(body, ApiResponse.class);
+                            if (body != null) {
+                                if (digest != null) {
+                                    recordUploadedFile(digest, url, user, body);
+                                }
+                                return body;
+                            }
                         }
                     } else {
+                        HttpUtils.consumeQuietly(response);
+
                         result.setError("Http Status code is " + statusLine.getStatusCode());
                         return result;
                     }
                 }
 
+                HttpUtils.consumeQuietly(response);
+
                 result.setError("Unknown Error");
                 return result;
             }
@@ -893,7 +1719,166 @@ public class Baasio extends Client {
             }
         };
 
-        task.execute();
+        task.schedule(TransferScheduler.PRIORITY_NORMAL, file.length(), getApiHost());
+        return task;
+    }
+
+    /**
+     * Create a file on the server with resumable chunked upload. Progress is
+     * saved in the application's files directory, so calling again with same
+     * arguments after a failure or process death resumes from the last
+     * acknowledged chunk. Executes asynchronously in background and the
+     * callbacks are called in the UI thread.
+     *
+     * @param context context
+     * @param srcFilePath
+     * @param dstPath
+     * @param dstFileName if null, it will upload with local file's name.
+     * @param inline if true, the uploaded file will be displayed automatically
+     *            upon browser. if false, will be download as a file.
+     * @param callback
+     * @return an AsyncTask to cancel upload file.
+     */
+    public ClientProgressAsyncTask<ApiResponse> createFileResumableAsync(final Context context,
+            final String srcFilePath, final String dstPath, final String dstFileName,
+            final boolean inline, final ApiResponseProgressCallback callback) {
+
+        if (isEmpty(srcFilePath)) {
+            throw new IllegalArgumentException("Missing source file path");
+        }
+
+        File file = new File(srcFilePath);
+        if (!file.exists()) {
+            throw new IllegalArgumentException("Source file is not exist");
+        }
+
+        if (isEmpty(dstPath)) {
+            throw new IllegalArgumentException("Missing destination path");
+        }
+
+        final File journalDir = new File(context.getFilesDir(), "baasio_uploads");
+
+        ClientProgressAsyncTask<ApiResponse> task = new ClientProgressAsyncTask<ApiResponse>(
+                callback) {
+            private ResumableUploader uploader;
+
+            @Override
+            public ApiResponse doTask() {
+                final ProgressInfo info = new ProgressInfo();
+                final ApiResponse result = new ApiResponse();
+
+                File file = new File(srcFilePath);
+
+                String filename = null;
+                try {
+                    if (isEmpty(dstFileName)) {
+                        filename = encode(file.getName(), "UTF-8");
+                    } else {
+                        filename = encode(dstFileName, "UTF-8");
+                    }
+                } catch (UnsupportedEncodingException e) {
+                    e.printStackTrace();
+
+                    info.setException(e);
+                    publishProgress(info);
+
+                    result.setError(e.getMessage());
+                    result.setException(e.toString());
+                    return result;
+                }
+
+                String url = path(getApiUrl(), getOrganizationId(), getApplicationId(), "files",
+                        dstPath, filename);
+
+                Map<String, String> headers = new HashMap<String, String>();
+                headers.put("Authorization", "Bearer " + getAccessToken());
+
+                String mimeType = MimeResolver.resolve(new File(srcFilePath));
+                if (!isEmpty(mimeType)) {
+                    headers.put("Content-Type", mimeType);
+                }
+
+                if (inline) {
+                    headers.put("Content-Disposition", "inline");
+                }
+
+                final long size = file.length();
+
+                UploadJournal journal = UploadJournal.open(journalDir, file, url);
+                uploader = new ResumableUploader(HttpUtils.getHttpClient(), file, url, headers,
+                        journal, new ProgressListener() {
+
+                            @Override
+                            public void updateTransferred(long transferedBytes) {
+                                publishTransferProgress(size, transferedBytes);
+                            }
+                        });
+
+                RequestTrace trace = Metrics.isEnabled() ? RequestTrace.begin() : null;
+                long start = System.nanoTime();
+
+                HttpResponse response = null;
+                try {
+                    response = upload(uploader);
+                } catch (IOException e) {
+                    e.printStackTrace();
+
+                    info.setException(e);
+                    publishProgress(info);
+
+                    result.setError(e.getMessage());
+                    result.setException(e.toString());
+                    return result;
+                } finally {
+                    if (trace != null) {
+                        int status = response != null ? response.getStatusLine().getStatusCode()
+                                : 0;
+                        reportTransfer(trace, BaasioMetrics.FILE_CREATE, "POST", status, start,
+                                -1, -1, -1);
+                    }
+                }
+
+                StatusLine statusLine = response.getStatusLine();
+
+                if (statusLine.getStatusCode() >= 200 && statusLine.getStatusCode() < 300) {
+                    if (response.getEntity() != null) {
+                        ApiResponse body = null;
+                        try {
+                            body = JsonCodec.readApiResponse(response.getEntity());
+                        } catch (IOException e) {
+                            e.printStackTrace();
+
+                            info.setException(e);
+                            publishProgress(info);
+
+                            result.setError(e.getMessage());
+                            result.setException(e.toString());
+                            return result;
+                        }
+
+                        if (body != null)
+                            return body;
+                    }
+                } else {
+                    HttpUtils.consumeQuietly(response);
+
+                    result.setError("Http Status code is " + statusLine.getStatusCode());
+                    return result;
+                }
+
+                result.setError("Unknown Error");
+                return result;
+            }
+
+            @Override
+            public void doCancel() {
+                if (uploader != null) {
+                    uploader.cancel();
+                }
+            }
+        };
+
+        task.schedule(TransferScheduler.PRIORITY_NORMAL, file.length(), getApiHost());
         return task;
     }
 
@@ -932,33 +1917,33 @@ public class Baasio extends Client {
 
                     @Override
                     public void updateTransferred(long transferedBytes) {
-                        info.setTotalSize(size);
-                        info.setCurrentSize(transferedBytes);
-                        publishProgress(info);
+                        publishTransferProgress(size, transferedBytes);
                     }
                 });
 
-                HttpClient client = HttpUtils.getNewHttpClient();
-
-                LOGE(TAG, "File Update: " + url);
+                HttpClient client = HttpUtils.getHttpClient();
 
                 HttpPut put = new HttpPut(url);
                 put.setEntity(entity);
                 put.setHeader("Authorization", "Bearer " + getAccessToken());
 
-                String mimeType = getMimeType(srcFilePath);
+                String mimeType = MimeResolver.resolve(new File(srcFilePath));
 
                 if (!isEmpty(mimeType)) {
                     put.setHeader("Content-Type", mimeType);
                 }
 
+                if (mUploadCompressionEnabled && MimeResolver.isCompressible(mimeType)) {
+                    entity.setCompressed(true);
+                }
+
                 if (inline) {
                     put.setHeader("Content-Disposition", "inline");
                 }
 
                 HttpResponse response = null;
                 try {
-                    response = client.execute(put);
+                    response = executeFileRequest(BaasioMetrics.FILE_UPDATE, client, put);
                 } catch (ClientProtocolException e) {
                     e.printStackTrace();
 
@@ -984,18 +1969,9 @@ public class Baasio extends Client {
                 if (statusLine != null) {
                     if (statusLine.getStatusCode() >= 200 && statusLine.getStatusCode() < 300) {
                         if (response.getEntity() != null) {
-                            String body = null;
+                            ApiResponse body = null;
                             try {
-                                body = EntityUtils.toString(response.getEntity(), "UTF-8");
-                            } catch (ParseException e) {
-                                e.printStackTrace();
-
-                                info.setException(e);
-                                publishProgress(info);
-
-                                result.setError(e.getMessage());
-                                result.setException(e.toString());
-                                return result;
+                                body = JsonCodec.readApiResponse(response.getEntity());
                             } catch (IOException e) {
                                 e.printStackTrace();
 
@@ -1007,49 +1983,36 @@ public class Baasio extends Client {
                                 return result;
                             }
 
-                            if (!isEmpty(body))
-                                return parse(body, ApiResponse.class);
+                            if (body != null)
+                                return body;
                         }
                     } else {
+                        HttpUtils.consumeQuietly(response);
+
                         result.setError("Http Status code is " + statusLine.getStatusCode());
                         return result;
                     }
                 }
 
+                HttpUtils.consumeQuietly(response);
+
                 result.setError("Unknown Error");
                 return result;
             }
 
             @Override
             public void doCancel() {
-                entity.cancel();
+                if (entity != null) {
+                    entity.cancel();
+                }
             }
         };
 
-        task.execute();
+        task.schedule(TransferScheduler.PRIORITY_NORMAL, new File(srcFilePath).length(),
+                getApiHost());
         return task;
     }
 
-    private static String convert(InputStream in) {
-        BufferedReader reader = new BufferedReader(new InputStreamReader(in));
-        StringBuilder sb = new StringBuilder();
-        String line = null;
-        try {
-            while ((line = reader.readLine()) != null) {
-                sb.append(line + "\n");
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            try {
-                in.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
-        return sb.toString();
-    }
-
     /**
      * Download a file from the server. Executes asynchronously in background
      * and the callbacks are called in the UI thread.
@@ -1066,7 +2029,7 @@ public class Baasio extends Client {
 
         ClientProgressAsyncTask<ApiResponse> task = new ClientProgressAsyncTask<ApiResponse>(
                 callback) {
-            private boolean isCancelled = false;
+            private volatile RangeDownloader downloader;
 
             @Override
             public ApiResponse doTask() {
@@ -1119,26 +2082,22 @@ public class Baasio extends Client {
                 String url = path(getApiUrl(), getOrganizationId(), getApplicationId(), "files",
                         encodedPathList);
 
-                // DefaultHttpClient client = new DefaultHttpClient();
-                HttpClient client = HttpUtils.getNewHttpClient();
+                Map<String, String> headers = new HashMap<String, String>();
+                headers.put("Authorization", "Bearer " + getAccessToken());
 
-                LOGE(TAG, "File Get: " + url);
+                downloader = new RangeDownloader(HttpUtils.getHttpClient(), url, headers, file,
+                        new ProgressListener() {
 
-                HttpGet get = new HttpGet(url);
-
-                get.setHeader("Authorization", "Bearer " + getAccessToken());
+                            @Override
+                            public void updateTransferred(long transferedBytes) {
+                                publishTransferProgress(downloader.getTotalSize(), transferedBytes);
+                            }
+                        });
 
-                HttpResponse response = null;
                 try {
-                    response = client.execute(get);
-                } catch (ClientProtocolException e) {
-                    e.printStackTrace();
-
-                    info.setException(e);
-                    publishProgress(info);
-
+                    download(downloader);
+                } catch (HttpStatusException e) {
                     result.setError(e.getMessage());
-                    result.setException(e.toString());
                     return result;
                 } catch (IOException e) {
                     e.printStackTrace();
@@ -1151,106 +2110,18 @@ public class Baasio extends Client {
                     return result;
                 }
 
-                StatusLine statusLine = response.getStatusLine();
-
-                if (statusLine != null) {
-                    if (statusLine.getStatusCode() >= 200 && statusLine.getStatusCode() < 300) {
-                        if (response.getEntity() != null) {
-                            Header[] clHeaders = response.getHeaders("Content-Length");
-                            Header header = clHeaders[0];
-                            int totalSize = Integer.parseInt(header.getValue());
-                            int downloadedSize = 0;
-                            if (response.getEntity() != null) {
-                                try {
-                                    InputStream stream = response.getEntity().getContent();
-
-                                    byte buf[] = new byte[getDownloadBuffSize()];
-                                    int numBytesRead;
-
-                                    String dirPath = file.getAbsolutePath().substring(
-                                            0,
-                                            file.getAbsolutePath().length()
-                                                    - file.getName().length() - 1);
-                                    File dir = new File(dirPath);
-                                    if (!dir.exists()) {
-                                        dir.mkdirs();
-                                    } else {
-                                        if (!dir.isDirectory()) {
-                                            dir.mkdirs();
-                                        }
-                                    }
-
-                                    file.createNewFile();
-
-                                    BufferedOutputStream fos = new BufferedOutputStream(
-                                            new FileOutputStream(file));
-                                    do {
-                                        numBytesRead = stream.read(buf);
-                                        if (numBytesRead > 0) {
-                                            fos.write(buf, 0, numBytesRead);
-                                            downloadedSize += numBytesRead;
-
-                                            info.setTotalSize(totalSize);
-                                            info.setCurrentSize(downloadedSize);
-
-                                            publishProgress(info);
-                                        }
-                                    } while (numBytesRead > 0 && !isCancelled);
-                                    fos.flush();
-                                    fos.close();
-                                    stream.close();
-
-                                    return result;
-                                } catch (IllegalStateException e) {
-                                    e.printStackTrace();
-
-                                    info.setException(e);
-                                    publishProgress(info);
-
-                                    result.setError(e.getMessage());
-                                    result.setException(e.toString());
-                                    return result;
-                                } catch (IOException e) {
-                                    e.printStackTrace();
-
-                                    info.setException(e);
-                                    publishProgress(info);
-
-                                    result.setError(e.getMessage());
-                                    result.setException(e.toString());
-                                    return result;
-                                }
-                            }
-                        }
-                    } else {
-                        result.setError("Http Status code is " + statusLine.getStatusCode());
-
-                        if (BuildConfig.DEBUG) {
-                            try {
-                                String resultString = convert(response.getEntity().getContent());
-                                LOGE(TAG, resultString);
-                            } catch (IllegalStateException e) {
-                                e.printStackTrace();
-                            } catch (IOException e) {
-                                e.printStackTrace();
-                            }
-                        }
-
-                        return result;
-                    }
-                }
-
-                result.setError("Unknown Error");
                 return result;
             }
 
             @Override
             public void doCancel() {
-                isCancelled = true;
+                if (downloader != null) {
+                    downloader.cancel();
+                }
             }
         };
 
-        task.execute();
+        task.schedule(TransferScheduler.PRIORITY_HIGH, -1, getApiHost());
 
         return task;
     }
@@ -1280,7 +2151,7 @@ public class Baasio extends Client {
      * @param callback
      */
     public void deleteFileAsync(final String fileUuid, final ApiResponseCallback callback) {
-        (new ClientAsyncTask<ApiResponse>(callback) {
+        (new RetryAsyncTask<ApiResponse>(callback) {
 
             @Override
             public ApiResponse doTask() {
@@ -1291,17 +2162,20 @@ public class Baasio extends Client {
 
     /**
      * Get quota information from server. Executes asynchronously in background
-     * and the callbacks are called in the UI thread.
+     * and the callbacks are called in the UI thread. Calls in flight at the
+     * same time share one request and its ApiResponse.
      * 
      * @param callback
      */
     public void getQuotaInformationAsync(final ApiResponseCallback callback) {
-        (new ClientAsyncTask<ApiResponse>(callback) {
+        coalescedRequestAsync(new Object[] {
+                getOrganizationId(), getApplicationId(), "files", "information"
+        }, callback, new Retrier.Attempt<ApiResponse>() {
             @Override
-            public ApiResponse doTask() {
+            public ApiResponse run() {
                 return getQuotaInformation();
             }
-        }).execute();
+        });
     }
 
     /**
@@ -1312,8 +2186,8 @@ public class Baasio extends Client {
     public ApiResponse getQuotaInformation() {
         assertValidApplicationId();
 
-        ApiResponse response = apiRequest(HttpMethod.GET, null, null, getOrganizationId(),
-                getApplicationId(), "files", "information");
+        ApiResponse response = cachedApiRequest(getOrganizationId(), getApplicationId(), "files",
+                "information");
 
         return response;
     }
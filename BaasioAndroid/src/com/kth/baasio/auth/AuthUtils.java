@@ -8,6 +8,7 @@ import com.kth.baasio.Baasio;
 import com.kth.baasio.gcm.GcmUtils;
 import com.kth.baasio.gcm.callback.GcmTaskCallback;
 import com.kth.baasio.preferences.BaasPreferences;
+import com.kth.baasio.preferences.SessionSnapshot;
 
 import org.usergrid.android.client.callbacks.ApiResponseCallback;
 import org.usergrid.java.client.response.ApiResponse;
@@ -60,15 +61,12 @@ public final class AuthUtils {
                         if (response != null) {
                             if (isEmpty(response.getError())) {
                                 String token = response.getAccessToken();
-                                String user = response.getUser().toString();
 
                                 if (!isEmpty(token)) {
                                     BaasPreferences.setAccessToken(context, token);
                                 }
 
-                                if (!isEmpty(user)) {
-                                    BaasPreferences.setUserString(context, user);
-                                }
+                                SessionSnapshot.saveAsync(context, token, response.getUser());
 
                                 if (Baasio.getInstance().isGcmEnabled()) {
                                     GcmUtils.registerGCMClient(context, new GcmTaskCallback() {
@@ -110,15 +108,12 @@ public final class AuthUtils {
                 if (response != null) {
                     if (isEmpty(response.getError())) {
                         String token = response.getAccessToken();
-                        String user = response.getUser().toString();
 
                         if (!isEmpty(token)) {
                             BaasPreferences.setAccessToken(context, token);
                         }
 
-                        if (!isEmpty(user)) {
-                            BaasPreferences.setUserString(context, user);
-                        }
+                        SessionSnapshot.saveAsync(context, token, response.getUser());
 
                         if (Baasio.getInstance().isGcmEnabled()) {
                             GcmUtils.registerGCMClient(context, new GcmTaskCallback() {
@@ -160,15 +155,12 @@ public final class AuthUtils {
                         if (response != null) {
                             if (isEmpty(response.getError())) {
                                 String token = response.getAccessToken();
-                                String user = response.getUser().toString();
 
                                 if (!isEmpty(token)) {
                                     BaasPreferences.setAccessToken(context, token);
                                 }
 
-                                if (!isEmpty(user)) {
-                                    BaasPreferences.setUserString(context, user);
-                                }
+                                SessionSnapshot.saveAsync(context, token, response.getUser());
 
                                 if (Baasio.getInstance().isGcmEnabled()) {
                                     GcmUtils.registerGCMClient(context, new GcmTaskCallback() {
@@ -198,6 +190,7 @@ public final class AuthUtils {
 
         BaasPreferences.setAccessToken(context, "");
         BaasPreferences.setUserString(context, "");
+        SessionSnapshot.clearAsync(context);
 
         if (Baasio.getInstance().isGcmEnabled()) {
             GcmUtils.registerGCMClient(context, new GcmTaskCallback() {
@@ -236,6 +229,7 @@ public final class AuthUtils {
 
                         BaasPreferences.setAccessToken(context, "");
                         BaasPreferences.setUserString(context, "");
+                        SessionSnapshot.clearAsync(context);
 
                         if (Baasio.getInstance().isGcmEnabled()) {
                             GcmUtils.unregisterGCMClient(context, new GcmTaskCallback() {
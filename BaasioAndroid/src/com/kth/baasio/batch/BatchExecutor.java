@@ -0,0 +1,181 @@
+
+package com.kth.baasio.batch;
+
+import static com.kth.common.utils.LogUtils.LOGD;
+import static com.kth.common.utils.LogUtils.makeLogTag;
+
+import org.usergrid.java.client.response.ApiResponse;
+
+import android.os.Process;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a request for each item of a list with bounded concurrency. Requests
+ * share the pooled connections, so several of them are in flight at once
+ * instead of one round trip after another. A failure of an item does not stop
+ * the others, and is recorded in its {@link BatchResponse.Result}.
+ */
+public class BatchExecutor {
+    private static final String TAG = makeLogTag(BatchExecutor.class);
+
+    public static final int DEFAULT_MAX_CONCURRENCY = 4;
+
+    private static final long WORKER_KEEP_ALIVE_SECONDS = 30;
+
+    private static volatile int sMaxConcurrency = DEFAULT_MAX_CONCURRENCY;
+
+    private static ExecutorService sExecutor;
+
+    /**
+     * Request for an item of a batch.
+     */
+    public interface Operation<T> {
+        public ApiResponse execute(T item) throws Exception;
+    }
+
+    private BatchExecutor() {
+    }
+
+    /**
+     * Get maximum number of concurrent requests in a batch.
+     *
+     * @return maximum number of concurrent requests
+     */
+    public static int getMaxConcurrency() {
+        return sMaxConcurrency;
+    }
+
+    /**
+     * Set maximum number of concurrent requests in a batch. It is better not
+     * to exceed the connection limit per route of the HTTP client.
+     *
+     * @param maxConcurrency maximum number of concurrent requests
+     */
+    public static boolean setMaxConcurrency(int maxConcurrency) {
+        if (maxConcurrency > 0) {
+            sMaxConcurrency = maxConcurrency;
+            return true;
+        }
+
+        return false;
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (sExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+                    WORKER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                        private final AtomicInteger mCount = new AtomicInteger(1);
+
+                        @Override
+                        public Thread newThread(final Runnable r) {
+                            Thread thread = new Thread("Baasio-Batch #"
+                                    + mCount.getAndIncrement()) {
+                                @Override
+                                public void run() {
+                                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                    r.run();
+                                }
+                            };
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            sExecutor = executor;
+        }
+        return sExecutor;
+    }
+
+    /**
+     * Run the operation for every item, and wait until all of them are
+     * finished. The calling thread takes part in running the items.
+     *
+     * @param items items
+     * @param operation request for an item
+     * @return results in the same order as the items
+     */
+    public static <T> BatchResponse execute(final List<T> items, final Operation<T> operation) {
+        if (items == null) {
+            throw new IllegalArgumentException("Items may not be null");
+        }
+        if (operation == null) {
+            throw new IllegalArgumentException("Operation may not be null");
+        }
+
+        final BatchResponse.Result[] results = new BatchResponse.Result[items.size()];
+        final AtomicInteger next = new AtomicInteger(0);
+
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                int index;
+                while ((index = next.getAndIncrement()) < results.length) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        results[index] = new BatchResponse.Result(index, null,
+                                new InterruptedException("Batch Cancelled"));
+                        continue;
+                    }
+
+                    try {
+                        ApiResponse response = operation.execute(items.get(index));
+                        results[index] = new BatchResponse.Result(index, response, null);
+                    } catch (Exception e) {
+                        results[index] = new BatchResponse.Result(index, null, e);
+                    }
+                }
+            }
+        };
+
+        int helpers = Math.min(sMaxConcurrency, results.length) - 1;
+        final CountDownLatch done = new CountDownLatch(Math.max(helpers, 0));
+        for (int i = 0; i < helpers; i++) {
+            final Runnable task = worker;
+            getExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+
+        worker.run();
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException e) {
+                // helpers finish the items they took, so results are complete
+                interrupted = true;
+                next.set(results.length);
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == null) {
+                results[i] = new BatchResponse.Result(i, null, new InterruptedException(
+                        "Batch Cancelled"));
+            }
+        }
+
+        LOGD(TAG, "Batch finished: " + results.length + " items with " + (helpers + 1)
+                + " workers");
+        return new BatchResponse(results);
+    }
+}
@@ -0,0 +1,137 @@
+
+package com.kth.baasio.batch;
+
+import org.usergrid.java.client.response.ApiResponse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Aggregated result of a batch request. Holds one {@link Result} per item in
+ * the same order as the requested items.
+ */
+public class BatchResponse {
+
+    private final List<Result> mResults;
+
+    /**
+     * Result of an item in a batch request.
+     */
+    public static class Result {
+        private final int mIndex;
+
+        private final ApiResponse mResponse;
+
+        private final Exception mException;
+
+        Result(int index, ApiResponse response, Exception exception) {
+            mIndex = index;
+            mResponse = response;
+            mException = exception;
+        }
+
+        /**
+         * @return index of the item in the requested list
+         */
+        public int getIndex() {
+            return mIndex;
+        }
+
+        /**
+         * @return response from the server, or null if the request failed
+         *         without a response
+         */
+        public ApiResponse getResponse() {
+            return mResponse;
+        }
+
+        /**
+         * @return exception thrown while requesting, or null
+         */
+        public Exception getException() {
+            return mException;
+        }
+
+        /**
+         * @return true if the server handled the item without error
+         */
+        public boolean isSuccess() {
+            return mException == null && mResponse != null && mResponse.getError() == null;
+        }
+
+        @Override
+        public String toString() {
+            return "Result [index=" + mIndex + ", response=" + mResponse + ", exception="
+                    + mException + "]";
+        }
+    }
+
+    BatchResponse(Result[] results) {
+        List<Result> list = new ArrayList<Result>(results.length);
+        for (Result result : results) {
+            list.add(result);
+        }
+        mResults = Collections.unmodifiableList(list);
+    }
+
+    /**
+     * @return results in the same order as the requested items
+     */
+    public List<Result> getResults() {
+        return mResults;
+    }
+
+    /**
+     * @param index index of the item in the requested list
+     * @return result of the item
+     */
+    public Result getResult(int index) {
+        return mResults.get(index);
+    }
+
+    /**
+     * @return number of items
+     */
+    public int getCount() {
+        return mResults.size();
+    }
+
+    /**
+     * @return number of succeeded items
+     */
+    public int getSuccessCount() {
+        int count = 0;
+        for (Result result : mResults) {
+            if (result.isSuccess()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return failed items
+     */
+    public List<Result> getFailures() {
+        List<Result> failures = new ArrayList<Result>();
+        for (Result result : mResults) {
+            if (!result.isSuccess()) {
+                failures.add(result);
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * @return true if every item succeeded
+     */
+    public boolean isAllSuccess() {
+        return getSuccessCount() == mResults.size();
+    }
+
+    @Override
+    public String toString() {
+        return "BatchResponse [count=" + getCount() + ", success=" + getSuccessCount() + "]";
+    }
+}
@@ -0,0 +1,10 @@
+
+package com.kth.baasio.batch;
+
+import org.usergrid.android.client.callbacks.ClientCallback;
+
+public interface BatchResponseCallback extends ClientCallback<BatchResponse> {
+
+    public void onResponse(BatchResponse response);
+
+}
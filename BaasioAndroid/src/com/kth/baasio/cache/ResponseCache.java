@@ -0,0 +1,735 @@
+
+package com.kth.baasio.cache;
+
+import static com.kth.common.utils.LogUtils.LOGD;
+import static com.kth.common.utils.LogUtils.LOGE;
+import static com.kth.common.utils.LogUtils.makeLogTag;
+
+import com.kth.baasio.circuit.Endpoint;
+import com.kth.baasio.metrics.BaasioMetrics;
+import com.kth.baasio.metrics.Metrics;
+import com.kth.baasio.ssl.HttpUtils;
+import com.kth.baasio.transfer.HttpStatusException;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Process;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * On-disk LRU cache of GET responses. A response younger than the time to
+ * live is returned without network. An older one is revalidated with
+ * If-None-Match/If-Modified-Since, so an unchanged response costs only a 304.
+ * Within the stale-while-revalidate window, the stale response is returned at
+ * once and revalidated in background. The stale response is also returned
+ * when the server can not be reached.
+ * <p>
+ * Baasio calls {@link #invalidate(String)} after a successful write, so
+ * that the cached queries and entities of the collection are fetched again.
+ */
+public class ResponseCache {
+    private static final String TAG = makeLogTag(ResponseCache.class);
+
+    public static final long DEFAULT_TIME_TO_LIVE = 30 * 1000;
+
+    public static final long DEFAULT_STALE_WHILE_REVALIDATE = 5 * 60 * 1000;
+
+    private static final String DIR_NAME = "baasio_responses";
+
+    private static final String SUFFIX = ".entry";
+
+    private static final int VERSION = 2;
+
+    private static final int MAX_REVALIDATIONS = 2;
+
+    private static final int MAX_QUEUED_REVALIDATIONS = 32;
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static ExecutorService sRevalidator;
+
+    private final File mDir;
+
+    private final long mMaxSize;
+
+    private volatile long mTimeToLive = DEFAULT_TIME_TO_LIVE;
+
+    private volatile long mStaleWhileRevalidate = DEFAULT_STALE_WHILE_REVALIDATE;
+
+    /** file name to file size, in access order */
+    private final LinkedHashMap<String, Long> mIndex = new LinkedHashMap<String, Long>(16, 0.75f,
+            true);
+
+    private long mSize;
+
+    private boolean mIndexLoaded;
+
+    /** file name to request url, of the entries read or written so far */
+    private final Map<String, String> mUrls = new HashMap<String, String>();
+
+    /** incremented by invalidate, so that a fetch started before is not stored */
+    private int mGeneration;
+
+    private final Set<String> mRevalidating = new HashSet<String>();
+
+    private static class Entry {
+        String url;
+
+        String etag;
+
+        String lastModified;
+
+        long storedAt;
+
+        String body;
+    }
+
+    /**
+     * Create a cache in the cache directory of the application.
+     *
+     * @param context context
+     * @param maxSize maximum size(byte) on disk
+     * @return cache
+     */
+    public static ResponseCache create(Context context, long maxSize) {
+        return new ResponseCache(new File(context.getCacheDir(), DIR_NAME), maxSize);
+    }
+
+    /**
+     * @param dir directory to store responses
+     * @param maxSize maximum size(byte) on disk
+     */
+    public ResponseCache(File dir, long maxSize) {
+        if (dir == null) {
+            throw new IllegalArgumentException("Directory may not be null");
+        }
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Invalid max size");
+        }
+
+        mDir = dir;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Set the time(ms) a response is used without revalidation.
+     *
+     * @param millis time to live(ms)
+     */
+    public boolean setTimeToLive(long millis) {
+        if (millis >= 0) {
+            mTimeToLive = millis;
+            return true;
+        }
+
+        return false;
+    }
+
+    public long getTimeToLive() {
+        return mTimeToLive;
+    }
+
+    /**
+     * Set the time(ms) after the time to live, in which the stale response is
+     * returned and revalidated in background.
+     *
+     * @param millis stale-while-revalidate window(ms)
+     */
+    public boolean setStaleWhileRevalidate(long millis) {
+        if (millis >= 0) {
+            mStaleWhileRevalidate = millis;
+            return true;
+        }
+
+        return false;
+    }
+
+    public long getStaleWhileRevalidate() {
+        return mStaleWhileRevalidate;
+    }
+
+    /**
+     * Get the response body of a GET request from cache or network. Responses
+     * of client errors(4xx) are returned but not stored.
+     *
+     * @param url request url
+     * @param headers request headers
+     * @return response body
+     * @throws IOException network failure without cached response
+     */
+    public String get(String url, Map<String, String> headers) throws IOException {
+        return get(url, headers, null);
+    }
+
+    /**
+     * Get the response body of a GET request from cache or network. Requests
+     * to the network, including revalidations in background, are sent under
+     * the circuit breaker and the concurrency limit of the endpoint. While the
+     * circuit is open, a cached response is returned however old it is.
+     *
+     * @param url request url
+     * @param headers request headers
+     * @param endpoint endpoint of the request, or null
+     * @return response body
+     * @throws IOException network failure without cached response
+     */
+    public String get(String url, Map<String, String> headers, Endpoint endpoint)
+            throws IOException {
+        String name = fileName(url, headers);
+        Entry entry = read(name);
+
+        if (entry != null) {
+            long age = System.currentTimeMillis() - entry.storedAt;
+            if (age >= 0 && age < mTimeToLive) {
+                Metrics.cacheLookup(BaasioMetrics.CACHE_HIT);
+                return entry.body;
+            }
+
+            if (age >= 0 && age < mTimeToLive + mStaleWhileRevalidate) {
+                revalidateInBackground(name, url, headers, entry, endpoint);
+                Metrics.cacheLookup(BaasioMetrics.CACHE_STALE);
+                return entry.body;
+            }
+        }
+
+        try {
+            String body = fetch(name, url, headers, entry, endpoint);
+            // fetch returns the cached body itself on 304
+            boolean notModified = entry != null && body == entry.body;
+            Metrics.cacheLookup(notModified ? BaasioMetrics.CACHE_NOT_MODIFIED
+                    : BaasioMetrics.CACHE_MISS);
+            return body;
+        } catch (IOException e) {
+            if (entry != null) {
+                LOGE(TAG, "Return stale response: " + e.getMessage());
+                Metrics.cacheLookup(BaasioMetrics.CACHE_STALE);
+                return entry.body;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Remove the cached response of a request.
+     *
+     * @param url request url
+     * @param headers request headers
+     */
+    public void remove(String url, Map<String, String> headers) {
+        String name = fileName(url, headers);
+        synchronized (mIndex) {
+            loadIndex();
+            delete(name);
+        }
+    }
+
+    /**
+     * Remove the cached responses of a url and the urls under it, e.g.
+     * "https://api.baas.io/org/app/books" removes the queries of the
+     * collection and its entities, of every user.
+     *
+     * @param url url prefix
+     */
+    public void invalidate(String url) {
+        synchronized (mIndex) {
+            loadIndex();
+            mGeneration++;
+
+            List<String> names = new ArrayList<String>(mIndex.keySet());
+            for (String name : names) {
+                String cached = mUrls.get(name);
+                if (cached == null) {
+                    cached = readUrl(name);
+                }
+
+                if (cached == null || isUnder(cached, url)) {
+                    delete(name);
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove all cached responses.
+     */
+    public void clear() {
+        synchronized (mIndex) {
+            loadIndex();
+            for (String name : mIndex.keySet()) {
+                new File(mDir, name).delete();
+            }
+            mIndex.clear();
+            mUrls.clear();
+            mSize = 0;
+            mGeneration++;
+        }
+    }
+
+    /**
+     * @return size(byte) of cached responses on disk
+     */
+    public long getSize() {
+        synchronized (mIndex) {
+            loadIndex();
+            return mSize;
+        }
+    }
+
+    private void revalidateInBackground(final String name, final String url,
+            final Map<String, String> headers, final Entry entry, final Endpoint endpoint) {
+        synchronized (mRevalidating) {
+            if (!mRevalidating.add(name)) {
+                return;
+            }
+        }
+
+        try {
+            getRevalidator().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        fetch(name, url, headers, entry, endpoint);
+                    } catch (IOException e) {
+                        LOGE(TAG, "Revalidation failed: " + e.getMessage());
+                    } finally {
+                        synchronized (mRevalidating) {
+                            mRevalidating.remove(name);
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // too many revalidations. the next stale read tries again.
+            synchronized (mRevalidating) {
+                mRevalidating.remove(name);
+            }
+        }
+    }
+
+    /**
+     * Revalidations of every cache share a small pool with a bounded queue.
+     */
+    private static synchronized ExecutorService getRevalidator() {
+        if (sRevalidator == null) {
+            final AtomicInteger count = new AtomicInteger(1);
+            // a pool grows over its core size only when the queue is full, so
+            // the core size is the limit.
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_REVALIDATIONS,
+                    MAX_REVALIDATIONS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(MAX_QUEUED_REVALIDATIONS),
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(final Runnable r) {
+                            Thread thread = new Thread("Baasio-Revalidate #"
+                                    + count.getAndIncrement()) {
+                                @Override
+                                public void run() {
+                                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                    r.run();
+                                }
+                            };
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            if (Build.VERSION.SDK_INT >= 9) {
+                // let idle threads exit. not available on Froyo.
+                executor.allowCoreThreadTimeOut(true);
+            }
+            sRevalidator = executor;
+        }
+        return sRevalidator;
+    }
+
+    private String fetch(String name, String url, Map<String, String> headers, Entry entry,
+            Endpoint endpoint) throws IOException {
+        if (endpoint == null) {
+            return fetch(name, url, headers, entry);
+        }
+
+        Endpoint.Permit permit = endpoint.acquire();
+        boolean failed = true;
+        try {
+            String body = fetch(name, url, headers, entry);
+            failed = false;
+            return body;
+        } catch (HttpStatusException e) {
+            failed = e.getStatusCode() == 429 || e.getStatusCode() >= 500;
+            throw e;
+        } finally {
+            endpoint.release(permit, failed);
+        }
+    }
+
+    private String fetch(String name, String url, Map<String, String> headers, Entry entry)
+            throws IOException {
+        HttpGet get = new HttpGet(url);
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                get.setHeader(header.getKey(), header.getValue());
+            }
+        }
+        if (entry != null) {
+            if (entry.etag != null) {
+                get.setHeader("If-None-Match", entry.etag);
+            }
+            if (entry.lastModified != null) {
+                get.setHeader("If-Modified-Since", entry.lastModified);
+            }
+        }
+
+        HttpUtils.acceptGzip(get);
+
+        int generation;
+        synchronized (mIndex) {
+            generation = mGeneration;
+        }
+
+        long start = System.nanoTime();
+        long headersNanos = -1;
+        int status = 0;
+        long bytesIn = -1;
+
+        HttpResponse response = null;
+        try {
+            response = HttpUtils.getHttpClient().execute(get);
+            headersNanos = System.nanoTime() - start;
+
+            status = response.getStatusLine().getStatusCode();
+            if (status == HttpStatus.SC_NOT_MODIFIED && entry != null) {
+                LOGD(TAG, "Not modified: " + url);
+                entry.storedAt = System.currentTimeMillis();
+                write(name, entry, generation);
+                return entry.body;
+            }
+
+            HttpEntity body = response.getEntity();
+            if (status >= 500 || body == null) {
+                throw new HttpStatusException(status);
+            }
+            bytesIn = body.getContentLength();
+
+            String content = readString(HttpUtils.getUngzippedContent(body));
+            if (status == HttpStatus.SC_OK) {
+                Entry fresh = new Entry();
+                fresh.url = url;
+                fresh.etag = headerValue(response, "ETag");
+                fresh.lastModified = headerValue(response, "Last-Modified");
+                fresh.storedAt = System.currentTimeMillis();
+                fresh.body = content;
+                write(name, fresh, generation);
+            }
+            return content;
+        } catch (IOException e) {
+            get.abort();
+            throw e;
+        } catch (RuntimeException e) {
+            get.abort();
+            throw e;
+        } finally {
+            if (response != null) {
+                HttpUtils.consumeQuietly(response);
+            }
+            Metrics.operation(BaasioMetrics.API_REQUEST, "GET", status, headersNanos,
+                    System.nanoTime() - start, 0, bytesIn, 0);
+        }
+    }
+
+    private static String readString(InputStream in) throws IOException {
+        Reader reader = new InputStreamReader(in, "UTF-8");
+        try {
+            StringBuilder sb = new StringBuilder();
+            char[] buffer = new char[4096];
+            int l;
+            while ((l = reader.read(buffer)) != -1) {
+                sb.append(buffer, 0, l);
+            }
+            return sb.toString();
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static String headerValue(HttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        return header != null ? header.getValue() : null;
+    }
+
+    private Entry read(String name) {
+        File file = new File(mDir, name);
+
+        synchronized (mIndex) {
+            loadIndex();
+            if (mIndex.get(name) == null) {
+                return null;
+            }
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != VERSION) {
+                throw new IOException("Unknown version");
+            }
+
+            Entry entry = new Entry();
+            entry.url = in.readUTF();
+            entry.etag = readString(in);
+            entry.lastModified = readString(in);
+            entry.storedAt = in.readLong();
+
+            byte[] body = new byte[in.readInt()];
+            in.readFully(body);
+            entry.body = new String(body, "UTF-8");
+
+            synchronized (mIndex) {
+                if (mIndex.containsKey(name)) {
+                    mUrls.put(name, entry.url);
+                }
+            }
+            return entry;
+        } catch (IOException e) {
+            LOGE(TAG, "Broken cache entry: " + e.getMessage());
+            synchronized (mIndex) {
+                delete(name);
+            }
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * @return url of a stored response, or null if it can not be read
+     */
+    private String readUrl(String name) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(new File(mDir,
+                    name))));
+            if (in.readInt() != VERSION) {
+                return null;
+            }
+
+            String url = in.readUTF();
+            mUrls.put(name, url);
+            return url;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    private void write(String name, Entry entry, int generation) {
+        if (!mDir.exists()) {
+            mDir.mkdirs();
+        }
+
+        File file = new File(mDir, name);
+        File tmp = new File(mDir, name + "." + Thread.currentThread().getId() + ".tmp");
+
+        DataOutputStream out = null;
+        try {
+            byte[] body = entry.body.getBytes("UTF-8");
+
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(VERSION);
+            out.writeUTF(entry.url);
+            writeString(out, entry.etag);
+            writeString(out, entry.lastModified);
+            out.writeLong(entry.storedAt);
+            out.writeInt(body.length);
+            out.write(body);
+            out.close();
+            out = null;
+
+            synchronized (mIndex) {
+                loadIndex();
+                if (generation != mGeneration) {
+                    LOGD(TAG, "Invalidated while fetching: " + entry.url);
+                    delete(name);
+                    return;
+                }
+                if (!tmp.renameTo(file)) {
+                    throw new IOException("Failed to rename " + tmp);
+                }
+
+                Long old = mIndex.put(name, file.length());
+                if (old != null) {
+                    mSize -= old;
+                }
+                mSize += file.length();
+                mUrls.put(name, entry.url);
+
+                trimToSize();
+            }
+        } catch (IOException e) {
+            LOGE(TAG, "Failed to store response: " + e.getMessage());
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                }
+            }
+            tmp.delete();
+        }
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> iterator = mIndex.entrySet().iterator();
+        while (mSize > mMaxSize && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            new File(mDir, eldest.getKey()).delete();
+            mUrls.remove(eldest.getKey());
+            mSize -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Remove an entry. Must hold mIndex.
+     */
+    private void delete(String name) {
+        Long size = mIndex.remove(name);
+        if (size != null) {
+            mSize -= size;
+        }
+        mUrls.remove(name);
+        new File(mDir, name).delete();
+    }
+
+    /**
+     * @return true if url is the prefix, or a path or query under it
+     */
+    private static boolean isUnder(String url, String prefix) {
+        if (!url.startsWith(prefix)) {
+            return false;
+        }
+        if (url.length() == prefix.length()) {
+            return true;
+        }
+
+        char next = url.charAt(prefix.length());
+        return next == '/' || next == '?' || prefix.endsWith("/");
+    }
+
+    /**
+     * Build index from the files, the least recently modified first.
+     */
+    private void loadIndex() {
+        if (mIndexLoaded) {
+            return;
+        }
+        mIndexLoaded = true;
+
+        File[] files = mDir.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(SUFFIX)) {
+                mIndex.put(name, file.length());
+                mSize += file.length();
+            } else {
+                // temporary file left by a crash
+                file.delete();
+            }
+        }
+        trimToSize();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Responses depend on the user, so the authorization is a part of the key.
+     */
+    private static String fileName(String url, Map<String, String> headers) {
+        String authorization = headers != null ? headers.get("Authorization") : null;
+        String value = url + "|" + authorization;
+
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            byte[] hash = md.digest(value.getBytes("UTF-8"));
+
+            StringBuilder sb = new StringBuilder(hash.length * 2 + SUFFIX.length());
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.append(SUFFIX).toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(value.hashCode()) + SUFFIX;
+        } catch (UnsupportedEncodingException e) {
+            return Integer.toHexString(value.hashCode()) + SUFFIX;
+        }
+    }
+}
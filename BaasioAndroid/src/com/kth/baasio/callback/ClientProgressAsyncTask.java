@@ -1,14 +1,94 @@
 
 package com.kth.baasio.callback;
 
+import com.kth.baasio.transfer.TransferScheduler;
+
 import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.RejectedExecutionException;
 
 public abstract class ClientProgressAsyncTask<T> extends AsyncTask<Void, ProgressInfo, T> {
 
+    private static Handler sMainHandler;
+
     ClientProgressCallback<T> mCallback;
 
+    private Runnable mScheduledTask;
+
+    private final ProgressDispatcher mProgressDispatcher;
+
     public ClientProgressAsyncTask(ClientProgressCallback<T> callback) {
         this.mCallback = callback;
+
+        mProgressDispatcher = new ProgressDispatcher(getMainHandler(),
+                new ProgressDispatcher.Target() {
+                    @Override
+                    public void onProgress(ProgressInfo info) {
+                        if (!isCancelled()) {
+                            onProgressUpdate(info);
+                        }
+                    }
+                });
+    }
+
+    static synchronized Handler getMainHandler() {
+        if (sMainHandler == null) {
+            sMainHandler = new Handler(Looper.getMainLooper());
+        }
+        return sMainHandler;
+    }
+
+    /**
+     * Run this task on {@link TransferScheduler} instead of the AsyncTask
+     * pool. The callbacks are called in the UI thread as same as
+     * {@link #execute(Void...)}, and {@link #cancel(boolean)} works as well.
+     * <p>
+     * The task is not executed by AsyncTask, so {@link #getStatus()} stays
+     * PENDING and {@link #get()} never returns. Use the callback instead.
+     *
+     * @param priority one of TransferScheduler.PRIORITY_HIGH, PRIORITY_NORMAL,
+     *            PRIORITY_LOW
+     * @param size transfer size(byte), or negative if unknown
+     * @param host destination host
+     * @return this task
+     */
+    public final ClientProgressAsyncTask<T> schedule(int priority, long size, String host) {
+        mScheduledTask = new Runnable() {
+            @Override
+            public void run() {
+                if (isCancelled()) {
+                    return;
+                }
+
+                final T result = doInBackground();
+
+                getMainHandler().post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!isCancelled()) {
+                            onPostExecute(result);
+                        }
+                    }
+                });
+            }
+        };
+
+        try {
+            TransferScheduler.getInstance().submit(mScheduledTask, priority, size, host);
+        } catch (final RejectedExecutionException e) {
+            getMainHandler().post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mCallback != null) {
+                        mCallback.onException(e);
+                    }
+                }
+            });
+        }
+
+        return this;
     }
 
     @Override
@@ -19,16 +99,33 @@ public abstract class ClientProgressAsyncTask<T> extends AsyncTask<Void, Progres
             ProgressInfo info = new ProgressInfo();
             info.setException(e);
             this.publishProgress(info);
+        } finally {
+            mProgressDispatcher.flush();
         }
         return null;
     }
 
+    /**
+     * Publish transfer progress from background. Updates are throttled by
+     * {@link ProgressDispatcher}, and the final one is always delivered.
+     *
+     * @param total total size(byte), or negative if unknown
+     * @param current transferred size(byte)
+     */
+    protected final void publishTransferProgress(long total, long current) {
+        mProgressDispatcher.offer(total, current);
+    }
+
     public abstract T doTask();
 
     public abstract void doCancel();
 
     @Override
     protected void onCancelled() {
+        if (mScheduledTask != null) {
+            TransferScheduler.getInstance().remove(mScheduledTask);
+        }
+
         doCancel();
         super.onCancelled();
     }
@@ -1,35 +1,66 @@
 
 package com.kth.baasio.callback;
 
-import com.kth.baasio.Baasio;
+import com.kth.baasio.transfer.AdaptiveBufferPolicy;
+import com.kth.baasio.transfer.BufferPool;
 
 import org.apache.http.entity.AbstractHttpEntity;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.GZIPOutputStream;
 
 public class FileEntityWidthProgress extends AbstractHttpEntity implements Cloneable {
 
     protected final File file;
 
+    private final long offset;
+
+    private final long length;
+
     private final ProgressListener listener;
 
     private long transferredBytes;
 
-    private boolean isCancelled = false;
+    private volatile boolean isCancelled = false;
 
-    private int mUploadBuffSize = Baasio.getUploadBuffSize();
+    private boolean compressed = false;
 
     public FileEntityWidthProgress(final File file, final String contentType,
             ProgressListener listener) {
+        this(file, 0, -1, contentType, listener);
+    }
+
+    /**
+     * Entity which sends a byte range of the file. The listener is notified
+     * with the absolute position in the file.
+     *
+     * @param file source file
+     * @param offset start position
+     * @param length number of bytes to send, or -1 to send till the end of
+     *            file
+     * @param contentType content type
+     * @param listener progress listener
+     */
+    protected FileEntityWidthProgress(final File file, final long offset, final long length,
+            final String contentType, ProgressListener listener) {
         super();
         if (file == null) {
             throw new IllegalArgumentException("File may not be null");
         }
+        if (offset < 0) {
+            throw new IllegalArgumentException("Invalid offset");
+        }
         this.file = file;
+        this.offset = offset;
+        this.length = length;
         this.listener = listener;
         this.transferredBytes = 0;
         setContentType(contentType);
@@ -39,34 +70,120 @@ public class FileEntityWidthProgress extends AbstractHttpEntity implements Clone
         isCancelled = true;
     }
 
+    /**
+     * Send the file gzipped, compressing chunk by chunk while writing. The
+     * length is not known in advance, so it is sent chunked. Progress is
+     * reported in bytes of the file.
+     *
+     * @param compressed true to compress
+     */
+    public void setCompressed(boolean compressed) {
+        this.compressed = compressed;
+        setContentEncoding(compressed ? "gzip" : null);
+        setChunked(compressed);
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
     public boolean isRepeatable() {
         return true;
     }
 
     public long getContentLength() {
-        return this.file.length();
+        if (this.compressed) {
+            return -1;
+        }
+        return getSourceLength();
+    }
+
+    private long getSourceLength() {
+        if (this.length < 0) {
+            return this.file.length() - this.offset;
+        }
+        return this.length;
     }
 
     public InputStream getContent() throws IOException {
-        return new FileInputStream(this.file);
+        FileInputStream instream = new FileInputStream(this.file);
+        if (this.offset > 0) {
+            instream.getChannel().position(this.offset);
+        }
+        return instream;
     }
 
     public void writeTo(final OutputStream outstream) throws IOException {
         if (outstream == null) {
             throw new IllegalArgumentException("Output stream may not be null");
         }
-        InputStream instream = new FileInputStream(this.file);
+
+        if (this.compressed) {
+            GZIPOutputStream gzip = new GZIPOutputStream(new NonClosingOutputStream(outstream),
+                    BufferPool.MIN_SIZE);
+            writeSource(gzip);
+            gzip.finish();
+            gzip.close();
+            outstream.flush();
+        } else {
+            writeSource(outstream);
+        }
+    }
+
+    private void writeSource(final OutputStream outstream) throws IOException {
+        AdaptiveBufferPolicy policy = new AdaptiveBufferPolicy(AdaptiveBufferPolicy.UPLOAD);
+        byte[] tmp = null;
+        FileInputStream instream = new FileInputStream(this.file);
         try {
-            byte[] tmp = new byte[mUploadBuffSize];
-            int l;
-            while ((l = instream.read(tmp)) != -1 && !isCancelled) {
-                outstream.write(tmp, 0, l);
-                this.transferredBytes += l;
-                this.listener.updateTransferred(this.transferredBytes);
+            FileChannel channel = instream.getChannel();
+
+            long position = this.offset;
+            long end = this.offset + getSourceLength();
+            this.transferredBytes = this.offset;
+
+            if (outstream instanceof FileOutputStream) {
+                // both ends are files. let the kernel copy.
+                FileChannel target = ((FileOutputStream)outstream).getChannel();
+                while (position < end && !isCancelled) {
+                    long started = System.nanoTime();
+                    long l = channel.transferTo(position,
+                            Math.min(policy.getChunkSize(), end - position), target);
+                    if (l <= 0) {
+                        throw new IOException("Unexpected end of file");
+                    }
+                    policy.onChunk((int)l, System.nanoTime() - started);
+                    position += l;
+                    notifyTransferred(l);
+                }
+            } else {
+                tmp = BufferPool.acquire(policy.getChunkSize());
+                ByteBuffer buffer = ByteBuffer.wrap(tmp);
+                while (position < end && !isCancelled) {
+                    if (policy.getChunkSize() > tmp.length) {
+                        BufferPool.release(tmp);
+                        tmp = BufferPool.acquire(policy.getChunkSize());
+                        buffer = ByteBuffer.wrap(tmp);
+                    }
+
+                    long started = System.nanoTime();
+                    buffer.clear();
+                    buffer.limit((int)Math.min(policy.getChunkSize(), end - position));
+
+                    int l = channel.read(buffer, position);
+                    if (l == -1) {
+                        throw new IOException("Unexpected end of file");
+                    }
+                    outstream.write(tmp, 0, l);
+                    policy.onChunk(l, System.nanoTime() - started);
+                    position += l;
+                    notifyTransferred(l);
+                }
             }
             outstream.flush();
         } finally {
             instream.close();
+            BufferPool.release(tmp);
+            policy.finish();
 
             if (isCancelled) {
                 throw new IOException("Upload Cancelled");
@@ -74,6 +191,32 @@ public class FileEntityWidthProgress extends AbstractHttpEntity implements Clone
         }
     }
 
+    private void notifyTransferred(long bytes) {
+        this.transferredBytes += bytes;
+        if (this.listener != null) {
+            this.listener.updateTransferred(this.transferredBytes);
+        }
+    }
+
+    /**
+     * Keeps the connection stream open when the gzip stream is closed.
+     */
+    private static class NonClosingOutputStream extends FilterOutputStream {
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
     public boolean isStreaming() {
         return false;
     }
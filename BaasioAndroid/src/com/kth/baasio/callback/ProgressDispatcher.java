@@ -0,0 +1,157 @@
+
+package com.kth.baasio.callback;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Delivers transfer progress to the UI thread without flooding it. An update
+ * is dropped unless both minimum interval and minimum byte delta passed since
+ * the last one, except the final update which is always delivered. Only one
+ * delivery is queued at a time and it carries the latest value, so stale
+ * updates never pile up in the message queue. Each update is a new
+ * {@link ProgressInfo} which is not modified afterwards.
+ * <p>
+ * An update lower than the previous one means a new attempt of the transfer,
+ * e.g. a retried request which sends its body again. It is delivered at once
+ * and throttling starts over from it.
+ */
+public class ProgressDispatcher {
+
+    public static final long DEFAULT_MIN_INTERVAL_MILLIS = 100;
+
+    public static final long DEFAULT_MIN_BYTE_DELTA = 8 * 1024;
+
+    private static volatile long sMinIntervalMillis = DEFAULT_MIN_INTERVAL_MILLIS;
+
+    private static volatile long sMinByteDelta = DEFAULT_MIN_BYTE_DELTA;
+
+    public interface Target {
+        public void onProgress(ProgressInfo info);
+    }
+
+    private final Handler mHandler;
+
+    private final Target mTarget;
+
+    private final AtomicReference<ProgressInfo> mPending = new AtomicReference<ProgressInfo>();
+
+    private long mLastTime = 0;
+
+    private long mLastBytes = 0;
+
+    private long mLastOffered = 0;
+
+    private ProgressInfo mThrottled;
+
+    private final Runnable mDeliver = new Runnable() {
+        @Override
+        public void run() {
+            ProgressInfo info = mPending.getAndSet(null);
+            if (info != null) {
+                mTarget.onProgress(info);
+            }
+        }
+    };
+
+    /**
+     * Get minimum interval(ms) between progress updates.
+     *
+     * @return minimum interval(ms)
+     */
+    public static long getMinInterval() {
+        return sMinIntervalMillis;
+    }
+
+    /**
+     * Set minimum interval(ms) between progress updates.
+     *
+     * @param millis minimum interval(ms)
+     */
+    public static boolean setMinInterval(long millis) {
+        if (millis >= 0) {
+            sMinIntervalMillis = millis;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Get minimum transferred bytes between progress updates.
+     *
+     * @return minimum byte delta
+     */
+    public static long getMinByteDelta() {
+        return sMinByteDelta;
+    }
+
+    /**
+     * Set minimum transferred bytes between progress updates.
+     *
+     * @param bytes minimum byte delta
+     */
+    public static boolean setMinByteDelta(long bytes) {
+        if (bytes >= 0) {
+            sMinByteDelta = bytes;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * @param handler handler of the thread to deliver progress
+     * @param target receiver of progress
+     */
+    public ProgressDispatcher(Handler handler, Target target) {
+        mHandler = handler;
+        mTarget = target;
+    }
+
+    /**
+     * Offer a progress. Can be called from any thread, but the updates of a
+     * transfer must be offered in order.
+     *
+     * @param total total size(byte), or negative if unknown
+     * @param current transferred size(byte)
+     */
+    public synchronized void offer(long total, long current) {
+        boolean restarted = current < mLastOffered;
+        mLastOffered = current;
+
+        ProgressInfo snapshot = new ProgressInfo(total, current);
+
+        long now = SystemClock.uptimeMillis();
+        boolean last = total >= 0 && current >= total;
+        // the first update waits only for the byte delta
+        boolean early = mLastTime > 0 && now - mLastTime < sMinIntervalMillis;
+        if (!last && !restarted && (early || current - mLastBytes < sMinByteDelta)) {
+            mThrottled = snapshot;
+            return;
+        }
+
+        mThrottled = null;
+        mLastTime = now;
+        mLastBytes = current;
+        post(snapshot);
+    }
+
+    /**
+     * Deliver the last throttled progress, if any.
+     */
+    public synchronized void flush() {
+        if (mThrottled != null) {
+            post(mThrottled);
+            mThrottled = null;
+        }
+    }
+
+    private void post(ProgressInfo info) {
+        if (mPending.getAndSet(info) == null) {
+            mHandler.post(mDeliver);
+        }
+    }
+}
@@ -8,6 +8,14 @@ public class ProgressInfo {
 
     private Long current;
 
+    public ProgressInfo() {
+    }
+
+    public ProgressInfo(long total, long current) {
+        this.total = total;
+        this.current = current;
+    }
+
     /**
      * @return the total size
      */
@@ -0,0 +1,222 @@
+
+package com.kth.baasio.circuit;
+
+/**
+ * Stops sending requests to an endpoint which keeps failing. While the
+ * circuit is open, requests fail at once without touching the network. After
+ * the open duration, a few probe requests are let through one at a time, and
+ * the circuit closes again when they succeed.
+ */
+public class CircuitBreaker {
+
+    public static final int CLOSED = 0;
+
+    public static final int OPEN = 1;
+
+    public static final int HALF_OPEN = 2;
+
+    public static final int DEFAULT_WINDOW_SIZE = 20;
+
+    public static final int DEFAULT_MIN_CALLS = 10;
+
+    public static final int DEFAULT_FAILURE_PERCENT = 50;
+
+    public static final long DEFAULT_OPEN_MILLIS = 30 * 1000;
+
+    public static final int DEFAULT_PROBE_COUNT = 3;
+
+    /** returned by {@link #tryAcquire()} when the request should fail at once */
+    public static final long NO_TICKET = -1;
+
+    private final String mName;
+
+    private int mWindowSize = DEFAULT_WINDOW_SIZE;
+
+    private int mMinCalls = DEFAULT_MIN_CALLS;
+
+    private int mFailurePercent = DEFAULT_FAILURE_PERCENT;
+
+    private long mOpenMillis = DEFAULT_OPEN_MILLIS;
+
+    private int mProbeCount = DEFAULT_PROBE_COUNT;
+
+    /** results of the latest calls in a ring, true for failure */
+    private boolean[] mWindow = new boolean[DEFAULT_WINDOW_SIZE];
+
+    private int mWindowIndex;
+
+    private int mCalls;
+
+    private int mFailures;
+
+    private int mState = CLOSED;
+
+    private long mOpenedAt;
+
+    private boolean mProbing;
+
+    private int mProbeSuccesses;
+
+    /**
+     * incremented on every change of state, so that the result of a request
+     * permitted before is not counted in the new state
+     */
+    private long mGeneration;
+
+    CircuitBreaker(String name) {
+        mName = name;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Set when the circuit opens.
+     *
+     * @param windowSize number of latest calls to count failures in
+     * @param minCalls minimum number of calls in the window to open
+     * @param failurePercent failure rate(%) to open, in (0, 100]
+     */
+    public synchronized boolean setThreshold(int windowSize, int minCalls, int failurePercent) {
+        if (windowSize < 1 || minCalls < 1 || minCalls > windowSize || failurePercent <= 0
+                || failurePercent > 100) {
+            return false;
+        }
+
+        mWindowSize = windowSize;
+        mMinCalls = minCalls;
+        mFailurePercent = failurePercent;
+        resetWindow();
+        return true;
+    }
+
+    /**
+     * Set how long the circuit stays open before probing.
+     *
+     * @param millis open duration(ms)
+     * @param probeCount number of successful probes to close
+     */
+    public synchronized boolean setOpenDuration(long millis, int probeCount) {
+        if (millis < 0 || probeCount < 1) {
+            return false;
+        }
+
+        mOpenMillis = millis;
+        mProbeCount = probeCount;
+        return true;
+    }
+
+    /**
+     * @return CLOSED, OPEN or HALF_OPEN
+     */
+    public synchronized int getState() {
+        if (mState == OPEN && now() - mOpenedAt >= mOpenMillis) {
+            return HALF_OPEN;
+        }
+        return mState;
+    }
+
+    /**
+     * Ask to send a request. Every ticket must be given back by
+     * {@link #onResult(long, boolean)} or {@link #cancel(long)}.
+     *
+     * @return ticket of the request, or {@link #NO_TICKET} if the request
+     *         should fail at once
+     */
+    public synchronized long tryAcquire() {
+        if (mState == OPEN) {
+            if (now() - mOpenedAt < mOpenMillis) {
+                return NO_TICKET;
+            }
+            mState = HALF_OPEN;
+            mProbeSuccesses = 0;
+            mGeneration++;
+        }
+
+        if (mState == HALF_OPEN) {
+            if (mProbing) {
+                return NO_TICKET;
+            }
+            mProbing = true;
+            return (mGeneration << 1) | 1;
+        }
+        return mGeneration << 1;
+    }
+
+    /**
+     * Record the result of a permitted request. The result of a request
+     * permitted before the last change of state is ignored.
+     *
+     * @param ticket value returned by {@link #tryAcquire()}
+     * @param failed true if the server or the network failed
+     */
+    public synchronized void onResult(long ticket, boolean failed) {
+        if (ticket < 0 || (ticket >> 1) != mGeneration) {
+            return;
+        }
+
+        if (isProbe(ticket)) {
+            mProbing = false;
+            if (failed) {
+                open();
+            } else if (++mProbeSuccesses >= mProbeCount) {
+                mState = CLOSED;
+                mGeneration++;
+                resetWindow();
+            }
+            return;
+        }
+
+        if (mCalls == mWindowSize) {
+            if (mWindow[mWindowIndex]) {
+                mFailures--;
+            }
+        } else {
+            mCalls++;
+        }
+        mWindow[mWindowIndex] = failed;
+        if (failed) {
+            mFailures++;
+        }
+        mWindowIndex = (mWindowIndex + 1) % mWindowSize;
+
+        if (mCalls >= mMinCalls && mFailures * 100 >= mFailurePercent * mCalls) {
+            open();
+        }
+    }
+
+    /**
+     * Give back a ticket without a result, when the request was not sent.
+     *
+     * @param ticket value returned by {@link #tryAcquire()}
+     */
+    public synchronized void cancel(long ticket) {
+        if (ticket >= 0 && (ticket >> 1) == mGeneration && isProbe(ticket)) {
+            mProbing = false;
+        }
+    }
+
+    private static boolean isProbe(long ticket) {
+        return (ticket & 1) != 0;
+    }
+
+    private void open() {
+        mState = OPEN;
+        mOpenedAt = now();
+        mProbing = false;
+        mGeneration++;
+        resetWindow();
+    }
+
+    private void resetWindow() {
+        mWindow = new boolean[mWindowSize];
+        mWindowIndex = 0;
+        mCalls = 0;
+        mFailures = 0;
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1000000;
+    }
+}
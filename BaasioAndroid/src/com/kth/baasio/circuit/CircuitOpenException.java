@@ -0,0 +1,27 @@
+
+package com.kth.baasio.circuit;
+
+import java.io.IOException;
+
+/**
+ * Thrown without sending the request, when the circuit of the endpoint is
+ * open or too many requests are in flight.
+ */
+public class CircuitOpenException extends IOException {
+    private static final long serialVersionUID = -6470893021436327553L;
+
+    private final boolean mLimited;
+
+    CircuitOpenException(String message, boolean limited) {
+        super(message);
+        mLimited = limited;
+    }
+
+    /**
+     * @return true if rejected by the concurrency limit, which may pass soon,
+     *         and false if the circuit is open
+     */
+    public boolean isLimited() {
+        return mLimited;
+    }
+}
@@ -0,0 +1,112 @@
+
+package com.kth.baasio.circuit;
+
+/**
+ * Caps requests in flight with a limit adjusted by AIMD. The limit grows by
+ * about one per round trip while requests are fast and the limit is in use,
+ * and shrinks by a factor when a request fails or its latency rises well
+ * above the lowest latency observed, which means requests are queueing up
+ * on the server.
+ */
+public class ConcurrencyLimiter {
+
+    public static final int DEFAULT_INITIAL_LIMIT = 8;
+
+    public static final int DEFAULT_MIN_LIMIT = 1;
+
+    public static final int DEFAULT_MAX_LIMIT = 32;
+
+    /** latency over this multiple of the lowest latency is congestion */
+    private static final double LATENCY_TOLERANCE = 2.0;
+
+    private static final double BACKOFF_RATIO = 0.9;
+
+    /** how fast the lowest latency follows slower samples */
+    private static final double MIN_LATENCY_DRIFT = 0.01;
+
+    private int mMinLimit = DEFAULT_MIN_LIMIT;
+
+    private int mMaxLimit = DEFAULT_MAX_LIMIT;
+
+    private double mLimit = DEFAULT_INITIAL_LIMIT;
+
+    private int mInFlight;
+
+    private double mMinLatencyNanos;
+
+    ConcurrencyLimiter() {
+    }
+
+    /**
+     * Set the range of the limit.
+     *
+     * @param minLimit lower bound, at least 1
+     * @param maxLimit upper bound
+     */
+    public synchronized boolean setLimits(int minLimit, int maxLimit) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            return false;
+        }
+
+        mMinLimit = minLimit;
+        mMaxLimit = maxLimit;
+        mLimit = Math.max(minLimit, Math.min(maxLimit, mLimit));
+        return true;
+    }
+
+    /**
+     * @return current limit of requests in flight
+     */
+    public synchronized int getLimit() {
+        return (int)mLimit;
+    }
+
+    public synchronized int getInFlight() {
+        return mInFlight;
+    }
+
+    /**
+     * @return false if the limit is reached
+     */
+    public synchronized boolean tryAcquire() {
+        if (mInFlight >= (int)mLimit) {
+            return false;
+        }
+        mInFlight++;
+        return true;
+    }
+
+    /**
+     * Finish a request permitted by {@link #tryAcquire()}.
+     *
+     * @param latencyNanos time taken by the request
+     * @param failed true if the server or the network failed
+     */
+    public synchronized void release(long latencyNanos, boolean failed) {
+        int inFlight = mInFlight--;
+
+        if (failed) {
+            mLimit = Math.max(mMinLimit, mLimit * BACKOFF_RATIO);
+            return;
+        }
+
+        if (mMinLatencyNanos == 0 || latencyNanos < mMinLatencyNanos) {
+            mMinLatencyNanos = latencyNanos;
+        } else {
+            mMinLatencyNanos += (latencyNanos - mMinLatencyNanos) * MIN_LATENCY_DRIFT;
+        }
+
+        if (latencyNanos > mMinLatencyNanos * LATENCY_TOLERANCE) {
+            mLimit = Math.max(mMinLimit, mLimit * BACKOFF_RATIO);
+        } else if (inFlight * 2 >= mLimit) {
+            mLimit = Math.min(mMaxLimit, mLimit + 1 / mLimit);
+        }
+    }
+
+    /**
+     * Give back a permission when the request was not sent.
+     */
+    public synchronized void cancel() {
+        mInFlight--;
+    }
+}
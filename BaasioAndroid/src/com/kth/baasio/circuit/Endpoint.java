@@ -0,0 +1,144 @@
+
+package com.kth.baasio.circuit;
+
+/**
+ * Class of API endpoints which share a circuit breaker and a concurrency
+ * limit, so that a failing part of the server does not block the others.
+ * File transfers are not limited here, as TransferScheduler already bounds
+ * them.
+ */
+public class Endpoint {
+
+    public static final Endpoint ENTITIES = new Endpoint("entities", true);
+
+    public static final Endpoint FILES = new Endpoint("files", false);
+
+    public static final Endpoint PUSHES = new Endpoint("pushes", true);
+
+    public static final Endpoint USERS = new Endpoint("users", true);
+
+    private static volatile boolean sEnabled = true;
+
+    /**
+     * Permission to send a request, given back by
+     * {@link Endpoint#release(Permit, boolean)}.
+     */
+    public static class Permit {
+        final long mStart;
+
+        final long mTicket;
+
+        Permit(long start, long ticket) {
+            mStart = start;
+            mTicket = ticket;
+        }
+    }
+
+    private final String mName;
+
+    private final CircuitBreaker mCircuitBreaker;
+
+    private final ConcurrencyLimiter mLimiter;
+
+    private Endpoint(String name, boolean limited) {
+        mName = name;
+        mCircuitBreaker = new CircuitBreaker(name);
+        mLimiter = limited ? new ConcurrencyLimiter() : null;
+    }
+
+    /**
+     * Enable or disable circuit breakers and concurrency limits of every
+     * endpoint.
+     *
+     * @param enabled true to enable
+     */
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * Find the endpoint of an API request.
+     *
+     * @param segments path segments: organization, application, collection,
+     *            ...
+     * @return endpoint
+     */
+    public static Endpoint of(String... segments) {
+        if (segments == null || segments.length < 3 || segments[2] == null) {
+            return ENTITIES;
+        }
+
+        String collection = segments[2];
+        if (collection.equals("files")) {
+            return FILES;
+        }
+        if (collection.equals("pushes") || collection.equals("devices")) {
+            return PUSHES;
+        }
+        if (collection.equals("users") || collection.equals("token")) {
+            return USERS;
+        }
+        return ENTITIES;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return mCircuitBreaker;
+    }
+
+    /**
+     * @return concurrency limiter, or null if not limited
+     */
+    public ConcurrencyLimiter getLimiter() {
+        return mLimiter;
+    }
+
+    /**
+     * Ask to send a request. Every successful call must be followed by
+     * {@link #release(Permit, boolean)}.
+     *
+     * @return permit to pass to {@link #release(Permit, boolean)}, or null if
+     *         circuit breakers are disabled
+     * @throws CircuitOpenException if the request should fail at once
+     */
+    public Permit acquire() throws CircuitOpenException {
+        if (!sEnabled) {
+            return null;
+        }
+
+        long ticket = mCircuitBreaker.tryAcquire();
+        if (ticket == CircuitBreaker.NO_TICKET) {
+            throw new CircuitOpenException("Circuit of " + mName + " is open", false);
+        }
+        if (mLimiter != null && !mLimiter.tryAcquire()) {
+            mCircuitBreaker.cancel(ticket);
+            throw new CircuitOpenException("Too many requests to " + mName, true);
+        }
+        return new Permit(System.nanoTime(), ticket);
+    }
+
+    /**
+     * Finish a request.
+     *
+     * @param permit value returned by {@link #acquire()}
+     * @param failed true if the server or the network failed. Errors of the
+     *            request itself(4xx except 429) are not failures.
+     */
+    public void release(Permit permit, boolean failed) {
+        if (permit == null) {
+            return;
+        }
+
+        mCircuitBreaker.onResult(permit.mTicket, failed);
+        if (mLimiter != null) {
+            mLimiter.release(System.nanoTime() - permit.mStart, failed);
+        }
+    }
+}
@@ -21,6 +21,7 @@ import static org.usergrid.java.client.utils.ObjectUtils.isEmpty;
 import com.google.android.gcm.GCMRegistrar;
 import com.kth.baasio.Baasio;
 import com.kth.baasio.preferences.BaasPreferences;
+import com.kth.baasio.retry.Retrier;
 
 import org.usergrid.java.client.response.ApiResponse;
 
@@ -32,7 +33,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 
 /**
  * Helper class used to communicate with the demo server.
@@ -40,12 +40,6 @@ import java.util.Random;
 final class ServerUtilities {
     private static final String TAG = "GcmUtils";
 
-    private static final int MAX_ATTEMPTS = 5;
-
-    private static final int BACKOFF_MILLIS = 2000;
-
-    private static final Random sRandom = new Random();
-
     static List<String> getTagList(String tagString) {
         List<String> result = new ArrayList<String>();
 
@@ -78,40 +72,18 @@ final class ServerUtilities {
         List<String> tags = getTagList(tagString);
         properties.put("tags", tags);
 
-        long backoff = BACKOFF_MILLIS + sRandom.nextInt(1000);
-        // Once GCM returns a registration id, we need to register it in the
-        // demo server. As the server might be down, we will retry it a couple
-        // times.
-        for (int i = 1; i <= MAX_ATTEMPTS; i++) {
-            Log.v(TAG, "Attempt #" + i + " to register");
-            try {
-                post(context, Baasio.getInstance(), true, properties, currentUsername);
-                GCMRegistrar.setRegisteredOnServer(context, true);
-                BaasPreferences.setRegisteredTags(context, tagString);
-                return true;
-            } catch (IOException e) {
-                // Here we are simplifying and retrying on any error; in a real
-                // application, it should retry only on unrecoverable errors
-                // (like HTTP error code 503).
-                Log.e(TAG, "Failed to register on attempt " + i, e);
-                if (i == MAX_ATTEMPTS) {
-                    break;
-                }
-                try {
-                    Log.v(TAG, "Sleeping for " + backoff + " ms before retry");
-                    Thread.sleep(backoff);
-                } catch (InterruptedException e1) {
-                    // Activity finished before we complete - exit.
-                    Log.d(TAG, "Thread interrupted: abort remaining retries!");
-                    Thread.currentThread().interrupt();
-                    return false;
-                }
-                // increase backoff exponentially
-                backoff *= 2;
-            } catch (Exception e) {
-                e.printStackTrace();
-                break;
-            }
+        // The device is keyed by the registration id, so the retry policy of
+        // Baasio may send the POST again without registering it twice.
+        Retrier.setIdempotent(true);
+        try {
+            post(context, Baasio.getInstance(), true, properties, currentUsername);
+            GCMRegistrar.setRegisteredOnServer(context, true);
+            BaasPreferences.setRegisteredTags(context, tagString);
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to register", e);
+        } finally {
+            Retrier.setIdempotent(false);
         }
         return false;
     }
@@ -0,0 +1,159 @@
+
+package com.kth.baasio.json;
+
+import com.kth.baasio.ssl.HttpUtils;
+
+import org.apache.http.HttpEntity;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.ObjectReader;
+import org.codehaus.jackson.map.ObjectWriter;
+import org.usergrid.java.client.entities.Entity;
+import org.usergrid.java.client.entities.User;
+import org.usergrid.java.client.exception.ClientException;
+import org.usergrid.java.client.response.ApiResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shared Jackson mapper of the SDK, with readers and writers cached per type.
+ * Responses are parsed straight from the entity stream, without reading the
+ * whole body into a String first.
+ * <p>
+ * ApiResponse, Entity and User are registered when the class loads.
+ * Applications may {@link #register(Class)} their own entity subclasses, so
+ * that the first parse of them does not pay for building the deserializer.
+ */
+public class JsonCodec {
+
+    private static final ObjectMapper sMapper = new ObjectMapper();
+
+    private static final ConcurrentHashMap<Class<?>, ObjectReader> sReaders =
+            new ConcurrentHashMap<Class<?>, ObjectReader>();
+
+    private static final ConcurrentHashMap<Class<?>, ObjectWriter> sWriters =
+            new ConcurrentHashMap<Class<?>, ObjectWriter>();
+
+    private static final ObjectReader sApiResponseReader;
+
+    static {
+        sApiResponseReader = register(ApiResponse.class);
+        register(Entity.class);
+        register(User.class);
+    }
+
+    private JsonCodec() {
+    }
+
+    /**
+     * Build the serializer and deserializer of a type now, and cache its
+     * reader and writer.
+     *
+     * @param type type to register
+     * @return reader of the type
+     */
+    public static ObjectReader register(Class<?> type) {
+        if (type == null) {
+            throw new IllegalArgumentException("type is null");
+        }
+
+        sMapper.canDeserialize(sMapper.constructType(type));
+        sMapper.canSerialize(type);
+        writer(type);
+        return reader(type);
+    }
+
+    /**
+     * @return cached reader of the type, created on first use
+     */
+    public static ObjectReader reader(Class<?> type) {
+        ObjectReader reader = sReaders.get(type);
+        if (reader == null) {
+            reader = sMapper.reader(type);
+            ObjectReader previous = sReaders.putIfAbsent(type, reader);
+            if (previous != null) {
+                reader = previous;
+            }
+        }
+        return reader;
+    }
+
+    /**
+     * @return cached writer of the type, created on first use
+     */
+    public static ObjectWriter writer(Class<?> type) {
+        ObjectWriter writer = sWriters.get(type);
+        if (writer == null) {
+            writer = sMapper.writerWithType(type);
+            ObjectWriter previous = sWriters.putIfAbsent(type, writer);
+            if (previous != null) {
+                writer = previous;
+            }
+        }
+        return writer;
+    }
+
+    /**
+     * Same as JsonUtils.parse, with the cached reader of the type.
+     *
+     * @throws ClientException if the json is malformed
+     */
+    public static <T> T parse(String json, Class<T> type) {
+        try {
+            return reader(type).<T> readValue(json);
+        } catch (IOException e) {
+            throw new ClientException("Unable to map json", e);
+        }
+    }
+
+    /**
+     * Same as JsonUtils.toJsonString, with the cached writer of the type of
+     * the object.
+     *
+     * @throws ClientException if the object can not be serialized
+     */
+    public static String toJsonString(Object obj) {
+        if (obj == null) {
+            return "null";
+        }
+
+        try {
+            return writer(obj.getClass()).writeValueAsString(obj);
+        } catch (IOException e) {
+            throw new ClientException("Unable to generate json", e);
+        }
+    }
+
+    public static ObjectMapper getMapper() {
+        return sMapper;
+    }
+
+    /**
+     * Parse an ApiResponse from the content of an entity, and close it.
+     *
+     * @param entity response entity, which may be gzipped
+     * @return parsed response, or null if the body is empty
+     */
+    public static ApiResponse readApiResponse(HttpEntity entity) throws IOException {
+        InputStream in = HttpUtils.getUngzippedContent(entity);
+        if (in == null) {
+            return null;
+        }
+
+        try {
+            JsonParser parser = sMapper.getJsonFactory().createJsonParser(in);
+            try {
+                if (parser.nextToken() == null) {
+                    return null;
+                }
+                return sApiResponseReader.readValue(parser);
+            } finally {
+                parser.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+
+package com.kth.baasio.metrics;
+
+/**
+ * Listener of request metrics, set with
+ * {@link Metrics#setListener(BaasioMetrics)}. Methods are called in the
+ * thread which made the request, so they should return quickly and must be
+ * thread-safe. {@link MetricsRecorder} aggregates them without locks.
+ * <p>
+ * DNS, connect and TLS times are not reported, since neither
+ * HttpURLConnection nor the bundled HttpClient exposes them. The time to the
+ * response headers is reported instead, where available.
+ */
+public interface BaasioMetrics {
+
+    public static final int API_REQUEST = 0;
+
+    public static final int FILE_CREATE = 1;
+
+    public static final int FILE_UPDATE = 2;
+
+    public static final int FILE_GET = 3;
+
+    public static final int OPERATION_COUNT = 4;
+
+    /** fresh response from cache */
+    public static final int CACHE_HIT = 0;
+
+    /** stale response from cache, while revalidating or on network failure */
+    public static final int CACHE_STALE = 1;
+
+    /** response from cache after the server answered 304 */
+    public static final int CACHE_NOT_MODIFIED = 2;
+
+    /** response from the server */
+    public static final int CACHE_MISS = 3;
+
+    public static final int CACHE_RESULT_COUNT = 4;
+
+    /**
+     * Called when an operation finished, successfully or not.
+     *
+     * @param operation API_REQUEST, FILE_CREATE, FILE_UPDATE or FILE_GET
+     * @param method HTTP method
+     * @param status HTTP status of the last response, or 0 if none
+     * @param headersNanos time to the response headers, or -1 if unknown
+     * @param totalNanos time taken by the operation, including retries
+     * @param bytesOut bytes sent in request bodies, or -1 if unknown
+     * @param bytesIn bytes received in response bodies, or -1 if unknown
+     * @param retries number of retries
+     */
+    public void onOperation(int operation, String method, int status, long headersNanos,
+            long totalNanos, long bytesOut, long bytesIn, int retries);
+
+    /**
+     * Called when a failed request is going to be retried.
+     *
+     * @param method HTTP method
+     * @param attempt number of failed attempts
+     * @param delayMillis delay before the retry
+     */
+    public void onRetry(String method, int attempt, long delayMillis);
+
+    /**
+     * Called when the response cache answered a request.
+     *
+     * @param result CACHE_HIT, CACHE_STALE, CACHE_NOT_MODIFIED or CACHE_MISS
+     */
+    public void onCacheLookup(int result);
+}
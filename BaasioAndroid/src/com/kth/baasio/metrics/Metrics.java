@@ -0,0 +1,80 @@
+
+package com.kth.baasio.metrics;
+
+/**
+ * Entry point of request metrics. Without a listener, reporting is a call to
+ * an empty method, and request bodies are not wrapped for counting.
+ */
+public class Metrics {
+
+    private static final BaasioMetrics NONE = new BaasioMetrics() {
+        @Override
+        public void onOperation(int operation, String method, int status, long headersNanos,
+                long totalNanos, long bytesOut, long bytesIn, int retries) {
+        }
+
+        @Override
+        public void onRetry(String method, int attempt, long delayMillis) {
+        }
+
+        @Override
+        public void onCacheLookup(int result) {
+        }
+    };
+
+    private static volatile BaasioMetrics sListener = NONE;
+
+    private Metrics() {
+    }
+
+    /**
+     * Set the listener of request metrics.
+     *
+     * @param listener listener, or null to stop reporting
+     */
+    public static void setListener(BaasioMetrics listener) {
+        sListener = listener != null ? listener : NONE;
+    }
+
+    /**
+     * @return the listener, or null if not set
+     */
+    public static BaasioMetrics getListener() {
+        BaasioMetrics listener = sListener;
+        return listener != NONE ? listener : null;
+    }
+
+    public static boolean isEnabled() {
+        return sListener != NONE;
+    }
+
+    /**
+     * @see BaasioMetrics#onOperation(int, String, int, long, long, long,
+     *      long, int)
+     */
+    public static void operation(int operation, String method, int status, long headersNanos,
+            long totalNanos, long bytesOut, long bytesIn, int retries) {
+        sListener.onOperation(operation, method, status, headersNanos, totalNanos, bytesOut,
+                bytesIn, retries);
+    }
+
+    /**
+     * Report a retry. It is also counted in the trace of the current thread.
+     *
+     * @see BaasioMetrics#onRetry(String, int, long)
+     */
+    public static void retry(String method, int attempt, long delayMillis) {
+        RequestTrace trace = RequestTrace.current();
+        if (trace != null) {
+            trace.mRetries++;
+        }
+        sListener.onRetry(method, attempt, delayMillis);
+    }
+
+    /**
+     * @see BaasioMetrics#onCacheLookup(int)
+     */
+    public static void cacheLookup(int result) {
+        sListener.onCacheLookup(result);
+    }
+}
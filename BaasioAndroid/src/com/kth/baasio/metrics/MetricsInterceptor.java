@@ -0,0 +1,106 @@
+
+package com.kth.baasio.metrics;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Fills the {@link RequestTrace} of the calling thread with status, time to
+ * the response headers and body sizes of API requests. It should be the last
+ * interceptor, so that sizes are counted as sent and received on the wire.
+ */
+public class MetricsInterceptor implements ClientHttpRequestInterceptor {
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body,
+            ClientHttpRequestExecution execution) throws IOException {
+        RequestTrace trace = Metrics.isEnabled() ? RequestTrace.current() : null;
+        if (trace == null) {
+            return execution.execute(request, body);
+        }
+
+        trace.mStatus = 0;
+        if (body != null) {
+            trace.mBytesOut += body.length;
+        }
+
+        long start = System.nanoTime();
+        ClientHttpResponse response = execution.execute(request, body);
+        trace.mHeadersNanos = System.nanoTime() - start;
+        trace.mStatus = response.getStatusCode().value();
+
+        return new CountingClientHttpResponse(response, trace);
+    }
+
+    private static class CountingClientHttpResponse implements ClientHttpResponse {
+        private final ClientHttpResponse mResponse;
+
+        private final RequestTrace mTrace;
+
+        private InputStream mBody;
+
+        CountingClientHttpResponse(ClientHttpResponse response, RequestTrace trace) {
+            mResponse = response;
+            mTrace = trace;
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return mResponse.getHeaders();
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (mBody == null) {
+                mBody = new FilterInputStream(mResponse.getBody()) {
+                    @Override
+                    public int read() throws IOException {
+                        int b = super.read();
+                        if (b != -1) {
+                            mTrace.mBytesIn++;
+                        }
+                        return b;
+                    }
+
+                    @Override
+                    public int read(byte[] buffer, int offset, int count) throws IOException {
+                        int read = super.read(buffer, offset, count);
+                        if (read > 0) {
+                            mTrace.mBytesIn += read;
+                        }
+                        return read;
+                    }
+                };
+            }
+            return mBody;
+        }
+
+        @Override
+        public HttpStatus getStatusCode() throws IOException {
+            return mResponse.getStatusCode();
+        }
+
+        @Override
+        public int getRawStatusCode() throws IOException {
+            return mResponse.getRawStatusCode();
+        }
+
+        @Override
+        public String getStatusText() throws IOException {
+            return mResponse.getStatusText();
+        }
+
+        @Override
+        public void close() {
+            mResponse.close();
+        }
+    }
+}
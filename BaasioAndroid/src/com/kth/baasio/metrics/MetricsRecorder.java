@@ -0,0 +1,224 @@
+
+package com.kth.baasio.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@link BaasioMetrics} which aggregates metrics in memory. Recording only
+ * updates atomic counters, without locks or allocation. Latencies are kept in
+ * histograms of power of two buckets in milliseconds.
+ */
+public class MetricsRecorder implements BaasioMetrics {
+
+    /** bucket i counts latencies in [2^(i-1), 2^i) ms, and bucket 0 under 1ms */
+    public static final int BUCKET_COUNT = 20;
+
+    /** status classes: none, 1xx, 2xx, 3xx, 4xx, 5xx */
+    public static final int STATUS_CLASS_COUNT = 6;
+
+    private static final int COUNT = 0;
+
+    private static final int ERRORS = 1;
+
+    private static final int BYTES_OUT = 2;
+
+    private static final int BYTES_IN = 3;
+
+    private static final int RETRIES = 4;
+
+    private static final int TOTAL_NANOS = 5;
+
+    private static final int STATUS = 6;
+
+    private static final int TOTAL_BUCKETS = STATUS + STATUS_CLASS_COUNT;
+
+    private static final int HEADERS_BUCKETS = TOTAL_BUCKETS + BUCKET_COUNT;
+
+    private static final int STRIDE = HEADERS_BUCKETS + BUCKET_COUNT;
+
+    private final AtomicLongArray mValues = new AtomicLongArray(OPERATION_COUNT * STRIDE);
+
+    private final AtomicLongArray mCacheResults = new AtomicLongArray(CACHE_RESULT_COUNT);
+
+    @Override
+    public void onOperation(int operation, String method, int status, long headersNanos,
+            long totalNanos, long bytesOut, long bytesIn, int retries) {
+        if (operation < 0 || operation >= OPERATION_COUNT) {
+            return;
+        }
+
+        int base = operation * STRIDE;
+        mValues.incrementAndGet(base + COUNT);
+        if (status == 0 || status >= 400) {
+            mValues.incrementAndGet(base + ERRORS);
+        }
+        if (bytesOut > 0) {
+            mValues.addAndGet(base + BYTES_OUT, bytesOut);
+        }
+        if (bytesIn > 0) {
+            mValues.addAndGet(base + BYTES_IN, bytesIn);
+        }
+        if (retries > 0) {
+            mValues.addAndGet(base + RETRIES, retries);
+        }
+        mValues.addAndGet(base + TOTAL_NANOS, totalNanos);
+
+        int statusClass = status / 100;
+        if (statusClass < 0 || statusClass >= STATUS_CLASS_COUNT) {
+            statusClass = 0;
+        }
+        mValues.incrementAndGet(base + STATUS + statusClass);
+
+        mValues.incrementAndGet(base + TOTAL_BUCKETS + bucket(totalNanos));
+        if (headersNanos >= 0) {
+            mValues.incrementAndGet(base + HEADERS_BUCKETS + bucket(headersNanos));
+        }
+    }
+
+    @Override
+    public void onRetry(String method, int attempt, long delayMillis) {
+        // counted per operation in onOperation
+    }
+
+    @Override
+    public void onCacheLookup(int result) {
+        if (result >= 0 && result < CACHE_RESULT_COUNT) {
+            mCacheResults.incrementAndGet(result);
+        }
+    }
+
+    private static int bucket(long nanos) {
+        long millis = nanos / 1000000;
+        int bucket = 0;
+        while (millis > 0 && bucket < BUCKET_COUNT - 1) {
+            millis >>= 1;
+            bucket++;
+        }
+        return bucket;
+    }
+
+    public long getCount(int operation) {
+        return mValues.get(operation * STRIDE + COUNT);
+    }
+
+    /**
+     * @return number of operations without response or with 4xx/5xx status
+     */
+    public long getErrorCount(int operation) {
+        return mValues.get(operation * STRIDE + ERRORS);
+    }
+
+    public long getBytesOut(int operation) {
+        return mValues.get(operation * STRIDE + BYTES_OUT);
+    }
+
+    public long getBytesIn(int operation) {
+        return mValues.get(operation * STRIDE + BYTES_IN);
+    }
+
+    public long getRetryCount(int operation) {
+        return mValues.get(operation * STRIDE + RETRIES);
+    }
+
+    /**
+     * @param statusClass 0 for no response, 1 to 5 for 1xx to 5xx
+     */
+    public long getStatusCount(int operation, int statusClass) {
+        return mValues.get(operation * STRIDE + STATUS + statusClass);
+    }
+
+    /**
+     * @return average time(ms) taken by an operation
+     */
+    public double getAverageMillis(int operation) {
+        long count = getCount(operation);
+        return count > 0 ? mValues.get(operation * STRIDE + TOTAL_NANOS) / 1000000d / count : 0;
+    }
+
+    /**
+     * @return histogram of total time, see {@link #BUCKET_COUNT}
+     */
+    public long[] getLatencyHistogram(int operation) {
+        return histogram(operation * STRIDE + TOTAL_BUCKETS);
+    }
+
+    /**
+     * @return histogram of time to the response headers
+     */
+    public long[] getHeadersLatencyHistogram(int operation) {
+        return histogram(operation * STRIDE + HEADERS_BUCKETS);
+    }
+
+    /**
+     * Estimate a percentile of total time from the histogram.
+     *
+     * @param percentile in (0, 100]
+     * @return upper bound(ms) of the bucket with the percentile, or 0 if no
+     *         operation was recorded
+     */
+    public long getLatencyPercentile(int operation, double percentile) {
+        long[] histogram = getLatencyHistogram(operation);
+        long total = 0;
+        for (long count : histogram) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = (long)Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            seen += histogram[i];
+            if (seen >= rank) {
+                return 1L << i;
+            }
+        }
+        return 1L << (histogram.length - 1);
+    }
+
+    /**
+     * @param result CACHE_HIT, CACHE_STALE, CACHE_NOT_MODIFIED or CACHE_MISS
+     */
+    public long getCacheCount(int result) {
+        return mCacheResults.get(result);
+    }
+
+    /**
+     * @return ratio of requests answered from cache without downloading the
+     *         body, including stale and not modified responses
+     */
+    public double getCacheHitRate() {
+        long hits = 0;
+        long total = 0;
+        for (int i = 0; i < CACHE_RESULT_COUNT; i++) {
+            long count = mCacheResults.get(i);
+            total += count;
+            if (i != CACHE_MISS) {
+                hits += count;
+            }
+        }
+        return total > 0 ? (double)hits / total : 0;
+    }
+
+    /**
+     * Clear every counter. Operations recorded concurrently may be partly
+     * cleared.
+     */
+    public void reset() {
+        for (int i = 0; i < mValues.length(); i++) {
+            mValues.set(i, 0);
+        }
+        for (int i = 0; i < mCacheResults.length(); i++) {
+            mCacheResults.set(i, 0);
+        }
+    }
+
+    private long[] histogram(int offset) {
+        long[] histogram = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            histogram[i] = mValues.get(offset + i);
+        }
+        return histogram;
+    }
+}
@@ -0,0 +1,94 @@
+
+package com.kth.baasio.metrics;
+
+/**
+ * Details of the operation in progress in a thread, filled by
+ * {@link MetricsInterceptor} and {@link Metrics#retry(String, int, long)}.
+ * One instance is reused per thread.
+ */
+public class RequestTrace {
+
+    private static final ThreadLocal<RequestTrace> sTrace = new ThreadLocal<RequestTrace>() {
+        @Override
+        protected RequestTrace initialValue() {
+            return new RequestTrace();
+        }
+    };
+
+    private boolean mActive;
+
+    int mStatus;
+
+    long mHeadersNanos = -1;
+
+    long mBytesOut;
+
+    long mBytesIn;
+
+    int mRetries;
+
+    private RequestTrace() {
+    }
+
+    /**
+     * Start tracing an operation in this thread. Nested operations share the
+     * outer trace.
+     *
+     * @return trace, or null if the thread is already tracing
+     */
+    public static RequestTrace begin() {
+        RequestTrace trace = sTrace.get();
+        if (trace.mActive) {
+            return null;
+        }
+
+        trace.mActive = true;
+        trace.mStatus = 0;
+        trace.mHeadersNanos = -1;
+        trace.mBytesOut = 0;
+        trace.mBytesIn = 0;
+        trace.mRetries = 0;
+        return trace;
+    }
+
+    /**
+     * @return trace of this thread, or null if not tracing
+     */
+    public static RequestTrace current() {
+        RequestTrace trace = sTrace.get();
+        return trace.mActive ? trace : null;
+    }
+
+    /**
+     * Stop tracing. Values are kept until the next {@link #begin()}.
+     */
+    public void end() {
+        mActive = false;
+    }
+
+    /**
+     * @return HTTP status of the last response, or 0 if none
+     */
+    public int getStatus() {
+        return mStatus;
+    }
+
+    /**
+     * @return time to the headers of the last response, or -1 if unknown
+     */
+    public long getHeadersNanos() {
+        return mHeadersNanos;
+    }
+
+    public long getBytesOut() {
+        return mBytesOut;
+    }
+
+    public long getBytesIn() {
+        return mBytesIn;
+    }
+
+    public int getRetries() {
+        return mRetries;
+    }
+}
@@ -0,0 +1,758 @@
+
+package com.kth.baasio.offline;
+
+import static com.kth.common.utils.LogUtils.LOGD;
+import static com.kth.common.utils.LogUtils.LOGE;
+import static com.kth.common.utils.LogUtils.makeLogTag;
+
+import com.kth.baasio.Baasio;
+import com.kth.baasio.json.JsonCodec;
+
+import org.springframework.http.HttpMethod;
+import org.springframework.web.client.HttpClientErrorException;
+import org.usergrid.java.client.entities.Entity;
+import org.usergrid.java.client.entities.User;
+import org.usergrid.java.client.response.ApiResponse;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.ListIterator;
+import java.util.Map;
+
+/**
+ * Durable queue of mutations to send when the network is available. Requests
+ * are appended to a journal file in the application's files directory before
+ * the enqueue method returns, and are sent in order on a background thread.
+ * Failures of the network or the server, timeouts(408) and throttling(429) are
+ * retried with exponential backoff, and the queue is replayed as soon as the
+ * connectivity comes back.
+ * <p>
+ * Pending requests for the same entity are collapsed: updates are merged into
+ * one, with newer values taking precedence, and a delete drops the updates
+ * before it. Requests rejected by the server(400, 403, 404, 409 and 422) are not
+ * retried. A request unauthorized(401) waits with the rest of the queue until a
+ * user logs in with a new access token; call {@link #flush()} after the login
+ * to send them at once.
+ * <p>
+ * Each request belongs to the user logged in when it was queued, and is sent
+ * only while that user is logged in. A request whose user is no longer logged
+ * in when its turn comes fails with {@link #ERROR_OWNER_CHANGED}.
+ */
+public class Outbox {
+    private static final String TAG = makeLogTag(Outbox.class);
+
+    private static final String FILE_NAME = "baasio_outbox.journal";
+
+    private static final String RECORD_ADD = "A";
+
+    private static final String RECORD_REPLACE = "R";
+
+    private static final String RECORD_DONE = "D";
+
+    private static final String NO_KEY = "-";
+
+    /** error of a request dropped because its user is no longer logged in */
+    public static final String ERROR_OWNER_CHANGED = "owner_changed";
+
+    private static final long MIN_BACKOFF_MILLIS = 2000;
+
+    private static final long MAX_BACKOFF_MILLIS = 5 * 60 * 1000;
+
+    private static final int COMPACT_THRESHOLD = 32;
+
+    private static Outbox mSingleton;
+
+    private final Context mContext;
+
+    private final File mFile;
+
+    private final LinkedList<Operation> mPending = new LinkedList<Operation>();
+
+    private final Handler mHandler;
+
+    private final Handler mMainHandler;
+
+    private Writer mWriter;
+
+    private long mNextId = 1;
+
+    private int mDeadRecords;
+
+    private Operation mInFlight;
+
+    private long mBackoffMillis = MIN_BACKOFF_MILLIS;
+
+    private boolean mReceiverRegistered;
+
+    /** true while waiting for a login after 401. Used in the outbox thread only. */
+    private boolean mWaitingForLogin;
+
+    /** access token unauthorized by the server. Used in the outbox thread only. */
+    private String mUnauthorizedToken;
+
+    private volatile Listener mListener;
+
+    /**
+     * Receives results of queued requests, in the UI thread.
+     */
+    public interface Listener {
+        /**
+         * @param id id returned when the request was queued
+         * @param response response of the server
+         */
+        public void onSent(long id, ApiResponse response);
+
+        /**
+         * Called when the server rejected the request, or when the user who
+         * queued it is no longer logged in. It is not retried.
+         *
+         * @param id id returned when the request was queued
+         * @param response response of the server with the error
+         */
+        public void onFailed(long id, ApiResponse response);
+    }
+
+    private static class Operation {
+        final long id;
+
+        final HttpMethod method;
+
+        final String[] segments;
+
+        /** type/uuid of the target entity, or null if not collapsible */
+        final String key;
+
+        /** uuid of the user who queued it, or NO_KEY */
+        final String owner;
+
+        String body;
+
+        Operation(long id, HttpMethod method, String[] segments, String key, String owner,
+                String body) {
+            this.id = id;
+            this.method = method;
+            this.segments = segments;
+            this.key = key;
+            this.owner = owner;
+            this.body = body;
+        }
+    }
+
+    private final Runnable mReplay = new Runnable() {
+        @Override
+        public void run() {
+            replay();
+        }
+    };
+
+    private final BroadcastReceiver mConnectivityReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (!intent.getBooleanExtra(ConnectivityManager.EXTRA_NO_CONNECTIVITY, false)) {
+                flush();
+            }
+        }
+    };
+
+    private Outbox(Context context) {
+        mContext = context;
+        mFile = new File(context.getFilesDir(), FILE_NAME);
+
+        HandlerThread thread = new HandlerThread("Baasio-Outbox",
+                android.os.Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+        mMainHandler = new Handler(Looper.getMainLooper());
+
+        synchronized (this) {
+            load();
+            if (!mPending.isEmpty()) {
+                registerReceiver();
+                mHandler.post(mReplay);
+            }
+        }
+    }
+
+    /**
+     * Get the outbox of the application. Requests left by a previous process
+     * are replayed.
+     *
+     * @param context context
+     * @return outbox
+     */
+    public static synchronized Outbox getInstance(Context context) {
+        if (mSingleton == null) {
+            Context appContext = context.getApplicationContext();
+            mSingleton = new Outbox(appContext != null ? appContext : context);
+        }
+        return mSingleton;
+    }
+
+    /**
+     * Set a listener to receive results of queued requests.
+     *
+     * @param listener listener, or null
+     */
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * @return number of requests not sent yet
+     */
+    public synchronized int getPendingCount() {
+        return mPending.size();
+    }
+
+    /**
+     * Queue an update of a entity.
+     *
+     * @param entity entity having type and uuid
+     * @return id of the queued request
+     */
+    public long enqueueUpdate(Entity entity) {
+        if (entity.getUuid() == null) {
+            throw new IllegalArgumentException("Missing entity Uuid");
+        }
+        return enqueueUpdate(entity.getType(), entity.getUuid().toString(),
+                JsonCodec.toJsonString(entity.getProperties()));
+    }
+
+    /**
+     * Queue an update of a entity from a set of properties. Properties must
+     * include "type" and "uuid" properties.
+     *
+     * @param properties properties
+     * @return id of the queued request
+     */
+    public long enqueueUpdate(Map<String, Object> properties) {
+        return enqueueUpdate(toString(properties.get("type")), toString(properties.get("uuid")),
+                JsonCodec.toJsonString(properties));
+    }
+
+    /**
+     * Queue a delete of a entity.
+     *
+     * @param entity entity having type and uuid
+     * @return id of the queued request
+     */
+    public long enqueueDelete(Entity entity) {
+        if (entity.getUuid() == null) {
+            throw new IllegalArgumentException("Missing entity Uuid");
+        }
+        return enqueueDelete(entity.getType(), entity.getUuid().toString());
+    }
+
+    /**
+     * Queue a delete of a entity from a set of properties. Properties must
+     * include "type" and "uuid" properties.
+     *
+     * @param properties properties
+     * @return id of the queued request
+     */
+    public long enqueueDelete(Map<String, Object> properties) {
+        return enqueueDelete(toString(properties.get("type")), toString(properties.get("uuid")));
+    }
+
+    /**
+     * Queue a PUSH message. Messages are never collapsed.
+     *
+     * @param properties properties as in {@link Baasio#sendPush(Map)}
+     * @return id of the queued request
+     */
+    public long enqueueSendPush(Map<String, Object> properties) {
+        if (isEmpty(properties.get("target"))) {
+            properties.put("target", "all");
+        }
+
+        String owner = getCurrentOwner();
+        synchronized (this) {
+            return append(HttpMethod.POST, new String[] {
+                "pushes"
+            }, null, owner, JsonCodec.toJsonString(properties)).id;
+        }
+    }
+
+    /**
+     * Try to send pending requests now, without waiting for the backoff.
+     */
+    public void flush() {
+        synchronized (this) {
+            mBackoffMillis = MIN_BACKOFF_MILLIS;
+        }
+        mHandler.removeCallbacks(mReplay);
+        mHandler.post(mReplay);
+    }
+
+    private long enqueueUpdate(String type, String uuid, String body) {
+        if (isEmpty(type)) {
+            throw new IllegalArgumentException("Missing entity type");
+        }
+        if (isEmpty(uuid)) {
+            throw new IllegalArgumentException("Missing entity uuid");
+        }
+
+        String key = type + "/" + uuid;
+        String owner = getCurrentOwner();
+        synchronized (this) {
+            Operation last = findLast(key, owner);
+            if (last != null && last.method == HttpMethod.PUT && last != mInFlight) {
+                last.body = merge(last.body, body);
+                write(RECORD_REPLACE + "\t" + last.id + "\t" + last.body);
+                mDeadRecords++;
+                return last.id;
+            }
+
+            return append(HttpMethod.PUT, new String[] {
+                    type, uuid
+            }, key, owner, body).id;
+        }
+    }
+
+    private long enqueueDelete(String type, String uuid) {
+        if (isEmpty(type)) {
+            throw new IllegalArgumentException("Missing entity type");
+        }
+        if (isEmpty(uuid)) {
+            throw new IllegalArgumentException("Missing entity uuid");
+        }
+
+        String key = type + "/" + uuid;
+        String owner = getCurrentOwner();
+        synchronized (this) {
+            Operation last = findLast(key, owner);
+            if (last != null && last.method == HttpMethod.DELETE) {
+                return last.id;
+            }
+
+            Iterator<Operation> iterator = mPending.iterator();
+            while (iterator.hasNext()) {
+                Operation op = iterator.next();
+                if (key.equals(op.key) && owner.equals(op.owner) && op != mInFlight) {
+                    iterator.remove();
+                    write(RECORD_DONE + "\t" + op.id);
+                    mDeadRecords += 2;
+                }
+            }
+
+            return append(HttpMethod.DELETE, new String[] {
+                    type, uuid
+            }, key, owner, null).id;
+        }
+    }
+
+    private Operation findLast(String key, String owner) {
+        ListIterator<Operation> iterator = mPending.listIterator(mPending.size());
+        while (iterator.hasPrevious()) {
+            Operation op = iterator.previous();
+            if (key.equals(op.key) && owner.equals(op.owner)) {
+                return op;
+            }
+        }
+        return null;
+    }
+
+    private Operation append(HttpMethod method, String[] segments, String key, String owner,
+            String body) {
+        Operation op = new Operation(mNextId++, method, segments, key, owner, body);
+        mPending.add(op);
+        write(encode(op));
+
+        registerReceiver();
+        if (mInFlight == null && mPending.size() == 1) {
+            mHandler.post(mReplay);
+        }
+        return op;
+    }
+
+    private void replay() {
+        while (true) {
+            Operation op;
+            synchronized (this) {
+                if (mPending.isEmpty()) {
+                    mInFlight = null;
+                    unregisterReceiver();
+                    compactIfNeeded();
+                    return;
+                }
+                if (!isConnected()) {
+                    // wait for the connectivity receiver
+                    return;
+                }
+
+                op = mPending.getFirst();
+                mInFlight = op;
+            }
+
+            if (isWaitingForLogin(op)) {
+                waitForLogin();
+                return;
+            }
+
+            ApiResponse response;
+            try {
+                response = getCurrentOwner().equals(op.owner) ? send(op) : ownerChanged();
+            } catch (HttpClientErrorException e) {
+                int status = e.getStatusCode().value();
+                if (status == 401) {
+                    LOGD(TAG, "Unauthorized, wait for login");
+                    mWaitingForLogin = true;
+                    mUnauthorizedToken = Baasio.getInstance().getAccessToken();
+                    waitForLogin();
+                    return;
+                }
+                if (!isRejected(status)) {
+                    retryLater(e);
+                    return;
+                }
+                response = toResponse(e);
+            } catch (RuntimeException e) {
+                retryLater(e);
+                return;
+            }
+
+            synchronized (this) {
+                mPending.remove(op);
+                mInFlight = null;
+                mBackoffMillis = MIN_BACKOFF_MILLIS;
+                write(RECORD_DONE + "\t" + op.id);
+                mDeadRecords += 2;
+            }
+
+            boolean failed = response != null && !isEmpty(response.getError());
+            if (failed) {
+                LOGE(TAG, "Request dropped: " + response.getError());
+            }
+            notifyListener(op.id, response, failed);
+        }
+    }
+
+    private void retryLater(RuntimeException e) {
+        long delay;
+        synchronized (this) {
+            mInFlight = null;
+            delay = mBackoffMillis;
+            mBackoffMillis = Math.min(mBackoffMillis * 2, MAX_BACKOFF_MILLIS);
+        }
+
+        LOGD(TAG, "Failed to send, retry after " + delay + "ms: " + e.getMessage());
+        mHandler.removeCallbacks(mReplay);
+        mHandler.postDelayed(mReplay, delay);
+    }
+
+    /**
+     * The login is checked again after the longest backoff, or at a flush.
+     */
+    private void waitForLogin() {
+        synchronized (this) {
+            mInFlight = null;
+        }
+
+        mHandler.removeCallbacks(mReplay);
+        mHandler.postDelayed(mReplay, MAX_BACKOFF_MILLIS);
+    }
+
+    /**
+     * A request unauthorized waits until a user logs in with another access
+     * token. The owner of the request is checked after that.
+     */
+    private boolean isWaitingForLogin(Operation op) {
+        if (!mWaitingForLogin) {
+            return false;
+        }
+
+        String token = Baasio.getInstance().getAccessToken();
+        if (isEmpty(token) || token.equals(mUnauthorizedToken)) {
+            return true;
+        }
+        if (!NO_KEY.equals(op.owner) && NO_KEY.equals(getCurrentOwner())) {
+            return true;
+        }
+
+        mWaitingForLogin = false;
+        mUnauthorizedToken = null;
+        return false;
+    }
+
+    /**
+     * @return true if the request is wrong and sending it again fails again
+     */
+    private static boolean isRejected(int status) {
+        return status == 400 || status == 403 || status == 404 || status == 409
+                || status == 422;
+    }
+
+    private static ApiResponse toResponse(HttpClientErrorException e) {
+        ApiResponse response = null;
+        try {
+            response = JsonCodec.parse(e.getResponseBodyAsString(), ApiResponse.class);
+        } catch (RuntimeException ignored) {
+            // not a response of the API
+        }
+
+        if (response == null || isEmpty(response.getError())) {
+            response = new ApiResponse();
+            response.setError(String.valueOf(e.getStatusCode().value()));
+            response.setErrorDescription(e.getStatusText());
+        }
+        return response;
+    }
+
+    @SuppressWarnings("unchecked")
+    private ApiResponse send(Operation op) {
+        Baasio baasio = Baasio.getInstance();
+
+        Object body = null;
+        if (op.body != null) {
+            body = JsonCodec.parse(op.body, Map.class);
+        }
+
+        String[] segments = new String[op.segments.length + 2];
+        segments[0] = baasio.getOrganizationId();
+        segments[1] = baasio.getApplicationId();
+        System.arraycopy(op.segments, 0, segments, 2, op.segments.length);
+
+        // not apiRequest(), which returns errors of the client as responses
+        return baasio.httpRequest(op.method, ApiResponse.class, null, body, segments);
+    }
+
+    /**
+     * @return uuid of the logged-in user, or NO_KEY
+     */
+    private static String getCurrentOwner() {
+        User user = Baasio.getInstance().getLoggedInUser();
+        if (user == null || user.getUuid() == null) {
+            return NO_KEY;
+        }
+        return user.getUuid().toString();
+    }
+
+    private static ApiResponse ownerChanged() {
+        ApiResponse response = new ApiResponse();
+        response.setError(ERROR_OWNER_CHANGED);
+        response.setErrorDescription("The user who queued the request is not logged in");
+        return response;
+    }
+
+    private void notifyListener(final long id, final ApiResponse response, final boolean failed) {
+        final Listener listener = mListener;
+        if (listener == null) {
+            return;
+        }
+
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (failed) {
+                    listener.onFailed(id, response);
+                } else {
+                    listener.onSent(id, response);
+                }
+            }
+        });
+    }
+
+    private boolean isConnected() {
+        try {
+            ConnectivityManager manager = (ConnectivityManager)mContext
+                    .getSystemService(Context.CONNECTIVITY_SERVICE);
+            NetworkInfo info = manager != null ? manager.getActiveNetworkInfo() : null;
+            return info != null && info.isConnected();
+        } catch (SecurityException e) {
+            // ACCESS_NETWORK_STATE is not granted, so just try
+            return true;
+        }
+    }
+
+    private void registerReceiver() {
+        if (!mReceiverRegistered) {
+            mContext.registerReceiver(mConnectivityReceiver, new IntentFilter(
+                    ConnectivityManager.CONNECTIVITY_ACTION));
+            mReceiverRegistered = true;
+        }
+    }
+
+    private void unregisterReceiver() {
+        if (mReceiverRegistered) {
+            mContext.unregisterReceiver(mConnectivityReceiver);
+            mReceiverRegistered = false;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String merge(String older, String newer) {
+        Map<String, Object> merged = new LinkedHashMap<String, Object>();
+        merged.putAll(JsonCodec.parse(older, Map.class));
+        merged.putAll(JsonCodec.parse(newer, Map.class));
+        return JsonCodec.toJsonString(merged);
+    }
+
+    private static String encode(Operation op) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(RECORD_ADD).append('\t').append(op.id);
+        sb.append('\t').append(op.method.name());
+        sb.append('\t').append(join(op.segments));
+        sb.append('\t').append(op.key != null ? op.key : NO_KEY);
+        sb.append('\t').append(op.owner);
+        if (op.body != null) {
+            sb.append('\t').append(op.body);
+        }
+        return sb.toString();
+    }
+
+    private static String join(String[] segments) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < segments.length; i++) {
+            if (i > 0) {
+                sb.append('/');
+            }
+            sb.append(segments[i]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Append a record. A record is a line, and JSON bodies never contain a
+     * raw line break or tab, since they are escaped in JSON strings.
+     */
+    private void write(String record) {
+        try {
+            if (mWriter == null) {
+                mWriter = new OutputStreamWriter(new FileOutputStream(mFile, true), "UTF-8");
+            }
+            mWriter.write(record);
+            mWriter.write('\n');
+            mWriter.flush();
+        } catch (IOException e) {
+            LOGE(TAG, "Failed to write outbox: " + e.getMessage());
+            closeWriter();
+        }
+    }
+
+    private void closeWriter() {
+        if (mWriter != null) {
+            try {
+                mWriter.close();
+            } catch (IOException e) {
+            }
+            mWriter = null;
+        }
+    }
+
+    private void load() {
+        if (!mFile.exists()) {
+            return;
+        }
+
+        Map<Long, Operation> operations = new LinkedHashMap<Long, Operation>();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(mFile), "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", 7);
+                try {
+                    long id = Long.parseLong(fields[1]);
+                    mNextId = Math.max(mNextId, id + 1);
+
+                    if (RECORD_ADD.equals(fields[0]) && fields.length >= 6) {
+                        String key = NO_KEY.equals(fields[4]) ? null : fields[4];
+                        String body = fields.length > 6 ? fields[6] : null;
+                        operations.put(id, new Operation(id, HttpMethod.valueOf(fields[2]),
+                                fields[3].split("/"), key, fields[5], body));
+                    } else if (RECORD_REPLACE.equals(fields[0]) && fields.length >= 3) {
+                        Operation op = operations.get(id);
+                        if (op != null) {
+                            op.body = line.substring(line.indexOf('\t', 2) + 1);
+                        }
+                    } else if (RECORD_DONE.equals(fields[0])) {
+                        operations.remove(id);
+                    }
+                } catch (RuntimeException e) {
+                    // a partly written last line, or a broken record
+                    LOGE(TAG, "Broken outbox record skipped");
+                }
+            }
+        } catch (IOException e) {
+            LOGE(TAG, "Failed to read outbox: " + e.getMessage());
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+
+        mPending.addAll(operations.values());
+        compact();
+    }
+
+    private void compactIfNeeded() {
+        if (mDeadRecords > mPending.size() * 2 + COMPACT_THRESHOLD) {
+            compact();
+        }
+    }
+
+    /**
+     * Rewrite the journal with only the pending requests. The file is
+     * replaced atomically.
+     */
+    private void compact() {
+        closeWriter();
+
+        File tmp = new File(mFile.getPath() + ".tmp");
+        Writer out = null;
+        try {
+            out = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+            for (Operation op : mPending) {
+                out.write(encode(op));
+                out.write('\n');
+            }
+            out.close();
+            out = null;
+
+            if (!tmp.renameTo(mFile)) {
+                throw new IOException("Failed to rename " + tmp);
+            }
+            mDeadRecords = 0;
+        } catch (IOException e) {
+            LOGE(TAG, "Failed to compact outbox: " + e.getMessage());
+            tmp.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    private static String toString(Object value) {
+        return value != null ? value.toString() : null;
+    }
+
+    private static boolean isEmpty(Object value) {
+        return value == null || value.toString().length() == 0;
+    }
+}
@@ -6,7 +6,18 @@ import com.kth.common.preference.SharedPreferenceSaver;
 
 import android.content.Context;
 import android.content.SharedPreferences;
-
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Preferences of baas.io SDK. Setters update an in-memory snapshot which
+ * getters read, and the updates are written behind in a single commit on a
+ * background thread. Call {@link #flush(Context)} to write them at once.
+ */
 public class BaasPreferences {
     private static final String _TAG = "BaasPreferences";
 
@@ -24,14 +35,175 @@ public class BaasPreferences {
 
     private static final String SHARED_PREFERENCE_NAME_NEED_REGISTER_TAGS_FOR_PUSH = "baas_need_register_tag_for_push";
 
+    /** delay before a write-behind commit, to coalesce updates */
+    private static final long COMMIT_DELAY_MILLIS = 100;
+
     private static SharedPreferences mPreferences;
 
-    private static SharedPreferences getPreference(Context context) {
-        if (mPreferences == null)
-            mPreferences = context.getSharedPreferences(DEFAULT_PREFERENCES_NAME,
-                    Context.MODE_PRIVATE);
+    private static Context mContext;
+
+    private static final Object mLock = new Object();
+
+    /** updates not committed yet. null value means removed. */
+    private static final Map<String, String> mPending = new HashMap<String, String>();
+
+    private static boolean mPendingClear;
+
+    /** number of clear() calls, to tell a clear made during a commit */
+    private static int mClearCount;
 
-        return mPreferences;
+    private static boolean mCommitScheduled;
+
+    private static Handler mHandler;
+
+    private static final Runnable mCommitRunnable = new Runnable() {
+        @Override
+        public void run() {
+            commit();
+        }
+    };
+
+    static SharedPreferences getPreference(Context context) {
+        synchronized (mLock) {
+            if (mPreferences == null) {
+                Context appContext = context.getApplicationContext();
+                mContext = appContext != null ? appContext : context;
+                mPreferences = mContext.getSharedPreferences(DEFAULT_PREFERENCES_NAME,
+                        Context.MODE_PRIVATE);
+            }
+
+            return mPreferences;
+        }
+    }
+
+    private static Handler getHandler() {
+        if (mHandler == null) {
+            HandlerThread thread = new HandlerThread("Baasio-Preferences",
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            mHandler = new Handler(thread.getLooper());
+        }
+        return mHandler;
+    }
+
+    /**
+     * Run a task on the thread which commits the preferences. Tasks run in
+     * the order they are posted.
+     */
+    static void post(Runnable task) {
+        synchronized (mLock) {
+            getHandler().post(task);
+        }
+    }
+
+    /**
+     * Keep the value in memory, and commit it in background together with
+     * other updates made shortly.
+     */
+    private static void put(Context context, String key, String value) {
+        getPreference(context);
+
+        synchronized (mLock) {
+            mPending.put(key, value);
+            scheduleCommit();
+        }
+    }
+
+    private static String get(Context context, String key) {
+        SharedPreferences prefs = getPreference(context);
+
+        synchronized (mLock) {
+            if (mPending.containsKey(key)) {
+                String value = mPending.get(key);
+                return value != null ? value : "";
+            }
+            if (mPendingClear) {
+                return "";
+            }
+        }
+
+        return prefs.getString(key, "");
+    }
+
+    private static void scheduleCommit() {
+        if (!mCommitScheduled) {
+            mCommitScheduled = true;
+            getHandler().postDelayed(mCommitRunnable, COMMIT_DELAY_MILLIS);
+        }
+    }
+
+    /**
+     * Write pending updates in one commit. Commits are serialized, so that an
+     * older one never overwrites a newer one. Updates stay pending until the
+     * commit is applied, so that getters never see the old values.
+     */
+    private static void commit() {
+        synchronized (mCommitRunnable) {
+            SharedPreferences.Editor editor;
+            Map<String, String> committed;
+            boolean clear;
+            int clearCount;
+            synchronized (mLock) {
+                mCommitScheduled = false;
+                if (!mPendingClear && mPending.isEmpty()) {
+                    return;
+                }
+
+                editor = mPreferences.edit();
+                if (mPendingClear) {
+                    editor.clear();
+                }
+                for (Map.Entry<String, String> entry : mPending.entrySet()) {
+                    if (entry.getValue() != null) {
+                        editor.putString(entry.getKey(), entry.getValue());
+                    } else {
+                        editor.remove(entry.getKey());
+                    }
+                }
+
+                committed = new HashMap<String, String>(mPending);
+                clear = mPendingClear;
+                clearCount = mClearCount;
+            }
+
+            SharedPreferenceSaver saver = PlatformSpecificImplementationFactory
+                    .getSharedPreferenceSaver(mContext);
+            saver.savePreferences(editor, false);
+
+            synchronized (mLock) {
+                // keep the updates made while committing
+                for (Map.Entry<String, String> entry : committed.entrySet()) {
+                    String key = entry.getKey();
+                    if (mPending.containsKey(key) && equals(mPending.get(key), entry.getValue())) {
+                        mPending.remove(key);
+                    }
+                }
+                if (clear && clearCount == mClearCount) {
+                    mPendingClear = false;
+                }
+            }
+        }
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Write pending updates now, in the calling thread. Setters only keep
+     * values in memory and commit them shortly after in background.
+     *
+     * @param context context
+     */
+    public static void flush(Context context) {
+        getPreference(context);
+
+        synchronized (mLock) {
+            if (mHandler != null) {
+                mHandler.removeCallbacks(mCommitRunnable);
+            }
+        }
+        commit();
     }
 
     @Override
@@ -40,106 +212,72 @@ public class BaasPreferences {
     }
 
     public static void clear(Context context) {
-        SharedPreferences.Editor editor = getPreference(context).edit();
-        editor.clear();
-
-        SharedPreferenceSaver saver = PlatformSpecificImplementationFactory
-                .getSharedPreferenceSaver(context);
-        saver.savePreferences(editor, false);
+        getPreference(context);
+
+        synchronized (mLock) {
+            mPending.clear();
+            mPendingClear = true;
+            mClearCount++;
+            scheduleCommit();
+        }
     }
 
     public static void setUserString(Context context, String string) {
-        SharedPreferences.Editor editor = getPreference(context).edit();
-        editor.putString(SHARED_PREFERENCE_NAME_USER_STRING, string);
-
-        SharedPreferenceSaver saver = PlatformSpecificImplementationFactory
-                .getSharedPreferenceSaver(context);
-        saver.savePreferences(editor, false);
+        put(context, SHARED_PREFERENCE_NAME_USER_STRING, string);
     }
 
     public static String getUserString(Context context) {
-        SharedPreferences prefs = getPreference(context);
-        String result = prefs.getString(SHARED_PREFERENCE_NAME_USER_STRING, "");
+        String result = get(context, SHARED_PREFERENCE_NAME_USER_STRING);
 
         return result;
     }
 
     public static void setAccessToken(Context context, String string) {
-        SharedPreferences.Editor editor = getPreference(context).edit();
-        editor.putString(SHARED_PREFERENCE_NAME_ACCESS_TOKEN, string);
-
-        SharedPreferenceSaver saver = PlatformSpecificImplementationFactory
-                .getSharedPreferenceSaver(context);
-        saver.savePreferences(editor, false);
+        put(context, SHARED_PREFERENCE_NAME_ACCESS_TOKEN, string);
     }
 
     public static String getAccessToken(Context context) {
-        SharedPreferences prefs = getPreference(context);
-        String result = prefs.getString(SHARED_PREFERENCE_NAME_ACCESS_TOKEN, "");
+        String result = get(context, SHARED_PREFERENCE_NAME_ACCESS_TOKEN);
 
         return result;
     }
 
     public static void setDeviceUuidForPush(Context context, String string) {
-        SharedPreferences.Editor editor = getPreference(context).edit();
-        editor.putString(SHARED_PREFERENCE_NAME_REGISTERED_DEVICE_UUID_FOR_PUSH, string);
-
-        SharedPreferenceSaver saver = PlatformSpecificImplementationFactory
-                .getSharedPreferenceSaver(context);
-        saver.savePreferences(editor, false);
+        put(context, SHARED_PREFERENCE_NAME_REGISTERED_DEVICE_UUID_FOR_PUSH, string);
     }
 
     public static String getDeviceUuidForPush(Context context) {
-        SharedPreferences prefs = getPreference(context);
-        String result = prefs.getString(SHARED_PREFERENCE_NAME_REGISTERED_DEVICE_UUID_FOR_PUSH, "");
+        String result = get(context, SHARED_PREFERENCE_NAME_REGISTERED_DEVICE_UUID_FOR_PUSH);
 
         return result;
     }
 
     public static void setRegisteredUserName(Context context, String string) {
-        SharedPreferences.Editor editor = getPreference(context).edit();
-        editor.putString(SHARED_PREFERENCE_NAME_REGISTERED_USERNAME_FOR_PUSH, string);
-
-        SharedPreferenceSaver saver = PlatformSpecificImplementationFactory
-                .getSharedPreferenceSaver(context);
-        saver.savePreferences(editor, false);
+        put(context, SHARED_PREFERENCE_NAME_REGISTERED_USERNAME_FOR_PUSH, string);
     }
 
     public static String getRegisteredUserName(Context context) {
-        SharedPreferences prefs = getPreference(context);
-        String result = prefs.getString(SHARED_PREFERENCE_NAME_REGISTERED_USERNAME_FOR_PUSH, "");
+        String result = get(context, SHARED_PREFERENCE_NAME_REGISTERED_USERNAME_FOR_PUSH);
 
         return result;
     }
 
     public static void setRegisteredTags(Context context, String string) {
-        SharedPreferences.Editor editor = getPreference(context).edit();
-        editor.putString(SHARED_PREFERENCE_NAME_REGISTERED_TAGS_FOR_PUSH, string);
-
-        SharedPreferenceSaver saver = PlatformSpecificImplementationFactory
-                .getSharedPreferenceSaver(context);
-        saver.savePreferences(editor, false);
+        put(context, SHARED_PREFERENCE_NAME_REGISTERED_TAGS_FOR_PUSH, string);
     }
 
     public static String getRegisteredTags(Context context) {
-        SharedPreferences prefs = getPreference(context);
-        String result = prefs.getString(SHARED_PREFERENCE_NAME_REGISTERED_TAGS_FOR_PUSH, "");
+        String result = get(context, SHARED_PREFERENCE_NAME_REGISTERED_TAGS_FOR_PUSH);
 
         return result;
     }
 
     public static void setNeedRegisteredTags(Context context, String string) {
-        SharedPreferences.Editor editor = getPreference(context).edit();
-        editor.putString(SHARED_PREFERENCE_NAME_NEED_REGISTER_TAGS_FOR_PUSH, string);
-
-        SharedPreferenceSaver saver = PlatformSpecificImplementationFactory
-                .getSharedPreferenceSaver(context);
-        saver.savePreferences(editor, false);
+        put(context, SHARED_PREFERENCE_NAME_NEED_REGISTER_TAGS_FOR_PUSH, string);
     }
 
     public static String getNeedRegisteredTags(Context context) {
-        SharedPreferences prefs = getPreference(context);
-        String result = prefs.getString(SHARED_PREFERENCE_NAME_NEED_REGISTER_TAGS_FOR_PUSH, "");
+        String result = get(context, SHARED_PREFERENCE_NAME_NEED_REGISTER_TAGS_FOR_PUSH);
 
         return result;
     }
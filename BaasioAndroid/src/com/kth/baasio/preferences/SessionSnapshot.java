@@ -0,0 +1,386 @@
+
+package com.kth.baasio.preferences;
+
+import static com.kth.common.utils.LogUtils.LOGE;
+import static com.kth.common.utils.LogUtils.makeLogTag;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.node.ArrayNode;
+import org.codehaus.jackson.node.JsonNodeFactory;
+import org.codehaus.jackson.node.ObjectNode;
+import org.usergrid.java.client.entities.User;
+
+import android.content.Context;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary snapshot of the logged-in user and the access token. It is
+ * read without ObjectMapper, so restoring the session on startup does not pay
+ * for Jackson warm-up. The token comes first in the record, so it can be read
+ * without decoding the user.
+ * <p>
+ * Record: magic, version, token, then the user as length-prefixed tagged
+ * values.
+ */
+public class SessionSnapshot {
+    private static final String TAG = makeLogTag(SessionSnapshot.class);
+
+    private static final String FILE_NAME = "baasio_session.bin";
+
+    private static final int MAGIC = 0x42535353;
+
+    private static final int VERSION = 1;
+
+    private static final byte TYPE_NULL = 0;
+
+    private static final byte TYPE_TEXT = 1;
+
+    private static final byte TYPE_INT = 2;
+
+    private static final byte TYPE_LONG = 3;
+
+    private static final byte TYPE_DOUBLE = 4;
+
+    private static final byte TYPE_BOOLEAN = 5;
+
+    private static final byte TYPE_ARRAY = 6;
+
+    private static final byte TYPE_OBJECT = 7;
+
+    /**
+     * getProperties() of an entity leaves out the properties which have own
+     * getters, such as uuid and username. This view shares the properties of
+     * the user, and leaves out nothing.
+     */
+    private static class AllProperties extends User {
+        AllProperties(User user) {
+            super(user);
+        }
+
+        @Override
+        public List<String> getPropertyNames() {
+            return Collections.emptyList();
+        }
+    }
+
+    private SessionSnapshot() {
+    }
+
+    /**
+     * @return copy of every property of the user
+     */
+    private static Map<String, JsonNode> getAllProperties(User user) {
+        return new AllProperties(user).getProperties();
+    }
+
+    private static File getFile(Context context) {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    /**
+     * @param context context
+     * @return true if a snapshot was saved
+     */
+    public static boolean exists(Context context) {
+        return getFile(context).exists();
+    }
+
+    /**
+     * Save the session. The file is replaced atomically.
+     *
+     * @param context context
+     * @param accessToken access token, or null
+     * @param user logged-in user, or null
+     */
+    public static void save(Context context, String accessToken, User user) {
+        File file = getFile(context);
+        File tmp = new File(file.getPath() + ".tmp");
+
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeText(out, accessToken);
+
+            out.writeBoolean(user != null);
+            if (user != null) {
+                Map<String, JsonNode> properties = getAllProperties(user);
+                out.writeInt(properties.size());
+                for (Map.Entry<String, JsonNode> property : properties.entrySet()) {
+                    writeText(out, property.getKey());
+                    writeNode(out, property.getValue());
+                }
+            }
+            out.close();
+            out = null;
+
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Failed to rename " + tmp);
+            }
+        } catch (IOException e) {
+            LOGE(TAG, "Failed to save session: " + e.getMessage());
+            tmp.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Save the session in background, so that the caller does not wait for
+     * the disk. Saves and clears run in the order they are called.
+     *
+     * @param context context
+     * @param accessToken access token, or null
+     * @param user logged-in user, or null
+     */
+    public static void saveAsync(final Context context, final String accessToken, User user) {
+        final User copy;
+        if (user != null) {
+            // the caller may keep changing the user
+            copy = new User();
+            for (Map.Entry<String, JsonNode> property : getAllProperties(user).entrySet()) {
+                copy.setProperty(property.getKey(), property.getValue());
+            }
+        } else {
+            copy = null;
+        }
+
+        BaasPreferences.post(new Runnable() {
+            @Override
+            public void run() {
+                save(context, accessToken, copy);
+            }
+        });
+    }
+
+    /**
+     * Remove the snapshot.
+     *
+     * @param context context
+     */
+    public static void clear(Context context) {
+        getFile(context).delete();
+    }
+
+    /**
+     * Remove the snapshot in background, after the saves called before.
+     *
+     * @param context context
+     */
+    public static void clearAsync(final Context context) {
+        BaasPreferences.post(new Runnable() {
+            @Override
+            public void run() {
+                clear(context);
+            }
+        });
+    }
+
+    /**
+     * Read only the access token.
+     *
+     * @param context context
+     * @return access token, or null if not saved
+     */
+    public static String readAccessToken(Context context) {
+        DataInputStream in = open(context);
+        if (in == null) {
+            return null;
+        }
+
+        try {
+            return readText(in);
+        } catch (IOException e) {
+            LOGE(TAG, "Broken session: " + e.getMessage());
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    /**
+     * Read the logged-in user.
+     *
+     * @param context context
+     * @return user, or null if not saved
+     */
+    public static User readUser(Context context) {
+        DataInputStream in = open(context);
+        if (in == null) {
+            return null;
+        }
+
+        try {
+            readText(in);
+
+            if (!in.readBoolean()) {
+                return null;
+            }
+
+            User user = new User();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = readText(in);
+                user.setProperty(name, readNode(in));
+            }
+            return user;
+        } catch (IOException e) {
+            LOGE(TAG, "Broken session: " + e.getMessage());
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    private static DataInputStream open(Context context) {
+        File file = getFile(context);
+        if (!file.exists()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Unknown format");
+            }
+            return in;
+        } catch (IOException e) {
+            LOGE(TAG, "Broken session: " + e.getMessage());
+            close(in);
+            file.delete();
+            return null;
+        }
+    }
+
+    private static void close(DataInputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * Length-prefixed UTF-8, since values may exceed the limit of writeUTF.
+     */
+    private static void writeText(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+
+        byte[] bytes = value.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readText(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static void writeNode(DataOutputStream out, JsonNode node) throws IOException {
+        if (node == null || node.isNull() || node.isMissingNode()) {
+            out.writeByte(TYPE_NULL);
+        } else if (node.isTextual()) {
+            out.writeByte(TYPE_TEXT);
+            writeText(out, node.getTextValue());
+        } else if (node.isInt()) {
+            out.writeByte(TYPE_INT);
+            out.writeInt(node.getIntValue());
+        } else if (node.isLong()) {
+            out.writeByte(TYPE_LONG);
+            out.writeLong(node.getLongValue());
+        } else if (node.isNumber()) {
+            out.writeByte(TYPE_DOUBLE);
+            out.writeDouble(node.getDoubleValue());
+        } else if (node.isBoolean()) {
+            out.writeByte(TYPE_BOOLEAN);
+            out.writeBoolean(node.getBooleanValue());
+        } else if (node.isArray()) {
+            out.writeByte(TYPE_ARRAY);
+            out.writeInt(node.size());
+            for (JsonNode element : node) {
+                writeNode(out, element);
+            }
+        } else if (node.isObject()) {
+            out.writeByte(TYPE_OBJECT);
+            out.writeInt(node.size());
+            Iterator<Map.Entry<String, JsonNode>> fields = node.getFields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                writeText(out, field.getKey());
+                writeNode(out, field.getValue());
+            }
+        } else {
+            // binary or pojo nodes are kept as text
+            out.writeByte(TYPE_TEXT);
+            writeText(out, node.asText());
+        }
+    }
+
+    private static JsonNode readNode(DataInputStream in) throws IOException {
+        JsonNodeFactory factory = JsonNodeFactory.instance;
+
+        byte type = in.readByte();
+        switch (type) {
+            case TYPE_NULL:
+                return factory.nullNode();
+            case TYPE_TEXT:
+                return factory.textNode(readText(in));
+            case TYPE_INT:
+                return factory.numberNode(in.readInt());
+            case TYPE_LONG:
+                return factory.numberNode(in.readLong());
+            case TYPE_DOUBLE:
+                return factory.numberNode(in.readDouble());
+            case TYPE_BOOLEAN:
+                return factory.booleanNode(in.readBoolean());
+            case TYPE_ARRAY: {
+                ArrayNode array = factory.arrayNode();
+                int size = in.readInt();
+                for (int i = 0; i < size; i++) {
+                    array.add(readNode(in));
+                }
+                return array;
+            }
+            case TYPE_OBJECT: {
+                ObjectNode object = factory.objectNode();
+                int size = in.readInt();
+                for (int i = 0; i < size; i++) {
+                    String name = readText(in);
+                    object.put(name, readNode(in));
+                }
+                return object;
+            }
+            default:
+                throw new IOException("Unknown type " + type);
+        }
+    }
+}
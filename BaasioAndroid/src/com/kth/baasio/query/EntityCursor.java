@@ -0,0 +1,362 @@
+
+package com.kth.baasio.query;
+
+import static com.kth.common.utils.LogUtils.LOGD;
+import static com.kth.common.utils.LogUtils.makeLogTag;
+import static org.usergrid.java.client.utils.UrlUtils.addQueryParams;
+
+import com.kth.baasio.json.JsonCodec;
+import com.kth.baasio.ssl.HttpUtils;
+import com.kth.baasio.transfer.HttpStatusException;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.usergrid.java.client.entities.Entity;
+
+import android.os.Process;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Iterates entities of a query page by page. The next page is fetched in
+ * background while the current one is consumed, and at most two pages are
+ * held in memory at once. Entities are read from the response stream one by
+ * one without building the whole response.
+ * <p>
+ * {@link #hasNext()} blocks while waiting for a page, so do not iterate in the
+ * UI thread. A cursor must be closed if it is not iterated to the end. If it
+ * is abandoned instead, the background fetch gives up after the idle timeout
+ * with the fetched page kept, and iterating again resumes from it.
+ */
+public class EntityCursor implements Iterator<Entity>, Closeable {
+    private static final String TAG = makeLogTag(EntityCursor.class);
+
+    public static final int DEFAULT_PAGE_SIZE = 100;
+
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 60 * 1000;
+
+    private static final long POLL_MILLIS = 1000;
+
+    private static volatile long sIdleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+
+    private final HttpClient mHttpClient;
+
+    private final String mUrl;
+
+    private final Map<String, String> mHeaders;
+
+    private final int mPageSize;
+
+    private final SynchronousQueue<Page> mPages = new SynchronousQueue<Page>();
+
+    /** page fetched while nobody was reading, until the reader comes back */
+    private final AtomicReference<Page> mParked = new AtomicReference<Page>();
+
+    private volatile Thread mFetcher;
+
+    private volatile boolean mClosed;
+
+    private Iterator<Entity> mCurrent;
+
+    private boolean mLast;
+
+    /**
+     * Exception while fetching a page. The cause is the original exception.
+     */
+    public static class CursorException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public CursorException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    private static class Page {
+        final List<Entity> entities;
+
+        final String cursor;
+
+        final Exception exception;
+
+        Page(List<Entity> entities, String cursor, Exception exception) {
+            this.entities = entities;
+            this.cursor = cursor;
+            this.exception = exception;
+        }
+    }
+
+    /**
+     * Get how long(ms) a fetched page waits for the reader before the
+     * background fetch stops.
+     *
+     * @return idle timeout(ms)
+     */
+    public static long getIdleTimeout() {
+        return sIdleTimeoutMillis;
+    }
+
+    /**
+     * Set how long(ms) a fetched page waits for the reader before the
+     * background fetch stops.
+     *
+     * @param millis idle timeout(ms)
+     */
+    public static boolean setIdleTimeout(long millis) {
+        if (millis > 0) {
+            sIdleTimeoutMillis = millis;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * @param httpClient http client
+     * @param url query url
+     * @param headers request headers
+     * @param pageSize number of entities in a page
+     */
+    public EntityCursor(HttpClient httpClient, String url, Map<String, String> headers,
+            int pageSize) {
+        if (url == null) {
+            throw new IllegalArgumentException("Url may not be null");
+        }
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Invalid page size");
+        }
+
+        mHttpClient = httpClient;
+        mUrl = url;
+        mHeaders = headers;
+        mPageSize = pageSize;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (mClosed) {
+            return false;
+        }
+
+        if (mFetcher == null) {
+            startFetcher(null);
+        }
+
+        while (mCurrent == null || !mCurrent.hasNext()) {
+            if (mLast) {
+                close();
+                return false;
+            }
+
+            Page page = mParked.getAndSet(null);
+            if (page != null) {
+                // the fetcher stopped while nobody was reading
+                LOGD(TAG, "Resume query fetcher: " + mUrl);
+                if (page.exception == null && page.cursor != null) {
+                    startFetcher(page.cursor);
+                }
+            } else {
+                try {
+                    page = mPages.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    close();
+                    Thread.currentThread().interrupt();
+                    throw new CursorException("Query Cancelled", e);
+                }
+
+                if (page == null) {
+                    continue;
+                }
+            }
+
+            if (page.exception != null) {
+                close();
+                throw new CursorException(page.exception.getMessage(), page.exception);
+            }
+
+            mCurrent = page.entities.iterator();
+            mLast = page.cursor == null;
+        }
+        return true;
+    }
+
+    @Override
+    public Entity next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return mCurrent.next();
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Stop iterating and release the background fetch. The page being fetched
+     * is dropped.
+     */
+    public void close() {
+        mClosed = true;
+        mCurrent = null;
+        mParked.set(null);
+
+        if (mFetcher != null) {
+            mFetcher.interrupt();
+        }
+    }
+
+    /**
+     * @return thread fetching pages in background, or null before the first
+     *         {@link #hasNext()}
+     */
+    Thread getFetcher() {
+        return mFetcher;
+    }
+
+    /**
+     * Start fetching pages in background.
+     *
+     * @param first cursor of the first page to fetch, or null from the start
+     */
+    private void startFetcher(final String first) {
+        mFetcher = new Thread("Baasio-Query") {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
+                String cursor = first;
+                do {
+                    Page page;
+                    try {
+                        page = fetch(cursor);
+                    } catch (Exception e) {
+                        page = new Page(null, null, e);
+                    }
+
+                    try {
+                        if (!mPages.offer(page, sIdleTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                            LOGD(TAG, "Query cursor is not read. Stop fetching: " + mUrl);
+                            mParked.set(page);
+                            break;
+                        }
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+
+                    if (page.exception != null) {
+                        break;
+                    }
+                    cursor = page.cursor;
+                } while (cursor != null && !mClosed);
+
+                LOGD(TAG, "Query fetcher finished: " + mUrl);
+            }
+        };
+        mFetcher.setDaemon(true);
+        mFetcher.start();
+    }
+
+    private Page fetch(String cursor) throws IOException {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("limit", mPageSize);
+        if (cursor != null) {
+            params.put("cursor", cursor);
+        }
+
+        HttpGet get = new HttpGet(addQueryParams(mUrl, params));
+        if (mHeaders != null) {
+            for (Map.Entry<String, String> header : mHeaders.entrySet()) {
+                get.setHeader(header.getKey(), header.getValue());
+            }
+        }
+
+        HttpUtils.acceptGzip(get);
+
+        HttpResponse response = null;
+        try {
+            response = mHttpClient.execute(get);
+
+            int status = response.getStatusLine().getStatusCode();
+            HttpEntity entity = response.getEntity();
+            if (status >= 300 || entity == null) {
+                throw new HttpStatusException(status);
+            }
+
+            InputStream in = HttpUtils.getUngzippedContent(entity);
+            try {
+                return parse(in, get);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            get.abort();
+            throw e;
+        } catch (RuntimeException e) {
+            get.abort();
+            throw e;
+        } finally {
+            if (response != null) {
+                HttpUtils.consumeQuietly(response);
+            }
+        }
+    }
+
+    private Page parse(InputStream in, HttpGet get) throws IOException {
+        ObjectMapper mapper = JsonCodec.getMapper();
+        JsonFactory factory = mapper.getJsonFactory();
+        JsonParser parser = factory.createJsonParser(in);
+        try {
+            List<Entity> entities = new ArrayList<Entity>(mPageSize);
+            String cursor = null;
+
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Invalid response");
+            }
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+
+                if ("entities".equals(name) && token == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        if (mClosed) {
+                            get.abort();
+                            throw new IOException("Query Cancelled");
+                        }
+                        entities.add(mapper.readValue(parser, Entity.class));
+                    }
+                } else if ("cursor".equals(name) && token == JsonToken.VALUE_STRING) {
+                    cursor = parser.getText();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+
+            if (entities.isEmpty()) {
+                // an empty page ends the query even if the server sent a cursor
+                cursor = null;
+            }
+            return new Page(entities, cursor, null);
+        } finally {
+            parser.close();
+        }
+    }
+}
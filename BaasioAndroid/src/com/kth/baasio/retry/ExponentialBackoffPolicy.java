@@ -0,0 +1,169 @@
+
+package com.kth.baasio.retry;
+
+import com.kth.baasio.circuit.CircuitOpenException;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.Random;
+
+/**
+ * Default {@link RetryPolicy}. Delays grow exponentially with full jitter, so
+ * clients failed at the same time do not retry at the same time.
+ * <p>
+ * Requests the server did not process are always retryable: the connection
+ * was not established, the concurrency limit rejected it, or the server
+ * answered 429 or 503. Requests failed fast by an open circuit are not. Other
+ * network errors and 408, 502, 504 are retried only for idempotent methods,
+ * not for POST unless it is marked with {@link Retrier#setIdempotent(boolean)}.
+ * A retry budget stops retries when most requests are failing, so that
+ * retries do not multiply the load of a struggling server: each retry takes a
+ * token, and each success gives back a fraction of one.
+ */
+public class ExponentialBackoffPolicy implements RetryPolicy {
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+    public static final long DEFAULT_BASE_DELAY_MILLIS = 500;
+
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 30 * 1000;
+
+    public static final int DEFAULT_BUDGET_TOKENS = 10;
+
+    public static final double DEFAULT_BUDGET_REFILL = 0.1;
+
+    private static final Random sRandom = new Random();
+
+    private final int mMaxAttempts;
+
+    private final long mBaseDelayMillis;
+
+    private final long mMaxDelayMillis;
+
+    private int mBudgetTokens = DEFAULT_BUDGET_TOKENS;
+
+    private double mBudgetRefill = DEFAULT_BUDGET_REFILL;
+
+    private double mTokens = DEFAULT_BUDGET_TOKENS;
+
+    public ExponentialBackoffPolicy() {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS);
+    }
+
+    /**
+     * @param maxAttempts maximum number of attempts including the first one
+     * @param baseDelayMillis upper bound of the first delay
+     * @param maxDelayMillis upper bound of every delay. Retry-After longer
+     *            than this is not waited for.
+     */
+    public ExponentialBackoffPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts should be positive");
+        }
+        if (baseDelayMillis <= 0 || maxDelayMillis < baseDelayMillis) {
+            throw new IllegalArgumentException("Invalid delay");
+        }
+
+        mMaxAttempts = maxAttempts;
+        mBaseDelayMillis = baseDelayMillis;
+        mMaxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * Set the retry budget.
+     *
+     * @param tokens maximum number of retries in a row without success
+     * @param refill tokens given back by a success, in (0, 1]
+     */
+    public synchronized boolean setRetryBudget(int tokens, double refill) {
+        if (tokens < 0 || refill <= 0 || refill > 1) {
+            return false;
+        }
+
+        mBudgetTokens = tokens;
+        mBudgetRefill = refill;
+        mTokens = Math.min(mTokens, tokens);
+        return true;
+    }
+
+    @Override
+    public long getRetryDelay(String method, int attempt, int status, Throwable error,
+            long retryAfterMillis) {
+        if (attempt >= mMaxAttempts || !isRetryable(method, status, error)) {
+            return -1;
+        }
+        if (retryAfterMillis > mMaxDelayMillis) {
+            return -1;
+        }
+
+        synchronized (this) {
+            if (mTokens < 1) {
+                return -1;
+            }
+            mTokens -= 1;
+        }
+
+        long cap = mBaseDelayMillis << Math.min(attempt - 1, 20);
+        cap = Math.min(cap, mMaxDelayMillis);
+
+        long delay;
+        synchronized (sRandom) {
+            delay = (long)(sRandom.nextDouble() * cap);
+        }
+        return Math.max(delay, retryAfterMillis);
+    }
+
+    @Override
+    public synchronized void onSuccess() {
+        mTokens = Math.min(mBudgetTokens, mTokens + mBudgetRefill);
+    }
+
+    protected boolean isRetryable(String method, int status, Throwable error) {
+        CircuitOpenException rejected = findCause(error, CircuitOpenException.class);
+        if (rejected != null) {
+            // the concurrency limit may pass soon, but an open circuit not
+            return rejected.isLimited();
+        }
+
+        if (status == 429 || status == 503 || isNotConnected(error)) {
+            return true;
+        }
+
+        if ("POST".equalsIgnoreCase(method) || "PATCH".equalsIgnoreCase(method)) {
+            return false;
+        }
+
+        if (status == 0) {
+            return isCausedBy(error, IOException.class);
+        }
+        return status == 408 || status == 502 || status == 504;
+    }
+
+    /**
+     * @return true if the request was not sent, as the connection was not
+     *         established
+     */
+    private static boolean isNotConnected(Throwable error) {
+        return isCausedBy(error, ConnectException.class)
+                || isCausedBy(error, UnknownHostException.class)
+                || isCausedBy(error, NoRouteToHostException.class);
+    }
+
+    private static boolean isCausedBy(Throwable error, Class<? extends Throwable> cls) {
+        return findCause(error, cls) != null;
+    }
+
+    private static <E extends Throwable> E findCause(Throwable error, Class<E> cls) {
+        for (Throwable e = error; e != null; e = e.getCause()) {
+            if (cls.isInstance(e)) {
+                return cls.cast(e);
+            }
+            if (e.getCause() == e) {
+                break;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,220 @@
+
+package com.kth.baasio.retry;
+
+import static com.kth.common.utils.LogUtils.LOGD;
+import static com.kth.common.utils.LogUtils.makeLogTag;
+
+import com.kth.baasio.metrics.Metrics;
+import com.kth.baasio.ssl.HttpUtils;
+import com.kth.baasio.transfer.HttpStatusException;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.springframework.web.client.HttpStatusCodeException;
+
+import java.io.IOException;
+
+/**
+ * Runs requests under a {@link RetryPolicy}.
+ * <p>
+ * A synchronous call waits for the delay in the calling thread. In a
+ * {@link RetryAsyncTask}, the attempt fails with the delay instead, and the
+ * task is scheduled again without holding a thread while it waits.
+ */
+public class Retrier {
+    private static final String TAG = makeLogTag(Retrier.class);
+
+    private static final ThreadLocal<RetryAsyncTask<?>> sCurrentTask =
+            new ThreadLocal<RetryAsyncTask<?>>();
+
+    private static final ThreadLocal<Boolean> sIdempotent = new ThreadLocal<Boolean>();
+
+    /**
+     * A request to attempt.
+     */
+    public interface Attempt<T> {
+        public T run();
+    }
+
+    private Retrier() {
+    }
+
+    /**
+     * Run the request, and retry it as the policy allows.
+     *
+     * @param policy retry policy, or null not to retry
+     * @param method HTTP method of the request
+     * @param attempt the request
+     * @return result of the request
+     */
+    public static <T> T call(RetryPolicy policy, String method, Attempt<T> attempt) {
+        if (policy == null) {
+            return attempt.run();
+        }
+
+        // the policy decides by the method whether a request is safe to repeat
+        String policyMethod = isIdempotent() ? "PUT" : method;
+
+        RetryAsyncTask<?> task = sCurrentTask.get();
+        int failures = 0;
+        while (true) {
+            RetryAfterInterceptor.clear();
+            try {
+                T result = attempt.run();
+                policy.onSuccess();
+                return result;
+            } catch (RuntimeException e) {
+                failures = task != null ? ++task.mFailures : failures + 1;
+
+                long delay = policy.getRetryDelay(policyMethod, failures, getStatus(e), e,
+                        RetryAfterInterceptor.take());
+                if (delay < 0) {
+                    throw e;
+                }
+                Metrics.retry(method, failures, delay);
+
+                LOGD(TAG, method + " failed " + failures + " times, retry after " + delay + "ms: "
+                        + e.getMessage());
+                if (task != null) {
+                    throw new RetryLaterException(delay, e);
+                }
+                if (!sleep(delay)) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Execute a file transfer request with HttpClient, and retry it as the
+     * policy allows, in the calling thread. The entity of the request must be
+     * repeatable. Retried error responses are consumed.
+     *
+     * @param policy retry policy, or null not to retry
+     * @param client http client
+     * @param request the request
+     * @return the last response
+     * @throws IOException if the last attempt failed
+     */
+    public static HttpResponse execute(RetryPolicy policy, HttpClient client,
+            HttpUriRequest request) throws IOException {
+        int failures = 0;
+        while (true) {
+            HttpResponse response;
+            try {
+                response = client.execute(request);
+            } catch (IOException e) {
+                long delay = getRetryDelay(policy, request.getMethod(), ++failures, e);
+                if (delay < 0 || !sleep(delay)) {
+                    throw e;
+                }
+                continue;
+            }
+
+            int status = response.getStatusLine().getStatusCode();
+            if (status != 429 && status < 500) {
+                if (policy != null) {
+                    policy.onSuccess();
+                }
+                return response;
+            }
+            if (policy == null) {
+                return response;
+            }
+
+            Header retryAfter = response.getFirstHeader("Retry-After");
+            long delay = policy.getRetryDelay(request.getMethod(), ++failures, status,
+                    new HttpStatusException(status),
+                    RetryAfterInterceptor.parse(retryAfter != null ? retryAfter.getValue() : null));
+            if (delay < 0) {
+                return response;
+            }
+            Metrics.retry(request.getMethod(), failures, delay);
+
+            HttpUtils.consumeQuietly(response);
+            if (!sleep(delay)) {
+                throw new IOException("Retry interrupted");
+            }
+        }
+    }
+
+    /**
+     * Get the delay before retrying a failed transfer. Waiting is up to the
+     * caller, and the retry is reported to {@link Metrics}.
+     *
+     * @param policy retry policy, or null not to retry
+     * @param method HTTP method of the request
+     * @param attempt number of failed attempts, from 1
+     * @param error exception of the failure
+     * @return delay(ms), or -1 not to retry
+     */
+    public static long getRetryDelay(RetryPolicy policy, String method, int attempt,
+            Throwable error) {
+        if (policy == null) {
+            return -1;
+        }
+
+        long delay = policy.getRetryDelay(method, attempt, getStatus(error), error, -1);
+        if (delay >= 0) {
+            Metrics.retry(method, attempt, delay);
+        }
+        return delay;
+    }
+
+    /**
+     * @return false if interrupted
+     */
+    public static boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Mark the requests of the calling thread as safe to repeat, like a
+     * registration keyed by the client. They are retried as PUT requests,
+     * whatever their method. Unmark them when they are done.
+     *
+     * @param idempotent true to mark, false to unmark
+     */
+    public static void setIdempotent(boolean idempotent) {
+        if (idempotent) {
+            sIdempotent.set(Boolean.TRUE);
+        } else {
+            sIdempotent.remove();
+        }
+    }
+
+    public static boolean isIdempotent() {
+        return sIdempotent.get() != null;
+    }
+
+    static void setCurrentTask(RetryAsyncTask<?> task) {
+        if (task != null) {
+            sCurrentTask.set(task);
+        } else {
+            sCurrentTask.remove();
+        }
+    }
+
+    private static int getStatus(Throwable error) {
+        for (Throwable e = error; e != null; e = e.getCause()) {
+            if (e instanceof HttpStatusCodeException) {
+                return ((HttpStatusCodeException)e).getStatusCode().value();
+            }
+            if (e instanceof HttpStatusException) {
+                return ((HttpStatusException)e).getStatusCode();
+            }
+            if (e.getCause() == e) {
+                break;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,80 @@
+
+package com.kth.baasio.retry;
+
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Remembers Retry-After header of 429 and 503 responses for
+ * {@link Retrier}, since RestTemplate exceptions do not carry headers. The
+ * value is kept per thread, as a request is executed in the calling thread.
+ */
+public class RetryAfterInterceptor implements ClientHttpRequestInterceptor {
+
+    private static final String HEADER_RETRY_AFTER = "Retry-After";
+
+    private static final ThreadLocal<Long> sRetryAfter = new ThreadLocal<Long>();
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body,
+            ClientHttpRequestExecution execution) throws IOException {
+        ClientHttpResponse response = execution.execute(request, body);
+
+        int status = response.getStatusCode().value();
+        if (status == 429 || status == 503) {
+            long delay = parse(response.getHeaders().getFirst(HEADER_RETRY_AFTER));
+            if (delay >= 0) {
+                sRetryAfter.set(delay);
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Get and forget Retry-After of the last request of this thread.
+     *
+     * @return delay(ms), or -1 if not given
+     */
+    static long take() {
+        Long delay = sRetryAfter.get();
+        sRetryAfter.remove();
+        return delay != null ? delay : -1;
+    }
+
+    static void clear() {
+        sRetryAfter.remove();
+    }
+
+    /**
+     * @param value delay in seconds, or HTTP-date
+     * @return delay(ms), or -1 if not valid
+     */
+    public static long parse(String value) {
+        if (value == null) {
+            return -1;
+        }
+
+        value = value.trim();
+        try {
+            long seconds = Long.parseLong(value);
+            return seconds >= 0 ? seconds * 1000 : -1;
+        } catch (NumberFormatException e) {
+        }
+
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return Math.max(0, format.parse(value).getTime() - System.currentTimeMillis());
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+
+package com.kth.baasio.retry;
+
+import org.usergrid.android.client.callbacks.ClientCallback;
+
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Replacement of ClientAsyncTask whose request is retried by the
+ * {@link RetryPolicy} without holding a thread during the delay. The task is
+ * run again from the start on retry, so {@link #doTask()} should make a
+ * single request. Callbacks are called in the UI thread, same as
+ * ClientAsyncTask.
+ */
+public abstract class RetryAsyncTask<T> {
+
+    /** same as the pool of AsyncTask before Honeycomb. Other tasks wait. */
+    public static final int MAX_THREADS = 5;
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    private static ExecutorService sExecutor;
+
+    private static Handler sScheduler;
+
+    private final ClientCallback<T> mCallback;
+
+    /** failed attempts so far, counted by {@link Retrier} */
+    int mFailures;
+
+    private final Runnable mAttempt = new Runnable() {
+        @Override
+        public void run() {
+            attempt();
+        }
+    };
+
+    private final Runnable mSubmit = new Runnable() {
+        @Override
+        public void run() {
+            getExecutor().execute(mAttempt);
+        }
+    };
+
+    public RetryAsyncTask(ClientCallback<T> callback) {
+        mCallback = callback;
+    }
+
+    public abstract T doTask();
+
+    public void execute() {
+        getExecutor().execute(mAttempt);
+    }
+
+    private void attempt() {
+        T result;
+        Retrier.setCurrentTask(this);
+        try {
+            result = doTask();
+        } catch (RetryLaterException e) {
+            getScheduler().postDelayed(mSubmit, e.getDelayMillis());
+            return;
+        } catch (Exception e) {
+            deliver(null, e);
+            return;
+        } finally {
+            Retrier.setCurrentTask(null);
+        }
+
+        deliver(result, null);
+    }
+
+    private void deliver(final T result, final Exception exception) {
+        sMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mCallback == null) {
+                    return;
+                }
+
+                if (exception != null) {
+                    mCallback.onException(exception);
+                }
+                mCallback.onResponse(result);
+            }
+        });
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (sExecutor == null) {
+            final AtomicInteger count = new AtomicInteger(1);
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS,
+                    KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(final Runnable r) {
+                            Thread thread = new Thread("Baasio-Async #" + count.getAndIncrement()) {
+                                @Override
+                                public void run() {
+                                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                    r.run();
+                                }
+                            };
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            if (Build.VERSION.SDK_INT >= 9) {
+                // let idle threads exit. not available on Froyo.
+                executor.allowCoreThreadTimeOut(true);
+            }
+            sExecutor = executor;
+        }
+        return sExecutor;
+    }
+
+    private static synchronized Handler getScheduler() {
+        if (sScheduler == null) {
+            HandlerThread thread = new HandlerThread("Baasio-Retry");
+            thread.start();
+            sScheduler = new Handler(thread.getLooper());
+        }
+        return sScheduler;
+    }
+}
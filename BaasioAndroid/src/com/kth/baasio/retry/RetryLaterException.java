@@ -0,0 +1,26 @@
+
+package com.kth.baasio.retry;
+
+/**
+ * Thrown out of an attempt in a {@link RetryAsyncTask}, to schedule the task
+ * again after the delay.
+ */
+class RetryLaterException extends RuntimeException {
+    private static final long serialVersionUID = -3185760427326245327L;
+
+    private final long mDelayMillis;
+
+    RetryLaterException(long delayMillis, RuntimeException cause) {
+        super(cause.getMessage());
+        initCause(cause);
+        mDelayMillis = delayMillis;
+    }
+
+    long getDelayMillis() {
+        return mDelayMillis;
+    }
+
+    RuntimeException getFailure() {
+        return (RuntimeException)getCause();
+    }
+}
@@ -0,0 +1,27 @@
+
+package com.kth.baasio.retry;
+
+/**
+ * Decides whether and when a failed request is sent again. Set it with
+ * {@link com.kth.baasio.Baasio#setRetryPolicy(RetryPolicy)}. Implementations
+ * are called from many threads at once.
+ */
+public interface RetryPolicy {
+    /**
+     * @param method HTTP method of the failed request, or PUT for a request
+     *            marked safe to repeat by {@link Retrier#setIdempotent(boolean)}
+     * @param attempt number of failed attempts of the request, from 1
+     * @param status HTTP status of the response, or 0 if there was no response
+     * @param error exception of the failure
+     * @param retryAfterMillis delay asked by the server with Retry-After
+     *            header, or -1
+     * @return delay(ms) before the next attempt, or -1 not to retry
+     */
+    public long getRetryDelay(String method, int attempt, int status, Throwable error,
+            long retryAfterMillis);
+
+    /**
+     * Called when a request succeeded.
+     */
+    public void onSuccess();
+}
@@ -0,0 +1,41 @@
+
+package com.kth.baasio.ssl;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.IOException;
+
+/**
+ * Compresses API requests and responses. Accept-Encoding: gzip is sent, and a
+ * request body larger than {@link HttpUtils#getRequestCompressionThreshold()}
+ * is sent with Content-Encoding: gzip.
+ * <p>
+ * Only the headers are set here. The requests and responses of the Spring
+ * request factories gzip a body whose Content-Encoding is gzip, and decode a
+ * gzip response while it is read.
+ */
+public class CompressionInterceptor implements ClientHttpRequestInterceptor {
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body,
+            ClientHttpRequestExecution execution) throws IOException {
+        HttpHeaders headers = request.getHeaders();
+
+        if (HttpUtils.isResponseCompressionEnabled()
+                && headers.getFirst(HttpUtils.HEADER_ACCEPT_ENCODING) == null) {
+            headers.set(HttpUtils.HEADER_ACCEPT_ENCODING, HttpUtils.ENCODING_GZIP);
+        }
+
+        int threshold = HttpUtils.getRequestCompressionThreshold();
+        if (threshold >= 0 && body != null && body.length > threshold
+                && headers.getFirst(HttpUtils.HEADER_CONTENT_ENCODING) == null) {
+            headers.set(HttpUtils.HEADER_CONTENT_ENCODING, HttpUtils.ENCODING_GZIP);
+        }
+
+        return execution.execute(request, body);
+    }
+}
@@ -1,44 +1,390 @@
 
 package com.kth.baasio.ssl;
 
+import static com.kth.common.utils.LogUtils.LOGD;
+import static com.kth.common.utils.LogUtils.makeLogTag;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
 import org.apache.http.HttpVersion;
 import org.apache.http.client.HttpClient;
 import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
 import org.apache.http.conn.scheme.PlainSocketFactory;
 import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
 import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.params.HttpParams;
 import org.apache.http.params.HttpProtocolParams;
 import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.security.KeyStore;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
 public class HttpUtils {
-    public static HttpClient getNewHttpClient() {
+    private static final String TAG = makeLogTag(HttpUtils.class);
+
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 4;
+
+    public static final int DEFAULT_MAX_TOTAL_CONNECTIONS = 8;
+
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 30 * 1000;
+
+    public static final long DEFAULT_CONNECTION_TTL_MILLIS = 5 * 60 * 1000;
+
+    public static final int DEFAULT_CONNECTION_TIMEOUT_MILLIS = 20 * 1000;
+
+    public static final int DEFAULT_SOCKET_TIMEOUT_MILLIS = 60 * 1000;
+
+    private static int mMaxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+
+    private static int mMaxTotalConnections = DEFAULT_MAX_TOTAL_CONNECTIONS;
+
+    private static long mIdleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+
+    private static long mConnectionTtlMillis = DEFAULT_CONNECTION_TTL_MILLIS;
+
+    private static int mConnectionTimeoutMillis = DEFAULT_CONNECTION_TIMEOUT_MILLIS;
+
+    private static int mSocketTimeoutMillis = DEFAULT_SOCKET_TIMEOUT_MILLIS;
+
+    public static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+
+    public static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+
+    public static final String ENCODING_GZIP = "gzip";
+
+    private static volatile int mRequestCompressionThreshold = -1;
+
+    private static volatile boolean mResponseCompressionEnabled = true;
+
+    private static DefaultHttpClient mSharedClient;
+
+    private static IdleConnectionMonitor mIdleMonitor;
+
+    /**
+     * Get the process-wide HttpClient. Connections are kept alive and pooled
+     * per route, so every file transfer shares TCP/TLS connections instead of
+     * handshaking again.
+     *
+     * @return shared HttpClient
+     */
+    public static synchronized HttpClient getHttpClient() {
+        if (mSharedClient == null) {
+            mSharedClient = createPooledHttpClient();
+
+            mIdleMonitor = new IdleConnectionMonitor(mSharedClient.getConnectionManager(),
+                    mIdleTimeoutMillis);
+            mIdleMonitor.start();
+        }
+
+        return mSharedClient;
+    }
+
+    /**
+     * Close every pooled connection and release the shared HttpClient. The
+     * next call of {@link #getHttpClient()} creates a new one with current
+     * settings.
+     */
+    public static synchronized void shutdown() {
+        if (mIdleMonitor != null) {
+            mIdleMonitor.shutdown();
+            mIdleMonitor = null;
+        }
+
+        if (mSharedClient != null) {
+            mSharedClient.getConnectionManager().shutdown();
+            mSharedClient = null;
+        }
+    }
+
+    /**
+     * Set maximum number of pooled connections per route(host). Applied when
+     * the shared HttpClient is created.
+     *
+     * @param max maximum connections per route
+     */
+    public static synchronized void setMaxConnectionsPerRoute(int max) {
+        if (max < 1) {
+            throw new IllegalArgumentException("Max connections per route must be positive");
+        }
+        mMaxConnectionsPerRoute = max;
+    }
+
+    public static synchronized int getMaxConnectionsPerRoute() {
+        return mMaxConnectionsPerRoute;
+    }
+
+    /**
+     * Set maximum number of pooled connections. Applied when the shared
+     * HttpClient is created.
+     *
+     * @param max maximum connections
+     */
+    public static synchronized void setMaxTotalConnections(int max) {
+        if (max < 1) {
+            throw new IllegalArgumentException("Max total connections must be positive");
+        }
+        mMaxTotalConnections = max;
+    }
+
+    public static synchronized int getMaxTotalConnections() {
+        return mMaxTotalConnections;
+    }
+
+    /**
+     * Set how long an unused connection may stay in the pool before it is
+     * evicted. Applied when the shared HttpClient is created.
+     *
+     * @param millis idle timeout(ms)
+     */
+    public static synchronized void setIdleTimeout(long millis) {
+        if (millis <= 0) {
+            throw new IllegalArgumentException("Idle timeout must be positive");
+        }
+        mIdleTimeoutMillis = millis;
+    }
+
+    public static synchronized long getIdleTimeout() {
+        return mIdleTimeoutMillis;
+    }
+
+    /**
+     * Set maximum time a connection is kept alive for reuse after a response,
+     * even if the server allows longer. Applied when the shared HttpClient is
+     * created.
+     *
+     * @param millis connection time to live(ms)
+     */
+    public static synchronized void setConnectionTimeToLive(long millis) {
+        if (millis <= 0) {
+            throw new IllegalArgumentException("Connection time to live must be positive");
+        }
+        mConnectionTtlMillis = millis;
+    }
+
+    public static synchronized long getConnectionTimeToLive() {
+        return mConnectionTtlMillis;
+    }
+
+    /**
+     * Set connect and socket read timeouts. Applied when the shared
+     * HttpClient is created.
+     *
+     * @param connectionTimeoutMillis connect timeout(ms)
+     * @param socketTimeoutMillis socket read timeout(ms)
+     */
+    public static synchronized void setTimeouts(int connectionTimeoutMillis,
+            int socketTimeoutMillis) {
+        if (connectionTimeoutMillis < 0 || socketTimeoutMillis < 0) {
+            throw new IllegalArgumentException("Timeout may not be negative");
+        }
+        mConnectionTimeoutMillis = connectionTimeoutMillis;
+        mSocketTimeoutMillis = socketTimeoutMillis;
+    }
+
+    /**
+     * Consume the rest of response body, so that the connection goes back to
+     * the pool.
+     *
+     * @param response response to release
+     */
+    public static void consumeQuietly(HttpResponse response) {
+        if (response == null || response.getEntity() == null) {
+            return;
+        }
+
         try {
-            KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
-            trustStore.load(null, null);
+            response.getEntity().consumeContent();
+        } catch (IOException e) {
+            LOGD(TAG, "Failed to consume response", e);
+        }
+    }
+
+    /**
+     * Set the size(byte) above which JSON request bodies are sent gzipped. The
+     * server must accept Content-Encoding: gzip. Negative value disables it,
+     * which is the default.
+     *
+     * @param threshold minimum body size(byte) to compress, or -1
+     */
+    public static void setRequestCompressionThreshold(int threshold) {
+        mRequestCompressionThreshold = threshold;
+    }
+
+    public static int getRequestCompressionThreshold() {
+        return mRequestCompressionThreshold;
+    }
+
+    /**
+     * Enable or disable asking gzip responses for API requests. Enabled by
+     * default. File transfers are never compressed, since their ranges are in
+     * bytes of the file.
+     *
+     * @param enabled true to enable
+     */
+    public static void setResponseCompressionEnabled(boolean enabled) {
+        mResponseCompressionEnabled = enabled;
+    }
 
-            SSLSocketFactory sf = new EasySSLSocketFactory(trustStore);
-            sf.setHostnameVerifier(SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER);
+    public static boolean isResponseCompressionEnabled() {
+        return mResponseCompressionEnabled;
+    }
 
-            HttpParams params = new BasicHttpParams();
-            HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
-            HttpProtocolParams.setContentCharset(params, HTTP.UTF_8);
+    /**
+     * Ask a gzip response for the request, if enabled.
+     *
+     * @param request request
+     */
+    public static void acceptGzip(HttpRequest request) {
+        if (mResponseCompressionEnabled) {
+            request.setHeader(HEADER_ACCEPT_ENCODING, ENCODING_GZIP);
+        }
+    }
 
-            SchemeRegistry registry = new SchemeRegistry();
-            registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
-            registry.register(new Scheme("https", sf, 443));
+    /**
+     * Get the content of a response entity, decoded while it is read if the
+     * entity is gzipped.
+     *
+     * @param entity response entity
+     * @return content stream
+     */
+    public static InputStream getUngzippedContent(HttpEntity entity) throws IOException {
+        InputStream in = entity.getContent();
+        Header encoding = entity.getContentEncoding();
+        if (in != null && encoding != null
+                && ENCODING_GZIP.equalsIgnoreCase(encoding.getValue())) {
+            in = new GZIPInputStream(in);
+        }
+        return in;
+    }
 
-            ClientConnectionManager ccm = new ThreadSafeClientConnManager(params, registry);
+    /**
+     * Create a new HttpClient which is not shared. Prefer
+     * {@link #getHttpClient()}.
+     *
+     * @return new HttpClient
+     */
+    public static HttpClient getNewHttpClient() {
+        try {
+            HttpParams params = createHttpParams();
 
-            return new DefaultHttpClient(ccm, params);
+            return new DefaultHttpClient(createConnectionManager(params), params);
         } catch (Exception e) {
             return new DefaultHttpClient();
         }
     }
+
+    private static DefaultHttpClient createPooledHttpClient() {
+        DefaultHttpClient client;
+        try {
+            HttpParams params = createHttpParams();
+
+            client = new DefaultHttpClient(createConnectionManager(params), params);
+        } catch (Exception e) {
+            client = new DefaultHttpClient();
+        }
+
+        final long ttl = mConnectionTtlMillis;
+        client.setKeepAliveStrategy(new DefaultConnectionKeepAliveStrategy() {
+            @Override
+            public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                long duration = super.getKeepAliveDuration(response, context);
+                if (duration <= 0 || duration > ttl) {
+                    return ttl;
+                }
+                return duration;
+            }
+        });
+
+        return client;
+    }
+
+    private static HttpParams createHttpParams() {
+        HttpParams params = new BasicHttpParams();
+        HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+        HttpProtocolParams.setContentCharset(params, HTTP.UTF_8);
+
+        HttpConnectionParams.setConnectionTimeout(params, mConnectionTimeoutMillis);
+        HttpConnectionParams.setSoTimeout(params, mSocketTimeoutMillis);
+        HttpConnectionParams.setStaleCheckingEnabled(params, true);
+        HttpConnectionParams.setTcpNoDelay(params, true);
+
+        ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(
+                mMaxConnectionsPerRoute));
+        ConnManagerParams.setMaxTotalConnections(params, mMaxTotalConnections);
+        ConnManagerParams.setTimeout(params, mConnectionTimeoutMillis);
+
+        return params;
+    }
+
+    private static ClientConnectionManager createConnectionManager(HttpParams params)
+            throws Exception {
+        KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        trustStore.load(null, null);
+
+        SSLSocketFactory sf = new EasySSLSocketFactory(trustStore);
+        sf.setHostnameVerifier(SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER);
+
+        SchemeRegistry registry = new SchemeRegistry();
+        registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+        registry.register(new Scheme("https", sf, 443));
+
+        return new ThreadSafeClientConnManager(params, registry);
+    }
+
+    /**
+     * Evicts expired and idle connections from the pool in background.
+     */
+    private static class IdleConnectionMonitor extends Thread {
+        private final ClientConnectionManager mManager;
+
+        private final long mIdleTimeoutMillis;
+
+        private volatile boolean mShutdown;
+
+        IdleConnectionMonitor(ClientConnectionManager manager, long idleTimeoutMillis) {
+            super("Baasio-IdleConnectionMonitor");
+            setDaemon(true);
+
+            mManager = manager;
+            mIdleTimeoutMillis = idleTimeoutMillis;
+        }
+
+        @Override
+        public void run() {
+            long interval = Math.max(1000, mIdleTimeoutMillis / 2);
+            try {
+                while (!mShutdown) {
+                    synchronized (this) {
+                        wait(interval);
+                    }
+
+                    mManager.closeExpiredConnections();
+                    mManager.closeIdleConnections(mIdleTimeoutMillis, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                // terminate
+            }
+        }
+
+        void shutdown() {
+            mShutdown = true;
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
 }
@@ -0,0 +1,206 @@
+
+package com.kth.baasio.transfer;
+
+/**
+ * Chooses the read/write chunk size of a transfer from its measured
+ * throughput. The chunk is sized to take about TARGET_CHUNK_MILLIS, so fast
+ * links use large chunks with less overhead, and slow links use small chunks
+ * which keep progress and cancellation responsive. The size learned by a
+ * transfer is the starting size of the next one in the same direction.
+ */
+public class AdaptiveBufferPolicy {
+
+    public static final int UPLOAD = 0;
+
+    public static final int DOWNLOAD = 1;
+
+    private static final long TARGET_CHUNK_MILLIS = 100;
+
+    /** weight of the latest sample in the moving average of throughput */
+    private static final double SMOOTHING = 0.25;
+
+    private static volatile boolean sEnabled = true;
+
+    private static final Object sLock = new Object();
+
+    private static final int[] sBaseSize = new int[] {
+            BufferPool.MIN_SIZE, BufferPool.MIN_SIZE
+    };
+
+    private static final int[] sLearnedSize = new int[] {
+            BufferPool.MIN_SIZE, BufferPool.MIN_SIZE
+    };
+
+    private static final Stats[] sStats = new Stats[] {
+            new Stats(BufferPool.MIN_SIZE, 0, 0, 0, 0, 0),
+            new Stats(BufferPool.MIN_SIZE, 0, 0, 0, 0, 0)
+    };
+
+    private final int mDirection;
+
+    private int mSize;
+
+    private double mThroughput;
+
+    private long mBytes;
+
+    private long mNanos;
+
+    private int mResizeCount;
+
+    /**
+     * Snapshot of buffer sizes chosen for a direction.
+     */
+    public static class Stats {
+        /** chunk size(byte) the next transfer starts with */
+        public final int currentSize;
+
+        /** smallest chunk size(byte) chosen */
+        public final int minSize;
+
+        /** largest chunk size(byte) chosen */
+        public final int maxSize;
+
+        /** number of finished transfers */
+        public final long transferCount;
+
+        /** number of chunk size changes */
+        public final long resizeCount;
+
+        /** average throughput(byte/s) of the latest transfers */
+        public final long throughput;
+
+        Stats(int currentSize, int minSize, int maxSize, long transferCount, long resizeCount,
+                long throughput) {
+            this.currentSize = currentSize;
+            this.minSize = minSize;
+            this.maxSize = maxSize;
+            this.transferCount = transferCount;
+            this.resizeCount = resizeCount;
+            this.throughput = throughput;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats [currentSize=" + currentSize + ", minSize=" + minSize + ", maxSize="
+                    + maxSize + ", transferCount=" + transferCount + ", resizeCount="
+                    + resizeCount + ", throughput=" + throughput + "]";
+        }
+    }
+
+    /**
+     * Enable or disable adaptive sizing. When disabled, the configured buffer
+     * size is always used.
+     *
+     * @param enabled true to enable
+     */
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * Set the size configured by user. Adaptive sizing restarts from it.
+     *
+     * @param direction UPLOAD or DOWNLOAD
+     * @param size buffer size(byte)
+     */
+    public static void setBaseSize(int direction, int size) {
+        synchronized (sLock) {
+            sBaseSize[direction] = size;
+            sLearnedSize[direction] = size;
+        }
+    }
+
+    /**
+     * Get statistics of the chosen buffer sizes.
+     *
+     * @param direction UPLOAD or DOWNLOAD
+     * @return statistics
+     */
+    public static Stats getStats(int direction) {
+        synchronized (sLock) {
+            return sStats[direction];
+        }
+    }
+
+    /**
+     * Create a policy for a transfer.
+     *
+     * @param direction UPLOAD or DOWNLOAD
+     */
+    public AdaptiveBufferPolicy(int direction) {
+        if (direction != UPLOAD && direction != DOWNLOAD) {
+            throw new IllegalArgumentException("Invalid direction");
+        }
+
+        mDirection = direction;
+        synchronized (sLock) {
+            mSize = sEnabled ? sLearnedSize[direction] : sBaseSize[direction];
+        }
+    }
+
+    /**
+     * @return chunk size(byte) to use for the next read/write
+     */
+    public int getChunkSize() {
+        return mSize;
+    }
+
+    /**
+     * Report a chunk transferred.
+     *
+     * @param bytes transferred size(byte)
+     * @param elapsedNanos time taken
+     */
+    public void onChunk(int bytes, long elapsedNanos) {
+        if (bytes <= 0) {
+            return;
+        }
+
+        mBytes += bytes;
+        mNanos += elapsedNanos;
+
+        if (!sEnabled) {
+            return;
+        }
+
+        double sample = bytes * 1000000000d / Math.max(1, elapsedNanos);
+        mThroughput = mThroughput == 0 ? sample : mThroughput * (1 - SMOOTHING) + sample
+                * SMOOTHING;
+
+        int desired = BufferPool.roundUp((int)Math.min(Integer.MAX_VALUE, mThroughput
+                * TARGET_CHUNK_MILLIS / 1000));
+        if (desired != mSize) {
+            mSize = desired;
+            mResizeCount++;
+        }
+    }
+
+    /**
+     * Finish the transfer, and remember the chosen size for the next one.
+     */
+    public void finish() {
+        synchronized (sLock) {
+            Stats old = sStats[mDirection];
+
+            if (sEnabled) {
+                sLearnedSize[mDirection] = mSize;
+            }
+
+            long throughput = mNanos > 0 ? (long)(mBytes * 1000000000d / mNanos) : 0;
+            if (old.transferCount > 0 && throughput > 0) {
+                throughput = (long)(old.throughput * (1 - SMOOTHING) + throughput * SMOOTHING);
+            }
+
+            int minSize = old.transferCount == 0 ? mSize : Math.min(old.minSize, mSize);
+            int maxSize = Math.max(old.maxSize, mSize);
+
+            sStats[mDirection] = new Stats(sLearnedSize[mDirection], minSize, maxSize,
+                    old.transferCount + 1, old.resizeCount + mResizeCount, throughput);
+        }
+    }
+}
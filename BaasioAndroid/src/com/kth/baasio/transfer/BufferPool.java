@@ -0,0 +1,90 @@
+
+package com.kth.baasio.transfer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pool of recyclable byte arrays for transfers. Arrays are grouped in power
+ * of two size classes, and a few arrays per class are kept for reuse.
+ */
+public class BufferPool {
+
+    public static final int MIN_SIZE = 4 * 1024;
+
+    public static final int MAX_SIZE = 256 * 1024;
+
+    private static final int MAX_POOLED_PER_CLASS = 4;
+
+    private static final int CLASS_COUNT = classIndex(MAX_SIZE) + 1;
+
+    private static final List<List<byte[]>> sPool = new ArrayList<List<byte[]>>(CLASS_COUNT);
+
+    static {
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            sPool.add(new ArrayList<byte[]>(MAX_POOLED_PER_CLASS));
+        }
+    }
+
+    private BufferPool() {
+    }
+
+    /**
+     * Get a buffer which is at least the given size. The returned buffer may
+     * be larger.
+     *
+     * @param size requested size(byte)
+     * @return buffer
+     */
+    public static byte[] acquire(int size) {
+        int index = classIndex(Math.max(MIN_SIZE, Math.min(size, MAX_SIZE)));
+        if (size <= MAX_SIZE) {
+            List<byte[]> list = sPool.get(index);
+            synchronized (list) {
+                if (!list.isEmpty()) {
+                    return list.remove(list.size() - 1);
+                }
+            }
+            return new byte[MIN_SIZE << index];
+        }
+
+        return new byte[size];
+    }
+
+    /**
+     * Give a buffer back to the pool. The buffer must not be used after this.
+     *
+     * @param buffer buffer from {@link #acquire(int)}
+     */
+    public static void release(byte[] buffer) {
+        if (buffer == null || buffer.length < MIN_SIZE || buffer.length > MAX_SIZE
+                || Integer.bitCount(buffer.length) != 1) {
+            return;
+        }
+
+        List<byte[]> list = sPool.get(classIndex(buffer.length));
+        synchronized (list) {
+            if (list.size() < MAX_POOLED_PER_CLASS) {
+                list.add(buffer);
+            }
+        }
+    }
+
+    /**
+     * Round up the size to its size class.
+     *
+     * @param size size(byte)
+     * @return size of the class
+     */
+    public static int roundUp(int size) {
+        return MIN_SIZE << classIndex(Math.max(MIN_SIZE, Math.min(size, MAX_SIZE)));
+    }
+
+    private static int classIndex(int size) {
+        int index = 0;
+        while ((MIN_SIZE << index) < size) {
+            index++;
+        }
+        return index;
+    }
+}
@@ -0,0 +1,111 @@
+
+package com.kth.baasio.transfer;
+
+import android.util.Base64;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Digest of a file content. The file is read once through a direct buffer,
+ * so the bytes are not copied into the Java heap.
+ */
+public class FileDigest {
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private static final ThreadLocal<ByteBuffer> sBuffer = new ThreadLocal<ByteBuffer>();
+
+    private final byte[] mDigest;
+
+    private FileDigest(byte[] digest) {
+        mDigest = digest;
+    }
+
+    /**
+     * Compute MD5 of the file. MD5 is used since it is what Content-MD5
+     * header carries.
+     *
+     * @param file file
+     * @return digest
+     */
+    public static FileDigest md5(File file) throws IOException {
+        return compute(file, "MD5");
+    }
+
+    /**
+     * Compute digest of the file.
+     *
+     * @param file file
+     * @param algorithm digest algorithm such as "MD5" or "SHA-256"
+     * @return digest
+     */
+    public static FileDigest compute(File file, String algorithm) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Unsupported algorithm: " + algorithm);
+        }
+
+        ByteBuffer buffer = sBuffer.get();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            sBuffer.set(buffer);
+        }
+
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            long position = 0;
+            while (true) {
+                buffer.clear();
+                int l = channel.read(buffer, position);
+                if (l == -1) {
+                    break;
+                }
+                position += l;
+
+                buffer.flip();
+                md.update(buffer);
+            }
+        } finally {
+            in.close();
+        }
+
+        return new FileDigest(md.digest());
+    }
+
+    public byte[] getBytes() {
+        return mDigest.clone();
+    }
+
+    /**
+     * @return lower case hex string
+     */
+    public String toHex() {
+        StringBuilder sb = new StringBuilder(mDigest.length * 2);
+        for (byte b : mDigest) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return base64 string, as used in Content-MD5 header
+     */
+    public String toBase64() {
+        return Base64.encodeToString(mDigest, Base64.NO_WRAP);
+    }
+
+    @Override
+    public String toString() {
+        return toHex();
+    }
+}
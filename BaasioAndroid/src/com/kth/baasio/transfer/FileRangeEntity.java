@@ -0,0 +1,23 @@
+
+package com.kth.baasio.transfer;
+
+import com.kth.baasio.callback.FileEntityWidthProgress;
+import com.kth.baasio.callback.ProgressListener;
+
+import java.io.File;
+
+/**
+ * Entity which sends a byte range of a file. Reports progress as the
+ * absolute position in the file.
+ */
+public class FileRangeEntity extends FileEntityWidthProgress {
+
+    public FileRangeEntity(File file, long offset, long length, String contentType,
+            ProgressListener listener) {
+        super(file, offset, length, contentType, listener);
+
+        if (length < 0) {
+            throw new IllegalArgumentException("Invalid range");
+        }
+    }
+}
@@ -0,0 +1,26 @@
+
+package com.kth.baasio.transfer;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the server responds a transfer request with unexpected status
+ * code.
+ */
+public class HttpStatusException extends IOException {
+    private static final long serialVersionUID = 2164519736045618375L;
+
+    private final int mStatusCode;
+
+    public HttpStatusException(int statusCode) {
+        super("Http Status code is " + statusCode);
+        mStatusCode = statusCode;
+    }
+
+    /**
+     * @return the http status code
+     */
+    public int getStatusCode() {
+        return mStatusCode;
+    }
+}
@@ -0,0 +1,298 @@
+
+package com.kth.baasio.transfer;
+
+import android.webkit.MimeTypeMap;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Resolves MIME type of a file to upload. The type is looked up in order of
+ * the override map, a preloaded table of common extensions, and
+ * {@link MimeTypeMap} whose results are kept in a LRU cache. A file without a
+ * known extension is identified from its first bytes, if sniffing is enabled.
+ */
+public class MimeResolver {
+
+    private static final int CACHE_SIZE = 64;
+
+    private static final int SNIFF_LENGTH = 16;
+
+    /** cached result of a miss in MimeTypeMap */
+    private static final String UNKNOWN = "";
+
+    private static final Map<String, String> sTable = new HashMap<String, String>();
+
+    private static final Map<String, String> sOverrides = new HashMap<String, String>();
+
+    private static final LinkedHashMap<String, String> sCache = new LinkedHashMap<String, String>(
+            CACHE_SIZE, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private static volatile boolean sSniffingEnabled = true;
+
+    static {
+        sTable.put("jpg", "image/jpeg");
+        sTable.put("jpeg", "image/jpeg");
+        sTable.put("png", "image/png");
+        sTable.put("gif", "image/gif");
+        sTable.put("bmp", "image/bmp");
+        sTable.put("webp", "image/webp");
+        sTable.put("mp4", "video/mp4");
+        sTable.put("3gp", "video/3gpp");
+        sTable.put("mp3", "audio/mpeg");
+        sTable.put("m4a", "audio/mp4");
+        sTable.put("aac", "audio/aac");
+        sTable.put("wav", "audio/x-wav");
+        sTable.put("ogg", "audio/ogg");
+        sTable.put("amr", "audio/amr");
+        sTable.put("txt", "text/plain");
+        sTable.put("csv", "text/csv");
+        sTable.put("htm", "text/html");
+        sTable.put("html", "text/html");
+        sTable.put("css", "text/css");
+        sTable.put("js", "application/javascript");
+        sTable.put("json", "application/json");
+        sTable.put("xml", "text/xml");
+        sTable.put("pdf", "application/pdf");
+        sTable.put("zip", "application/zip");
+        sTable.put("gz", "application/x-gzip");
+        sTable.put("apk", "application/vnd.android.package-archive");
+    }
+
+    private MimeResolver() {
+    }
+
+    /**
+     * Set MIME type of an extension, which has priority over the others.
+     *
+     * @param extension extension without dot
+     * @param mimeType MIME type, or null to remove the override
+     */
+    public static boolean setOverride(String extension, String mimeType) {
+        if (extension == null || extension.length() == 0) {
+            return false;
+        }
+
+        synchronized (sOverrides) {
+            if (mimeType != null) {
+                sOverrides.put(extension.toLowerCase(Locale.US), mimeType);
+            } else {
+                sOverrides.remove(extension.toLowerCase(Locale.US));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Enable or disable identifying files from their first bytes.
+     *
+     * @param enabled true to enable
+     */
+    public static void setSniffingEnabled(boolean enabled) {
+        sSniffingEnabled = enabled;
+    }
+
+    public static boolean isSniffingEnabled() {
+        return sSniffingEnabled;
+    }
+
+    /**
+     * Resolve MIME type of a file.
+     *
+     * @param file file
+     * @return MIME type, or null if unknown
+     */
+    public static String resolve(File file) {
+        String type = fromExtension(getExtension(file.getName()));
+        if (type == null && sSniffingEnabled) {
+            type = sniff(file);
+        }
+        return type;
+    }
+
+    /**
+     * Resolve MIME type from the extension of a file name or path.
+     *
+     * @param name file name or path
+     * @return MIME type, or null if unknown
+     */
+    public static String resolve(String name) {
+        return fromExtension(getExtension(name));
+    }
+
+    /**
+     * Check whether content of the type gets smaller by compression. Text
+     * types are, while images, audio, video and archives are already
+     * compressed.
+     *
+     * @param mimeType MIME type
+     * @return true if compressible
+     */
+    public static boolean isCompressible(String mimeType) {
+        if (mimeType == null) {
+            return false;
+        }
+
+        String type = mimeType.toLowerCase(Locale.US);
+        int parameter = type.indexOf(';');
+        if (parameter >= 0) {
+            type = type.substring(0, parameter).trim();
+        }
+
+        return type.startsWith("text/") || type.endsWith("/json") || type.endsWith("+json")
+                || type.endsWith("/xml") || type.endsWith("+xml")
+                || type.equals("application/javascript") || type.equals("image/svg+xml")
+                || type.equals("image/bmp") || type.equals("audio/x-wav");
+    }
+
+    /**
+     * @return lower case extension, or null if the name has none
+     */
+    private static String getExtension(String name) {
+        int slash = name.lastIndexOf('/');
+        int dot = name.lastIndexOf('.');
+
+        // no dot, dot of a directory, hidden file without extension, or
+        // trailing dot
+        if (dot <= slash + 1 || dot == name.length() - 1) {
+            return null;
+        }
+        return name.substring(dot + 1).toLowerCase(Locale.US);
+    }
+
+    private static String fromExtension(String extension) {
+        if (extension == null) {
+            return null;
+        }
+
+        synchronized (sOverrides) {
+            String type = sOverrides.get(extension);
+            if (type != null) {
+                return type;
+            }
+        }
+
+        String type = sTable.get(extension);
+        if (type != null) {
+            return type;
+        }
+
+        synchronized (sCache) {
+            type = sCache.get(extension);
+        }
+        if (type == null) {
+            type = MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension);
+            if (type == null) {
+                type = UNKNOWN;
+            }
+
+            synchronized (sCache) {
+                sCache.put(extension, type);
+            }
+        }
+        return type.length() > 0 ? type : null;
+    }
+
+    private static String sniff(File file) {
+        byte[] head = new byte[SNIFF_LENGTH];
+        int length = 0;
+
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            while (length < head.length) {
+                int read = in.read(head, length, head.length - length);
+                if (read == -1) {
+                    break;
+                }
+                length += read;
+            }
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+
+        return fromMagic(head, length);
+    }
+
+    private static String fromMagic(byte[] b, int length) {
+        if (startsWith(b, length, 0, 0xFF, 0xD8, 0xFF)) {
+            return "image/jpeg";
+        }
+        if (startsWith(b, length, 0, 0x89, 'P', 'N', 'G')) {
+            return "image/png";
+        }
+        if (startsWith(b, length, 0, 'G', 'I', 'F', '8')) {
+            return "image/gif";
+        }
+        if (startsWith(b, length, 0, 'R', 'I', 'F', 'F')) {
+            if (startsWith(b, length, 8, 'W', 'E', 'B', 'P')) {
+                return "image/webp";
+            }
+            if (startsWith(b, length, 8, 'W', 'A', 'V', 'E')) {
+                return "audio/x-wav";
+            }
+        }
+        if (startsWith(b, length, 4, 'f', 't', 'y', 'p')) {
+            if (startsWith(b, length, 8, '3', 'g')) {
+                return "video/3gpp";
+            }
+            if (startsWith(b, length, 8, 'M', '4', 'A')) {
+                return "audio/mp4";
+            }
+            return "video/mp4";
+        }
+        if (startsWith(b, length, 0, '%', 'P', 'D', 'F')) {
+            return "application/pdf";
+        }
+        if (startsWith(b, length, 0, 'P', 'K', 0x03, 0x04)) {
+            return "application/zip";
+        }
+        if (startsWith(b, length, 0, 0x1F, 0x8B)) {
+            return "application/x-gzip";
+        }
+        if (startsWith(b, length, 0, 'O', 'g', 'g', 'S')) {
+            return "audio/ogg";
+        }
+        if (startsWith(b, length, 0, 'I', 'D', '3')
+                || (length >= 2 && (b[0] & 0xFF) == 0xFF && (b[1] & 0xE0) == 0xE0)) {
+            return "audio/mpeg";
+        }
+        if (startsWith(b, length, 0, '#', '!', 'A', 'M', 'R')) {
+            return "audio/amr";
+        }
+        return null;
+    }
+
+    private static boolean startsWith(byte[] b, int length, int offset, int... magic) {
+        if (length < offset + magic.length) {
+            return false;
+        }
+
+        for (int i = 0; i < magic.length; i++) {
+            if ((b[offset + i] & 0xFF) != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
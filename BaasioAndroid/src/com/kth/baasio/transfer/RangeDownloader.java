@@ -0,0 +1,813 @@
+
+package com.kth.baasio.transfer;
+
+import static com.kth.common.utils.LogUtils.LOGD;
+import static com.kth.common.utils.LogUtils.makeLogTag;
+
+import com.kth.baasio.callback.ProgressListener;
+import com.kth.baasio.ssl.HttpUtils;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpRequestBase;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads a file into "&lt;target&gt;.part" and renames it to the target
+ * when completed. If a part file exists, the download resumes from its end
+ * with a "Range" request. Large files can be fetched in several byte ranges
+ * in parallel, which are written to the part file at their positions.
+ * <p>
+ * The ETag, or Last-Modified if there is no strong ETag, of the first
+ * response is kept with the part file and sent in "If-Range" when resuming.
+ * If the file changed on the server, it responds with the whole file and the
+ * download starts over.
+ */
+public class RangeDownloader {
+    private static final String TAG = makeLogTag(RangeDownloader.class);
+
+    private static final String PART_SUFFIX = ".part";
+
+    private static final String SEGMENTS_SUFFIX = ".segments";
+
+    private static final String VALIDATOR_SUFFIX = ".validator";
+
+    public static final long DEFAULT_MIN_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    private static final int STATUS_PARTIAL_CONTENT = 206;
+
+    private static final int STATUS_RANGE_NOT_SATISFIABLE = 416;
+
+    private static int mSegmentCount = 1;
+
+    private static long mMinSegmentSize = DEFAULT_MIN_SEGMENT_SIZE;
+
+    private final HttpClient mClient;
+
+    private final String mUrl;
+
+    private final Map<String, String> mHeaders;
+
+    private final File mTarget;
+
+    private final File mPartFile;
+
+    private final ProgressListener mListener;
+
+    private final AtomicLong mTransferred = new AtomicLong();
+
+    private final List<HttpRequestBase> mRequests = new ArrayList<HttpRequestBase>();
+
+    private volatile long mTotalSize = -1;
+
+    private volatile String mValidator;
+
+    private volatile boolean mCancelled = false;
+
+    private volatile boolean mAborted = false;
+
+    /**
+     * Get number of parallel segments for large files.
+     *
+     * @return number of segments
+     */
+    public static int getSegmentCount() {
+        return mSegmentCount;
+    }
+
+    /**
+     * Set number of parallel segments for large files. 1 disables parallel
+     * download.
+     *
+     * @param segmentCount number of segments
+     */
+    public static boolean setSegmentCount(int segmentCount) {
+        if (segmentCount >= 1) {
+            RangeDownloader.mSegmentCount = segmentCount;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Get minimum size(byte) of a segment.
+     *
+     * @return minimum segment size(byte)
+     */
+    public static long getMinSegmentSize() {
+        return mMinSegmentSize;
+    }
+
+    /**
+     * Set minimum size(byte) of a segment. Files smaller than twice of this
+     * are downloaded in a single stream.
+     *
+     * @param minSegmentSize minimum segment size(byte)
+     */
+    public static boolean setMinSegmentSize(long minSegmentSize) {
+        if (minSegmentSize > 0) {
+            RangeDownloader.mMinSegmentSize = minSegmentSize;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * @param client HttpClient
+     * @param url source url
+     * @param headers headers sent with every request
+     * @param target destination file
+     * @param listener progress listener
+     */
+    public RangeDownloader(HttpClient client, String url, Map<String, String> headers,
+            File target, ProgressListener listener) {
+        mClient = client;
+        mUrl = url;
+        mHeaders = headers;
+        mTarget = target;
+        mPartFile = new File(target.getPath() + PART_SUFFIX);
+        mListener = listener;
+    }
+
+    /**
+     * @return total size of the file(byte), or -1 if unknown
+     */
+    public long getTotalSize() {
+        return mTotalSize;
+    }
+
+    /**
+     * Cancel the download. The download stops after the current buffer, and
+     * the part file is kept.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * @return true if cancelled
+     */
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * @return true if cancelled, or the segments are aborted after a failure
+     */
+    private boolean isStopped() {
+        return mCancelled || mAborted;
+    }
+
+    private void abortAll() {
+        mAborted = true;
+
+        synchronized (mRequests) {
+            for (HttpRequestBase request : mRequests) {
+                request.abort();
+            }
+        }
+    }
+
+    /**
+     * Download the file. On failure, the part file is kept to resume next
+     * time.
+     *
+     * @throws HttpStatusException if the server responded with error status
+     * @throws IOException if the download failed or cancelled
+     */
+    public void download() throws IOException {
+        File dir = mTarget.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.isDirectory()) {
+            dir.mkdirs();
+        }
+
+        File segmentsFile = new File(mPartFile.getPath() + SEGMENTS_SUFFIX);
+        File validatorFile = new File(mPartFile.getPath() + VALIDATOR_SUFFIX);
+
+        try {
+            download(segmentsFile, validatorFile);
+        } catch (ContentChangedException e) {
+            LOGD(TAG, "File changed on the server. Download again.");
+            mPartFile.delete();
+            segmentsFile.delete();
+            validatorFile.delete();
+            download(segmentsFile, validatorFile);
+        }
+
+        if (mCancelled) {
+            throw new IOException("Download Cancelled");
+        }
+
+        if (mTarget.exists()) {
+            mTarget.delete();
+        }
+
+        if (!mPartFile.renameTo(mTarget)) {
+            throw new IOException("Failed to rename " + mPartFile + " to " + mTarget);
+        }
+        validatorFile.delete();
+    }
+
+    private void download(File segmentsFile, File validatorFile) throws IOException {
+        mAborted = false;
+        mValidator = null;
+
+        List<Segment> segments = null;
+        if (segmentsFile.exists() && mPartFile.exists()) {
+            segments = loadSegments(segmentsFile);
+            if (segments == null) {
+                // the part file was preallocated, so it can not be resumed.
+                mPartFile.delete();
+            }
+        } else if (mSegmentCount > 1 && !mPartFile.exists()) {
+            segments = planSegments();
+        }
+
+        if (segments != null && segments.size() > 1) {
+            validatorFile.delete();
+            downloadSegments(segments, segmentsFile);
+        } else {
+            segmentsFile.delete();
+            downloadSingle(validatorFile);
+        }
+    }
+
+    private void downloadSingle(File validatorFile) throws IOException {
+        long existing = mPartFile.exists() ? mPartFile.length() : 0;
+        String validator = existing > 0 ? readValidator(validatorFile) : null;
+
+        HttpGet get = new HttpGet(mUrl);
+        setHeaders(get);
+        if (existing > 0) {
+            get.setHeader("Range", "bytes=" + existing + "-");
+            if (validator != null) {
+                get.setHeader("If-Range", validator);
+            }
+        }
+
+        HttpResponse response = execute(get);
+        try {
+            int status = response.getStatusLine().getStatusCode();
+
+            long position;
+            if (status == STATUS_PARTIAL_CONTENT) {
+                long[] range = parseContentRange(response);
+                position = range[0] >= 0 ? range[0] : existing;
+                mTotalSize = range[1];
+            } else if (status >= 200 && status < 300) {
+                // the server ignored Range header, the file changed, or
+                // nothing to resume.
+                position = 0;
+                mTotalSize = getContentLength(response);
+                writeValidator(validatorFile, getValidator(response));
+            } else if (status == STATUS_RANGE_NOT_SATISFIABLE && existing > 0) {
+                long[] range = parseContentRange(response);
+                HttpUtils.consumeQuietly(response);
+                response = null;
+
+                if (range[1] == existing) {
+                    mTotalSize = existing;
+                    publish(existing);
+                    return;
+                }
+
+                LOGD(TAG, "Part file is not valid anymore. Download again.");
+                mPartFile.delete();
+                downloadSingle(validatorFile);
+                return;
+            } else {
+                HttpUtils.consumeQuietly(response);
+                response = null;
+                throw new HttpStatusException(status);
+            }
+
+            mTransferred.set(position);
+            publish(position);
+
+            if (response.getEntity() == null) {
+                new FileOutputStream(mPartFile, position > 0).close();
+                return;
+            }
+
+            RandomAccessFile raf = new RandomAccessFile(mPartFile, "rw");
+            try {
+                FileChannel channel = raf.getChannel();
+                channel.truncate(position);
+
+                position = write(response.getEntity().getContent(), channel, position,
+                        Long.MAX_VALUE);
+            } finally {
+                raf.close();
+            }
+
+            if (!mCancelled && mTotalSize >= 0 && position < mTotalSize) {
+                throw new IOException("Unexpected end of stream");
+            }
+
+            if (mCancelled) {
+                get.abort();
+            }
+            response = null;
+        } catch (IOException e) {
+            get.abort();
+            throw e;
+        } catch (RuntimeException e) {
+            get.abort();
+            throw e;
+        } finally {
+            removeRequest(get);
+            if (response != null) {
+                HttpUtils.consumeQuietly(response);
+            }
+        }
+    }
+
+    private List<Segment> planSegments() throws IOException {
+        HttpHead head = new HttpHead(mUrl);
+        setHeaders(head);
+
+        HttpResponse response = execute(head);
+        try {
+            int status = response.getStatusLine().getStatusCode();
+            if (status < 200 || status >= 300) {
+                return null;
+            }
+
+            Header acceptRanges = response.getFirstHeader("Accept-Ranges");
+            if (acceptRanges == null || !"bytes".equalsIgnoreCase(acceptRanges.getValue())) {
+                return null;
+            }
+
+            long total = getContentLength(response);
+            if (total < mMinSegmentSize * 2) {
+                return null;
+            }
+            mTotalSize = total;
+            mValidator = getValidator(response);
+
+            int count = (int)Math.min(mSegmentCount, total / mMinSegmentSize);
+            long size = total / count;
+
+            List<Segment> segments = new ArrayList<Segment>(count);
+            for (int i = 0; i < count; i++) {
+                long start = i * size;
+                long end = (i == count - 1) ? total - 1 : start + size - 1;
+                segments.add(new Segment(start, end, start));
+            }
+
+            RandomAccessFile raf = new RandomAccessFile(mPartFile, "rw");
+            try {
+                raf.setLength(total);
+            } finally {
+                raf.close();
+            }
+
+            return segments;
+        } finally {
+            removeRequest(head);
+            HttpUtils.consumeQuietly(response);
+        }
+    }
+
+    private void downloadSegments(final List<Segment> segments, File segmentsFile)
+            throws IOException {
+        long done = 0;
+        long total = 0;
+        for (Segment segment : segments) {
+            done += segment.position - segment.start;
+            total = Math.max(total, segment.end + 1);
+        }
+        mTotalSize = total;
+        mTransferred.set(done);
+        publish(done);
+
+        saveSegments(segmentsFile, segments);
+
+        final RandomAccessFile raf = new RandomAccessFile(mPartFile, "rw");
+        final IOException[] error = new IOException[1];
+        try {
+            List<Thread> threads = new ArrayList<Thread>(segments.size());
+            for (final Segment segment : segments) {
+                if (segment.position > segment.end) {
+                    continue;
+                }
+
+                Thread thread = new Thread("Baasio-Download-Segment") {
+                    @Override
+                    public void run() {
+                        try {
+                            downloadSegment(segment, raf.getChannel());
+                        } catch (IOException e) {
+                            synchronized (error) {
+                                if (error[0] == null) {
+                                    error[0] = e;
+                                }
+                            }
+                            abortAll();
+                        }
+                    }
+                };
+                threads.add(thread);
+                thread.start();
+            }
+
+            for (Thread thread : threads) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    abortAll();
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        } finally {
+            raf.close();
+        }
+
+        boolean completed = true;
+        for (Segment segment : segments) {
+            if (segment.position <= segment.end) {
+                completed = false;
+            }
+        }
+
+        if (completed) {
+            segmentsFile.delete();
+            return;
+        }
+
+        saveSegments(segmentsFile, segments);
+
+        if (error[0] != null) {
+            throw error[0];
+        }
+        throw new IOException("Download Cancelled");
+    }
+
+    private void downloadSegment(Segment segment, FileChannel channel) throws IOException {
+        HttpGet get = new HttpGet(mUrl);
+        setHeaders(get);
+        get.setHeader("Range", "bytes=" + segment.position + "-" + segment.end);
+        String validator = mValidator;
+        if (validator != null) {
+            get.setHeader("If-Range", validator);
+        }
+
+        HttpResponse response = execute(get);
+        try {
+            int status = response.getStatusLine().getStatusCode();
+            if (status == HttpStatus.SC_OK && validator != null) {
+                throw new ContentChangedException();
+            }
+            if (status != STATUS_PARTIAL_CONTENT) {
+                throw new HttpStatusException(status);
+            }
+
+            if (response.getEntity() == null) {
+                throw new IOException("Empty segment response");
+            }
+
+            segment.position = write(response.getEntity().getContent(), channel,
+                    segment.position, segment.end + 1, segment);
+            if (isStopped()) {
+                get.abort();
+            }
+            response = null;
+        } catch (IOException e) {
+            get.abort();
+            throw e;
+        } finally {
+            removeRequest(get);
+            if (response != null) {
+                HttpUtils.consumeQuietly(response);
+            }
+        }
+    }
+
+    private long write(InputStream in, FileChannel channel, long position, long limit)
+            throws IOException {
+        return write(in, channel, position, limit, null);
+    }
+
+    /**
+     * Copy stream into channel at position until limit or end of stream.
+     *
+     * @return next position
+     */
+    private long write(InputStream in, FileChannel channel, long position, long limit,
+            Segment segment) throws IOException {
+        AdaptiveBufferPolicy policy = new AdaptiveBufferPolicy(AdaptiveBufferPolicy.DOWNLOAD);
+        byte[] buf = BufferPool.acquire(policy.getChunkSize());
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(buf);
+
+            while (position < limit && !isStopped()) {
+                if (policy.getChunkSize() > buf.length) {
+                    BufferPool.release(buf);
+                    buf = BufferPool.acquire(policy.getChunkSize());
+                    buffer = ByteBuffer.wrap(buf);
+                }
+
+                long started = System.nanoTime();
+                int max = (int)Math.min(policy.getChunkSize(), limit - position);
+                int read = in.read(buf, 0, max);
+                if (read == -1) {
+                    break;
+                }
+
+                buffer.clear();
+                buffer.limit(read);
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+                policy.onChunk(read, System.nanoTime() - started);
+
+                if (segment != null) {
+                    segment.position = position;
+                }
+
+                addTransferred(read);
+            }
+        } finally {
+            BufferPool.release(buf);
+            policy.finish();
+        }
+
+        if (!isStopped() && limit != Long.MAX_VALUE && position < limit) {
+            throw new IOException("Unexpected end of stream");
+        }
+
+        if (!isStopped()) {
+            in.close();
+        }
+
+        return position;
+    }
+
+    private void addTransferred(long bytes) {
+        // in order, so that progress of parallel segments never goes back
+        synchronized (mTransferred) {
+            publish(mTransferred.addAndGet(bytes));
+        }
+    }
+
+    private void publish(long transferred) {
+        if (mListener != null) {
+            mListener.updateTransferred(transferred);
+        }
+    }
+
+    private HttpResponse execute(HttpRequestBase request) throws IOException {
+        synchronized (mRequests) {
+            if (isStopped()) {
+                throw new IOException("Download Cancelled");
+            }
+            mRequests.add(request);
+        }
+
+        try {
+            return mClient.execute(request);
+        } catch (IOException e) {
+            removeRequest(request);
+            throw e;
+        }
+    }
+
+    private void removeRequest(HttpRequestBase request) {
+        synchronized (mRequests) {
+            mRequests.remove(request);
+        }
+    }
+
+    private void setHeaders(HttpRequestBase request) {
+        if (mHeaders != null) {
+            for (Map.Entry<String, String> header : mHeaders.entrySet()) {
+                request.setHeader(header.getKey(), header.getValue());
+            }
+        }
+    }
+
+    private static long getContentLength(HttpResponse response) {
+        Header header = response.getFirstHeader("Content-Length");
+        if (header != null) {
+            try {
+                return Long.parseLong(header.getValue().trim());
+            } catch (NumberFormatException e) {
+                // unknown
+            }
+        }
+
+        if (response.getEntity() != null) {
+            return response.getEntity().getContentLength();
+        }
+        return -1;
+    }
+
+    /**
+     * Parse "Content-Range: bytes start-end/total" or "bytes *&#47;total".
+     *
+     * @return {start, total}, -1 if unknown
+     */
+    private static long[] parseContentRange(HttpResponse response) {
+        long[] result = new long[] {
+                -1, -1
+        };
+
+        Header header = response.getFirstHeader("Content-Range");
+        if (header == null) {
+            return result;
+        }
+
+        String value = header.getValue().trim();
+        if (value.startsWith("bytes")) {
+            value = value.substring(5).trim();
+        }
+
+        int slash = value.indexOf('/');
+        try {
+            if (slash >= 0) {
+                String total = value.substring(slash + 1).trim();
+                if (!"*".equals(total)) {
+                    result[1] = Long.parseLong(total);
+                }
+                value = value.substring(0, slash);
+            }
+
+            int dash = value.indexOf('-');
+            if (dash > 0) {
+                result[0] = Long.parseLong(value.substring(0, dash).trim());
+            }
+        } catch (NumberFormatException e) {
+            LOGD(TAG, "Invalid Content-Range: " + header.getValue());
+        }
+        return result;
+    }
+
+    private List<Segment> loadSegments(File file) {
+        Properties props = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            props.load(in);
+
+            mValidator = props.getProperty("validator");
+            int count = Integer.parseInt(props.getProperty("count", "0"));
+            List<Segment> segments = new ArrayList<Segment>(count);
+            for (int i = 0; i < count; i++) {
+                String[] values = props.getProperty("segment." + i).split(",");
+                segments.add(new Segment(Long.parseLong(values[0]), Long.parseLong(values[1]),
+                        Long.parseLong(values[2])));
+            }
+            return segments;
+        } catch (Exception e) {
+            LOGD(TAG, "Failed to load segments", e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private void saveSegments(File file, List<Segment> segments) {
+        Properties props = new Properties();
+        if (mValidator != null) {
+            props.setProperty("validator", mValidator);
+        }
+        props.setProperty("count", String.valueOf(segments.size()));
+        for (int i = 0; i < segments.size(); i++) {
+            Segment segment = segments.get(i);
+            props.setProperty("segment." + i, segment.start + "," + segment.end + ","
+                    + segment.position);
+        }
+
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(file);
+            props.store(out, null);
+        } catch (IOException e) {
+            LOGD(TAG, "Failed to save segments", e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * @return strong ETag, or Last-Modified, of the response. null if none.
+     */
+    private static String getValidator(HttpResponse response) {
+        Header etag = response.getFirstHeader("ETag");
+        if (etag != null && !etag.getValue().startsWith("W/")) {
+            return etag.getValue();
+        }
+
+        Header lastModified = response.getFirstHeader("Last-Modified");
+        return lastModified != null ? lastModified.getValue() : null;
+    }
+
+    private static String readValidator(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+
+        Properties props = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            props.load(in);
+            return props.getProperty("validator");
+        } catch (IOException e) {
+            LOGD(TAG, "Failed to load validator", e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private static void writeValidator(File file, String validator) {
+        if (validator == null) {
+            file.delete();
+            return;
+        }
+
+        Properties props = new Properties();
+        props.setProperty("validator", validator);
+
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(file);
+            props.store(out, null);
+        } catch (IOException e) {
+            LOGD(TAG, "Failed to save validator", e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * The file changed on the server since the part file was started.
+     */
+    private static class ContentChangedException extends IOException {
+        private static final long serialVersionUID = -3866915367224781290L;
+
+        ContentChangedException() {
+            super("File changed on the server");
+        }
+    }
+
+    private static class Segment {
+        final long start;
+
+        final long end;
+
+        volatile long position;
+
+        Segment(long start, long end, long position) {
+            this.start = start;
+            this.end = end;
+            this.position = position;
+        }
+    }
+}
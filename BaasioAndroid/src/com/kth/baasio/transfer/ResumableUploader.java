@@ -0,0 +1,292 @@
+
+package com.kth.baasio.transfer;
+
+import static com.kth.common.utils.LogUtils.LOGD;
+import static com.kth.common.utils.LogUtils.makeLogTag;
+
+import com.kth.baasio.callback.ProgressListener;
+import com.kth.baasio.ssl.HttpUtils;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.util.Map;
+
+/**
+ * Uploads a file in fixed-size chunks. Each chunk is sent with a
+ * "Content-Range" header and the server acknowledges it with "308 Resume
+ * Incomplete" and a "Range" header. The first response may give a session url
+ * in "Location" header, which the following chunks are sent to. Acknowledged
+ * progress is saved in {@link UploadJournal}, so that an interrupted upload
+ * resumes from the last acknowledged chunk.
+ */
+public class ResumableUploader {
+    private static final String TAG = makeLogTag(ResumableUploader.class);
+
+    public static final int MIN_CHUNK_SIZE = 64 * 1024;
+
+    public static final int DEFAULT_CHUNK_SIZE = 512 * 1024;
+
+    private static final int STATUS_RESUME_INCOMPLETE = 308;
+
+    private static final int MAX_UNACKED_CHUNKS = 3;
+
+    private static int mChunkSize = DEFAULT_CHUNK_SIZE;
+
+    private final HttpClient mClient;
+
+    private final File mFile;
+
+    private final String mUrl;
+
+    private final Map<String, String> mHeaders;
+
+    private final UploadJournal mJournal;
+
+    private final ProgressListener mListener;
+
+    private volatile boolean mCancelled = false;
+
+    private volatile FileRangeEntity mEntity;
+
+    /**
+     * Get chunk size(byte)
+     *
+     * @return chunk size(byte)
+     */
+    public static int getChunkSize() {
+        return mChunkSize;
+    }
+
+    /**
+     * Set chunk size(byte)
+     *
+     * @param chunkSize chunk size. must be equal or greater than
+     *            MIN_CHUNK_SIZE.
+     */
+    public static boolean setChunkSize(int chunkSize) {
+        if (chunkSize >= MIN_CHUNK_SIZE) {
+            ResumableUploader.mChunkSize = chunkSize;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * @param client HttpClient
+     * @param file source file
+     * @param url destination url to create file
+     * @param headers headers sent with every chunk
+     * @param journal journal of this upload
+     * @param listener progress listener
+     */
+    public ResumableUploader(HttpClient client, File file, String url,
+            Map<String, String> headers, UploadJournal journal, ProgressListener listener) {
+        mClient = client;
+        mFile = file;
+        mUrl = url;
+        mHeaders = headers;
+        mJournal = journal;
+        mListener = listener;
+    }
+
+    public void cancel() {
+        mCancelled = true;
+
+        FileRangeEntity entity = mEntity;
+        if (entity != null) {
+            entity.cancel();
+        }
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * @return true if the server has acknowledged a chunk, so calling
+     *         {@link #upload()} again continues the session instead of
+     *         creating the file from the beginning
+     */
+    public boolean isResumable() {
+        return mJournal.getSessionUrl() != null;
+    }
+
+    /**
+     * Upload remaining chunks. A failed chunk is not retried here; the
+     * caller decides whether to call again.
+     *
+     * @return response of the last request. If the status code is 2xx, the
+     *         upload completed. Caller must consume the response entity.
+     * @throws ProtocolException if the server completed the upload before
+     *             the last chunk. The journal is cleared.
+     * @throws IOException if the upload failed. The journal keeps the
+     *             progress, so calling again resumes the upload.
+     */
+    public HttpResponse upload() throws IOException {
+        final long total = mFile.length();
+        final int chunkSize = mChunkSize;
+
+        String sessionUrl = mJournal.getSessionUrl();
+        long offset = mJournal.getOffset();
+
+        if (sessionUrl != null) {
+            offset = queryOffset(sessionUrl, total);
+            if (offset < 0) {
+                LOGD(TAG, "Upload session expired. Restart from the beginning.");
+                mJournal.clear();
+                sessionUrl = null;
+                offset = 0;
+            }
+        } else {
+            offset = 0;
+        }
+
+        int attempts = 0;
+        while (true) {
+            if (mCancelled) {
+                throw new IOException("Upload Cancelled");
+            }
+
+            if (total > 0 && offset >= total && sessionUrl != null) {
+                // every byte is acknowledged. get the final response.
+                HttpPut request = new HttpPut(sessionUrl);
+                setHeaders(request);
+                request.setHeader("Content-Range", "bytes */" + total);
+
+                HttpResponse response = mClient.execute(request);
+                int status = response.getStatusLine().getStatusCode();
+                if (status >= 200 && status < 300) {
+                    mJournal.clear();
+                }
+                return response;
+            }
+
+            long length = Math.min(chunkSize, total - offset);
+
+            HttpEntityEnclosingRequestBase request;
+            if (sessionUrl == null) {
+                request = new HttpPost(mUrl);
+            } else {
+                request = new HttpPut(sessionUrl);
+            }
+            setHeaders(request);
+            if (total > 0) {
+                request.setHeader("Content-Range", "bytes " + offset + "-"
+                        + (offset + length - 1) + "/" + total);
+            }
+
+            mEntity = new FileRangeEntity(mFile, offset, length, null, mListener);
+            request.setEntity(mEntity);
+
+            HttpResponse response;
+            try {
+                response = mClient.execute(request);
+            } finally {
+                mEntity = null;
+            }
+
+            int status = response.getStatusLine().getStatusCode();
+            if (status == STATUS_RESUME_INCOMPLETE) {
+                Header location = response.getFirstHeader("Location");
+                if (location != null) {
+                    sessionUrl = location.getValue();
+                } else if (sessionUrl == null) {
+                    sessionUrl = mUrl;
+                }
+
+                // no Range means nothing of the chunk was kept. the server
+                // may not acknowledge bytes which were not sent.
+                long acked = parseRange(response, offset);
+                acked = Math.max(offset, Math.min(offset + length, acked));
+                HttpUtils.consumeQuietly(response);
+
+                mJournal.save(sessionUrl, acked, total);
+
+                if (acked > offset) {
+                    attempts = 0;
+                } else if (++attempts >= MAX_UNACKED_CHUNKS) {
+                    throw new IOException("Server did not acknowledge chunk at " + offset);
+                }
+                offset = acked;
+                continue;
+            }
+
+            if (status >= 200 && status < 300) {
+                mJournal.clear();
+
+                if (offset + length < total) {
+                    // the server ignored Content-Range, and stored the chunk
+                    // as the whole file.
+                    HttpUtils.consumeQuietly(response);
+                    throw new ProtocolException("Server completed the upload at "
+                            + (offset + length) + " of " + total + " bytes");
+                }
+            } else if (status == 404 || status == 410) {
+                mJournal.clear();
+            }
+
+            return response;
+        }
+    }
+
+    /**
+     * Ask the server how many bytes of the session have been received.
+     *
+     * @return acknowledged offset, or -1 if the session is not valid anymore
+     */
+    private long queryOffset(String sessionUrl, long total) throws IOException {
+        HttpPut request = new HttpPut(sessionUrl);
+        setHeaders(request);
+        request.setHeader("Content-Range", "bytes */" + total);
+
+        HttpResponse response = mClient.execute(request);
+        try {
+            int status = response.getStatusLine().getStatusCode();
+            if (status == STATUS_RESUME_INCOMPLETE) {
+                return parseRange(response, 0);
+            } else if (status >= 200 && status < 300) {
+                return total;
+            }
+            return -1;
+        } finally {
+            HttpUtils.consumeQuietly(response);
+        }
+    }
+
+    private static long parseRange(HttpResponse response, long defaultValue) {
+        // Range: bytes=0-1023
+        Header range = response.getFirstHeader("Range");
+        if (range == null) {
+            return defaultValue;
+        }
+
+        String value = range.getValue();
+        int dash = value.lastIndexOf('-');
+        if (dash < 0) {
+            return defaultValue;
+        }
+
+        try {
+            return Long.parseLong(value.substring(dash + 1).trim()) + 1;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private void setHeaders(HttpEntityEnclosingRequestBase request) {
+        if (mHeaders != null) {
+            for (Map.Entry<String, String> header : mHeaders.entrySet()) {
+                request.setHeader(header.getKey(), header.getValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,318 @@
+
+package com.kth.baasio.transfer;
+
+import static com.kth.common.utils.LogUtils.LOGE;
+import static com.kth.common.utils.LogUtils.makeLogTag;
+
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs file transfers on a bounded pool of worker threads. Queued transfers
+ * are ordered by priority, then by size(smaller first), then by submission
+ * order. Concurrent transfers to the same host are limited, and the queue
+ * rejects new transfers when it is full.
+ */
+public class TransferScheduler {
+    private static final String TAG = makeLogTag(TransferScheduler.class);
+
+    public static final int PRIORITY_HIGH = 0;
+
+    public static final int PRIORITY_NORMAL = 1;
+
+    public static final int PRIORITY_LOW = 2;
+
+    public static final int DEFAULT_POOL_SIZE = 3;
+
+    public static final int DEFAULT_MAX_PER_HOST = 2;
+
+    public static final int DEFAULT_MAX_QUEUED = 64;
+
+    private static final long WORKER_KEEP_ALIVE_MILLIS = 30 * 1000;
+
+    private static TransferScheduler mSingleton;
+
+    private final List<Entry> mQueue = new ArrayList<Entry>();
+
+    private final Map<String, Integer> mRunningPerHost = new HashMap<String, Integer>();
+
+    private int mPoolSize = DEFAULT_POOL_SIZE;
+
+    private int mMaxPerHost = DEFAULT_MAX_PER_HOST;
+
+    private int mMaxQueued = DEFAULT_MAX_QUEUED;
+
+    private int mWorkerCount;
+
+    private int mIdleWorkerCount;
+
+    private long mSequence;
+
+    private static final Comparator<Entry> ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry lhs, Entry rhs) {
+            if (lhs.priority != rhs.priority) {
+                return lhs.priority < rhs.priority ? -1 : 1;
+            }
+
+            if (lhs.size != rhs.size) {
+                return lhs.size < rhs.size ? -1 : 1;
+            }
+
+            if (lhs.sequence != rhs.sequence) {
+                return lhs.sequence < rhs.sequence ? -1 : 1;
+            }
+            return 0;
+        }
+    };
+
+    /**
+     * Get singleton instance
+     *
+     * @return instance
+     */
+    public static synchronized TransferScheduler getInstance() {
+        if (mSingleton == null) {
+            mSingleton = new TransferScheduler();
+        }
+
+        return mSingleton;
+    }
+
+    /**
+     * Set maximum number of concurrent transfers.
+     *
+     * @param poolSize maximum number of concurrent transfers
+     */
+    public synchronized void setPoolSize(int poolSize) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("Pool size must be positive");
+        }
+        mPoolSize = poolSize;
+
+        dispatch();
+    }
+
+    public synchronized int getPoolSize() {
+        return mPoolSize;
+    }
+
+    /**
+     * Set maximum number of concurrent transfers to a host.
+     *
+     * @param maxPerHost maximum number of concurrent transfers per host
+     */
+    public synchronized void setMaxPerHost(int maxPerHost) {
+        if (maxPerHost < 1) {
+            throw new IllegalArgumentException("Max per host must be positive");
+        }
+        mMaxPerHost = maxPerHost;
+
+        dispatch();
+    }
+
+    public synchronized int getMaxPerHost() {
+        return mMaxPerHost;
+    }
+
+    /**
+     * Set maximum number of transfers waiting in queue. When the queue is
+     * full, {@link #submit(Runnable, int, long, String)} is rejected.
+     *
+     * @param maxQueued maximum number of queued transfers
+     */
+    public synchronized void setMaxQueued(int maxQueued) {
+        if (maxQueued < 0) {
+            throw new IllegalArgumentException("Max queued may not be negative");
+        }
+        mMaxQueued = maxQueued;
+    }
+
+    public synchronized int getMaxQueued() {
+        return mMaxQueued;
+    }
+
+    /**
+     * Get number of transfers waiting in queue.
+     *
+     * @return number of queued transfers
+     */
+    public synchronized int getQueuedCount() {
+        return mQueue.size();
+    }
+
+    /**
+     * @return number of workers waiting for a transfer
+     */
+    synchronized int getIdleWorkerCount() {
+        return mIdleWorkerCount;
+    }
+
+    /**
+     * Queue a transfer.
+     *
+     * @param task transfer to run in background
+     * @param priority one of PRIORITY_HIGH, PRIORITY_NORMAL, PRIORITY_LOW
+     * @param size transfer size(byte), or negative if unknown
+     * @param host destination host, or null if unknown
+     * @throws RejectedExecutionException if the queue is full
+     */
+    public synchronized void submit(Runnable task, int priority, long size, String host) {
+        if (task == null) {
+            throw new IllegalArgumentException("Task may not be null");
+        }
+
+        if (mQueue.size() >= mMaxQueued) {
+            throw new RejectedExecutionException("Transfer queue is full");
+        }
+
+        Entry entry = new Entry(task, priority, size < 0 ? Long.MAX_VALUE : size,
+                host == null ? "" : host, mSequence++);
+
+        int index = Collections.binarySearch(mQueue, entry, ORDER);
+        mQueue.add(index < 0 ? -(index + 1) : index, entry);
+
+        dispatch();
+    }
+
+    /**
+     * Remove a transfer from queue if it has not started yet.
+     *
+     * @param task transfer to remove
+     * @return true if removed
+     */
+    public synchronized boolean remove(Runnable task) {
+        for (int i = 0; i < mQueue.size(); i++) {
+            if (mQueue.get(i).task == task) {
+                mQueue.remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void dispatch() {
+        if (mIdleWorkerCount > 0) {
+            notifyAll();
+        }
+
+        // each idle worker takes one transfer. start workers for the rest.
+        int start = Math.min(mPoolSize - mWorkerCount, mQueue.size() - mIdleWorkerCount);
+        for (int i = 0; i < start; i++) {
+            mWorkerCount++;
+            new Worker().start();
+        }
+    }
+
+    private Entry pollRunnable() {
+        for (int i = 0; i < mQueue.size(); i++) {
+            Entry entry = mQueue.get(i);
+
+            Integer running = mRunningPerHost.get(entry.host);
+            if (running == null || running < mMaxPerHost) {
+                mQueue.remove(i);
+                mRunningPerHost.put(entry.host, running == null ? 1 : running + 1);
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private synchronized Entry take() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WORKER_KEEP_ALIVE_MILLIS;
+        while (true) {
+            if (mWorkerCount <= mPoolSize) {
+                Entry entry = pollRunnable();
+                if (entry != null) {
+                    return entry;
+                }
+            }
+
+            long remain = deadline - System.currentTimeMillis();
+            if (remain <= 0 || mWorkerCount > mPoolSize) {
+                mWorkerCount--;
+                return null;
+            }
+
+            mIdleWorkerCount++;
+            try {
+                wait(remain);
+            } finally {
+                mIdleWorkerCount--;
+            }
+        }
+    }
+
+    private synchronized void finish(Entry entry) {
+        Integer running = mRunningPerHost.get(entry.host);
+        if (running == null || running <= 1) {
+            mRunningPerHost.remove(entry.host);
+        } else {
+            mRunningPerHost.put(entry.host, running - 1);
+        }
+
+        dispatch();
+    }
+
+    private class Worker extends Thread {
+        Worker() {
+            super("Baasio-Transfer");
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
+            while (true) {
+                Entry entry;
+                try {
+                    entry = take();
+                } catch (InterruptedException e) {
+                    synchronized (TransferScheduler.this) {
+                        mWorkerCount--;
+                    }
+                    return;
+                }
+
+                if (entry == null) {
+                    return;
+                }
+
+                try {
+                    entry.task.run();
+                } catch (RuntimeException e) {
+                    LOGE(TAG, "Transfer failed", e);
+                } finally {
+                    finish(entry);
+                }
+            }
+        }
+    }
+
+    private static class Entry {
+        final Runnable task;
+
+        final int priority;
+
+        final long size;
+
+        final String host;
+
+        final long sequence;
+
+        Entry(Runnable task, int priority, long size, String host, long sequence) {
+            this.task = task;
+            this.priority = priority;
+            this.size = size;
+            this.host = host;
+            this.sequence = sequence;
+        }
+    }
+}
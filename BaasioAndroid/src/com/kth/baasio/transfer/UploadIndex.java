@@ -0,0 +1,219 @@
+
+package com.kth.baasio.transfer;
+
+import static com.kth.common.utils.LogUtils.LOGE;
+import static com.kth.common.utils.LogUtils.makeLogTag;
+
+import android.content.Context;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Local index of uploaded files, from content digest, destination and user to
+ * the uuid of the file entity on the server. Used to skip uploading a content
+ * which is already stored.
+ * <p>
+ * Entries are keyed on the uuid of the user as well, so a user never reuses a
+ * file uploaded by another user, while an entry survives a new login or a
+ * token refresh of the same user. Only the {@link #MAX_ENTRIES} most recently
+ * used entries are kept.
+ */
+public class UploadIndex {
+    private static final String TAG = makeLogTag(UploadIndex.class);
+
+    private static final String FILE_NAME = "baasio_upload_index";
+
+    /** index of older versions, whose entries had no user */
+    private static final String LEGACY_FILE_NAME = "baasio_upload_index.properties";
+
+    private static final String HEADER = "baasio-upload-index 3";
+
+    /** header of the index keyed on access tokens, whose entries never match */
+    private static final String LEGACY_HEADER = "baasio-upload-index 2";
+
+    public static final int MAX_ENTRIES = 512;
+
+    private static UploadIndex mSingleton;
+
+    private final File mFile;
+
+    /** key to uuid, in access order */
+    private final Map<String, String> mEntries = new LinkedHashMap<String, String>(16, 0.75f,
+            true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    UploadIndex(File file) {
+        mFile = file;
+        load();
+    }
+
+    /**
+     * Get the index of the application.
+     *
+     * @param context context
+     * @return index
+     */
+    public static synchronized UploadIndex getInstance(Context context) {
+        if (mSingleton == null) {
+            new File(context.getFilesDir(), LEGACY_FILE_NAME).delete();
+            mSingleton = new UploadIndex(new File(context.getFilesDir(), FILE_NAME));
+        }
+        return mSingleton;
+    }
+
+    /**
+     * The user is hashed with the rest, so it is not stored.
+     */
+    private static String key(FileDigest digest, String targetUrl, String user) {
+        String value = digest.toHex() + "|" + targetUrl + "|" + user;
+
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            byte[] hash = md.digest(value.getBytes("UTF-8"));
+
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(value.hashCode());
+        } catch (UnsupportedEncodingException e) {
+            return Integer.toHexString(value.hashCode());
+        }
+    }
+
+    /**
+     * @param digest content digest
+     * @param targetUrl destination url of the upload
+     * @param user uuid of the logged-in user, or null
+     * @return uuid of the uploaded file, or null
+     */
+    public synchronized String get(FileDigest digest, String targetUrl, String user) {
+        return mEntries.get(key(digest, targetUrl, user));
+    }
+
+    /**
+     * Record an uploaded file. The least recently used entry is dropped when
+     * the index is full.
+     *
+     * @param digest content digest
+     * @param targetUrl destination url of the upload
+     * @param user uuid of the logged-in user, or null
+     * @param uuid uuid of the uploaded file
+     */
+    public synchronized void put(FileDigest digest, String targetUrl, String user,
+            String uuid) {
+        mEntries.put(key(digest, targetUrl, user), uuid);
+        save();
+    }
+
+    /**
+     * Forget an uploaded file, for example when it is deleted on the server.
+     *
+     * @param digest content digest
+     * @param targetUrl destination url of the upload
+     * @param user uuid of the logged-in user, or null
+     */
+    public synchronized void remove(FileDigest digest, String targetUrl, String user) {
+        if (mEntries.remove(key(digest, targetUrl, user)) != null) {
+            save();
+        }
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * One "key uuid" line per entry, least recently used first.
+     */
+    private void load() {
+        if (!mFile.exists()) {
+            return;
+        }
+
+        BufferedReader in = null;
+        try {
+            in = new BufferedReader(new InputStreamReader(new FileInputStream(mFile), "UTF-8"));
+            String header = in.readLine();
+            if (LEGACY_HEADER.equals(header)) {
+                // replaced on the next save
+                return;
+            }
+            if (!HEADER.equals(header)) {
+                throw new IOException("Unknown format");
+            }
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                int space = line.indexOf(' ');
+                if (space > 0) {
+                    mEntries.put(line.substring(0, space), line.substring(space + 1));
+                }
+            }
+        } catch (IOException e) {
+            LOGE(TAG, "Failed to load upload index: " + e.getMessage());
+            mEntries.clear();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    private void save() {
+        File tmp = new File(mFile.getPath() + ".tmp");
+
+        BufferedWriter out = null;
+        try {
+            out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8"));
+            out.write(HEADER);
+            out.write('\n');
+            for (Map.Entry<String, String> entry : mEntries.entrySet()) {
+                out.write(entry.getKey());
+                out.write(' ');
+                out.write(entry.getValue());
+                out.write('\n');
+            }
+            out.close();
+            out = null;
+
+            if (!tmp.renameTo(mFile)) {
+                throw new IOException("Failed to rename " + tmp);
+            }
+        } catch (IOException e) {
+            LOGE(TAG, "Failed to save upload index: " + e.getMessage());
+            tmp.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+}
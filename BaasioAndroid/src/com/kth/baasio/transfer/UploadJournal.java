@@ -0,0 +1,180 @@
+
+package com.kth.baasio.transfer;
+
+import static com.kth.common.utils.LogUtils.LOGD;
+import static com.kth.common.utils.LogUtils.makeLogTag;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+/**
+ * Persists progress of a resumable upload, so that it can continue from the
+ * last acknowledged byte after a failure or process death.
+ */
+public class UploadJournal {
+    private static final String TAG = makeLogTag(UploadJournal.class);
+
+    private static final String KEY_SESSION_URL = "session_url";
+
+    private static final String KEY_OFFSET = "offset";
+
+    private static final String KEY_TOTAL = "total";
+
+    private final File mJournalFile;
+
+    private String mSessionUrl;
+
+    private long mOffset;
+
+    private UploadJournal(File journalFile) {
+        mJournalFile = journalFile;
+    }
+
+    /**
+     * Open the journal of an upload. An upload is identified by source file,
+     * its size and modified time, and the destination url.
+     *
+     * @param dir directory to keep journals
+     * @param file source file
+     * @param targetUrl destination url
+     * @return journal which may have a previous progress
+     */
+    public static UploadJournal open(File dir, File file, String targetUrl) {
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+
+        String key = digest(file.getAbsolutePath() + "|" + file.length() + "|"
+                + file.lastModified() + "|" + targetUrl);
+
+        UploadJournal journal = new UploadJournal(new File(dir, key + ".journal"));
+        journal.load(file.length());
+        return journal;
+    }
+
+    /**
+     * @return url of upload session, or null if not started
+     */
+    public String getSessionUrl() {
+        return mSessionUrl;
+    }
+
+    /**
+     * @return number of bytes acknowledged by the server
+     */
+    public long getOffset() {
+        return mOffset;
+    }
+
+    /**
+     * Save acknowledged progress.
+     *
+     * @param sessionUrl url of upload session
+     * @param offset number of bytes acknowledged by the server
+     * @param total size of source file
+     */
+    public void save(String sessionUrl, long offset, long total) {
+        mSessionUrl = sessionUrl;
+        mOffset = offset;
+
+        Properties props = new Properties();
+        if (sessionUrl != null) {
+            props.setProperty(KEY_SESSION_URL, sessionUrl);
+        }
+        props.setProperty(KEY_OFFSET, String.valueOf(offset));
+        props.setProperty(KEY_TOTAL, String.valueOf(total));
+
+        File tmp = new File(mJournalFile.getPath() + ".tmp");
+        OutputStream out = null;
+        try {
+            FileOutputStream fos = new FileOutputStream(tmp);
+            out = fos;
+            props.store(out, null);
+            fos.getFD().sync();
+            out.close();
+            out = null;
+
+            if (!tmp.renameTo(mJournalFile)) {
+                LOGD(TAG, "Failed to save journal: " + mJournalFile);
+            }
+        } catch (IOException e) {
+            LOGD(TAG, "Failed to save journal", e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Forget progress. Called when upload completes or the session expired.
+     */
+    public void clear() {
+        mSessionUrl = null;
+        mOffset = 0;
+
+        mJournalFile.delete();
+    }
+
+    private void load(long total) {
+        if (!mJournalFile.exists()) {
+            return;
+        }
+
+        Properties props = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(mJournalFile);
+            props.load(in);
+
+            long savedTotal = Long.parseLong(props.getProperty(KEY_TOTAL, "-1"));
+            long offset = Long.parseLong(props.getProperty(KEY_OFFSET, "0"));
+            if (savedTotal == total && offset >= 0 && offset <= total) {
+                mSessionUrl = props.getProperty(KEY_SESSION_URL);
+                mOffset = offset;
+            }
+        } catch (IOException e) {
+            LOGD(TAG, "Failed to load journal", e);
+        } catch (NumberFormatException e) {
+            LOGD(TAG, "Broken journal", e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private static String digest(String value) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            byte[] hash = md.digest(value.getBytes("UTF-8"));
+
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return String.valueOf(value.hashCode());
+        } catch (UnsupportedEncodingException e) {
+            return String.valueOf(value.hashCode());
+        }
+    }
+}
@@ -0,0 +1,74 @@
+
+package com.kth.baasio.benchmark;
+
+import com.kth.baasio.callback.ProgressListener;
+import com.kth.baasio.ssl.HttpUtils;
+import com.kth.baasio.transfer.RangeDownloader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The read/write loop of getFileAsync, which RangeDownloader runs, against
+ * the stub server over loopback.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DownloadBenchmark {
+
+    @Param({
+            "65536", "8388608"
+    })
+    public int size;
+
+    private StubServer mServer;
+
+    private File mDir;
+
+    private final ProgressListener mListener = new ProgressListener() {
+        @Override
+        public void updateTransferred(long transferedBytes) {
+        }
+    };
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mServer = new StubServer();
+        mServer.serveFile("/file", Fixtures.randomBytes(size), "\"v1\"");
+        mDir = Fixtures.createDir();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mServer.stop();
+    }
+
+    @Benchmark
+    public long rangeDownloader() throws IOException {
+        File target = new File(mDir, "download.bin");
+        new RangeDownloader(HttpUtils.getHttpClient(), mServer.getUrl("/file"), null, target,
+                mListener).download();
+        long length = target.length();
+        target.delete();
+        return length;
+    }
+}
@@ -0,0 +1,99 @@
+
+package com.kth.baasio.benchmark;
+
+import org.usergrid.java.client.entities.User;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Data shared by benchmarks and tests.
+ */
+public class Fixtures {
+
+    public static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private Fixtures() {
+    }
+
+    /**
+     * @return temporary file of random bytes, deleted on exit
+     */
+    public static File createFile(int size) throws IOException {
+        File file = File.createTempFile("baasio", ".bin");
+        file.deleteOnExit();
+
+        byte[] content = randomBytes(size);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    public static byte[] randomBytes(int size) {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return content;
+    }
+
+    /**
+     * @return temporary directory, deleted on exit if empty
+     */
+    public static File createDir() throws IOException {
+        File dir = File.createTempFile("baasio", ".dir");
+        dir.delete();
+        dir.mkdirs();
+        dir.deleteOnExit();
+        return dir;
+    }
+
+    /**
+     * @return JSON of an ApiResponse listing the number of entities, as the
+     *         server answers a query
+     */
+    public static String apiResponseJson(int count) {
+        Random random = new Random(count);
+        StringBuilder builder = new StringBuilder(count * 400);
+        builder.append("{\"action\":\"get\",\"application\":\"")
+                .append(new UUID(1, 2))
+                .append("\",\"params\":{},\"path\":\"/books\",\"uri\":")
+                .append("\"https://api.baas.io/org/app/books\",\"entities\":[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"uuid\":\"").append(new UUID(random.nextLong(), random.nextLong()))
+                    .append("\",\"type\":\"book\",\"created\":").append(1350000000000L + i)
+                    .append(",\"modified\":").append(1350000000000L + i)
+                    .append(",\"metadata\":{\"path\":\"/books/").append(i).append("\"}")
+                    .append(",\"title\":\"Title ").append(i)
+                    .append("\",\"author\":\"Author ").append(random.nextInt(100))
+                    .append("\",\"pages\":").append(random.nextInt(1000))
+                    .append(",\"available\":").append(random.nextBoolean())
+                    .append(",\"tags\":[\"novel\",\"fiction\",\"tag").append(i % 10)
+                    .append("\"]}");
+        }
+        builder.append("],\"timestamp\":1350000000000,\"duration\":12,")
+                .append("\"organization\":\"org\",\"applicationName\":\"app\",")
+                .append("\"cursor\":\"LTU2ODc0MzQzOkdGV2tFaGwyRWVLQnlBSUFaa3c\"}");
+        return builder.toString();
+    }
+
+    public static User createUser() {
+        User user = new User();
+        user.setUuid(new UUID(3, 4));
+        user.setUsername("baasio");
+        user.setEmail("baasio@example.com");
+        user.setName("Baas IO");
+        user.setActivated(true);
+        user.setPicture("https://example.com/picture.png");
+        return user;
+    }
+}
@@ -0,0 +1,78 @@
+
+package com.kth.baasio.benchmark;
+
+import com.kth.baasio.json.JsonCodec;
+
+import org.apache.http.entity.ByteArrayEntity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.usergrid.java.client.response.ApiResponse;
+import org.usergrid.java.client.utils.JsonUtils;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parse time of query responses listing many entities: JsonUtils against
+ * the cached reader of JsonCodec, from a String and from the response bytes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonParseBenchmark {
+
+    @Param({
+            "10", "1000"
+    })
+    public int entities;
+
+    private String mJson;
+
+    private byte[] mBytes;
+
+    @Setup
+    public void setUp() {
+        mJson = Fixtures.apiResponseJson(entities);
+        mBytes = mJson.getBytes(Fixtures.UTF_8);
+    }
+
+    @Benchmark
+    public ApiResponse jsonUtilsParse() {
+        return JsonUtils.parse(mJson, ApiResponse.class);
+    }
+
+    @Benchmark
+    public ApiResponse jsonCodecParse() {
+        return JsonCodec.parse(mJson, ApiResponse.class);
+    }
+
+    /**
+     * Bytes to ApiResponse, as the upload and download paths read a response
+     * entity.
+     */
+    @Benchmark
+    public ApiResponse jsonCodecReadEntity() throws IOException {
+        return JsonCodec.readApiResponse(new ByteArrayEntity(mBytes));
+    }
+
+    /**
+     * Bytes to ApiResponse through a String, as a body read whole and then
+     * parsed.
+     */
+    @Benchmark
+    public ApiResponse jsonUtilsParseBytes() {
+        return JsonUtils.parse(new String(mBytes, Fixtures.UTF_8), ApiResponse.class);
+    }
+}
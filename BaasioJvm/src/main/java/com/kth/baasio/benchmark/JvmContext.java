@@ -0,0 +1,96 @@
+
+package com.kth.baasio.benchmark;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Context of the JVM build. Files live under a directory and preferences are
+ * kept in memory.
+ */
+public class JvmContext extends Context {
+
+    private final File mDir;
+
+    private final Map<String, MemorySharedPreferences> mPreferences =
+            new HashMap<String, MemorySharedPreferences>();
+
+    private final Map<BroadcastReceiver, IntentFilter> mReceivers =
+            new HashMap<BroadcastReceiver, IntentFilter>();
+
+    private final ConnectivityManager mConnectivityManager = new ConnectivityManager();
+
+    public JvmContext(File dir) {
+        mDir = dir;
+        new File(dir, "cache").mkdirs();
+        new File(dir, "files").mkdirs();
+    }
+
+    @Override
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    @Override
+    public synchronized SharedPreferences getSharedPreferences(String name, int mode) {
+        MemorySharedPreferences preferences = mPreferences.get(name);
+        if (preferences == null) {
+            preferences = new MemorySharedPreferences();
+            mPreferences.put(name, preferences);
+        }
+        return preferences;
+    }
+
+    @Override
+    public File getCacheDir() {
+        return new File(mDir, "cache");
+    }
+
+    @Override
+    public File getFilesDir() {
+        return new File(mDir, "files");
+    }
+
+    @Override
+    public Object getSystemService(String name) {
+        return CONNECTIVITY_SERVICE.equals(name) ? mConnectivityManager : null;
+    }
+
+    @Override
+    public synchronized Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter) {
+        mReceivers.put(receiver, filter);
+        return null;
+    }
+
+    @Override
+    public synchronized void unregisterReceiver(BroadcastReceiver receiver) {
+        mReceivers.remove(receiver);
+    }
+
+    /**
+     * Deliver an intent to the registered receivers, in the calling thread.
+     */
+    public void sendBroadcast(Intent intent) {
+        Map<BroadcastReceiver, IntentFilter> receivers;
+        synchronized (this) {
+            receivers = new HashMap<BroadcastReceiver, IntentFilter>(mReceivers);
+        }
+        for (Map.Entry<BroadcastReceiver, IntentFilter> entry : receivers.entrySet()) {
+            if (entry.getValue().hasAction(intent.getAction())) {
+                entry.getKey().onReceive(this, intent);
+            }
+        }
+    }
+
+    public ConnectivityManager getConnectivityManager() {
+        return mConnectivityManager;
+    }
+}
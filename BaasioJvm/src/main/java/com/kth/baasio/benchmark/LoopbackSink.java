@@ -0,0 +1,55 @@
+
+package com.kth.baasio.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Loopback TCP connection whose far end discards everything, so that upload
+ * benchmarks write to a real socket.
+ */
+public class LoopbackSink {
+
+    private final ServerSocket mServer;
+
+    private final Socket mSocket;
+
+    private final Thread mDrainer;
+
+    public LoopbackSink() throws IOException {
+        mServer = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        mSocket = new Socket(InetAddress.getLoopbackAddress(), mServer.getLocalPort());
+        final Socket accepted = mServer.accept();
+
+        mDrainer = new Thread("LoopbackSink") {
+            @Override
+            public void run() {
+                try {
+                    StubServer.drain(accepted.getInputStream());
+                } catch (IOException e) {
+                    // closed
+                } finally {
+                    try {
+                        accepted.close();
+                    } catch (IOException e) {
+                        // ignore
+                    }
+                }
+            }
+        };
+        mDrainer.setDaemon(true);
+        mDrainer.start();
+    }
+
+    public OutputStream getOutputStream() throws IOException {
+        return mSocket.getOutputStream();
+    }
+
+    public void close() throws IOException {
+        mSocket.close();
+        mServer.close();
+    }
+}
@@ -0,0 +1,142 @@
+
+package com.kth.baasio.benchmark;
+
+import android.content.SharedPreferences;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * SharedPreferences kept in memory. Commits are counted, so that tests can
+ * tell when a write reached the store, and a hook can run inside a commit
+ * before it is applied.
+ */
+public class MemorySharedPreferences implements SharedPreferences {
+
+    private final Map<String, Object> mValues = new HashMap<String, Object>();
+
+    private int mCommitCount;
+
+    private volatile Runnable mBeforeCommit;
+
+    public synchronized int getCommitCount() {
+        return mCommitCount;
+    }
+
+    /**
+     * @param hook run in the committing thread before a commit is applied,
+     *            or null
+     */
+    public void setBeforeCommit(Runnable hook) {
+        mBeforeCommit = hook;
+    }
+
+    @Override
+    public synchronized Map<String, ?> getAll() {
+        return new HashMap<String, Object>(mValues);
+    }
+
+    @Override
+    public synchronized String getString(String key, String defValue) {
+        Object value = mValues.get(key);
+        return value != null ? (String)value : defValue;
+    }
+
+    @Override
+    public synchronized long getLong(String key, long defValue) {
+        Object value = mValues.get(key);
+        return value != null ? (Long)value : defValue;
+    }
+
+    @Override
+    public synchronized int getInt(String key, int defValue) {
+        Object value = mValues.get(key);
+        return value != null ? (Integer)value : defValue;
+    }
+
+    @Override
+    public synchronized boolean getBoolean(String key, boolean defValue) {
+        Object value = mValues.get(key);
+        return value != null ? (Boolean)value : defValue;
+    }
+
+    @Override
+    public synchronized boolean contains(String key) {
+        return mValues.containsKey(key);
+    }
+
+    @Override
+    public Editor edit() {
+        return new MemoryEditor();
+    }
+
+    private class MemoryEditor implements Editor {
+        private final Map<String, Object> mChanges = new HashMap<String, Object>();
+
+        private boolean mClear;
+
+        @Override
+        public Editor putString(String key, String value) {
+            mChanges.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            mChanges.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            mChanges.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            mChanges.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor remove(String key) {
+            mChanges.put(key, null);
+            return this;
+        }
+
+        @Override
+        public Editor clear() {
+            mClear = true;
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            Runnable hook = mBeforeCommit;
+            if (hook != null) {
+                hook.run();
+            }
+
+            synchronized (MemorySharedPreferences.this) {
+                if (mClear) {
+                    mValues.clear();
+                }
+                for (Map.Entry<String, Object> change : mChanges.entrySet()) {
+                    if (change.getValue() != null) {
+                        mValues.put(change.getKey(), change.getValue());
+                    } else {
+                        mValues.remove(change.getKey());
+                    }
+                }
+                mCommitCount++;
+            }
+            return true;
+        }
+
+        @Override
+        public void apply() {
+            commit();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+
+package com.kth.baasio.benchmark;
+
+import com.kth.baasio.transfer.MimeResolver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MIME type lookup of upload file names, which replaced Baasio.getMimeType.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MimeBenchmark {
+
+    @Benchmark
+    public String knownExtension() {
+        return MimeResolver.resolve("holiday/photo.JPG");
+    }
+
+    @Benchmark
+    public String unknownExtension() {
+        return MimeResolver.resolve("notes.unknown");
+    }
+}
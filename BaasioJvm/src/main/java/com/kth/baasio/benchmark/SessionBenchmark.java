@@ -0,0 +1,69 @@
+
+package com.kth.baasio.benchmark;
+
+import com.kth.baasio.preferences.SessionSnapshot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.usergrid.java.client.entities.User;
+import org.usergrid.java.client.utils.JsonUtils;
+
+import android.content.Context;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saving and restoring the logged-in user, as a JSON string in preferences
+ * and as the binary SessionSnapshot.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SessionBenchmark {
+
+    private Context mContext;
+
+    private User mUser;
+
+    private String mUserJson;
+
+    @Setup
+    public void setUp() throws IOException {
+        mContext = new JvmContext(Fixtures.createDir());
+        mUser = Fixtures.createUser();
+        mUserJson = JsonUtils.toJsonString(mUser);
+        SessionSnapshot.save(mContext, "token", mUser);
+    }
+
+    @Benchmark
+    public String jsonWrite() {
+        return JsonUtils.toJsonString(mUser);
+    }
+
+    @Benchmark
+    public User jsonRead() {
+        return JsonUtils.parse(mUserJson, User.class);
+    }
+
+    @Benchmark
+    public void snapshotWrite() {
+        SessionSnapshot.save(mContext, "token", mUser);
+    }
+
+    @Benchmark
+    public User snapshotRead() {
+        return SessionSnapshot.readUser(mContext);
+    }
+}
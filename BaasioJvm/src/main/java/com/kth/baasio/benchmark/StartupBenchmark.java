@@ -0,0 +1,68 @@
+
+package com.kth.baasio.benchmark;
+
+import com.kth.baasio.Baasio;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpMethod;
+import org.usergrid.java.client.response.ApiResponse;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time from Baasio.getInstance() to the response of the first request, with
+ * the full and the JSON-only message converters. The singleton lives once
+ * per JVM, so each fork measures a single cold start, class loading
+ * included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+public class StartupBenchmark {
+
+    @Param({
+            "false", "true"
+    })
+    public boolean jsonOnly;
+
+    private StubServer mServer;
+
+    private JvmContext mContext;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mServer = new StubServer();
+        mServer.serveJson("/org/app/items", Fixtures.apiResponseJson(10).getBytes(Fixtures.UTF_8));
+        mContext = new JvmContext(Fixtures.createDir());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mServer.stop();
+    }
+
+    @Benchmark
+    public ApiResponse firstRequest() {
+        Baasio.setJsonOnly(jsonOnly);
+
+        Baasio baasio = Baasio.getInstance();
+        baasio.init(mContext, mServer.getUrl(""), "org", "app");
+        return baasio.apiRequest(HttpMethod.GET, null, null, "org", "app", "items");
+    }
+}
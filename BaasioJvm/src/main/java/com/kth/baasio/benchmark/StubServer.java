@@ -0,0 +1,176 @@
+
+package com.kth.baasio.benchmark;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Local HTTP server standing in for the baas.io API in benchmarks and tests.
+ * Handlers are registered per path prefix.
+ */
+public class StubServer {
+
+    private final HttpServer mServer;
+
+    private final ExecutorService mExecutor;
+
+    public StubServer() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        mExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "StubServer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mServer.setExecutor(mExecutor);
+        mServer.start();
+    }
+
+    public void handle(String path, HttpHandler handler) {
+        mServer.createContext(path, handler);
+    }
+
+    /**
+     * Serve a file which supports "Range" and "If-Range" requests.
+     */
+    public FileHandler serveFile(String path, byte[] content, String etag) {
+        FileHandler handler = new FileHandler(content, etag);
+        handle(path, handler);
+        return handler;
+    }
+
+    /**
+     * Serve a fixed JSON body to every request, reading the request body
+     * first.
+     */
+    public void serveJson(String path, final byte[] json) {
+        handle(path, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                drain(exchange.getRequestBody());
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                send(exchange, 200, json);
+            }
+        });
+    }
+
+    public String getUrl(String path) {
+        InetSocketAddress address = mServer.getAddress();
+        return "http://" + address.getHostString() + ":" + address.getPort() + path;
+    }
+
+    public void stop() {
+        mServer.stop(0);
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * @return number of bytes read
+     */
+    public static long drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[16 * 1024];
+        long total = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            total += read;
+        }
+        in.close();
+        return total;
+    }
+
+    public static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        boolean head = "HEAD".equals(exchange.getRequestMethod());
+        if (body == null || body.length == 0) {
+            exchange.sendResponseHeaders(status, -1);
+        } else if (head) {
+            exchange.getResponseHeaders().set("Content-Length", String.valueOf(body.length));
+            exchange.sendResponseHeaders(status, -1);
+        } else {
+            exchange.sendResponseHeaders(status, body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        }
+        exchange.close();
+    }
+
+    /**
+     * Serves a byte array with range support. The content and validator can
+     * be replaced to simulate a file changed on the server.
+     */
+    public static class FileHandler implements HttpHandler {
+        private volatile byte[] mContent;
+
+        private volatile String mEtag;
+
+        private volatile boolean mRangeSupported = true;
+
+        FileHandler(byte[] content, String etag) {
+            mContent = content;
+            mEtag = etag;
+        }
+
+        public void setContent(byte[] content, String etag) {
+            mContent = content;
+            mEtag = etag;
+        }
+
+        public void setRangeSupported(boolean supported) {
+            mRangeSupported = supported;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            byte[] content = mContent;
+            String etag = mEtag;
+            Headers request = exchange.getRequestHeaders();
+            Headers response = exchange.getResponseHeaders();
+            if (etag != null) {
+                response.set("ETag", etag);
+            }
+
+            String range = mRangeSupported ? request.getFirst("Range") : null;
+            String ifRange = request.getFirst("If-Range");
+            if (range != null && ifRange != null && !ifRange.equals(etag)) {
+                range = null;
+            }
+
+            if (mRangeSupported) {
+                response.set("Accept-Ranges", "bytes");
+            }
+
+            if (range == null || !range.startsWith("bytes=")) {
+                send(exchange, 200, content);
+                return;
+            }
+
+            String[] bounds = range.substring("bytes=".length()).split("-", -1);
+            long start = Long.parseLong(bounds[0]);
+            long end = bounds[1].length() > 0 ? Long.parseLong(bounds[1]) : content.length - 1;
+            end = Math.min(end, content.length - 1);
+            if (start >= content.length) {
+                response.set("Content-Range", "bytes */" + content.length);
+                send(exchange, 416, null);
+                return;
+            }
+
+            byte[] part = new byte[(int)(end - start + 1)];
+            System.arraycopy(content, (int)start, part, 0, part.length);
+            response.set("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+            send(exchange, 206, part);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+
+package com.kth.baasio.benchmark;
+
+import com.kth.baasio.Baasio;
+import com.kth.baasio.callback.FileEntityWidthProgress;
+import com.kth.baasio.callback.ProgressListener;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of FileEntityWidthProgress.writeTo into a loopback socket,
+ * against the FileInputStream and byte[] loop it replaced. Run with
+ * "-prof gc" for the allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UploadBenchmark {
+
+    @Param({
+            "65536", "8388608"
+    })
+    public int size;
+
+    private File mFile;
+
+    private LoopbackSink mSink;
+
+    private OutputStream mOut;
+
+    private final ProgressListener mListener = new ProgressListener() {
+        @Override
+        public void updateTransferred(long transferedBytes) {
+        }
+    };
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mFile = Fixtures.createFile(size);
+        mSink = new LoopbackSink();
+        mOut = mSink.getOutputStream();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mSink.close();
+        mFile.delete();
+    }
+
+    @Benchmark
+    public void fileEntityWithProgress() throws IOException {
+        new FileEntityWidthProgress(mFile, "application/octet-stream", mListener).writeTo(mOut);
+    }
+
+    /**
+     * The previous writeTo: a new byte[] of the default upload buffer size
+     * per request.
+     */
+    @Benchmark
+    public void byteArrayLoop() throws IOException {
+        InputStream instream = new FileInputStream(mFile);
+        try {
+            byte[] tmp = new byte[Baasio.MIN_BUFFER_SIZE];
+            long transferredBytes = 0;
+            int l;
+            while ((l = instream.read(tmp)) != -1) {
+                mOut.write(tmp, 0, l);
+                transferredBytes += l;
+                mListener.updateTransferred(transferredBytes);
+            }
+            mOut.flush();
+        } finally {
+            instream.close();
+        }
+    }
+}
@@ -0,0 +1,10 @@
+
+package android.content;
+
+/**
+ * JVM shim of android.content.BroadcastReceiver.
+ */
+public abstract class BroadcastReceiver {
+
+    public abstract void onReceive(Context context, Intent intent);
+}
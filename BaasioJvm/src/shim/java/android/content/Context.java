@@ -0,0 +1,28 @@
+
+package android.content;
+
+import java.io.File;
+
+/**
+ * JVM shim of android.content.Context with the methods the SDK uses.
+ */
+public abstract class Context {
+
+    public static final int MODE_PRIVATE = 0;
+
+    public static final String CONNECTIVITY_SERVICE = "connectivity";
+
+    public abstract Context getApplicationContext();
+
+    public abstract SharedPreferences getSharedPreferences(String name, int mode);
+
+    public abstract File getCacheDir();
+
+    public abstract File getFilesDir();
+
+    public abstract Object getSystemService(String name);
+
+    public abstract Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter);
+
+    public abstract void unregisterReceiver(BroadcastReceiver receiver);
+}
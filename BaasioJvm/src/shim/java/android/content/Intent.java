@@ -0,0 +1,33 @@
+
+package android.content;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * JVM shim of android.content.Intent, holding an action and boolean extras.
+ */
+public class Intent {
+
+    private final String mAction;
+
+    private final Map<String, Boolean> mExtras = new HashMap<String, Boolean>();
+
+    public Intent(String action) {
+        mAction = action;
+    }
+
+    public String getAction() {
+        return mAction;
+    }
+
+    public Intent putExtra(String name, boolean value) {
+        mExtras.put(name, value);
+        return this;
+    }
+
+    public boolean getBooleanExtra(String name, boolean defaultValue) {
+        Boolean value = mExtras.get(name);
+        return value != null ? value : defaultValue;
+    }
+}
@@ -0,0 +1,18 @@
+
+package android.content;
+
+/**
+ * JVM shim of android.content.IntentFilter for a single action.
+ */
+public class IntentFilter {
+
+    private final String mAction;
+
+    public IntentFilter(String action) {
+        mAction = action;
+    }
+
+    public boolean hasAction(String action) {
+        return mAction.equals(action);
+    }
+}
@@ -0,0 +1,42 @@
+
+package android.content;
+
+import java.util.Map;
+
+/**
+ * JVM shim of android.content.SharedPreferences.
+ */
+public interface SharedPreferences {
+
+    public interface Editor {
+        public Editor putString(String key, String value);
+
+        public Editor putLong(String key, long value);
+
+        public Editor putInt(String key, int value);
+
+        public Editor putBoolean(String key, boolean value);
+
+        public Editor remove(String key);
+
+        public Editor clear();
+
+        public boolean commit();
+
+        public void apply();
+    }
+
+    public Map<String, ?> getAll();
+
+    public String getString(String key, String defValue);
+
+    public long getLong(String key, long defValue);
+
+    public int getInt(String key, int defValue);
+
+    public boolean getBoolean(String key, boolean defValue);
+
+    public boolean contains(String key);
+
+    public Editor edit();
+}
@@ -0,0 +1,28 @@
+
+package android.location;
+
+/**
+ * JVM shim of android.location.Location.
+ */
+public class Location {
+
+    private double mLatitude;
+
+    private double mLongitude;
+
+    public double getLatitude() {
+        return mLatitude;
+    }
+
+    public void setLatitude(double latitude) {
+        mLatitude = latitude;
+    }
+
+    public double getLongitude() {
+        return mLongitude;
+    }
+
+    public void setLongitude(double longitude) {
+        mLongitude = longitude;
+    }
+}
@@ -0,0 +1,27 @@
+
+package android.net;
+
+/**
+ * JVM shim of android.net.ConnectivityManager. The network is always
+ * connected unless {@link #setActiveNetworkInfo(NetworkInfo)} says otherwise.
+ */
+public class ConnectivityManager {
+
+    public static final String CONNECTIVITY_ACTION = "android.net.conn.CONNECTIVITY_CHANGE";
+
+    public static final String EXTRA_NO_CONNECTIVITY = "noConnectivity";
+
+    public static final int TYPE_MOBILE = 0;
+
+    public static final int TYPE_WIFI = 1;
+
+    private volatile NetworkInfo mActiveNetworkInfo = new NetworkInfo(TYPE_WIFI, true);
+
+    public NetworkInfo getActiveNetworkInfo() {
+        return mActiveNetworkInfo;
+    }
+
+    public void setActiveNetworkInfo(NetworkInfo info) {
+        mActiveNetworkInfo = info;
+    }
+}
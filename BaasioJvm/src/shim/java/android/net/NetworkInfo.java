@@ -0,0 +1,25 @@
+
+package android.net;
+
+/**
+ * JVM shim of android.net.NetworkInfo.
+ */
+public class NetworkInfo {
+
+    private final int mType;
+
+    private final boolean mConnected;
+
+    public NetworkInfo(int type, boolean connected) {
+        mType = type;
+        mConnected = connected;
+    }
+
+    public int getType() {
+        return mType;
+    }
+
+    public boolean isConnected() {
+        return mConnected;
+    }
+}
@@ -0,0 +1,169 @@
+
+package android.os;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * JVM shim of android.os.AsyncTask. Background work runs on a daemon pool and
+ * the callbacks run on the thread of {@link Looper#getMainLooper()}.
+ */
+public abstract class AsyncTask<Params, Progress, Result> {
+
+    private static final ThreadFactory sThreadFactory = new ThreadFactory() {
+        private final AtomicInteger mCount = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "AsyncTask #" + mCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    public static final Executor THREAD_POOL_EXECUTOR = Executors
+            .newCachedThreadPool(sThreadFactory);
+
+    public static final Executor SERIAL_EXECUTOR = Executors
+            .newSingleThreadExecutor(sThreadFactory);
+
+    public enum Status {
+        PENDING, RUNNING, FINISHED
+    }
+
+    private static Handler sHandler;
+
+    private volatile Status mStatus = Status.PENDING;
+
+    private final AtomicBoolean mCancelled = new AtomicBoolean();
+
+    private final FutureTask<Result> mFuture;
+
+    private Params[] mParams;
+
+    public AsyncTask() {
+        mFuture = new FutureTask<Result>(new Callable<Result>() {
+            @Override
+            public Result call() throws Exception {
+                return doInBackground(mParams);
+            }
+        }) {
+            @Override
+            protected void done() {
+                Result result = null;
+                try {
+                    result = get();
+                } catch (InterruptedException e) {
+                    // cancelled
+                } catch (ExecutionException e) {
+                    throw new RuntimeException(e.getCause());
+                } catch (CancellationException e) {
+                    // cancelled
+                }
+                postResult(result);
+            }
+        };
+    }
+
+    private static synchronized Handler getHandler() {
+        if (sHandler == null) {
+            sHandler = new Handler(Looper.getMainLooper());
+        }
+        return sHandler;
+    }
+
+    private void postResult(final Result result) {
+        getHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                if (isCancelled()) {
+                    onCancelled(result);
+                } else {
+                    onPostExecute(result);
+                }
+                mStatus = Status.FINISHED;
+            }
+        });
+    }
+
+    protected abstract Result doInBackground(Params... params);
+
+    protected void onPreExecute() {
+    }
+
+    protected void onPostExecute(Result result) {
+    }
+
+    protected void onProgressUpdate(Progress... values) {
+    }
+
+    protected void onCancelled(Result result) {
+        onCancelled();
+    }
+
+    protected void onCancelled() {
+    }
+
+    public final Status getStatus() {
+        return mStatus;
+    }
+
+    public final boolean isCancelled() {
+        return mCancelled.get();
+    }
+
+    public final boolean cancel(boolean mayInterruptIfRunning) {
+        mCancelled.set(true);
+        return mFuture.cancel(mayInterruptIfRunning);
+    }
+
+    public final Result get() throws InterruptedException, ExecutionException {
+        return mFuture.get();
+    }
+
+    public final Result get(long timeout, TimeUnit unit) throws InterruptedException,
+            ExecutionException, TimeoutException {
+        return mFuture.get(timeout, unit);
+    }
+
+    public final AsyncTask<Params, Progress, Result> execute(Params... params) {
+        return executeOnExecutor(SERIAL_EXECUTOR, params);
+    }
+
+    public final AsyncTask<Params, Progress, Result> executeOnExecutor(Executor exec,
+            Params... params) {
+        if (mStatus != Status.PENDING) {
+            throw new IllegalStateException("Cannot execute task: the task is " + mStatus);
+        }
+
+        mStatus = Status.RUNNING;
+        onPreExecute();
+        mParams = params;
+        exec.execute(mFuture);
+        return this;
+    }
+
+    public static void execute(Runnable runnable) {
+        SERIAL_EXECUTOR.execute(runnable);
+    }
+
+    protected final void publishProgress(final Progress... values) {
+        if (!isCancelled()) {
+            getHandler().post(new Runnable() {
+                @Override
+                public void run() {
+                    onProgressUpdate(values);
+                }
+            });
+        }
+    }
+}
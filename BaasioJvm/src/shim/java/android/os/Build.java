@@ -0,0 +1,18 @@
+
+package android.os;
+
+/**
+ * JVM shim of android.os.Build, reporting the API level the SDK targets.
+ */
+public class Build {
+
+    public static class VERSION {
+        public static final int SDK_INT = 16;
+    }
+
+    public static class VERSION_CODES {
+        public static final int GINGERBREAD = 9;
+
+        public static final int HONEYCOMB = 11;
+    }
+}
@@ -0,0 +1,83 @@
+
+package android.os;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JVM shim of android.os.Handler, posting to the thread of a {@link Looper}.
+ */
+public class Handler {
+
+    private final Looper mLooper;
+
+    private final Map<Runnable, List<Future<?>>> mPosted = new HashMap<Runnable, List<Future<?>>>();
+
+    public Handler() {
+        this(Looper.myLooper() != null ? Looper.myLooper() : Looper.getMainLooper());
+    }
+
+    public Handler(Looper looper) {
+        mLooper = looper;
+    }
+
+    public final boolean post(Runnable r) {
+        return postDelayed(r, 0);
+    }
+
+    public final boolean postDelayed(final Runnable r, long delayMillis) {
+        final Future<?>[] posted = new Future<?>[1];
+        Runnable message = new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mPosted) {
+                    List<Future<?>> futures = mPosted.get(r);
+                    if (futures != null) {
+                        futures.remove(posted[0]);
+                        if (futures.isEmpty()) {
+                            mPosted.remove(r);
+                        }
+                    }
+                }
+                r.run();
+            }
+        };
+
+        synchronized (mPosted) {
+            try {
+                posted[0] = mLooper.mQueue.schedule(message, Math.max(0, delayMillis),
+                        TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                return false;
+            }
+
+            List<Future<?>> futures = mPosted.get(r);
+            if (futures == null) {
+                futures = new ArrayList<Future<?>>();
+                mPosted.put(r, futures);
+            }
+            futures.add(posted[0]);
+        }
+        return true;
+    }
+
+    public final void removeCallbacks(Runnable r) {
+        synchronized (mPosted) {
+            List<Future<?>> futures = mPosted.remove(r);
+            if (futures != null) {
+                for (Future<?> future : futures) {
+                    future.cancel(false);
+                }
+            }
+        }
+    }
+
+    public final Looper getLooper() {
+        return mLooper;
+    }
+}
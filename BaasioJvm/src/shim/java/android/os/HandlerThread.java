@@ -0,0 +1,34 @@
+
+package android.os;
+
+/**
+ * JVM shim of android.os.HandlerThread. The looper is ready as soon as the
+ * thread is created.
+ */
+public class HandlerThread extends Thread {
+
+    private final Looper mLooper;
+
+    public HandlerThread(String name) {
+        super(name);
+        mLooper = new Looper(name);
+    }
+
+    public HandlerThread(String name, int priority) {
+        this(name);
+    }
+
+    @Override
+    public void run() {
+        // messages run on the thread of the looper
+    }
+
+    public Looper getLooper() {
+        return mLooper;
+    }
+
+    public boolean quit() {
+        mLooper.quit();
+        return true;
+    }
+}
@@ -0,0 +1,51 @@
+
+package android.os;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * JVM shim of android.os.Looper. Each looper is a single daemon thread which
+ * runs posted messages in order.
+ */
+public final class Looper {
+
+    private static final ThreadLocal<Looper> sThreadLooper = new ThreadLocal<Looper>();
+
+    private static Looper sMainLooper;
+
+    final ScheduledExecutorService mQueue;
+
+    Looper(final String name) {
+        mQueue = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        sThreadLooper.set(Looper.this);
+                        r.run();
+                    }
+                }, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public static synchronized Looper getMainLooper() {
+        if (sMainLooper == null) {
+            sMainLooper = new Looper("main");
+        }
+        return sMainLooper;
+    }
+
+    public static Looper myLooper() {
+        return sThreadLooper.get();
+    }
+
+    public void quit() {
+        mQueue.shutdownNow();
+    }
+}
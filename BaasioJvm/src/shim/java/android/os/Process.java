@@ -0,0 +1,15 @@
+
+package android.os;
+
+/**
+ * JVM shim of android.os.Process. Thread priorities are ignored.
+ */
+public class Process {
+
+    public static final int THREAD_PRIORITY_DEFAULT = 0;
+
+    public static final int THREAD_PRIORITY_BACKGROUND = 10;
+
+    public static void setThreadPriority(int priority) {
+    }
+}
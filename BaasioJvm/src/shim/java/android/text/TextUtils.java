@@ -0,0 +1,15 @@
+
+package android.text;
+
+/**
+ * JVM shim of android.text.TextUtils.
+ */
+public final class TextUtils {
+
+    private TextUtils() {
+    }
+
+    public static boolean isEmpty(CharSequence str) {
+        return str == null || str.length() == 0;
+    }
+}
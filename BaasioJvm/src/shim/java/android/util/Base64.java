@@ -0,0 +1,23 @@
+
+package android.util;
+
+/**
+ * JVM shim of android.util.Base64 on top of java.util.Base64.
+ */
+public final class Base64 {
+
+    public static final int DEFAULT = 0;
+
+    public static final int NO_WRAP = 2;
+
+    private Base64() {
+    }
+
+    public static String encodeToString(byte[] input, int flags) {
+        return java.util.Base64.getEncoder().encodeToString(input);
+    }
+
+    public static byte[] decode(String str, int flags) {
+        return java.util.Base64.getDecoder().decode(str);
+    }
+}
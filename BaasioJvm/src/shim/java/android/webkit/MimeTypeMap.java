@@ -0,0 +1,51 @@
+
+package android.webkit;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * JVM shim of android.webkit.MimeTypeMap with a few common types.
+ */
+public class MimeTypeMap {
+
+    private static final MimeTypeMap sInstance = new MimeTypeMap();
+
+    private final Map<String, String> mTypes = new HashMap<String, String>();
+
+    private MimeTypeMap() {
+        mTypes.put("jpg", "image/jpeg");
+        mTypes.put("jpeg", "image/jpeg");
+        mTypes.put("png", "image/png");
+        mTypes.put("gif", "image/gif");
+        mTypes.put("mp4", "video/mp4");
+        mTypes.put("mp3", "audio/mpeg");
+        mTypes.put("txt", "text/plain");
+        mTypes.put("html", "text/html");
+        mTypes.put("json", "application/json");
+        mTypes.put("pdf", "application/pdf");
+        mTypes.put("zip", "application/zip");
+    }
+
+    public static MimeTypeMap getSingleton() {
+        return sInstance;
+    }
+
+    public String getMimeTypeFromExtension(String extension) {
+        return extension != null ? mTypes.get(extension.toLowerCase()) : null;
+    }
+
+    public static String getFileExtensionFromUrl(String url) {
+        if (url == null) {
+            return "";
+        }
+
+        int query = url.indexOf('?');
+        if (query >= 0) {
+            url = url.substring(0, query);
+        }
+        int slash = url.lastIndexOf('/');
+        int dot = url.lastIndexOf('.');
+        return dot > slash ? url.substring(dot + 1) : "";
+    }
+}
@@ -0,0 +1,10 @@
+
+package com.kth.baasio;
+
+/**
+ * Stands in for the class generated by the Android build.
+ */
+public final class BuildConfig {
+
+    public static final boolean DEBUG = false;
+}
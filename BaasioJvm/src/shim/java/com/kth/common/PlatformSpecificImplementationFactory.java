@@ -0,0 +1,17 @@
+
+package com.kth.common;
+
+import com.kth.common.preference.SharedPreferenceSaver;
+
+import android.content.Context;
+
+/**
+ * JVM shim of PlatformSpecificImplementationFactory from kthCommonLib.
+ */
+public class PlatformSpecificImplementationFactory {
+
+    public static SharedPreferenceSaver getSharedPreferenceSaver(Context context) {
+        return new SharedPreferenceSaver() {
+        };
+    }
+}
@@ -0,0 +1,15 @@
+
+package com.kth.common.preference;
+
+import android.content.SharedPreferences;
+
+/**
+ * JVM shim of SharedPreferenceSaver from kthCommonLib. Saving commits the
+ * editor.
+ */
+public abstract class SharedPreferenceSaver {
+
+    public void savePreferences(SharedPreferences.Editor editor, boolean backup) {
+        editor.commit();
+    }
+}
@@ -0,0 +1,59 @@
+
+package com.kth.common.utils;
+
+import android.util.Log;
+
+/**
+ * JVM shim of LogUtils from kthCommonLib, which is a git submodule of the
+ * Android build.
+ */
+public class LogUtils {
+
+    private static final String LOG_PREFIX = "baasio_";
+
+    private LogUtils() {
+    }
+
+    public static String makeLogTag(String str) {
+        return LOG_PREFIX + str;
+    }
+
+    @SuppressWarnings("rawtypes")
+    public static String makeLogTag(Class cls) {
+        return makeLogTag(cls.getSimpleName());
+    }
+
+    public static void LOGD(String tag, String message) {
+    }
+
+    public static void LOGD(String tag, String message, Throwable cause) {
+    }
+
+    public static void LOGV(String tag, String message) {
+    }
+
+    public static void LOGV(String tag, String message, Throwable cause) {
+    }
+
+    public static void LOGI(String tag, String message) {
+    }
+
+    public static void LOGI(String tag, String message, Throwable cause) {
+    }
+
+    public static void LOGW(String tag, String message) {
+        Log.w(tag, message);
+    }
+
+    public static void LOGW(String tag, String message, Throwable cause) {
+        Log.w(tag, message, cause);
+    }
+
+    public static void LOGE(String tag, String message) {
+        Log.e(tag, message);
+    }
+
+    public static void LOGE(String tag, String message, Throwable cause) {
+        Log.e(tag, message, cause);
+    }
+}
@@ -0,0 +1,207 @@
+
+package com.kth.baasio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.kth.baasio.benchmark.Fixtures;
+import com.kth.baasio.benchmark.JvmContext;
+import com.kth.baasio.benchmark.StubServer;
+import com.kth.baasio.circuit.ConcurrencyLimiter;
+import com.kth.baasio.circuit.Endpoint;
+import com.kth.baasio.retry.RetryPolicy;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.usergrid.android.client.callbacks.ApiResponseCallback;
+import org.usergrid.java.client.response.ApiResponse;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class BaasioTest {
+
+    /**
+     * Holds the requests until released, and records their access tokens.
+     */
+    private static class HoldingHandler implements HttpHandler {
+        final List<String> authorizations = new CopyOnWriteArrayList<String>();
+
+        volatile CountDownLatch release = new CountDownLatch(1);
+
+        volatile int status = 200;
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            StubServer.drain(exchange.getRequestBody());
+            authorizations.add(String.valueOf(exchange.getRequestHeaders().getFirst(
+                    "Authorization")));
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            if (status == 200) {
+                StubServer.send(exchange, 200, Fixtures.apiResponseJson(1)
+                        .getBytes(Fixtures.UTF_8));
+            } else {
+                StubServer.send(exchange, status, "{\"error\":\"error\"}"
+                        .getBytes(Fixtures.UTF_8));
+            }
+        }
+    }
+
+    /**
+     * Records the result of one call.
+     */
+    private static class ResultCallback implements ApiResponseCallback {
+        final CountDownLatch done;
+
+        volatile ApiResponse response;
+
+        volatile Exception exception;
+
+        ResultCallback(CountDownLatch done) {
+            this.done = done;
+        }
+
+        @Override
+        public void onResponse(ApiResponse response) {
+            this.response = response;
+            done.countDown();
+        }
+
+        @Override
+        public void onException(Exception e) {
+            this.exception = e;
+            done.countDown();
+        }
+    }
+
+    private static StubServer sServer;
+
+    private static HoldingHandler sHandler;
+
+    private static RetryPolicy sRetryPolicy;
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        sServer = new StubServer();
+        sHandler = new HoldingHandler();
+        sServer.handle("/org/app", sHandler);
+
+        Baasio.getInstance().init(new JvmContext(Fixtures.createDir()), sServer.getUrl(""),
+                "org", "app");
+        sRetryPolicy = Baasio.getRetryPolicy();
+        Baasio.setRetryPolicy(null);
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        Baasio.setRetryPolicy(sRetryPolicy);
+        sServer.stop();
+    }
+
+    @Before
+    public void setUp() {
+        sHandler.authorizations.clear();
+        sHandler.release = new CountDownLatch(1);
+        sHandler.status = 200;
+        // concurrent requests are not limited by the latency of other tests
+        Endpoint.ENTITIES.getLimiter().setLimits(4, ConcurrencyLimiter.DEFAULT_MAX_LIMIT);
+    }
+
+    @After
+    public void tearDown() {
+        sHandler.release.countDown();
+        Baasio.getInstance().setAccessToken(null);
+        Endpoint.ENTITIES.getLimiter().setLimits(ConcurrencyLimiter.DEFAULT_MIN_LIMIT,
+                ConcurrencyLimiter.DEFAULT_MAX_LIMIT);
+    }
+
+    @Test
+    public void sharesIdenticalQueryInFlight() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(5);
+        ResultCallback[] callbacks = new ResultCallback[5];
+        for (int i = 0; i < callbacks.length; i++) {
+            callbacks[i] = new ResultCallback(done);
+            Baasio.getInstance().queryEntitiesRequestAsync(callbacks[i], "items");
+        }
+
+        sHandler.release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        assertEquals(1, sHandler.authorizations.size());
+        assertNotNull(callbacks[0].response);
+        assertEquals(1, callbacks[0].response.getEntities().size());
+        for (ResultCallback callback : callbacks) {
+            assertSame(callbacks[0].response, callback.response);
+        }
+    }
+
+    @Test
+    public void sharesFailure() throws InterruptedException {
+        sHandler.status = 500;
+
+        CountDownLatch done = new CountDownLatch(3);
+        ResultCallback[] callbacks = new ResultCallback[3];
+        for (int i = 0; i < callbacks.length; i++) {
+            callbacks[i] = new ResultCallback(done);
+            Baasio.getInstance().getQuotaInformationAsync(callbacks[i]);
+        }
+
+        sHandler.release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        assertEquals(1, sHandler.authorizations.size());
+        assertNotNull(callbacks[0].exception);
+        for (ResultCallback callback : callbacks) {
+            assertSame(callbacks[0].exception, callback.exception);
+        }
+    }
+
+    @Test
+    public void doesNotShareAcrossAccessTokens() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(4);
+        ResultCallback[] callbacks = new ResultCallback[4];
+        for (int i = 0; i < callbacks.length; i++) {
+            Baasio.getInstance().setAccessToken(i % 2 == 0 ? "alice" : "bob");
+            callbacks[i] = new ResultCallback(done);
+            Baasio.getInstance().queryEntitiesRequestAsync(callbacks[i], "items");
+        }
+
+        sHandler.release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        assertEquals(2, sHandler.authorizations.size());
+        assertTrue(sHandler.authorizations.contains("Bearer alice"));
+        assertTrue(sHandler.authorizations.contains("Bearer bob"));
+        assertSame(callbacks[0].response, callbacks[2].response);
+        assertSame(callbacks[1].response, callbacks[3].response);
+        assertTrue(callbacks[0].response != callbacks[1].response);
+    }
+
+    @Test
+    public void sendsAgainAfterCompletion() throws InterruptedException {
+        sHandler.release.countDown();
+
+        for (int i = 0; i < 2; i++) {
+            CountDownLatch done = new CountDownLatch(1);
+            Baasio.getInstance().queryEntitiesRequestAsync(new ResultCallback(done), "items");
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+        }
+        assertEquals(2, sHandler.authorizations.size());
+    }
+}
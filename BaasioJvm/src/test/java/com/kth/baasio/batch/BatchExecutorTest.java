@@ -0,0 +1,127 @@
+
+package com.kth.baasio.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+import org.usergrid.java.client.response.ApiResponse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BatchExecutorTest {
+
+    @After
+    public void tearDown() {
+        BatchExecutor.setMaxConcurrency(BatchExecutor.DEFAULT_MAX_CONCURRENCY);
+    }
+
+    @Test
+    public void recordsResultOfEveryItem() {
+        // by item % 3 - 0: success, 1: error response, 2: exception
+        List<Integer> items = new ArrayList<Integer>();
+        for (int i = 0; i < 30; i++) {
+            items.add(i);
+        }
+
+        BatchResponse batch = BatchExecutor.execute(items,
+                new BatchExecutor.Operation<Integer>() {
+                    @Override
+                    public ApiResponse execute(Integer item) throws Exception {
+                        if (item % 3 == 2) {
+                            throw new IOException("item " + item);
+                        }
+
+                        ApiResponse response = new ApiResponse();
+                        if (item % 3 == 1) {
+                            response.setError("error " + item);
+                        } else {
+                            response.setAction("item " + item);
+                        }
+                        return response;
+                    }
+                });
+
+        assertEquals(30, batch.getCount());
+        assertEquals(10, batch.getSuccessCount());
+        assertEquals(20, batch.getFailures().size());
+        assertFalse(batch.isAllSuccess());
+
+        for (int i = 0; i < 30; i++) {
+            BatchResponse.Result result = batch.getResult(i);
+            assertEquals(i, result.getIndex());
+            if (i % 3 == 0) {
+                assertTrue(result.isSuccess());
+                assertEquals("item " + i, result.getResponse().getAction());
+            } else if (i % 3 == 1) {
+                assertFalse(result.isSuccess());
+                assertEquals("error " + i, result.getResponse().getError());
+            } else {
+                assertFalse(result.isSuccess());
+                assertNull(result.getResponse());
+                assertEquals("item " + i, result.getException().getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void boundsConcurrency() {
+        BatchExecutor.setMaxConcurrency(3);
+
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        // the first items wait until 3 of them run at once
+        final CountDownLatch together = new CountDownLatch(3);
+
+        BatchResponse batch = BatchExecutor.execute(Collections.nCopies(20, "item"),
+                new BatchExecutor.Operation<String>() {
+                    @Override
+                    public ApiResponse execute(String item) throws Exception {
+                        int now = running.incrementAndGet();
+                        synchronized (maxRunning) {
+                            maxRunning.set(Math.max(maxRunning.get(), now));
+                        }
+                        try {
+                            together.countDown();
+                            together.await(5, TimeUnit.SECONDS);
+                            return new ApiResponse();
+                        } finally {
+                            running.decrementAndGet();
+                        }
+                    }
+                });
+
+        assertTrue(batch.isAllSuccess());
+        assertEquals(3, maxRunning.get());
+    }
+
+    @Test
+    public void emptyBatch() {
+        BatchResponse batch = BatchExecutor.execute(Arrays.<String> asList(),
+                new BatchExecutor.Operation<String>() {
+                    @Override
+                    public ApiResponse execute(String item) {
+                        throw new AssertionError();
+                    }
+                });
+
+        assertEquals(0, batch.getCount());
+        assertTrue(batch.isAllSuccess());
+    }
+
+    @Test
+    public void rejectsInvalidConcurrency() {
+        assertFalse(BatchExecutor.setMaxConcurrency(0));
+        assertEquals(BatchExecutor.DEFAULT_MAX_CONCURRENCY, BatchExecutor.getMaxConcurrency());
+    }
+}
@@ -0,0 +1,147 @@
+
+package com.kth.baasio.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.kth.baasio.benchmark.Fixtures;
+import com.kth.baasio.benchmark.StubServer;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ResponseCacheTest {
+
+    /**
+     * Answers the request path, and counts requests. While blocked, requests
+     * wait for the release latch, and the most requests in flight is counted.
+     */
+    private static class EchoHandler implements HttpHandler {
+        final AtomicInteger requests = new AtomicInteger();
+
+        final AtomicInteger inFlight = new AtomicInteger();
+
+        final AtomicInteger maxInFlight = new AtomicInteger();
+
+        volatile CountDownLatch arrived;
+
+        volatile CountDownLatch release;
+
+        volatile CountDownLatch completed;
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            requests.incrementAndGet();
+            CountDownLatch release = this.release;
+            if (release != null) {
+                int now = inFlight.incrementAndGet();
+                synchronized (maxInFlight) {
+                    maxInFlight.set(Math.max(maxInFlight.get(), now));
+                }
+                arrived.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                inFlight.decrementAndGet();
+            }
+
+            String body = "{\"path\":\"" + exchange.getRequestURI() + "\"}";
+            StubServer.send(exchange, 200, body.getBytes(Fixtures.UTF_8));
+            if (release != null) {
+                completed.countDown();
+            }
+        }
+    }
+
+    private StubServer mServer;
+
+    private EchoHandler mHandler;
+
+    private File mDir;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new StubServer();
+        mHandler = new EchoHandler();
+        mServer.handle("/org/app", mHandler);
+        mDir = Fixtures.createDir();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+    }
+
+    @Test
+    public void invalidateRemovesCollection() throws IOException {
+        ResponseCache cache = new ResponseCache(mDir, 1024 * 1024);
+        get(cache, "/org/app/books");
+        get(cache, "/org/app/books?ql=select%20*");
+        get(cache, "/org/app/books/1");
+        get(cache, "/org/app/bookshelves");
+        assertEquals(4, mHandler.requests.get());
+
+        cache.invalidate(mServer.getUrl("/org/app/books"));
+
+        get(cache, "/org/app/books");
+        get(cache, "/org/app/books?ql=select%20*");
+        get(cache, "/org/app/books/1");
+        assertEquals(7, mHandler.requests.get());
+
+        get(cache, "/org/app/bookshelves");
+        assertEquals(7, mHandler.requests.get());
+    }
+
+    @Test
+    public void invalidateEntriesOfPreviousProcess() throws IOException {
+        get(new ResponseCache(mDir, 1024 * 1024), "/org/app/books/1");
+
+        ResponseCache cache = new ResponseCache(mDir, 1024 * 1024);
+        cache.invalidate(mServer.getUrl("/org/app/books"));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void revalidatesInBoundedPool() throws Exception {
+        ResponseCache cache = new ResponseCache(mDir, 1024 * 1024);
+        cache.setTimeToLive(0);
+        for (int i = 0; i < 20; i++) {
+            get(cache, "/org/app/books/" + i);
+        }
+
+        mHandler.arrived = new CountDownLatch(2);
+        mHandler.completed = new CountDownLatch(20);
+        mHandler.release = new CountDownLatch(1);
+        try {
+            for (int i = 0; i < 20; i++) {
+                // stale responses are returned at once
+                assertEquals("{\"path\":\"/org/app/books/" + i + "\"}",
+                        get(cache, "/org/app/books/" + i));
+            }
+
+            assertTrue("revalidations did not run", mHandler.arrived.await(5, TimeUnit.SECONDS));
+        } finally {
+            mHandler.release.countDown();
+        }
+
+        // every revalidation ran, at most 2 at a time
+        assertTrue(mHandler.completed.await(10, TimeUnit.SECONDS));
+        assertTrue(mHandler.maxInFlight.get() > 0);
+        assertTrue(mHandler.maxInFlight.get() <= 2);
+    }
+
+    private String get(ResponseCache cache, String path) throws IOException {
+        return cache.get(mServer.getUrl(path), null);
+    }
+}
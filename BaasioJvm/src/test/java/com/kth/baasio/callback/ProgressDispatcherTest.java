@@ -0,0 +1,128 @@
+
+package com.kth.baasio.callback;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class ProgressDispatcherTest {
+
+    private static final long KB = 1024;
+
+    private Handler mHandler;
+
+    private final List<ProgressInfo> mDelivered = new CopyOnWriteArrayList<ProgressInfo>();
+
+    private ProgressDispatcher mDispatcher;
+
+    @Before
+    public void setUp() {
+        mHandler = new Handler(Looper.getMainLooper());
+        mDispatcher = new ProgressDispatcher(mHandler, new ProgressDispatcher.Target() {
+            @Override
+            public void onProgress(ProgressInfo info) {
+                mDelivered.add(info);
+            }
+        });
+        ProgressDispatcher.setMinInterval(0);
+    }
+
+    @After
+    public void tearDown() {
+        ProgressDispatcher.setMinInterval(ProgressDispatcher.DEFAULT_MIN_INTERVAL_MILLIS);
+        ProgressDispatcher.setMinByteDelta(ProgressDispatcher.DEFAULT_MIN_BYTE_DELTA);
+    }
+
+    @Test
+    public void deliversIntermediateProgress() throws InterruptedException {
+        offer(100 * KB, 10 * KB);
+        offer(100 * KB, 50 * KB);
+
+        assertDelivered(10 * KB, 50 * KB);
+    }
+
+    @Test
+    public void deliversProgressOfUnknownLength() throws InterruptedException {
+        offer(-1, 10 * KB);
+        offer(-1, 20 * KB);
+
+        assertDelivered(10 * KB, 20 * KB);
+    }
+
+    @Test
+    public void throttlesSmallDeltaUntilFlush() throws InterruptedException {
+        offer(100 * KB, 10 * KB);
+        offer(100 * KB, 11 * KB);
+        assertDelivered(10 * KB);
+
+        mDispatcher.flush();
+        idle();
+        assertDelivered(10 * KB, 11 * KB);
+    }
+
+    @Test
+    public void throttlesShortInterval() throws InterruptedException {
+        ProgressDispatcher.setMinInterval(60 * 1000);
+
+        offer(100 * KB, 10 * KB);
+        offer(100 * KB, 50 * KB);
+        offer(100 * KB, 100 * KB);
+
+        assertDelivered(10 * KB, 100 * KB);
+    }
+
+    @Test
+    public void restartsAfterRetry() throws InterruptedException {
+        offer(100 * KB, 50 * KB);
+
+        // the request is sent again from the beginning
+        offer(100 * KB, 0);
+        offer(100 * KB, 10 * KB);
+        offer(100 * KB, 100 * KB);
+
+        assertDelivered(50 * KB, 0, 10 * KB, 100 * KB);
+    }
+
+    private void offer(long total, long current) throws InterruptedException {
+        mDispatcher.offer(total, current);
+        idle();
+    }
+
+    /**
+     * Wait until the handler ran every delivery posted so far.
+     */
+    private void idle() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    private void assertDelivered(long... expected) {
+        StringBuilder actual = new StringBuilder();
+        for (ProgressInfo info : mDelivered) {
+            actual.append(info.getCurrentSize()).append(' ');
+        }
+
+        StringBuilder wanted = new StringBuilder();
+        for (long value : expected) {
+            wanted.append(value).append(' ');
+        }
+        assertEquals(wanted.toString(), actual.toString());
+    }
+}
@@ -0,0 +1,139 @@
+
+package com.kth.baasio.circuit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+    private CircuitBreaker mBreaker;
+
+    @Before
+    public void setUp() {
+        mBreaker = new CircuitBreaker("test");
+        assertTrue(mBreaker.setThreshold(4, 4, 50));
+    }
+
+    @Test
+    public void opensAtFailureRate() {
+        record(false);
+        record(true);
+        record(false);
+        assertEquals(CircuitBreaker.CLOSED, mBreaker.getState());
+
+        record(true);
+        assertEquals(CircuitBreaker.OPEN, mBreaker.getState());
+        assertEquals(CircuitBreaker.NO_TICKET, mBreaker.tryAcquire());
+    }
+
+    @Test
+    public void oldFailuresLeaveWindow() {
+        record(true);
+        for (int i = 0; i < 10; i++) {
+            record(false);
+        }
+        record(true);
+        assertEquals(CircuitBreaker.CLOSED, mBreaker.getState());
+    }
+
+    @Test
+    public void probesCloseCircuit() {
+        mBreaker.setOpenDuration(0, 2);
+        open();
+        assertEquals(CircuitBreaker.HALF_OPEN, mBreaker.getState());
+
+        long probe = mBreaker.tryAcquire();
+        // one probe at a time
+        assertEquals(CircuitBreaker.NO_TICKET, mBreaker.tryAcquire());
+        mBreaker.onResult(probe, false);
+        assertEquals(CircuitBreaker.HALF_OPEN, mBreaker.getState());
+
+        mBreaker.onResult(mBreaker.tryAcquire(), false);
+        assertEquals(CircuitBreaker.CLOSED, mBreaker.getState());
+    }
+
+    @Test
+    public void failedProbeOpensAgain() {
+        mBreaker.setOpenDuration(0, 1);
+        open();
+
+        mBreaker.onResult(mBreaker.tryAcquire(), true);
+        mBreaker.setOpenDuration(60 * 1000, 1);
+        assertEquals(CircuitBreaker.OPEN, mBreaker.getState());
+        assertEquals(CircuitBreaker.NO_TICKET, mBreaker.tryAcquire());
+    }
+
+    @Test
+    public void requestOfClosedCircuitIsNotProbe() {
+        mBreaker.setOpenDuration(0, 1);
+        long slow = mBreaker.tryAcquire();
+        open();
+
+        long probe = mBreaker.tryAcquire();
+        assertTrue(probe != CircuitBreaker.NO_TICKET);
+
+        // the slow request ends while the probe is in flight
+        mBreaker.onResult(slow, false);
+        assertEquals(CircuitBreaker.HALF_OPEN, mBreaker.getState());
+        assertEquals(CircuitBreaker.NO_TICKET, mBreaker.tryAcquire());
+
+        mBreaker.onResult(probe, false);
+        assertEquals(CircuitBreaker.CLOSED, mBreaker.getState());
+    }
+
+    @Test
+    public void requestOfOpenCircuitIsNotCountedAfterClose() {
+        mBreaker.setOpenDuration(0, 1);
+        long slow = mBreaker.tryAcquire();
+        open();
+        mBreaker.onResult(mBreaker.tryAcquire(), false);
+        assertEquals(CircuitBreaker.CLOSED, mBreaker.getState());
+
+        mBreaker.onResult(slow, true);
+        record(true);
+        record(true);
+        record(false);
+        // 2 of the 3 calls since closed failed, under the minimum calls
+        assertEquals(CircuitBreaker.CLOSED, mBreaker.getState());
+    }
+
+    @Test
+    public void cancelFreesProbe() {
+        mBreaker.setOpenDuration(0, 1);
+        open();
+
+        long probe = mBreaker.tryAcquire();
+        mBreaker.cancel(probe);
+        probe = mBreaker.tryAcquire();
+        assertTrue(probe != CircuitBreaker.NO_TICKET);
+
+        // a stale ticket does not free the probe in flight
+        mBreaker.cancel(0);
+        assertEquals(CircuitBreaker.NO_TICKET, mBreaker.tryAcquire());
+    }
+
+    @Test
+    public void rejectsInvalidSettings() {
+        assertFalse(mBreaker.setThreshold(0, 1, 50));
+        assertFalse(mBreaker.setThreshold(4, 5, 50));
+        assertFalse(mBreaker.setThreshold(4, 4, 101));
+        assertFalse(mBreaker.setOpenDuration(-1, 1));
+        assertFalse(mBreaker.setOpenDuration(0, 0));
+    }
+
+    private void record(boolean failed) {
+        long ticket = mBreaker.tryAcquire();
+        assertTrue(ticket != CircuitBreaker.NO_TICKET);
+        mBreaker.onResult(ticket, failed);
+    }
+
+    private void open() {
+        for (int i = 0; i < 4; i++) {
+            record(true);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+
+package com.kth.baasio.circuit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.kth.baasio.Baasio;
+import com.kth.baasio.benchmark.Fixtures;
+import com.kth.baasio.benchmark.JvmContext;
+import com.kth.baasio.benchmark.StubServer;
+import com.kth.baasio.cache.ResponseCache;
+import com.kth.baasio.retry.RetryPolicy;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.http.HttpMethod;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Baasio against a server with injected latency and errors.
+ */
+public class CircuitSimulationTest {
+
+    /**
+     * Fails every n-th request with 503 after the latency, and counts
+     * requests and the most requests in flight.
+     */
+    private static class FlakyHandler implements HttpHandler {
+        final AtomicInteger requests = new AtomicInteger();
+
+        final AtomicInteger inFlight = new AtomicInteger();
+
+        final AtomicInteger maxInFlight = new AtomicInteger();
+
+        volatile long latencyMillis;
+
+        /** 0 not to fail, 1 to fail every request */
+        volatile int failEvery;
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            StubServer.drain(exchange.getRequestBody());
+            int count = requests.incrementAndGet();
+            int current = inFlight.incrementAndGet();
+            try {
+                int max;
+                while ((max = maxInFlight.get()) < current
+                        && !maxInFlight.compareAndSet(max, current)) {
+                }
+
+                if (latencyMillis > 0) {
+                    try {
+                        Thread.sleep(latencyMillis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                if (failEvery > 0 && count % failEvery == 0) {
+                    StubServer.send(exchange, 503, "{\"error\":\"unavailable\"}"
+                            .getBytes(Fixtures.UTF_8));
+                } else {
+                    StubServer.send(exchange, 200, Fixtures.apiResponseJson(1)
+                            .getBytes(Fixtures.UTF_8));
+                }
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    private static StubServer sServer;
+
+    private static FlakyHandler sHandler;
+
+    private static JvmContext sContext;
+
+    private static RetryPolicy sRetryPolicy;
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        sServer = new StubServer();
+        sHandler = new FlakyHandler();
+        sServer.handle("/org/app", sHandler);
+
+        sContext = new JvmContext(Fixtures.createDir());
+        Baasio.getInstance().init(sContext, sServer.getUrl(""), "org", "app");
+        sRetryPolicy = Baasio.getRetryPolicy();
+        Baasio.setRetryPolicy(null);
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        Baasio.setRetryPolicy(sRetryPolicy);
+        sServer.stop();
+    }
+
+    @Before
+    public void setUp() {
+        reset(Endpoint.ENTITIES);
+        Endpoint.ENTITIES.getCircuitBreaker().setThreshold(10, 5, 50);
+        Endpoint.ENTITIES.getCircuitBreaker().setOpenDuration(60 * 1000, 1);
+        sHandler.requests.set(0);
+        sHandler.maxInFlight.set(0);
+        sHandler.latencyMillis = 20;
+        sHandler.failEvery = 0;
+    }
+
+    @After
+    public void tearDown() {
+        Baasio.getInstance().setResponseCache(null);
+        reset(Endpoint.ENTITIES);
+    }
+
+    @Test
+    public void failsFastWhileServerFails() {
+        sHandler.failEvery = 1;
+
+        int rejected = 0;
+        for (int i = 0; i < 20; i++) {
+            if (isRejected(request())) {
+                rejected++;
+            }
+        }
+
+        // the minimum calls reach the server, and the rest fail at once
+        assertEquals(5, sHandler.requests.get());
+        assertEquals(15, rejected);
+        assertEquals(CircuitBreaker.OPEN, Endpoint.ENTITIES.getCircuitBreaker().getState());
+    }
+
+    @Test
+    public void staysClosedUnderFewErrors() {
+        sHandler.failEvery = 4;
+
+        for (int i = 0; i < 40; i++) {
+            assertTrue(!isRejected(request()));
+        }
+        assertEquals(40, sHandler.requests.get());
+        assertEquals(CircuitBreaker.CLOSED, Endpoint.ENTITIES.getCircuitBreaker().getState());
+    }
+
+    @Test
+    public void closesWhenServerRecovers() throws InterruptedException {
+        Endpoint.ENTITIES.getCircuitBreaker().setOpenDuration(100, 2);
+        sHandler.failEvery = 1;
+        for (int i = 0; i < 5; i++) {
+            request();
+        }
+        assertEquals(CircuitBreaker.OPEN, Endpoint.ENTITIES.getCircuitBreaker().getState());
+
+        sHandler.failEvery = 0;
+        Thread.sleep(150);
+        assertEquals(null, request());
+        assertEquals(null, request());
+        assertEquals(CircuitBreaker.CLOSED, Endpoint.ENTITIES.getCircuitBreaker().getState());
+    }
+
+    @Test
+    public void cachedReadsFailFastWhileServerFails() {
+        ResponseCache cache = new ResponseCache(sContext.getCacheDir(), 1024 * 1024);
+        cache.setTimeToLive(0);
+        cache.setStaleWhileRevalidate(0);
+        Baasio.getInstance().setResponseCache(cache);
+
+        // cached while the server works
+        Baasio.getInstance().queryEntitiesRequest("items");
+        sHandler.failEvery = 1;
+
+        int rejected = 0;
+        for (int i = 0; i < 20; i++) {
+            try {
+                Baasio.getInstance().queryEntitiesRequest("others");
+            } catch (RuntimeException e) {
+                if (isRejected(e)) {
+                    rejected++;
+                }
+            }
+        }
+        // the success and 4 failures make the minimum calls
+        assertEquals(1 + 4, sHandler.requests.get());
+        assertEquals(16, rejected);
+
+        // the stale response is returned without the server
+        assertEquals(1, Baasio.getInstance().queryEntitiesRequest("items").getEntities()
+                .size());
+        assertEquals(1 + 4, sHandler.requests.get());
+    }
+
+    @Test
+    public void limitsRequestsInFlight() throws Exception {
+        ConcurrencyLimiter limiter = Endpoint.ENTITIES.getLimiter();
+        limiter.setLimits(2, 2);
+        sHandler.latencyMillis = 100;
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<RuntimeException>> results = new ArrayList<Future<RuntimeException>>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(new Callable<RuntimeException>() {
+                    @Override
+                    public RuntimeException call() {
+                        return request();
+                    }
+                }));
+            }
+
+            int rejected = 0;
+            for (Future<RuntimeException> result : results) {
+                if (isRejected(result.get())) {
+                    rejected++;
+                }
+            }
+            assertTrue(sHandler.maxInFlight.get() <= 2);
+            assertEquals(8, sHandler.requests.get() + rejected);
+        } finally {
+            executor.shutdown();
+            limiter.setLimits(ConcurrencyLimiter.DEFAULT_MIN_LIMIT,
+                    ConcurrencyLimiter.DEFAULT_MAX_LIMIT);
+        }
+    }
+
+    /**
+     * @return the error of a GET request, or null
+     */
+    private static RuntimeException request() {
+        try {
+            Baasio.getInstance().apiRequest(HttpMethod.GET, null, null, "org", "app", "items");
+            return null;
+        } catch (RuntimeException e) {
+            return e;
+        }
+    }
+
+    private static boolean isRejected(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof CircuitOpenException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Close the circuit, and restore the default settings.
+     */
+    private static void reset(Endpoint endpoint) {
+        CircuitBreaker breaker = endpoint.getCircuitBreaker();
+        breaker.setOpenDuration(0, 1);
+        breaker.onResult(breaker.tryAcquire(), false);
+        breaker.setOpenDuration(CircuitBreaker.DEFAULT_OPEN_MILLIS,
+                CircuitBreaker.DEFAULT_PROBE_COUNT);
+        breaker.setThreshold(CircuitBreaker.DEFAULT_WINDOW_SIZE, CircuitBreaker.DEFAULT_MIN_CALLS,
+                CircuitBreaker.DEFAULT_FAILURE_PERCENT);
+    }
+}
@@ -0,0 +1,90 @@
+
+package com.kth.baasio.circuit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConcurrencyLimiterTest {
+
+    private static final long MILLIS = 1000000L;
+
+    private ConcurrencyLimiter mLimiter;
+
+    @Before
+    public void setUp() {
+        mLimiter = new ConcurrencyLimiter();
+    }
+
+    @Test
+    public void rejectsOverLimit() {
+        assertTrue(mLimiter.setLimits(2, 2));
+        assertTrue(mLimiter.tryAcquire());
+        assertTrue(mLimiter.tryAcquire());
+        assertFalse(mLimiter.tryAcquire());
+
+        mLimiter.cancel();
+        assertEquals(1, mLimiter.getInFlight());
+        assertTrue(mLimiter.tryAcquire());
+    }
+
+    @Test
+    public void backsOffOnFailure() {
+        int limit = mLimiter.getLimit();
+        mLimiter.tryAcquire();
+        mLimiter.release(10 * MILLIS, true);
+        assertTrue(mLimiter.getLimit() < limit);
+        assertEquals(0, mLimiter.getInFlight());
+    }
+
+    @Test
+    public void backsOffOnQueueing() {
+        mLimiter.tryAcquire();
+        mLimiter.release(10 * MILLIS, false);
+        int limit = mLimiter.getLimit();
+
+        mLimiter.tryAcquire();
+        mLimiter.release(50 * MILLIS, false);
+        assertTrue(mLimiter.getLimit() < limit);
+    }
+
+    @Test
+    public void growsWhileLimitIsUsed() {
+        int limit = mLimiter.getLimit();
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < limit; i++) {
+                assertTrue(mLimiter.tryAcquire());
+            }
+            for (int i = 0; i < limit; i++) {
+                mLimiter.release(10 * MILLIS, false);
+            }
+        }
+        assertTrue(mLimiter.getLimit() > limit);
+    }
+
+    @Test
+    public void keepsLimitWhileIdle() {
+        int limit = mLimiter.getLimit();
+        for (int i = 0; i < 100; i++) {
+            mLimiter.tryAcquire();
+            mLimiter.release(10 * MILLIS, false);
+        }
+        assertEquals(limit, mLimiter.getLimit());
+    }
+
+    @Test
+    public void staysWithinLimits() {
+        assertTrue(mLimiter.setLimits(2, 4));
+        for (int i = 0; i < 100; i++) {
+            mLimiter.tryAcquire();
+            mLimiter.release(10 * MILLIS, true);
+        }
+        assertEquals(2, mLimiter.getLimit());
+
+        assertFalse(mLimiter.setLimits(0, 4));
+        assertFalse(mLimiter.setLimits(4, 2));
+    }
+}
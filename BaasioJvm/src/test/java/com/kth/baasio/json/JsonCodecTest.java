@@ -0,0 +1,120 @@
+
+package com.kth.baasio.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.kth.baasio.benchmark.Fixtures;
+
+import org.apache.http.entity.ByteArrayEntity;
+import org.junit.Test;
+import org.usergrid.java.client.entities.Entity;
+import org.usergrid.java.client.exception.ClientException;
+import org.usergrid.java.client.response.ApiResponse;
+import org.usergrid.java.client.utils.JsonUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+public class JsonCodecTest {
+
+    /**
+     * Entity subclass of an application.
+     */
+    public static class Book extends Entity {
+        public static final String ENTITY_TYPE = "book";
+
+        public Book() {
+            setType(ENTITY_TYPE);
+        }
+
+        public String getTitle() {
+            return getProperties().get("title").getTextValue();
+        }
+    }
+
+    @Test
+    public void parsesLikeJsonUtils() {
+        String json = Fixtures.apiResponseJson(10);
+        ApiResponse expected = JsonUtils.parse(json, ApiResponse.class);
+        ApiResponse actual = JsonCodec.parse(json, ApiResponse.class);
+
+        assertEquals(JsonUtils.toJsonString(expected), JsonUtils.toJsonString(actual));
+        assertEquals(10, actual.getEntities().size());
+        assertEquals(expected.getCursor(), actual.getCursor());
+        assertEquals(expected.getEntities().get(3).getUuid(),
+                actual.getEntities().get(3).getUuid());
+    }
+
+    @Test
+    public void writesLikeJsonUtils() {
+        ApiResponse response = JsonCodec.parse(Fixtures.apiResponseJson(10), ApiResponse.class);
+        Entity entity = response.getEntities().get(0);
+
+        assertEquals(JsonUtils.toJsonString(entity), JsonCodec.toJsonString(entity));
+        assertEquals(JsonUtils.toJsonString(response), JsonCodec.toJsonString(response));
+        assertEquals("null", JsonCodec.toJsonString(null));
+    }
+
+    @Test
+    public void roundTripsProperties() {
+        Map<?, ?> properties = JsonCodec.parse("{\"title\":\"Title\",\"pages\":10,"
+                + "\"tags\":[\"novel\"]}", Map.class);
+        assertEquals(properties, JsonCodec.parse(JsonCodec.toJsonString(properties), Map.class));
+        assertEquals(10, properties.get("pages"));
+    }
+
+    @Test
+    public void parsesRegisteredSubclass() {
+        JsonCodec.register(Book.class);
+        Book book = JsonCodec.parse("{\"type\":\"book\",\"title\":\"Title\"}", Book.class);
+        assertEquals("Title", book.getTitle());
+    }
+
+    @Test
+    public void cachesReadersAndWriters() {
+        assertSame(JsonCodec.reader(ApiResponse.class), JsonCodec.reader(ApiResponse.class));
+        assertSame(JsonCodec.writer(Entity.class), JsonCodec.writer(Entity.class));
+    }
+
+    @Test(expected = ClientException.class)
+    public void rejectsMalformedJson() {
+        JsonCodec.parse("{\"entities\":[", ApiResponse.class);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNullType() {
+        JsonCodec.register(null);
+    }
+
+    @Test
+    public void readsApiResponseFromEntity() throws IOException {
+        String json = Fixtures.apiResponseJson(10);
+        ApiResponse response = JsonCodec.readApiResponse(new ByteArrayEntity(json
+                .getBytes(Fixtures.UTF_8)));
+
+        assertEquals(JsonUtils.toJsonString(JsonUtils.parse(json, ApiResponse.class)),
+                JsonUtils.toJsonString(response));
+    }
+
+    @Test
+    public void readsGzippedApiResponse() throws IOException {
+        String json = Fixtures.apiResponseJson(10);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(json.getBytes(Fixtures.UTF_8));
+        gzip.close();
+
+        ByteArrayEntity entity = new ByteArrayEntity(out.toByteArray());
+        entity.setContentEncoding("gzip");
+        assertEquals(10, JsonCodec.readApiResponse(entity).getEntities().size());
+    }
+
+    @Test
+    public void readsEmptyBodyAsNull() throws IOException {
+        assertNull(JsonCodec.readApiResponse(new ByteArrayEntity(new byte[0])));
+    }
+}
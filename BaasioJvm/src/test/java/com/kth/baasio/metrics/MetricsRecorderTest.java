@@ -0,0 +1,197 @@
+
+package com.kth.baasio.metrics;
+
+import static com.kth.baasio.metrics.BaasioMetrics.API_REQUEST;
+import static com.kth.baasio.metrics.BaasioMetrics.CACHE_HIT;
+import static com.kth.baasio.metrics.BaasioMetrics.CACHE_MISS;
+import static com.kth.baasio.metrics.BaasioMetrics.CACHE_NOT_MODIFIED;
+import static com.kth.baasio.metrics.BaasioMetrics.CACHE_STALE;
+import static com.kth.baasio.metrics.BaasioMetrics.FILE_GET;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.kth.baasio.Baasio;
+import com.kth.baasio.benchmark.Fixtures;
+import com.kth.baasio.benchmark.JvmContext;
+import com.kth.baasio.benchmark.StubServer;
+import com.kth.baasio.retry.RetryPolicy;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpMethod;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class MetricsRecorderTest {
+
+    private static final long MILLIS = 1000000L;
+
+    private MetricsRecorder mRecorder;
+
+    @Before
+    public void setUp() {
+        mRecorder = new MetricsRecorder();
+    }
+
+    @After
+    public void tearDown() {
+        Metrics.setListener(null);
+    }
+
+    @Test
+    public void recordsOperations() {
+        mRecorder.onOperation(API_REQUEST, "GET", 200, 1 * MILLIS, 4 * MILLIS, 10, 100, 0);
+        mRecorder.onOperation(API_REQUEST, "PUT", 404, 2 * MILLIS, 6 * MILLIS, 20, 50, 2);
+        mRecorder.onOperation(API_REQUEST, "GET", 0, -1, 2 * MILLIS, -1, -1, 1);
+
+        assertEquals(3, mRecorder.getCount(API_REQUEST));
+        assertEquals(2, mRecorder.getErrorCount(API_REQUEST));
+        assertEquals(30, mRecorder.getBytesOut(API_REQUEST));
+        assertEquals(150, mRecorder.getBytesIn(API_REQUEST));
+        assertEquals(3, mRecorder.getRetryCount(API_REQUEST));
+        assertEquals(1, mRecorder.getStatusCount(API_REQUEST, 0));
+        assertEquals(1, mRecorder.getStatusCount(API_REQUEST, 2));
+        assertEquals(1, mRecorder.getStatusCount(API_REQUEST, 4));
+        assertEquals(4.0, mRecorder.getAverageMillis(API_REQUEST), 0.001);
+
+        // other operations and unknown ones are not affected
+        assertEquals(0, mRecorder.getCount(FILE_GET));
+        mRecorder.onOperation(BaasioMetrics.OPERATION_COUNT, "GET", 200, 0, 0, 0, 0, 0);
+        mRecorder.onOperation(-1, "GET", 200, 0, 0, 0, 0, 0);
+        assertEquals(3, mRecorder.getCount(API_REQUEST));
+
+        mRecorder.reset();
+        assertEquals(0, mRecorder.getCount(API_REQUEST));
+        assertEquals(0, mRecorder.getBytesIn(API_REQUEST));
+    }
+
+    @Test
+    public void bucketsLatencies() {
+        long[] nanos = {
+                MILLIS / 2, 1 * MILLIS, 3 * MILLIS, 4 * MILLIS, 1000 * MILLIS,
+                1000000000L * MILLIS
+        };
+        for (long total : nanos) {
+            mRecorder.onOperation(FILE_GET, "GET", 200, total, total, 0, 0, 0);
+        }
+        mRecorder.onOperation(FILE_GET, "GET", 200, -1, 0, 0, 0, 0);
+
+        // [0, 1), [1, 2), [2, 4), [4, 8), ... [512, 1024) ... and the rest
+        long[] expected = new long[MetricsRecorder.BUCKET_COUNT];
+        expected[0] = 2;
+        expected[1] = 1;
+        expected[2] = 1;
+        expected[3] = 1;
+        expected[10] = 1;
+        expected[MetricsRecorder.BUCKET_COUNT - 1] = 1;
+        assertArrayEquals(expected, mRecorder.getLatencyHistogram(FILE_GET));
+
+        // the unknown time to the headers is not counted
+        expected[0] = 1;
+        assertArrayEquals(expected, mRecorder.getHeadersLatencyHistogram(FILE_GET));
+    }
+
+    @Test
+    public void estimatesPercentiles() {
+        assertEquals(0, mRecorder.getLatencyPercentile(API_REQUEST, 50));
+
+        for (int i = 0; i < 90; i++) {
+            mRecorder.onOperation(API_REQUEST, "GET", 200, -1, 3 * MILLIS, 0, 0, 0);
+        }
+        for (int i = 0; i < 9; i++) {
+            mRecorder.onOperation(API_REQUEST, "GET", 200, -1, 100 * MILLIS, 0, 0, 0);
+        }
+        mRecorder.onOperation(API_REQUEST, "GET", 200, -1, 1000 * MILLIS, 0, 0, 0);
+
+        // upper bounds of the buckets of 3, 100 and 1000ms
+        assertEquals(4, mRecorder.getLatencyPercentile(API_REQUEST, 50));
+        assertEquals(4, mRecorder.getLatencyPercentile(API_REQUEST, 90));
+        assertEquals(128, mRecorder.getLatencyPercentile(API_REQUEST, 91));
+        assertEquals(128, mRecorder.getLatencyPercentile(API_REQUEST, 99));
+        assertEquals(1024, mRecorder.getLatencyPercentile(API_REQUEST, 100));
+    }
+
+    @Test
+    public void computesCacheHitRate() {
+        assertEquals(0, mRecorder.getCacheHitRate(), 0);
+
+        mRecorder.onCacheLookup(CACHE_HIT);
+        mRecorder.onCacheLookup(CACHE_HIT);
+        mRecorder.onCacheLookup(CACHE_STALE);
+        mRecorder.onCacheLookup(CACHE_NOT_MODIFIED);
+        for (int i = 0; i < 4; i++) {
+            mRecorder.onCacheLookup(CACHE_MISS);
+        }
+        mRecorder.onCacheLookup(BaasioMetrics.CACHE_RESULT_COUNT);
+
+        assertEquals(2, mRecorder.getCacheCount(CACHE_HIT));
+        assertEquals(4, mRecorder.getCacheCount(CACHE_MISS));
+        assertEquals(0.5, mRecorder.getCacheHitRate(), 0.0001);
+    }
+
+    @Test
+    public void countsBytesOnTheWire() throws IOException {
+        final AtomicLong received = new AtomicLong();
+        final byte[] ok = Fixtures.apiResponseJson(3).getBytes(Fixtures.UTF_8);
+        final byte[] notFound = "{\"error\":\"not_found\"}".getBytes(Fixtures.UTF_8);
+
+        StubServer server = new StubServer();
+        server.handle("/org/app", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                received.addAndGet(StubServer.drain(exchange.getRequestBody()));
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                if (exchange.getRequestURI().getPath().endsWith("missing")) {
+                    StubServer.send(exchange, 404, notFound);
+                } else {
+                    StubServer.send(exchange, 200, ok);
+                }
+            }
+        });
+
+        RetryPolicy policy = Baasio.getRetryPolicy();
+        Baasio.setRetryPolicy(null);
+        Metrics.setListener(mRecorder);
+        try {
+            Baasio.getInstance().init(new JvmContext(Fixtures.createDir()), server.getUrl(""),
+                    "org", "app");
+
+            Map<String, Object> properties = new HashMap<String, Object>();
+            properties.put("name", "value");
+            Baasio.getInstance().httpRequest(HttpMethod.PUT, String.class, null, properties,
+                    "org", "app", "items", "item");
+            try {
+                Baasio.getInstance().httpRequest(HttpMethod.GET, String.class, null, null,
+                        "org", "app", "items", "missing");
+                fail();
+            } catch (RuntimeException e) {
+                // 404
+            }
+        } finally {
+            Baasio.setRetryPolicy(policy);
+            server.stop();
+        }
+
+        assertEquals(2, mRecorder.getCount(API_REQUEST));
+        assertEquals(1, mRecorder.getErrorCount(API_REQUEST));
+        assertEquals(1, mRecorder.getStatusCount(API_REQUEST, 2));
+        assertEquals(1, mRecorder.getStatusCount(API_REQUEST, 4));
+        assertTrue(received.get() > 0);
+        assertEquals(received.get(), mRecorder.getBytesOut(API_REQUEST));
+        assertEquals(ok.length + notFound.length, mRecorder.getBytesIn(API_REQUEST));
+
+        long headers = 0;
+        for (long count : mRecorder.getHeadersLatencyHistogram(API_REQUEST)) {
+            headers += count;
+        }
+        assertEquals(2, headers);
+    }
+}
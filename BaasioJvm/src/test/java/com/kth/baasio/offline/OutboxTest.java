@@ -0,0 +1,244 @@
+
+package com.kth.baasio.offline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import com.kth.baasio.Baasio;
+import com.kth.baasio.benchmark.Fixtures;
+import com.kth.baasio.benchmark.JvmContext;
+import com.kth.baasio.benchmark.StubServer;
+import com.kth.baasio.retry.RetryPolicy;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.usergrid.java.client.entities.Entity;
+import org.usergrid.java.client.entities.User;
+import org.usergrid.java.client.response.ApiResponse;
+
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class OutboxTest {
+
+    /**
+     * Records the requests, and answers them with the queued statuses, or
+     * accepts them.
+     */
+    private static class RecordingHandler implements HttpHandler {
+        final List<String> requests = new CopyOnWriteArrayList<String>();
+
+        final BlockingQueue<Integer> statuses = new LinkedBlockingQueue<Integer>();
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            StubServer.drain(exchange.getRequestBody());
+            requests.add(exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath());
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+
+            Integer status = statuses.poll();
+            if (status == null) {
+                StubServer.send(exchange, 200, "{\"entities\":[]}".getBytes(Fixtures.UTF_8));
+            } else {
+                StubServer.send(exchange, status, ("{\"error\":\"error_" + status + "\"}")
+                        .getBytes(Fixtures.UTF_8));
+            }
+        }
+    }
+
+    private static StubServer sServer;
+
+    private static RecordingHandler sHandler;
+
+    private static JvmContext sContext;
+
+    private static Outbox sOutbox;
+
+    private static RetryPolicy sRetryPolicy;
+
+    private final BlockingQueue<String> mResults = new LinkedBlockingQueue<String>();
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        sServer = new StubServer();
+        sHandler = new RecordingHandler();
+        sServer.handle("/org/app", sHandler);
+
+        sContext = new JvmContext(Fixtures.createDir());
+        Baasio.getInstance().init(sContext, sServer.getUrl(""), "org", "app");
+        sOutbox = Baasio.getInstance().getOutbox();
+        sRetryPolicy = Baasio.getRetryPolicy();
+        Baasio.setRetryPolicy(null);
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        Baasio.setRetryPolicy(sRetryPolicy);
+        sServer.stop();
+    }
+
+    @Before
+    public void setUp() {
+        sHandler.requests.clear();
+        sHandler.statuses.clear();
+        sOutbox.setListener(new Outbox.Listener() {
+            @Override
+            public void onSent(long id, ApiResponse response) {
+                mResults.add("sent " + id);
+            }
+
+            @Override
+            public void onFailed(long id, ApiResponse response) {
+                mResults.add("failed " + id + " " + response.getError());
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        setConnected(true);
+        sOutbox.setListener(null);
+        Baasio.getInstance().setLoggedInUser(null);
+        Baasio.getInstance().setAccessToken(null);
+    }
+
+    @Test
+    public void sendsForSameUser() throws InterruptedException {
+        Baasio.getInstance().setLoggedInUser(createUser());
+
+        Entity entity = createEntity();
+        long id = sOutbox.enqueueUpdate(entity);
+
+        assertEquals("sent " + id, take());
+        assertEquals("PUT /org/app/item/" + entity.getUuid(), sHandler.requests.get(0));
+    }
+
+    @Test
+    public void failsWhenUserChanged() throws InterruptedException {
+        setConnected(false);
+        Baasio.getInstance().setLoggedInUser(createUser());
+        long update = sOutbox.enqueueUpdate(createEntity());
+        long delete = sOutbox.enqueueDelete(createEntity());
+
+        // another user logs in before the network comes back
+        Baasio.getInstance().setLoggedInUser(createUser());
+        long mine = sOutbox.enqueueDelete(createEntity());
+        setConnected(true);
+        sOutbox.flush();
+
+        assertEquals("failed " + update + " " + Outbox.ERROR_OWNER_CHANGED, take());
+        assertEquals("failed " + delete + " " + Outbox.ERROR_OWNER_CHANGED, take());
+        assertEquals("sent " + mine, take());
+        assertEquals(1, sHandler.requests.size());
+    }
+
+    @Test
+    public void doesNotCollapseAcrossUsers() throws InterruptedException {
+        setConnected(false);
+        Entity entity = createEntity();
+        Baasio.getInstance().setLoggedInUser(createUser());
+        long first = sOutbox.enqueueUpdate(entity);
+
+        Baasio.getInstance().setLoggedInUser(createUser());
+        long second = sOutbox.enqueueUpdate(entity);
+        assertEquals(2, sOutbox.getPendingCount());
+
+        setConnected(true);
+        sOutbox.flush();
+        assertEquals("failed " + first + " " + Outbox.ERROR_OWNER_CHANGED, take());
+        assertEquals("sent " + second, take());
+    }
+
+    @Test
+    public void dropsRejectedRequests() throws InterruptedException {
+        Baasio.getInstance().setLoggedInUser(createUser());
+
+        for (int status : new int[] {
+                400, 403, 404, 409, 422
+        }) {
+            sHandler.statuses.add(status);
+            long id = sOutbox.enqueueUpdate(createEntity());
+            assertEquals("failed " + id + " error_" + status, take());
+        }
+        assertEquals(5, sHandler.requests.size());
+        assertEquals(0, sOutbox.getPendingCount());
+    }
+
+    @Test
+    public void retriesTimeoutAndThrottling() throws InterruptedException {
+        Baasio.getInstance().setLoggedInUser(createUser());
+
+        // each is sent again after the shortest backoff
+        for (int status : new int[] {
+                408, 429
+        }) {
+            sHandler.statuses.add(status);
+            long id = sOutbox.enqueueUpdate(createEntity());
+            assertEquals("sent " + id, take());
+        }
+        assertEquals(4, sHandler.requests.size());
+    }
+
+    @Test
+    public void waitsForLoginWhenUnauthorized() throws InterruptedException {
+        User user = createUser();
+        Baasio.getInstance().setLoggedInUser(user);
+        Baasio.getInstance().setAccessToken("expired");
+
+        sHandler.statuses.add(401);
+        long first = sOutbox.enqueueUpdate(createEntity());
+        long second = sOutbox.enqueueDelete(createEntity());
+
+        assertNull(mResults.poll(500, TimeUnit.MILLISECONDS));
+        // not sent again without a login
+        sOutbox.flush();
+        assertNull(mResults.poll(500, TimeUnit.MILLISECONDS));
+        assertEquals(1, sHandler.requests.size());
+        assertEquals(2, sOutbox.getPendingCount());
+
+        // the same user logs in again
+        Baasio.getInstance().setAccessToken("renewed");
+        sOutbox.flush();
+        assertEquals("sent " + first, take());
+        assertEquals("sent " + second, take());
+        assertEquals(3, sHandler.requests.size());
+    }
+
+    private String take() throws InterruptedException {
+        String result = mResults.poll(5, TimeUnit.SECONDS);
+        assertNotNull("no result", result);
+        return result;
+    }
+
+    private static void setConnected(boolean connected) {
+        ConnectivityManager manager = sContext.getConnectivityManager();
+        manager.setActiveNetworkInfo(new NetworkInfo(ConnectivityManager.TYPE_WIFI, connected));
+    }
+
+    private static User createUser() {
+        User user = new User();
+        user.setUuid(UUID.randomUUID());
+        return user;
+    }
+
+    private static Entity createEntity() {
+        Entity entity = new Entity("item");
+        entity.setUuid(UUID.randomUUID());
+        entity.setProperty("name", "value");
+        return entity;
+    }
+}
@@ -0,0 +1,107 @@
+
+package com.kth.baasio.preferences;
+
+import static org.junit.Assert.assertEquals;
+
+import com.kth.baasio.benchmark.Fixtures;
+import com.kth.baasio.benchmark.JvmContext;
+import com.kth.baasio.benchmark.MemorySharedPreferences;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class BaasPreferencesTest {
+
+    private static JvmContext sContext;
+
+    private MemorySharedPreferences mStore;
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        sContext = new JvmContext(Fixtures.createDir());
+    }
+
+    @Before
+    public void setUp() {
+        BaasPreferences.clear(sContext);
+        BaasPreferences.flush(sContext);
+        // bound to the context of the first user, which may be another test
+        mStore = (MemorySharedPreferences)BaasPreferences.getPreference(sContext);
+    }
+
+    @After
+    public void tearDown() {
+        mStore.setBeforeCommit(null);
+    }
+
+    @Test
+    public void readsOwnWriteWhileCommitting() {
+        final AtomicReference<String> read = new AtomicReference<String>();
+        mStore.setBeforeCommit(new Runnable() {
+            @Override
+            public void run() {
+                read.set(BaasPreferences.getAccessToken(sContext));
+            }
+        });
+
+        BaasPreferences.setAccessToken(sContext, "token");
+        BaasPreferences.flush(sContext);
+
+        assertEquals("token", read.get());
+        assertEquals("token", BaasPreferences.getAccessToken(sContext));
+    }
+
+    @Test
+    public void keepsWriteMadeWhileCommitting() {
+        mStore.setBeforeCommit(new Runnable() {
+            @Override
+            public void run() {
+                mStore.setBeforeCommit(null);
+                BaasPreferences.setAccessToken(sContext, "second");
+            }
+        });
+
+        BaasPreferences.setAccessToken(sContext, "first");
+        BaasPreferences.flush(sContext);
+        assertEquals("second", BaasPreferences.getAccessToken(sContext));
+
+        BaasPreferences.flush(sContext);
+        assertEquals("second", mStore.getString("baas_access_token", null));
+    }
+
+    @Test
+    public void keepsClearMadeWhileCommitting() {
+        mStore.setBeforeCommit(new Runnable() {
+            @Override
+            public void run() {
+                mStore.setBeforeCommit(null);
+                BaasPreferences.clear(sContext);
+            }
+        });
+
+        BaasPreferences.setAccessToken(sContext, "token");
+        BaasPreferences.flush(sContext);
+        assertEquals("", BaasPreferences.getAccessToken(sContext));
+
+        BaasPreferences.flush(sContext);
+        assertEquals(null, mStore.getString("baas_access_token", null));
+    }
+
+    @Test
+    public void coalescesUpdatesInOneCommit() {
+        int commits = mStore.getCommitCount();
+
+        BaasPreferences.setAccessToken(sContext, "token");
+        BaasPreferences.setUserString(sContext, "{}");
+        BaasPreferences.setDeviceUuidForPush(sContext, "device");
+        BaasPreferences.flush(sContext);
+
+        assertEquals(commits + 1, mStore.getCommitCount());
+        assertEquals("device", mStore.getString("baas_registered_device_uuid_for_push", null));
+    }
+}
@@ -0,0 +1,75 @@
+
+package com.kth.baasio.preferences;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.kth.baasio.benchmark.Fixtures;
+import com.kth.baasio.benchmark.JvmContext;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.usergrid.java.client.entities.User;
+
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class SessionSnapshotTest {
+
+    private JvmContext mContext;
+
+    @Before
+    public void setUp() throws IOException {
+        mContext = new JvmContext(Fixtures.createDir());
+    }
+
+    @Test
+    public void savesInBackground() throws InterruptedException {
+        User user = new User();
+        user.setUuid(UUID.randomUUID());
+        user.setUsername("first");
+        user.setProperty("level", 3);
+
+        SessionSnapshot.saveAsync(mContext, "token", user);
+        // changes made after the call are not saved
+        user.setUsername("second");
+        idle();
+
+        assertEquals("token", SessionSnapshot.readAccessToken(mContext));
+        User saved = SessionSnapshot.readUser(mContext);
+        assertEquals(user.getUuid(), saved.getUuid());
+        assertEquals("user", saved.getType());
+        assertEquals("first", saved.getUsername());
+        assertEquals(3, saved.getProperties().get("level").getIntValue());
+    }
+
+    @Test
+    public void clearsAfterPreviousSave() throws InterruptedException {
+        SessionSnapshot.saveAsync(mContext, "token", null);
+        SessionSnapshot.clearAsync(mContext);
+        idle();
+        assertFalse(SessionSnapshot.exists(mContext));
+
+        SessionSnapshot.clearAsync(mContext);
+        SessionSnapshot.saveAsync(mContext, "token", null);
+        idle();
+        assertTrue(SessionSnapshot.exists(mContext));
+    }
+
+    /**
+     * Wait until the background thread ran every task posted so far.
+     */
+    private static void idle() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        BaasPreferences.post(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,134 @@
+
+package com.kth.baasio.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.kth.baasio.benchmark.Fixtures;
+import com.kth.baasio.benchmark.StubServer;
+import com.kth.baasio.ssl.HttpUtils;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class EntityCursorTest {
+
+    private static final int PAGE_SIZE = 10;
+
+    private static final int PAGES = 3;
+
+    /**
+     * Serves PAGES pages of entities. The cursor of a page is its number.
+     */
+    private static class PagesHandler implements HttpHandler {
+        final AtomicInteger requests = new AtomicInteger();
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            requests.incrementAndGet();
+
+            int page = 0;
+            for (String param : exchange.getRequestURI().getQuery().split("&")) {
+                if (param.startsWith("cursor=")) {
+                    page = Integer.parseInt(param.substring("cursor=".length()));
+                }
+            }
+
+            StringBuilder json = new StringBuilder("{\"entities\":[");
+            for (int i = 0; i < PAGE_SIZE; i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                json.append("{\"type\":\"item\",\"name\":\"").append(page * PAGE_SIZE + i)
+                        .append("\"}");
+            }
+            json.append(']');
+            if (page + 1 < PAGES) {
+                json.append(",\"cursor\":\"").append(page + 1).append('"');
+            }
+            json.append('}');
+
+            StubServer.send(exchange, 200, json.toString().getBytes(Fixtures.UTF_8));
+        }
+    }
+
+    private StubServer mServer;
+
+    private PagesHandler mHandler;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new StubServer();
+        mHandler = new PagesHandler();
+        mServer.handle("/items", mHandler);
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+        EntityCursor.setIdleTimeout(EntityCursor.DEFAULT_IDLE_TIMEOUT_MILLIS);
+    }
+
+    @Test
+    public void iteratesAllPages() {
+        EntityCursor cursor = newCursor();
+
+        int count = 0;
+        while (cursor.hasNext()) {
+            assertEquals(String.valueOf(count), cursor.next().getProperties().get("name")
+                    .getTextValue());
+            count++;
+        }
+
+        assertEquals(PAGES * PAGE_SIZE, count);
+        assertEquals(PAGES, mHandler.requests.get());
+    }
+
+    @Test
+    public void abandonedCursorStopsFetching() throws InterruptedException {
+        EntityCursor.setIdleTimeout(100);
+
+        EntityCursor cursor = newCursor();
+        assertTrue(cursor.hasNext());
+
+        // the second page is fetched, and nobody takes it
+        Thread fetcher = cursor.getFetcher();
+        fetcher.join(5000);
+        assertFalse("fetcher is still waiting", fetcher.isAlive());
+        assertEquals(2, mHandler.requests.get());
+
+        // a late reader gets the rest
+        int count = 0;
+        while (cursor.hasNext()) {
+            cursor.next();
+            count++;
+        }
+        assertEquals(PAGES * PAGE_SIZE, count);
+        assertEquals(PAGES, mHandler.requests.get());
+    }
+
+    @Test
+    public void closeStopsFetching() throws InterruptedException {
+        EntityCursor cursor = newCursor();
+        assertTrue(cursor.hasNext());
+
+        cursor.close();
+        assertFalse(cursor.hasNext());
+
+        Thread fetcher = cursor.getFetcher();
+        fetcher.join(5000);
+        assertFalse("fetcher is still waiting", fetcher.isAlive());
+    }
+
+    private EntityCursor newCursor() {
+        return new EntityCursor(HttpUtils.getHttpClient(), mServer.getUrl("/items"), null,
+                PAGE_SIZE);
+    }
+}
@@ -0,0 +1,82 @@
+
+package com.kth.baasio.retry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpServerErrorException;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RetrierTest {
+
+    /**
+     * Fails with 502 until the given attempt.
+     */
+    private static class FailingAttempt implements Retrier.Attempt<String> {
+        final AtomicInteger attempts = new AtomicInteger();
+
+        final int succeedAt;
+
+        FailingAttempt(int succeedAt) {
+            this.succeedAt = succeedAt;
+        }
+
+        @Override
+        public String run() {
+            if (attempts.incrementAndGet() < succeedAt) {
+                throw new HttpServerErrorException(HttpStatus.BAD_GATEWAY);
+            }
+            return "done";
+        }
+    }
+
+    private final RetryPolicy mPolicy = new ExponentialBackoffPolicy(3, 1, 10);
+
+    @After
+    public void tearDown() {
+        Retrier.setIdempotent(false);
+    }
+
+    @Test
+    public void retriesIdempotentMethod() {
+        FailingAttempt attempt = new FailingAttempt(3);
+        assertEquals("done", Retrier.call(mPolicy, "PUT", attempt));
+        assertEquals(3, attempt.attempts.get());
+    }
+
+    @Test
+    public void doesNotRetryPost() {
+        FailingAttempt attempt = new FailingAttempt(3);
+        try {
+            Retrier.call(mPolicy, "POST", attempt);
+            fail();
+        } catch (HttpServerErrorException e) {
+            assertEquals(1, attempt.attempts.get());
+        }
+    }
+
+    @Test
+    public void retriesPostMarkedIdempotent() {
+        Retrier.setIdempotent(true);
+        FailingAttempt attempt = new FailingAttempt(3);
+        assertEquals("done", Retrier.call(mPolicy, "POST", attempt));
+        assertEquals(3, attempt.attempts.get());
+
+        // up to the attempts of the policy
+        attempt = new FailingAttempt(4);
+        try {
+            Retrier.call(mPolicy, "POST", attempt);
+            fail();
+        } catch (HttpServerErrorException e) {
+            assertEquals(3, attempt.attempts.get());
+        }
+
+        Retrier.setIdempotent(false);
+        assertFalse(Retrier.isIdempotent());
+    }
+}
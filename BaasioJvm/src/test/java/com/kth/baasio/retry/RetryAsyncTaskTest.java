@@ -0,0 +1,68 @@
+
+package com.kth.baasio.retry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.usergrid.android.client.callbacks.ClientCallback;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RetryAsyncTaskTest {
+
+    @Test
+    public void runsOnBoundedPool() throws InterruptedException {
+        final int tasks = RetryAsyncTask.MAX_THREADS * 4;
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(RetryAsyncTask.MAX_THREADS);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(tasks);
+
+        ClientCallback<Integer> callback = new ClientCallback<Integer>() {
+            @Override
+            public void onResponse(Integer response) {
+                done.countDown();
+            }
+
+            @Override
+            public void onException(Exception e) {
+            }
+        };
+
+        for (int i = 0; i < tasks; i++) {
+            new RetryAsyncTask<Integer>(callback) {
+                @Override
+                public Integer doTask() {
+                    int now = running.incrementAndGet();
+                    while (true) {
+                        int max = maxRunning.get();
+                        if (now <= max || maxRunning.compareAndSet(max, now)) {
+                            break;
+                        }
+                    }
+                    started.countDown();
+
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    running.decrementAndGet();
+                    return 0;
+                }
+            }.execute();
+        }
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertEquals(RetryAsyncTask.MAX_THREADS, running.get());
+
+        // the tasks beyond the pool waited, and run now
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(RetryAsyncTask.MAX_THREADS, maxRunning.get());
+    }
+}
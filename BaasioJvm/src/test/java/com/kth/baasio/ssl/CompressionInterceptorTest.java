@@ -0,0 +1,181 @@
+
+package com.kth.baasio.ssl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.kth.baasio.benchmark.Fixtures;
+import com.kth.baasio.benchmark.StubServer;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.StringHttpMessageConverter;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+public class CompressionInterceptorTest {
+
+    /**
+     * Echoes the decoded request body, gzipped if the client accepts it, and
+     * records what went over the wire.
+     */
+    private static class EchoHandler implements HttpHandler {
+        volatile String acceptEncoding;
+
+        volatile String contentEncoding;
+
+        volatile int bytesIn;
+
+        volatile int bytesOut;
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            contentEncoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+
+            byte[] wire = read(exchange.getRequestBody());
+            bytesIn = wire.length;
+            byte[] body = "gzip".equals(contentEncoding) ? gunzip(wire) : wire;
+
+            if ("gzip".equals(acceptEncoding)) {
+                body = gzip(body);
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            }
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+            bytesOut = body.length;
+            StubServer.send(exchange, 200, body);
+        }
+    }
+
+    private StubServer mServer;
+
+    private EchoHandler mHandler;
+
+    private RestTemplate mRestTemplate;
+
+    private String mJson;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new StubServer();
+        mHandler = new EchoHandler();
+        mServer.handle("/echo", mHandler);
+
+        mRestTemplate = new RestTemplate();
+        List<HttpMessageConverter<?>> converters = new ArrayList<HttpMessageConverter<?>>();
+        converters.add(new StringHttpMessageConverter());
+        mRestTemplate.setMessageConverters(converters);
+        List<ClientHttpRequestInterceptor> interceptors =
+                new ArrayList<ClientHttpRequestInterceptor>();
+        interceptors.add(new CompressionInterceptor());
+        mRestTemplate.setInterceptors(interceptors);
+
+        mJson = Fixtures.apiResponseJson(100);
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+        HttpUtils.setRequestCompressionThreshold(-1);
+        HttpUtils.setResponseCompressionEnabled(true);
+    }
+
+    @Test
+    public void compressesLargeRequest() {
+        HttpUtils.setRequestCompressionThreshold(1024);
+
+        assertEquals(mJson, post(mJson));
+        assertEquals("gzip", mHandler.contentEncoding);
+        int length = mJson.getBytes(Fixtures.UTF_8).length;
+        assertTrue(mHandler.bytesIn + " of " + length, mHandler.bytesIn < length / 3);
+    }
+
+    @Test
+    public void sendsSmallRequestAsIs() {
+        HttpUtils.setRequestCompressionThreshold(1024);
+
+        assertEquals("{}", post("{}"));
+        assertNull(mHandler.contentEncoding);
+        assertEquals(2, mHandler.bytesIn);
+    }
+
+    @Test
+    public void requestCompressionIsOffByDefault() {
+        assertEquals(mJson, post(mJson));
+        assertNull(mHandler.contentEncoding);
+        assertEquals(mJson.getBytes(Fixtures.UTF_8).length, mHandler.bytesIn);
+    }
+
+    @Test
+    public void decodesGzipResponse() {
+        assertEquals(mJson, post(mJson));
+        assertEquals("gzip", mHandler.acceptEncoding);
+        int length = mJson.getBytes(Fixtures.UTF_8).length;
+        assertTrue(mHandler.bytesOut + " of " + length, mHandler.bytesOut < length / 3);
+    }
+
+    @Test
+    public void responseCompressionCanBeDisabled() {
+        HttpUtils.setResponseCompressionEnabled(false);
+
+        assertEquals(mJson, post(mJson));
+        assertNull(mHandler.acceptEncoding);
+        assertEquals(mJson.getBytes(Fixtures.UTF_8).length, mHandler.bytesOut);
+    }
+
+    @Test
+    public void compressesWithHttpClient() {
+        mRestTemplate.setRequestFactory(new HttpComponentsClientHttpRequestFactory(
+                HttpUtils.getHttpClient()));
+        HttpUtils.setRequestCompressionThreshold(1024);
+
+        assertEquals(mJson, post(mJson));
+        assertEquals("gzip", mHandler.contentEncoding);
+        assertEquals("gzip", mHandler.acceptEncoding);
+        int length = mJson.getBytes(Fixtures.UTF_8).length;
+        assertTrue(mHandler.bytesIn < length / 3);
+        assertTrue(mHandler.bytesOut < length / 3);
+    }
+
+    private String post(String body) {
+        return mRestTemplate.postForObject(mServer.getUrl("/echo"), body, String.class);
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        out.write(data);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] gunzip(byte[] data) throws IOException {
+        return read(new GZIPInputStream(new ByteArrayInputStream(data)));
+    }
+}
@@ -0,0 +1,93 @@
+
+package com.kth.baasio.transfer;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AdaptiveBufferPolicyTest {
+
+    private static final long MILLIS = 1000000L;
+
+    @Before
+    public void setUp() {
+        AdaptiveBufferPolicy.setEnabled(true);
+        AdaptiveBufferPolicy.setBaseSize(AdaptiveBufferPolicy.UPLOAD, BufferPool.MIN_SIZE);
+        AdaptiveBufferPolicy.setBaseSize(AdaptiveBufferPolicy.DOWNLOAD, BufferPool.MIN_SIZE);
+    }
+
+    @After
+    public void tearDown() {
+        setUp();
+    }
+
+    @Test
+    public void sizesChunkForTargetTime() {
+        AdaptiveBufferPolicy policy = new AdaptiveBufferPolicy(AdaptiveBufferPolicy.UPLOAD);
+        assertEquals(BufferPool.MIN_SIZE, policy.getChunkSize());
+
+        // 1MB/s: 100ms is about 100KB, rounded up to its size class
+        policy.onChunk(1024 * 1024, 1000 * MILLIS);
+        assertEquals(128 * 1024, policy.getChunkSize());
+    }
+
+    @Test
+    public void boundsChunkSize() {
+        AdaptiveBufferPolicy policy = new AdaptiveBufferPolicy(AdaptiveBufferPolicy.UPLOAD);
+        policy.onChunk(4096, 1);
+        assertEquals(BufferPool.MAX_SIZE, policy.getChunkSize());
+
+        policy = new AdaptiveBufferPolicy(AdaptiveBufferPolicy.DOWNLOAD);
+        policy.onChunk(4096, 10000 * MILLIS);
+        assertEquals(BufferPool.MIN_SIZE, policy.getChunkSize());
+    }
+
+    @Test
+    public void smoothsThroughput() {
+        AdaptiveBufferPolicy policy = new AdaptiveBufferPolicy(AdaptiveBufferPolicy.UPLOAD);
+        policy.onChunk(1024 * 1024, 1000 * MILLIS);
+
+        // a single stall moves the average by a quarter only
+        policy.onChunk(1, 1000 * MILLIS);
+        assertEquals(128 * 1024, policy.getChunkSize());
+    }
+
+    @Test
+    public void nextTransferStartsWithLearnedSize() {
+        AdaptiveBufferPolicy policy = new AdaptiveBufferPolicy(AdaptiveBufferPolicy.UPLOAD);
+        long transfers = AdaptiveBufferPolicy.getStats(AdaptiveBufferPolicy.UPLOAD).transferCount;
+        policy.onChunk(1024 * 1024, 1000 * MILLIS);
+        policy.finish();
+
+        assertEquals(128 * 1024,
+                new AdaptiveBufferPolicy(AdaptiveBufferPolicy.UPLOAD).getChunkSize());
+        assertEquals(BufferPool.MIN_SIZE,
+                new AdaptiveBufferPolicy(AdaptiveBufferPolicy.DOWNLOAD).getChunkSize());
+
+        AdaptiveBufferPolicy.Stats stats = AdaptiveBufferPolicy
+                .getStats(AdaptiveBufferPolicy.UPLOAD);
+        assertEquals(128 * 1024, stats.currentSize);
+        assertEquals(transfers + 1, stats.transferCount);
+    }
+
+    @Test
+    public void disabledKeepsBaseSize() {
+        AdaptiveBufferPolicy.setEnabled(false);
+        AdaptiveBufferPolicy.setBaseSize(AdaptiveBufferPolicy.UPLOAD, 16 * 1024);
+
+        AdaptiveBufferPolicy policy = new AdaptiveBufferPolicy(AdaptiveBufferPolicy.UPLOAD);
+        policy.onChunk(4096, 1);
+        policy.finish();
+
+        assertEquals(16 * 1024, policy.getChunkSize());
+        assertEquals(16 * 1024,
+                new AdaptiveBufferPolicy(AdaptiveBufferPolicy.UPLOAD).getChunkSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidDirection() {
+        new AdaptiveBufferPolicy(2);
+    }
+}
@@ -0,0 +1,134 @@
+
+package com.kth.baasio.transfer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.kth.baasio.benchmark.Fixtures;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+public class MimeResolverTest {
+
+    private File mDir;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = Fixtures.createDir();
+    }
+
+    @After
+    public void tearDown() {
+        MimeResolver.setSniffingEnabled(true);
+        MimeResolver.setOverride("json", null);
+        MimeResolver.setOverride("xyz", null);
+    }
+
+    @Test
+    public void resolvesExtension() {
+        assertEquals("image/jpeg", MimeResolver.resolve("photo.JPG"));
+        assertEquals("image/png", MimeResolver.resolve("/sdcard/a.b/photo.png"));
+        // in the table, not in MimeTypeMap
+        assertEquals("image/webp", MimeResolver.resolve("photo.webp"));
+        assertNull(MimeResolver.resolve("photo.xyz"));
+    }
+
+    @Test
+    public void ignoresDotsOutsideExtension() {
+        assertNull(MimeResolver.resolve("/sdcard/photos.d/photo"));
+        assertNull(MimeResolver.resolve("/sdcard/.png"));
+        assertNull(MimeResolver.resolve(".png"));
+        assertNull(MimeResolver.resolve("photo."));
+        assertNull(MimeResolver.resolve("photo"));
+        assertEquals("image/png", MimeResolver.resolve("/sdcard/.hidden.png"));
+    }
+
+    @Test
+    public void overrideHasPriority() {
+        assertEquals("application/json", MimeResolver.resolve("a.json"));
+        assertTrue(MimeResolver.setOverride("JSON", "text/x-json"));
+        assertEquals("text/x-json", MimeResolver.resolve("a.json"));
+
+        MimeResolver.setOverride("json", null);
+        assertEquals("application/json", MimeResolver.resolve("a.json"));
+
+        // over a cached miss of MimeTypeMap
+        assertNull(MimeResolver.resolve("a.xyz"));
+        MimeResolver.setOverride("xyz", "application/x-xyz");
+        assertEquals("application/x-xyz", MimeResolver.resolve("a.xyz"));
+
+        assertFalse(MimeResolver.setOverride("", "text/plain"));
+        assertFalse(MimeResolver.setOverride(null, "text/plain"));
+    }
+
+    @Test
+    public void sniffsFileWithoutExtension() throws IOException {
+        assertEquals("image/png", MimeResolver.resolve(write("photo", 0x89, 'P', 'N', 'G',
+                0x0D, 0x0A, 0x1A, 0x0A)));
+        assertEquals("image/jpeg", MimeResolver.resolve(write("photo.xyz", 0xFF, 0xD8, 0xFF,
+                0xE0)));
+        assertEquals("image/webp", MimeResolver.resolve(write("a", 'R', 'I', 'F', 'F', 0, 0, 0,
+                0, 'W', 'E', 'B', 'P')));
+        assertEquals("audio/x-wav", MimeResolver.resolve(write("b", 'R', 'I', 'F', 'F', 0, 0,
+                0, 0, 'W', 'A', 'V', 'E')));
+        assertEquals("video/mp4", MimeResolver.resolve(write("c", 0, 0, 0, 0x18, 'f', 't',
+                'y', 'p', 'i', 's', 'o', 'm')));
+        assertEquals("video/3gpp", MimeResolver.resolve(write("d", 0, 0, 0, 0x18, 'f', 't',
+                'y', 'p', '3', 'g', 'p', '4')));
+        assertEquals("audio/mp4", MimeResolver.resolve(write("e", 0, 0, 0, 0x18, 'f', 't',
+                'y', 'p', 'M', '4', 'A', ' ')));
+        assertEquals("application/pdf", MimeResolver.resolve(write("f", '%', 'P', 'D', 'F')));
+        assertEquals("application/zip", MimeResolver.resolve(write("g", 'P', 'K', 3, 4)));
+        assertEquals("application/x-gzip", MimeResolver.resolve(write("h", 0x1F, 0x8B, 8)));
+        assertEquals("audio/ogg", MimeResolver.resolve(write("i", 'O', 'g', 'g', 'S')));
+        assertEquals("audio/mpeg", MimeResolver.resolve(write("j", 'I', 'D', '3', 4)));
+        assertEquals("audio/mpeg", MimeResolver.resolve(write("k", 0xFF, 0xFB, 0x90)));
+        assertEquals("audio/amr", MimeResolver.resolve(write("l", '#', '!', 'A', 'M', 'R',
+                '\n')));
+    }
+
+    @Test
+    public void sniffsOnlyWithoutKnownExtension() throws IOException {
+        assertEquals("text/plain", MimeResolver.resolve(write("a.txt", '%', 'P', 'D', 'F')));
+        assertNull(MimeResolver.resolve(write("b", 'h', 'e', 'l', 'l', 'o')));
+        assertNull(MimeResolver.resolve(write("c", '%', 'P')));
+        assertNull(MimeResolver.resolve(write("d")));
+        assertNull(MimeResolver.resolve(new File(mDir, "missing")));
+
+        MimeResolver.setSniffingEnabled(false);
+        assertNull(MimeResolver.resolve(write("e", '%', 'P', 'D', 'F')));
+    }
+
+    @Test
+    public void compressibleTypes() {
+        assertTrue(MimeResolver.isCompressible("text/plain; charset=UTF-8"));
+        assertTrue(MimeResolver.isCompressible("application/json"));
+        assertTrue(MimeResolver.isCompressible("application/vnd.api+json"));
+        assertTrue(MimeResolver.isCompressible("image/svg+xml"));
+        assertTrue(MimeResolver.isCompressible("audio/x-wav"));
+        assertFalse(MimeResolver.isCompressible("image/jpeg"));
+        assertFalse(MimeResolver.isCompressible("application/zip"));
+        assertFalse(MimeResolver.isCompressible(null));
+    }
+
+    private File write(String name, int... bytes) throws IOException {
+        File file = new File(mDir, name);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            for (int b : bytes) {
+                out.write(b);
+            }
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,172 @@
+
+package com.kth.baasio.transfer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.kth.baasio.benchmark.Fixtures;
+import com.kth.baasio.benchmark.StubServer;
+import com.kth.baasio.ssl.HttpUtils;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class RangeDownloaderTest {
+
+    private static final int SIZE = 256 * 1024;
+
+    /**
+     * Serves a file, and breaks the next full response in the middle or
+     * fails a range request.
+     */
+    private static class FlakyHandler implements HttpHandler {
+        final StubServer.FileHandler file;
+
+        final List<String> ifRanges = new CopyOnWriteArrayList<String>();
+
+        volatile byte[] truncate;
+
+        volatile String failRange;
+
+        FlakyHandler(StubServer.FileHandler file) {
+            this.file = file;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+            if (ifRange != null) {
+                ifRanges.add(ifRange);
+            }
+
+            byte[] content = truncate;
+            if (content != null && range == null && "GET".equals(exchange.getRequestMethod())) {
+                truncate = null;
+                exchange.getResponseHeaders().set("ETag", "\"a\"");
+                exchange.sendResponseHeaders(200, content.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(content, 0, content.length / 2);
+                out.flush();
+                exchange.close();
+                return;
+            }
+
+            if (range != null && range.equals(failRange)) {
+                failRange = null;
+                StubServer.send(exchange, 500, null);
+                return;
+            }
+            file.handle(exchange);
+        }
+    }
+
+    private StubServer mServer;
+
+    private FlakyHandler mHandler;
+
+    private File mTarget;
+
+    private byte[] mOriginal;
+
+    private byte[] mChanged;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new StubServer();
+        mOriginal = Fixtures.randomBytes(SIZE);
+        mChanged = Fixtures.randomBytes(SIZE);
+
+        StubServer.FileHandler file = mServer.serveFile("/direct", mOriginal, "\"a\"");
+        mHandler = new FlakyHandler(file);
+        mServer.handle("/file", mHandler);
+
+        mTarget = new File(Fixtures.createDir(), "file.bin");
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+        RangeDownloader.setSegmentCount(1);
+        RangeDownloader.setMinSegmentSize(RangeDownloader.DEFAULT_MIN_SEGMENT_SIZE);
+    }
+
+    @Test
+    public void resumesUnchangedFile() throws IOException {
+        mHandler.truncate = mOriginal;
+        downloadAndFail();
+
+        newDownloader().download();
+
+        assertEquals("[\"a\"]", mHandler.ifRanges.toString());
+        assertArrayEquals(mOriginal, read(mTarget));
+    }
+
+    @Test
+    public void restartsWhenFileChanged() throws IOException {
+        mHandler.truncate = mOriginal;
+        downloadAndFail();
+
+        mHandler.file.setContent(mChanged, "\"b\"");
+        newDownloader().download();
+
+        assertEquals("[\"a\"]", mHandler.ifRanges.toString());
+        assertArrayEquals(mChanged, read(mTarget));
+    }
+
+    @Test
+    public void restartsSegmentsWhenFileChanged() throws IOException {
+        RangeDownloader.setSegmentCount(2);
+        RangeDownloader.setMinSegmentSize(SIZE / 4);
+
+        mHandler.failRange = "bytes=" + (SIZE / 2) + "-" + (SIZE - 1);
+        downloadAndFail();
+
+        mHandler.file.setContent(mChanged, "\"b\"");
+        newDownloader().download();
+
+        assertTrue(mHandler.ifRanges.contains("\"a\""));
+        assertArrayEquals(mChanged, read(mTarget));
+    }
+
+    private void downloadAndFail() {
+        try {
+            newDownloader().download();
+            fail("download should fail");
+        } catch (IOException e) {
+            // expected
+        }
+        assertTrue(new File(mTarget.getPath() + ".part").exists());
+    }
+
+    private RangeDownloader newDownloader() {
+        return new RangeDownloader(HttpUtils.getHttpClient(), mServer.getUrl("/file"), null,
+                mTarget, null);
+    }
+
+    private static byte[] read(File file) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InputStream in = new FileInputStream(file);
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,211 @@
+
+package com.kth.baasio.transfer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import com.kth.baasio.benchmark.Fixtures;
+import com.kth.baasio.benchmark.StubServer;
+import com.kth.baasio.ssl.HttpUtils;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ResumableUploaderTest {
+
+    private static final int SIZE = 4 * ResumableUploader.MIN_CHUNK_SIZE + 1000;
+
+    /**
+     * Resumable upload endpoint: the first chunk is posted to /files and the
+     * rest are put to /session. Chunks can be made to fail once, or to be
+     * dropped with a 308 without Range.
+     */
+    private static class SessionHandler implements HttpHandler {
+        final StubServer server;
+
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+
+        final AtomicInteger requests = new AtomicInteger();
+
+        volatile int failRequest = -1;
+
+        volatile int dropRequest = -1;
+
+        SessionHandler(StubServer server) {
+            this.server = server;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            int number = requests.incrementAndGet();
+            byte[] body = read(exchange.getRequestBody());
+            if (number == failRequest) {
+                StubServer.send(exchange, 503, null);
+                return;
+            }
+
+            // bytes 0-65535/263144, or bytes */263144
+            String range = exchange.getRequestHeaders().getFirst("Content-Range");
+            String[] parts = range.substring("bytes ".length()).split("/");
+            long total = Long.parseLong(parts[1]);
+            synchronized (received) {
+                if (number == dropRequest) {
+                    exchange.getResponseHeaders().set("Location", server.getUrl("/session"));
+                    StubServer.send(exchange, 308, null);
+                    return;
+                }
+
+                if (!"*".equals(parts[0])) {
+                    long start = Long.parseLong(parts[0].split("-")[0]);
+                    if (start != received.size()) {
+                        // the chunk does not start at the acknowledged offset
+                        StubServer.send(exchange, 400, null);
+                        return;
+                    }
+                    received.write(body);
+                }
+
+                if (received.size() == total) {
+                    StubServer.send(exchange, 201, "{}".getBytes(Fixtures.UTF_8));
+                    return;
+                }
+                exchange.getResponseHeaders().set("Location", server.getUrl("/session"));
+                exchange.getResponseHeaders().set("Range", "bytes=0-" + (received.size() - 1));
+                StubServer.send(exchange, 308, null);
+            }
+        }
+    }
+
+    private StubServer mServer;
+
+    private File mDir;
+
+    private File mFile;
+
+    private byte[] mContent;
+
+    @Before
+    public void setUp() throws IOException {
+        ResumableUploader.setChunkSize(ResumableUploader.MIN_CHUNK_SIZE);
+        mServer = new StubServer();
+        mDir = Fixtures.createDir();
+        mFile = Fixtures.createFile(SIZE);
+        mContent = read(new FileInputStream(mFile));
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+        ResumableUploader.setChunkSize(ResumableUploader.DEFAULT_CHUNK_SIZE);
+    }
+
+    @Test
+    public void uploadsInChunks() throws IOException {
+        SessionHandler handler = serve();
+
+        UploadJournal journal = UploadJournal.open(mDir, mFile, mServer.getUrl("/files"));
+        HttpResponse response = newUploader(journal).upload();
+        HttpUtils.consumeQuietly(response);
+
+        assertEquals(201, response.getStatusLine().getStatusCode());
+        assertEquals(5, handler.requests.get());
+        assertArrayEquals(mContent, handler.received.toByteArray());
+        assertNull(journal.getSessionUrl());
+    }
+
+    @Test
+    public void resumesFromAcknowledgedChunk() throws IOException {
+        SessionHandler handler = serve();
+        handler.failRequest = 3;
+
+        UploadJournal journal = UploadJournal.open(mDir, mFile, mServer.getUrl("/files"));
+        HttpResponse response = newUploader(journal).upload();
+        HttpUtils.consumeQuietly(response);
+        assertEquals(503, response.getStatusLine().getStatusCode());
+        assertEquals(2 * ResumableUploader.MIN_CHUNK_SIZE, journal.getOffset());
+
+        // a new process opens the same journal
+        journal = UploadJournal.open(mDir, mFile, mServer.getUrl("/files"));
+        response = newUploader(journal).upload();
+        HttpUtils.consumeQuietly(response);
+
+        assertEquals(201, response.getStatusLine().getStatusCode());
+        assertArrayEquals(mContent, handler.received.toByteArray());
+    }
+
+    @Test
+    public void resendsChunkWithoutRange() throws IOException {
+        SessionHandler handler = serve();
+        handler.dropRequest = 2;
+
+        UploadJournal journal = UploadJournal.open(mDir, mFile, mServer.getUrl("/files"));
+        HttpResponse response = newUploader(journal).upload();
+        HttpUtils.consumeQuietly(response);
+
+        assertEquals(201, response.getStatusLine().getStatusCode());
+        assertEquals(6, handler.requests.get());
+        assertArrayEquals(mContent, handler.received.toByteArray());
+    }
+
+    @Test
+    public void failsIfServerIgnoresContentRange() throws IOException {
+        final AtomicInteger requests = new AtomicInteger();
+        mServer.handle("/files", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                StubServer.drain(exchange.getRequestBody());
+                StubServer.send(exchange, 201, "{}".getBytes(Fixtures.UTF_8));
+            }
+        });
+
+        UploadJournal journal = UploadJournal.open(mDir, mFile, mServer.getUrl("/files"));
+        try {
+            newUploader(journal).upload();
+            fail("truncated upload reported as complete");
+        } catch (ProtocolException e) {
+            // expected
+        }
+
+        assertEquals(1, requests.get());
+        assertNull(journal.getSessionUrl());
+    }
+
+    private SessionHandler serve() {
+        SessionHandler handler = new SessionHandler(mServer);
+        mServer.handle("/files", handler);
+        mServer.handle("/session", handler);
+        return handler;
+    }
+
+    private ResumableUploader newUploader(UploadJournal journal) {
+        return new ResumableUploader(new DefaultHttpClient(), mFile, mServer.getUrl("/files"),
+                null, journal, null);
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+}
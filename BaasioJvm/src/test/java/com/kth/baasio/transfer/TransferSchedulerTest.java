@@ -0,0 +1,134 @@
+
+package com.kth.baasio.transfer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TransferSchedulerTest {
+
+    private static class BlockingTask implements Runnable {
+        final CountDownLatch started;
+
+        final CountDownLatch release;
+
+        final CountDownLatch finished;
+
+        final AtomicInteger running;
+
+        final AtomicInteger maxRunning;
+
+        BlockingTask(CountDownLatch started, CountDownLatch release, CountDownLatch finished,
+                AtomicInteger running, AtomicInteger maxRunning) {
+            this.started = started;
+            this.release = release;
+            this.finished = finished;
+            this.running = running;
+            this.maxRunning = maxRunning;
+        }
+
+        @Override
+        public void run() {
+            int now = running.incrementAndGet();
+            synchronized (maxRunning) {
+                maxRunning.set(Math.max(maxRunning.get(), now));
+            }
+            started.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                running.decrementAndGet();
+                finished.countDown();
+            }
+        }
+    }
+
+    @Test
+    public void burstAfterIdleWorkerRunsUpToPoolSize() throws Exception {
+        TransferScheduler scheduler = new TransferScheduler();
+        scheduler.setMaxPerHost(10);
+
+        // leave one idle worker behind
+        final CountDownLatch first = new CountDownLatch(1);
+        scheduler.submit(new Runnable() {
+            @Override
+            public void run() {
+                first.countDown();
+            }
+        }, TransferScheduler.PRIORITY_NORMAL, 1, "host");
+        assertTrue(first.await(5, TimeUnit.SECONDS));
+        awaitIdleWorker(scheduler);
+
+        CountDownLatch started = new CountDownLatch(3);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(5);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        // submit all at once, before the idle worker wakes up
+        synchronized (scheduler) {
+            for (int i = 0; i < 5; i++) {
+                scheduler.submit(new BlockingTask(started, release, finished, running,
+                        maxRunning), TransferScheduler.PRIORITY_NORMAL, 1, "host");
+            }
+        }
+
+        try {
+            assertTrue("transfers ran one at a time", started.await(5, TimeUnit.SECONDS));
+            assertEquals(2, scheduler.getQueuedCount());
+        } finally {
+            release.countDown();
+        }
+
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertEquals(3, maxRunning.get());
+    }
+
+    @Test
+    public void limitsTransfersPerHost() throws Exception {
+        TransferScheduler scheduler = new TransferScheduler();
+        scheduler.setPoolSize(4);
+        scheduler.setMaxPerHost(1);
+
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(4);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            scheduler.submit(new BlockingTask(started, release, finished, running, maxRunning),
+                    TransferScheduler.PRIORITY_NORMAL, 1, "a");
+        }
+        scheduler.submit(new BlockingTask(started, release, finished, running, maxRunning),
+                TransferScheduler.PRIORITY_NORMAL, 1, "b");
+
+        try {
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            assertEquals(2, scheduler.getQueuedCount());
+        } finally {
+            release.countDown();
+        }
+
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertEquals(2, maxRunning.get());
+    }
+
+    /**
+     * Wait until a worker has finished its transfer and waits for the next.
+     * The worker does not signal it, so the state is polled.
+     */
+    private static void awaitIdleWorker(TransferScheduler scheduler)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (scheduler.getIdleWorkerCount() == 0) {
+            assertTrue("worker did not go idle", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+
+package com.kth.baasio.transfer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.kth.baasio.benchmark.Fixtures;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+public class UploadIndexTest {
+
+    private static final String URL = "https://api.baas.io/org/app/files/photos/";
+
+    private static final String ALICE = "8f0a4ef6-1c0d-11e2-a1b3-06ebb80000ba";
+
+    private static final String BOB = "9c2b1d4e-1c0d-11e2-a1b3-06ebb80000ba";
+
+    private File mFile;
+
+    private FileDigest mDigest;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = new File(Fixtures.createDir(), "index");
+        mDigest = FileDigest.md5(Fixtures.createFile(1024));
+    }
+
+    @Test
+    public void keyedOnUser() {
+        UploadIndex index = new UploadIndex(mFile);
+        index.put(mDigest, URL + "a.jpg", ALICE, "uuid-a");
+
+        assertEquals("uuid-a", index.get(mDigest, URL + "a.jpg", ALICE));
+        assertNull(index.get(mDigest, URL + "a.jpg", BOB));
+        assertNull(index.get(mDigest, URL + "a.jpg", null));
+
+        index.remove(mDigest, URL + "a.jpg", BOB);
+        assertEquals("uuid-a", index.get(mDigest, URL + "a.jpg", ALICE));
+
+        // after a new login or a token refresh of the same user
+        assertEquals("uuid-a", new UploadIndex(mFile).get(mDigest, URL + "a.jpg", ALICE));
+    }
+
+    @Test
+    public void dropsIndexOfAccessTokens() throws IOException {
+        Writer out = new OutputStreamWriter(new FileOutputStream(mFile), Fixtures.UTF_8);
+        out.write("baasio-upload-index 2\n0123456789abcdef0123456789abcdef uuid-a\n");
+        out.close();
+
+        UploadIndex index = new UploadIndex(mFile);
+        assertEquals(0, index.size());
+        index.put(mDigest, URL + "a.jpg", ALICE, "uuid-a");
+        assertEquals("uuid-a", new UploadIndex(mFile).get(mDigest, URL + "a.jpg", ALICE));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        UploadIndex index = new UploadIndex(mFile);
+        for (int i = 0; i < UploadIndex.MAX_ENTRIES; i++) {
+            index.put(mDigest, URL + i, ALICE, "uuid-" + i);
+        }
+
+        // the first entry is used again, so the second one is the oldest
+        assertEquals("uuid-0", index.get(mDigest, URL + 0, ALICE));
+        index.put(mDigest, URL + "new", ALICE, "uuid-new");
+
+        assertEquals(UploadIndex.MAX_ENTRIES, index.size());
+        assertEquals("uuid-0", index.get(mDigest, URL + 0, ALICE));
+        assertNull(index.get(mDigest, URL + 1, ALICE));
+        assertEquals("uuid-new", index.get(mDigest, URL + "new", ALICE));
+    }
+
+    @Test
+    public void keepsOrderAcrossInstances() {
+        UploadIndex index = new UploadIndex(mFile);
+        for (int i = 0; i < UploadIndex.MAX_ENTRIES; i++) {
+            index.put(mDigest, URL + i, ALICE, "uuid-" + i);
+        }
+        index.get(mDigest, URL + 0, ALICE);
+        index.put(mDigest, URL + 1, ALICE, "uuid-1");
+
+        index = new UploadIndex(mFile);
+        assertEquals(UploadIndex.MAX_ENTRIES, index.size());
+        index.put(mDigest, URL + "new", ALICE, "uuid-new");
+
+        assertNull(index.get(mDigest, URL + 2, ALICE));
+        assertEquals("uuid-0", index.get(mDigest, URL + 0, ALICE));
+        assertEquals("uuid-1", index.get(mDigest, URL + 1, ALICE));
+    }
+}
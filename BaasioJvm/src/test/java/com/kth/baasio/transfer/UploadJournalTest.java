@@ -0,0 +1,75 @@
+
+package com.kth.baasio.transfer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.kth.baasio.benchmark.Fixtures;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+public class UploadJournalTest {
+
+    private static final String URL = "http://localhost/files/a.bin";
+
+    private File mDir;
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = Fixtures.createDir();
+        mFile = Fixtures.createFile(1000);
+    }
+
+    @Test
+    public void reopenKeepsProgress() {
+        UploadJournal journal = UploadJournal.open(mDir, mFile, URL);
+        assertNull(journal.getSessionUrl());
+        assertEquals(0, journal.getOffset());
+
+        journal.save("http://localhost/session", 500, 1000);
+
+        journal = UploadJournal.open(mDir, mFile, URL);
+        assertEquals("http://localhost/session", journal.getSessionUrl());
+        assertEquals(500, journal.getOffset());
+    }
+
+    @Test
+    public void clearForgetsProgress() {
+        UploadJournal journal = UploadJournal.open(mDir, mFile, URL);
+        journal.save("http://localhost/session", 500, 1000);
+        journal.clear();
+
+        assertNull(journal.getSessionUrl());
+        journal = UploadJournal.open(mDir, mFile, URL);
+        assertNull(journal.getSessionUrl());
+        assertEquals(0, journal.getOffset());
+    }
+
+    @Test
+    public void otherDestinationHasOwnJournal() {
+        UploadJournal.open(mDir, mFile, URL).save("http://localhost/session", 500, 1000);
+
+        UploadJournal journal = UploadJournal.open(mDir, mFile, URL + "2");
+        assertNull(journal.getSessionUrl());
+    }
+
+    @Test
+    public void changedFileStartsOver() throws IOException {
+        UploadJournal.open(mDir, mFile, URL).save("http://localhost/session", 500, 1000);
+
+        FileOutputStream out = new FileOutputStream(mFile, true);
+        out.write(new byte[10]);
+        out.close();
+
+        UploadJournal journal = UploadJournal.open(mDir, mFile, URL);
+        assertNull(journal.getSessionUrl());
+        assertEquals(0, journal.getOffset());
+    }
+}